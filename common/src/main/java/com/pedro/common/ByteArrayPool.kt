@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Size-classed pool of byte arrays to avoid allocate a new array per frame.
+ * Arrays are stored by power of 2 capacity from MIN_SIZE to maxSize so the array returned could be
+ * bigger than requested. Use the size requested (not array.size) to know the valid data.
+ *
+ * Acquire and release could be called from different threads.
+ */
+class ByteArrayPool @JvmOverloads constructor(
+  private val maxArraysPerClass: Int = 16,
+  private val maxSize: Int = 4 * 1024 * 1024
+) {
+
+  companion object {
+    private const val MIN_SIZE_SHIFT = 6
+    const val MIN_SIZE = 1 shl MIN_SIZE_SHIFT
+  }
+
+  private val classes = Array(getClassIndex(maxSize) + 1) { ArrayDeque<ByteArray>(maxArraysPerClass) }
+
+  /**
+   * @return an array with at least size length. New array is allocated only if the pool is empty
+   * for that size class.
+   */
+  fun acquire(size: Int): ByteArray {
+    if (size > maxSize) return ByteArray(size)
+    val index = getClassIndex(size)
+    val arrays = classes[index]
+    val array = synchronized(arrays) { arrays.removeLastOrNull() }
+    return array ?: ByteArray(MIN_SIZE shl index)
+  }
+
+  /**
+   * Return an array to the pool. Arrays that don't match a size class are ignored.
+   * The array must not be used after release it.
+   */
+  fun release(array: ByteArray) {
+    val size = array.size
+    if (size < MIN_SIZE || size > maxSize || Integer.bitCount(size) != 1) return
+    val arrays = classes[getClassIndex(size)]
+    synchronized(arrays) {
+      if (arrays.size < maxArraysPerClass) arrays.addLast(array)
+    }
+  }
+
+  fun clear() {
+    classes.forEach { arrays ->
+      synchronized(arrays) { arrays.clear() }
+    }
+  }
+
+  private fun getClassIndex(size: Int): Int {
+    if (size <= MIN_SIZE) return 0
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SIZE_SHIFT
+  }
+}
\ No newline at end of file
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Bounded send queue that know the type of each frame. Frames are polled in the same order that
+ * are offered but, when the queue is full, the frame discarded is selected by priority:
+ * - Config is never discarded and audio is only discarded to make room for other audio or config.
+ * - Video is discarded by dependent runs. An inter frame without the reference is useless so
+ * all inter frames until the next keyframe are discarded together.
+ *
+ * A frame could be split in multiple items (RTP packets). In that case, provide getFrameId
+ * (timestamp of the frame) to discard all items of a frame together. By default, each item is a frame.
+ */
+class FrameQueue<T : Any> @JvmOverloads constructor(
+  capacity: Int,
+  private val getType: (T) -> FrameType,
+  private val getFrameId: ((T) -> Long)? = null
+) {
+
+  private val lock = ReentrantLock()
+  private val notEmpty = lock.newCondition()
+  private val items = java.util.ArrayDeque<T>()
+  @Volatile
+  var capacity = capacity
+    private set
+  //inter frames are discarded until a keyframe is accepted
+  private var dropUntilKey = false
+  //items of a discarded keyframe that are still arriving
+  private var discardingKey = false
+  private var discardedKeyId = 0L
+  private var keyFrameRequired = false
+
+  /**
+   * Called for each item discarded (offered or already queued) with the queue locked.
+   */
+  var onDiscard: ((T) -> Unit)? = null
+  /**
+   * Called when video was discarded and the stream can't be decoded until the next keyframe.
+   */
+  var onKeyFrameRequired: (() -> Unit)? = null
+
+  val size: Int
+    get() = lock.withLock { items.size }
+
+  fun remainingCapacity(): Int = lock.withLock { (capacity - items.size).coerceAtLeast(0) }
+
+  /**
+   * @return false if the item was discarded.
+   */
+  fun offer(item: T): Boolean {
+    val type = getType(item)
+    val requestKeyFrame: Boolean
+    val result = lock.withLock {
+      val accepted = when (type) {
+        FrameType.INTER_FRAME -> offerInterFrame(item)
+        FrameType.KEY_FRAME -> offerKeyFrame(item)
+        FrameType.AUDIO, FrameType.CONFIG -> offerPriorityFrame(item, type)
+      }
+      requestKeyFrame = keyFrameRequired
+      keyFrameRequired = false
+      accepted
+    }
+    if (requestKeyFrame) onKeyFrameRequired?.invoke()
+    return result
+  }
+
+  @Throws(InterruptedException::class)
+  fun poll(timeout: Long, unit: TimeUnit): T? {
+    var nanos = unit.toNanos(timeout)
+    lock.lockInterruptibly()
+    try {
+      while (items.isEmpty()) {
+        if (nanos <= 0) return null
+        nanos = notEmpty.awaitNanos(nanos)
+      }
+      return items.pollFirst()
+    } finally {
+      lock.unlock()
+    }
+  }
+
+  /**
+   * Move queued items to items, in order, while accept returns true for the first item.
+   * Never blocks.
+   * @return number of items moved.
+   */
+  fun drainTo(items: MutableCollection<in T>, accept: (T) -> Boolean): Int {
+    lock.withLock {
+      var count = 0
+      while (true) {
+        val item = this.items.peekFirst() ?: break
+        if (!accept(item)) break
+        items.add(this.items.pollFirst())
+        count++
+      }
+      return count
+    }
+  }
+
+  /**
+   * Change the capacity keeping all queued items. If there are more items than the new capacity,
+   * new items are handled as a full queue until the queue is drained.
+   */
+  fun resize(newCapacity: Int) {
+    lock.withLock { capacity = newCapacity }
+  }
+
+  /**
+   * Remove all items. onDiscard is called for each item so pooled items are released.
+   */
+  fun clear() {
+    lock.withLock {
+      var item = items.pollFirst()
+      while (item != null) {
+        discard(item)
+        item = items.pollFirst()
+      }
+      dropUntilKey = false
+      discardingKey = false
+      keyFrameRequired = false
+    }
+  }
+
+  private fun offerInterFrame(item: T): Boolean {
+    if (!dropUntilKey && items.size < capacity) return add(item)
+    //discard the rest of the frame already queued and all frames that depend on it
+    discardFrameTail(item)
+    discard(item)
+    startDropping()
+    return false
+  }
+
+  private fun offerKeyFrame(item: T): Boolean {
+    if (discardingKey && isSameFrame(item, discardedKeyId)) {
+      discard(item)
+      return false
+    }
+    discardingKey = false
+    if (items.size >= capacity) removeNewestInterRun()
+    if (items.size >= capacity) removeOldestGop(item)
+    if (items.size >= capacity) {
+      discardFrameTail(item)
+      discard(item)
+      markKeyDiscarded(item)
+      startDropping()
+      return false
+    }
+    //a new keyframe, the stream can be decoded from here
+    dropUntilKey = false
+    keyFrameRequired = false
+    return add(item)
+  }
+
+  private fun offerPriorityFrame(item: T, type: FrameType): Boolean {
+    if (items.size >= capacity && removeNewestInterRun()) startDropping()
+    if (items.size >= capacity) removeOldestGop(null)
+    if (items.size >= capacity && type == FrameType.AUDIO) removeOldestAudio()
+    if (items.size >= capacity) {
+      discard(item)
+      return false
+    }
+    return add(item)
+  }
+
+  private fun add(item: T): Boolean {
+    items.addLast(item)
+    notEmpty.signal()
+    return true
+  }
+
+  private fun discard(item: T) {
+    onDiscard?.invoke(item)
+  }
+
+  private fun startDropping() {
+    if (!dropUntilKey) {
+      dropUntilKey = true
+      keyFrameRequired = true
+    }
+  }
+
+  private fun markKeyDiscarded(item: T) {
+    val getFrameId = getFrameId ?: return
+    discardingKey = true
+    discardedKeyId = getFrameId(item)
+  }
+
+  private fun isSameFrame(item: T, id: Long): Boolean {
+    val getFrameId = getFrameId ?: return false
+    return getFrameId(item) == id
+  }
+
+  private fun isVideo(type: FrameType) = type == FrameType.KEY_FRAME || type == FrameType.INTER_FRAME
+
+  /**
+   * Remove queued items of the same frame than item. Only needed if a frame is split in multiple items.
+   */
+  private fun discardFrameTail(item: T) {
+    val getFrameId = getFrameId ?: return
+    val id = getFrameId(item)
+    val iterator = items.descendingIterator()
+    while (iterator.hasNext()) {
+      val queued = iterator.next()
+      if (!isVideo(getType(queued))) continue
+      if (getFrameId(queued) != id) break
+      iterator.remove()
+      discard(queued)
+    }
+  }
+
+  /**
+   * Remove inter frames from the tail until find a keyframe.
+   * @return true if any frame was removed.
+   */
+  private fun removeNewestInterRun(): Boolean {
+    var removed = false
+    val iterator = items.descendingIterator()
+    while (iterator.hasNext()) {
+      val queued = iterator.next()
+      when (getType(queued)) {
+        FrameType.INTER_FRAME -> {
+          iterator.remove()
+          discard(queued)
+          removed = true
+        }
+        FrameType.KEY_FRAME -> break
+        else -> continue
+      }
+    }
+    return removed
+  }
+
+  /**
+   * Remove the oldest video frame and all inter frames that depend on it.
+   * The keyframe that is being offered is never removed.
+   */
+  private fun removeOldestGop(offered: T?) {
+    val iterator = items.iterator()
+    var keyId: Long? = null
+    var removedKey: T? = null
+    var removed = false
+    while (iterator.hasNext()) {
+      val queued = iterator.next()
+      val type = getType(queued)
+      if (!isVideo(type)) continue
+      if (!removed) {
+        if (type == FrameType.KEY_FRAME) {
+          keyId = getFrameId?.invoke(queued)
+          if (offered != null && keyId != null && isSameFrame(offered, keyId)) return
+          removedKey = queued
+        }
+      } else if (type == FrameType.KEY_FRAME && (keyId == null || getFrameId?.invoke(queued) != keyId)) {
+        //next gop found, it can be decoded
+        return
+      }
+      iterator.remove()
+      discard(queued)
+      removed = true
+    }
+    if (!removed) return
+    //all video removed, next inter frames depend on removed frames
+    if (offered == null) {
+      removedKey?.let { markKeyDiscarded(it) }
+      startDropping()
+    }
+  }
+
+  private fun removeOldestAudio() {
+    val iterator = items.iterator()
+    while (iterator.hasNext()) {
+      val queued = iterator.next()
+      if (getType(queued) == FrameType.AUDIO) {
+        iterator.remove()
+        discard(queued)
+        return
+      }
+    }
+  }
+}
\ No newline at end of file
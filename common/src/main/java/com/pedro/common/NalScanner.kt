@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import java.nio.ByteBuffer
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Iterate the NAL units of a H264/H265 buffer in Annex-B (start codes) or AVCC (length prefix)
+ * format without copy or allocate memory. The buffer position and limit are not modified.
+ *
+ * A buffer could contain multiple NAL units (AUD, SEI, parameter sets, multiple slices...) with
+ * 3 or 4 bytes start codes. Start codes never appear inside a NAL unit thanks to emulation
+ * prevention bytes so the payload of a NAL unit is never split.
+ *
+ * Usage:
+ * scanner.reset(buffer)
+ * while (true) {
+ *   val nal = scanner.next() ?: break
+ *   ...
+ * }
+ */
+class NalScanner @JvmOverloads constructor(val codec: VideoCodec = VideoCodec.H264) {
+
+  companion object {
+    private const val LOW_BITS = 0x0101010101010101L
+    //0x8080808080808080
+    private const val HIGH_BITS = -0x7F7F7F7F7F7F7F80L
+
+    /**
+     * Search 00 00 01 from index from (included) to index to (excluded) reading 8 bytes at once.
+     * @return index of the first byte of the start code or -1 if not found.
+     */
+    @JvmStatic
+    fun findStartCode(buffer: ByteBuffer, from: Int, to: Int): Int {
+      var i = from
+      while (i + 10 <= to) {
+        val word = buffer.getLong(i)
+        //skip 8 bytes if none of them is 0
+        if ((word - LOW_BITS) and word.inv() and HIGH_BITS != 0L) {
+          for (j in i until i + 8) {
+            if (isStartCode(buffer, j)) return j
+          }
+        }
+        i += 8
+      }
+      while (i + 3 <= to) {
+        if (isStartCode(buffer, i)) return i
+        i++
+      }
+      return -1
+    }
+
+    /**
+     * @return size of the start code (3 or 4) at index or 0 if there is no start code.
+     */
+    @JvmStatic
+    fun getStartCodeSize(buffer: ByteBuffer, index: Int, to: Int): Int {
+      if (index + 4 <= to && buffer.get(index).toInt() == 0 && isStartCode(buffer, index + 1)) return 4
+      if (index + 3 <= to && isStartCode(buffer, index)) return 3
+      return 0
+    }
+
+    @JvmStatic
+    fun getType(codec: VideoCodec, header: Byte): Int {
+      return when (codec) {
+        VideoCodec.H264 -> header.toInt() and 0x1F
+        VideoCodec.H265 -> header.toInt() shr 1 and 0x3F
+      }
+    }
+
+    /**
+     * Copy a NAL unit to output removing emulation prevention bytes (00 00 03 -> 00 00) to get
+     * the RBSP. Needed to parse the syntax elements of the NAL unit (like SPS fields).
+     * @return number of bytes written in output. Output must have at least length bytes.
+     */
+    @JvmStatic
+    fun removeEmulationPrevention(buffer: ByteBuffer, offset: Int, length: Int, output: ByteArray): Int {
+      var written = 0
+      var zeros = 0
+      for (i in offset until offset + length) {
+        val value = buffer.get(i)
+        if (zeros >= 2 && value.toInt() == 0x03) {
+          zeros = 0
+          continue
+        }
+        zeros = if (value.toInt() == 0) zeros + 1 else 0
+        output[written++] = value
+      }
+      return written
+    }
+
+    private fun isStartCode(buffer: ByteBuffer, index: Int): Boolean {
+      return buffer.get(index).toInt() == 0 && buffer.get(index + 1).toInt() == 0 && buffer.get(index + 2).toInt() == 1
+    }
+  }
+
+  private val nalUnit = NalUnit(codec)
+  private var buffer: ByteBuffer? = null
+  private var position = 0
+  private var end = 0
+  //0 means Annex-B
+  private var lengthSize = 0
+
+  /**
+   * Scan an Annex-B buffer from position to limit.
+   */
+  fun reset(buffer: ByteBuffer): NalScanner {
+    this.buffer = buffer
+    position = buffer.position()
+    end = buffer.limit()
+    lengthSize = 0
+    return this
+  }
+
+  /**
+   * Scan an AVCC buffer (each NAL unit preceded by its length) from position to limit.
+   */
+  @JvmOverloads
+  fun resetAvcc(buffer: ByteBuffer, lengthSize: Int = 4): NalScanner {
+    reset(buffer)
+    this.lengthSize = lengthSize
+    return this
+  }
+
+  /**
+   * @return next NAL unit or null if there are no more. The same instance is returned in each call.
+   */
+  fun next(): NalUnit? {
+    val buffer = buffer ?: return null
+    while (position < end) {
+      val found = if (lengthSize == 0) nextAnnexB(buffer) else nextAvcc(buffer)
+      if (!found) return null
+      if (nalUnit.length > 0) {
+        nalUnit.type = getType(codec, buffer.get(nalUnit.offset))
+        return nalUnit
+      }
+    }
+    return null
+  }
+
+  private fun nextAnnexB(buffer: ByteBuffer): Boolean {
+    //buffers without start code are handled as a single NAL unit until the first start code
+    val prefixSize = getStartCodeSize(buffer, position, end)
+    val start = position + prefixSize
+    val next = findStartCode(buffer, start, end)
+    var nalEnd = if (next == -1) end else next
+    //the zero before 00 00 01 belongs to a 4 bytes start code
+    if (next > start && buffer.get(next - 1).toInt() == 0) nalEnd--
+    nalUnit.offset = start
+    nalUnit.length = nalEnd - start
+    nalUnit.prefixSize = prefixSize
+    //a start code at the end without data is not a NAL unit
+    nalUnit.isLast = next == -1 || next + 3 >= end
+    position = if (next == -1) end else nalEnd
+    return true
+  }
+
+  private fun nextAvcc(buffer: ByteBuffer): Boolean {
+    if (position + lengthSize > end) {
+      position = end
+      return false
+    }
+    var length = 0
+    for (i in 0 until lengthSize) length = (length shl 8) or (buffer.get(position + i).toInt() and 0xFF)
+    val start = position + lengthSize
+    val nalEnd = if (length < 0 || length > end - start) end else start + length
+    nalUnit.offset = start
+    nalUnit.length = nalEnd - start
+    nalUnit.prefixSize = lengthSize
+    nalUnit.isLast = nalEnd >= end
+    position = nalEnd
+    return true
+  }
+}
\ No newline at end of file
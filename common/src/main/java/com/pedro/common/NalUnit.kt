@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * View of a NAL unit found by NalScanner in the buffer scanned. No data is copied, offset and
+ * length are absolute positions in that buffer and are valid until the next call to NalScanner.next.
+ */
+class NalUnit internal constructor(val codec: VideoCodec) {
+
+  /**
+   * Position of the NAL unit header (after the start code or length prefix).
+   */
+  var offset = 0
+    internal set
+  /**
+   * Length of the NAL unit including the header, without start code or trailing zero byte.
+   */
+  var length = 0
+    internal set
+  /**
+   * Size of the start code (3 or 4) or the length prefix (AVCC) before the NAL unit.
+   * 0 if the buffer doesn't start with a start code.
+   */
+  var prefixSize = 0
+    internal set
+  var type = 0
+    internal set
+  /**
+   * True if there are no more NAL units in the buffer after this one.
+   */
+  var isLast = false
+    internal set
+
+  /**
+   * SPS, PPS and VPS in H265.
+   */
+  fun isParameterSet(): Boolean {
+    return when (codec) {
+      VideoCodec.H264 -> type == 7 || type == 8
+      VideoCodec.H265 -> type in 32..34
+    }
+  }
+
+  fun isAud(): Boolean {
+    return when (codec) {
+      VideoCodec.H264 -> type == 9
+      VideoCodec.H265 -> type == 35
+    }
+  }
+
+  /**
+   * IDR in H264 and IRAP (BLA, IDR and CRA) in H265.
+   */
+  fun isKeyFrame(): Boolean {
+    return when (codec) {
+      VideoCodec.H264 -> type == 5
+      VideoCodec.H265 -> type in 16..21
+    }
+  }
+
+  override fun toString(): String {
+    return "NalUnit(type=$type, offset=$offset, length=$length, prefixSize=$prefixSize, isLast=$isLast)"
+  }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Token bucket used to spread packets in time instead of send a big frame at line rate.
+ * Tokens (bytes) are refilled at bitrate * multiplier and the bucket allow bursts of burstMs
+ * (minBurstBytes at least). When a packet exceeds the tokens, the debt must be paid waiting.
+ *
+ * Thread safe, the bitrate can be changed while pacing.
+ */
+class Pacer @JvmOverloads constructor(
+  private val burstMs: Long = 10,
+  private val minBurstBytes: Int = 3000
+) {
+
+  //bytes per nanosecond
+  private var rate = 0.0
+  private var capacity = 0.0
+  private var tokens = 0.0
+  private var lastTime = 0L
+  private var totalDelay = 0L
+  private var pacedFrames = 0L
+
+  @Volatile
+  var isEnabled = false
+    private set
+  /**
+   * Time in milliseconds that the last frame was delayed by pacing.
+   */
+  @Volatile
+  var lastDelay = 0L
+    private set
+  @Volatile
+  var maxDelay = 0L
+    private set
+  val averageDelay: Long
+    get() = synchronized(this) { if (pacedFrames == 0L) 0 else totalDelay / pacedFrames }
+
+  /**
+   * @param bitrate target bitrate in bits per second. 0 to disable pacing.
+   * @param multiplier packets are sent up to bitrate * multiplier. Must be bigger than 1 or the
+   * send rate will be lower than the encoder rate.
+   */
+  fun setBitrate(bitrate: Long, multiplier: Float) {
+    synchronized(this) {
+      isEnabled = bitrate > 0
+      rate = bitrate * multiplier / 8.0 / 1_000_000_000.0
+      capacity = maxOf(rate * burstMs * 1_000_000, minBurstBytes.toDouble())
+      tokens = minOf(tokens, capacity)
+    }
+  }
+
+  /**
+   * Consume the tokens of a packet.
+   * @return nanoseconds to wait before send the packet, 0 if it can be sent now.
+   */
+  @JvmOverloads
+  fun reserve(bytes: Int, now: Long = TimeUtils.getCurrentTimeNano()): Long {
+    synchronized(this) {
+      if (!isEnabled) return 0
+      refill(now)
+      tokens -= bytes
+      return if (tokens >= 0) 0 else (-tokens / rate).toLong()
+    }
+  }
+
+  /**
+   * Consume the tokens of a packet only if there are enough tokens. Useful to limit the rate
+   * discarding packets instead of delay it.
+   * @return false if the packet exceeds the tokens available.
+   */
+  @JvmOverloads
+  fun tryReserve(bytes: Int, now: Long = TimeUtils.getCurrentTimeNano()): Boolean {
+    synchronized(this) {
+      if (!isEnabled) return true
+      refill(now)
+      if (tokens < bytes) return false
+      tokens -= bytes
+      return true
+    }
+  }
+
+  /**
+   * Register the time that a frame was delayed by pacing (from the first packet ready to the last packet sent).
+   */
+  fun addFrameDelay(delayMs: Long) {
+    synchronized(this) {
+      lastDelay = delayMs
+      if (delayMs > maxDelay) maxDelay = delayMs
+      totalDelay += delayMs
+      pacedFrames++
+    }
+  }
+
+  fun resetDelay() {
+    synchronized(this) {
+      lastDelay = 0
+      maxDelay = 0
+      totalDelay = 0
+      pacedFrames = 0
+    }
+  }
+
+  private fun refill(now: Long) {
+    tokens = if (lastTime == 0L) capacity else minOf(capacity, tokens + (now - lastTime) * rate)
+    lastTime = now
+  }
+
+  /**
+   * Start again with a full bucket. Bitrate is not modified.
+   */
+  fun reset() {
+    synchronized(this) {
+      lastTime = 0
+      tokens = capacity
+    }
+    resetDelay()
+  }
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class ByteArrayPoolTest {
+
+  @Test
+  fun `GIVEN a size WHEN acquire an array THEN get an array of the next size class`() {
+    val pool = ByteArrayPool()
+    assertEquals(ByteArrayPool.MIN_SIZE, pool.acquire(1).size)
+    assertEquals(128, pool.acquire(65).size)
+    assertEquals(1024, pool.acquire(1024).size)
+    assertEquals(2048, pool.acquire(1025).size)
+  }
+
+  @Test
+  fun `GIVEN a released array WHEN acquire same size class THEN reuse the array`() {
+    val pool = ByteArrayPool()
+    val array = pool.acquire(1000)
+    pool.release(array)
+    assertTrue(array === pool.acquire(600))
+    assertTrue(array !== pool.acquire(600))
+  }
+
+  @Test
+  fun `GIVEN arrays out of size classes WHEN release THEN ignore it`() {
+    val pool = ByteArrayPool(maxSize = 4096)
+    val invalid = ByteArray(1000)
+    pool.release(invalid)
+    assertTrue(invalid !== pool.acquire(1000))
+    val big = pool.acquire(5000)
+    assertEquals(5000, big.size)
+    pool.release(big)
+    assertTrue(big !== pool.acquire(5000))
+  }
+
+  @Test
+  fun `GIVEN a full size class WHEN release THEN discard extra arrays`() {
+    val pool = ByteArrayPool(maxArraysPerClass = 1)
+    val first = pool.acquire(100)
+    val second = pool.acquire(100)
+    pool.release(first)
+    pool.release(second)
+    assertTrue(first === pool.acquire(100))
+    assertTrue(pool.acquire(100) !== second)
+  }
+}
\ No newline at end of file
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class FrameQueueTest {
+
+  private class Frame(val type: FrameType, val id: Long)
+
+  private fun createQueue(capacity: Int, splitFrames: Boolean = false): FrameQueue<Frame> {
+    return if (splitFrames) FrameQueue(capacity, { it.type }, { it.id }) else FrameQueue(capacity, { it.type })
+  }
+
+  private fun FrameQueue<Frame>.drain(): List<Long> {
+    val ids = mutableListOf<Long>()
+    while (true) {
+      val frame = poll(0, TimeUnit.MILLISECONDS) ?: break
+      ids.add(frame.id)
+    }
+    return ids
+  }
+
+  @Test
+  fun `GIVEN frames WHEN poll THEN get frames in the same order`() {
+    val queue = createQueue(10)
+    queue.offer(Frame(FrameType.KEY_FRAME, 0))
+    queue.offer(Frame(FrameType.AUDIO, 1))
+    queue.offer(Frame(FrameType.INTER_FRAME, 2))
+    assertEquals(listOf(0L, 1L, 2L), queue.drain())
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS))
+  }
+
+  @Test
+  fun `GIVEN queued frames WHEN clear THEN discard all frames in order`() {
+    val queue = createQueue(10)
+    val discarded = mutableListOf<Long>()
+    queue.onDiscard = { discarded.add(it.id) }
+    queue.offer(Frame(FrameType.KEY_FRAME, 0))
+    queue.offer(Frame(FrameType.AUDIO, 1))
+    queue.offer(Frame(FrameType.INTER_FRAME, 2))
+    queue.clear()
+    assertEquals(listOf(0L, 1L, 2L), discarded)
+    assertEquals(0, queue.size)
+  }
+
+  @Test
+  fun `GIVEN a full queue WHEN offer audio THEN discard newest inter frames and request keyframe`() {
+    val queue = createQueue(4)
+    val discarded = mutableListOf<Long>()
+    var keyFrameRequests = 0
+    queue.onDiscard = { discarded.add(it.id) }
+    queue.onKeyFrameRequired = { keyFrameRequests++ }
+    queue.offer(Frame(FrameType.KEY_FRAME, 0))
+    queue.offer(Frame(FrameType.INTER_FRAME, 1))
+    queue.offer(Frame(FrameType.INTER_FRAME, 2))
+    queue.offer(Frame(FrameType.INTER_FRAME, 3))
+    assertTrue(queue.offer(Frame(FrameType.AUDIO, 4)))
+    assertEquals(listOf(3L, 2L, 1L), discarded)
+    assertEquals(1, keyFrameRequests)
+    //inter frames depend on discarded frames
+    assertFalse(queue.offer(Frame(FrameType.INTER_FRAME, 5)))
+    assertTrue(queue.offer(Frame(FrameType.KEY_FRAME, 6)))
+    assertTrue(queue.offer(Frame(FrameType.INTER_FRAME, 7)))
+    assertEquals(1, keyFrameRequests)
+    assertEquals(listOf(0L, 4L, 6L, 7L), queue.drain())
+  }
+
+  @Test
+  fun `GIVEN a full queue WHEN offer inter frame THEN discard it and all frames until next keyframe`() {
+    val queue = createQueue(2)
+    queue.offer(Frame(FrameType.KEY_FRAME, 0))
+    queue.offer(Frame(FrameType.INTER_FRAME, 1))
+    assertFalse(queue.offer(Frame(FrameType.INTER_FRAME, 2)))
+    queue.poll(0, TimeUnit.MILLISECONDS)
+    assertFalse(queue.offer(Frame(FrameType.INTER_FRAME, 3)))
+    assertTrue(queue.offer(Frame(FrameType.KEY_FRAME, 4)))
+    assertEquals(listOf(1L, 4L), queue.drain())
+  }
+
+  @Test
+  fun `GIVEN a queue full of video WHEN offer keyframe THEN discard oldest gop`() {
+    val queue = createQueue(3)
+    queue.offer(Frame(FrameType.KEY_FRAME, 0))
+    queue.offer(Frame(FrameType.KEY_FRAME, 1))
+    queue.offer(Frame(FrameType.KEY_FRAME, 2))
+    assertTrue(queue.offer(Frame(FrameType.KEY_FRAME, 3)))
+    assertEquals(listOf(1L, 2L, 3L), queue.drain())
+  }
+
+  @Test
+  fun `GIVEN a queue full of audio WHEN offer audio THEN discard oldest audio and never config`() {
+    val queue = createQueue(2)
+    queue.offer(Frame(FrameType.CONFIG, 0))
+    queue.offer(Frame(FrameType.AUDIO, 1))
+    assertTrue(queue.offer(Frame(FrameType.AUDIO, 2)))
+    assertFalse(queue.offer(Frame(FrameType.KEY_FRAME, 3)))
+    assertEquals(listOf(0L, 2L), queue.drain())
+  }
+
+  @Test
+  fun `GIVEN frames split in multiple items WHEN discard a frame THEN discard all items of the frame`() {
+    val queue = createQueue(4, splitFrames = true)
+    queue.offer(Frame(FrameType.AUDIO, 0))
+    queue.offer(Frame(FrameType.AUDIO, 1))
+    queue.offer(Frame(FrameType.KEY_FRAME, 10))
+    queue.offer(Frame(FrameType.KEY_FRAME, 10))
+    assertFalse(queue.offer(Frame(FrameType.KEY_FRAME, 10)))
+    assertFalse(queue.offer(Frame(FrameType.KEY_FRAME, 10)))
+    assertFalse(queue.offer(Frame(FrameType.INTER_FRAME, 20)))
+    assertEquals(listOf(0L, 1L), queue.drain())
+    assertTrue(queue.offer(Frame(FrameType.KEY_FRAME, 30)))
+    assertEquals(listOf(30L), queue.drain())
+  }
+
+  @Test
+  fun `GIVEN a queue WHEN resize THEN keep items and use new capacity`() {
+    val queue = createQueue(2)
+    queue.offer(Frame(FrameType.AUDIO, 0))
+    queue.resize(4)
+    assertEquals(4, queue.capacity)
+    assertEquals(1, queue.size)
+    assertEquals(3, queue.remainingCapacity())
+  }
+
+  @Test
+  fun `GIVEN a queue with frames WHEN drain with limit THEN move frames in order until limit`() {
+    val queue = createQueue(10)
+    for (i in 0L until 5L) queue.offer(Frame(FrameType.AUDIO, i))
+    val drained = mutableListOf<Frame>()
+    assertEquals(3, queue.drainTo(drained) { drained.size < 3 })
+    assertEquals(listOf(0L, 1L, 2L), drained.map { it.id })
+    assertEquals(listOf(3L, 4L), queue.drain())
+    assertEquals(0, queue.drainTo(drained) { true })
+  }
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class NalScannerTest {
+
+  private fun NalScanner.collect(): List<String> {
+    val nals = mutableListOf<String>()
+    while (true) {
+      val nal = next() ?: break
+      nals.add("${nal.type}:${nal.offset}:${nal.length}:${nal.prefixSize}:${nal.isLast}")
+    }
+    return nals
+  }
+
+  @Test
+  fun `GIVEN annex-b buffer with multiple nal units WHEN scan THEN get each nal unit without start code`() {
+    val buffer = byteArrayOf(
+      0, 0, 0, 1, 0x09, 0xF0.toByte(), //aud
+      0, 0, 1, 0x06, 1, 2, 3, //sei with 3 bytes start code
+      0, 0, 0, 1, 0x65, 0, 0, 3, 1, 0x55, //idr with emulation prevention
+      0, 0, 1, 0x41, 7 //slice
+    )
+    val scanner = NalScanner(VideoCodec.H264).reset(ByteBuffer.wrap(buffer))
+    assertEquals(listOf("9:4:2:4:false", "6:9:4:3:false", "5:17:6:4:false", "1:26:2:3:true"), scanner.collect())
+    assertNull(scanner.next())
+  }
+
+  @Test
+  fun `GIVEN h265 buffer with position and limit WHEN scan THEN only scan the range and keep them`() {
+    val data = byteArrayOf(9, 9, 0, 0, 0, 1, 0x40, 1, 5, 0, 0, 1, 0x26, 1, 8, 9, 9)
+    val buffer = ByteBuffer.wrap(data)
+    buffer.position(2)
+    buffer.limit(15)
+    val scanner = NalScanner(VideoCodec.H265).reset(buffer)
+    val vps = scanner.next()
+    assertTrue(vps?.isParameterSet() == true)
+    assertEquals(3, vps?.length)
+    val idr = scanner.next()
+    assertEquals(19, idr?.type)
+    assertTrue(idr?.isKeyFrame() == true)
+    assertEquals(3, idr?.length)
+    assertTrue(idr?.isLast == true)
+    assertEquals(2, buffer.position())
+    assertEquals(15, buffer.limit())
+  }
+
+  @Test
+  fun `GIVEN buffer without start code or avcc buffer WHEN scan THEN get nal units`() {
+    val raw = NalScanner().reset(ByteBuffer.wrap(byteArrayOf(0x41, 1, 2, 0, 0, 1, 0x01, 3)))
+    assertEquals(listOf("1:0:3:0:false", "1:6:2:3:true"), raw.collect())
+    val avcc = NalScanner().resetAvcc(ByteBuffer.wrap(byteArrayOf(0, 0, 0, 2, 0x67, 1, 0, 0, 0, 1, 0x68)))
+    assertEquals(listOf("7:4:2:4:false", "8:10:1:4:true"), avcc.collect())
+    //a start code at the end is not a nal unit
+    val trailing = NalScanner().reset(ByteBuffer.wrap(byteArrayOf(0, 0, 1, 0x41, 5, 0, 0, 1)))
+    assertEquals(listOf("1:3:2:3:true"), trailing.collect())
+  }
+
+  @Test
+  fun `GIVEN big buffer WHEN find start code THEN find it in any position`() {
+    val buffer = ByteBuffer.wrap(ByteArray(100) { 0x55 })
+    assertEquals(-1, NalScanner.findStartCode(buffer, 0, 100))
+    for (i in 0 until 97) {
+      buffer.put(i, 0).put(i + 1, 0).put(i + 2, 1)
+      assertEquals(i, NalScanner.findStartCode(buffer, 0, 100))
+      assertEquals(-1, NalScanner.findStartCode(buffer, 0, i + 2))
+      buffer.put(i, 0x55).put(i + 1, 0x55).put(i + 2, 0x55)
+    }
+    assertEquals(0, NalScanner.getStartCodeSize(buffer, 0, 100))
+    assertEquals(-1, NalScanner.findStartCode(ByteBuffer.wrap(ByteArray(20)), 0, 20))
+  }
+
+  @Test
+  fun `GIVEN nal unit with emulation prevention WHEN remove it THEN get rbsp`() {
+    val buffer = ByteBuffer.wrap(byteArrayOf(0x67, 0, 0, 3, 1, 0, 0, 3, 3, 0, 3))
+    val output = ByteArray(11)
+    val length = NalScanner.removeEmulationPrevention(buffer, 0, 11, output)
+    assertArrayEquals(byteArrayOf(0x67, 0, 0, 1, 0, 0, 3, 0, 3), output.copyOf(length))
+  }
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.common
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class PacerTest {
+
+  @Test
+  fun `GIVEN pacer disabled WHEN reserve THEN never wait`() {
+    val pacer = Pacer()
+    assertFalse(pacer.isEnabled)
+    assertEquals(0L, pacer.reserve(1_000_000, 1))
+  }
+
+  @Test
+  fun `GIVEN a burst bigger than the bucket WHEN reserve THEN wait the debt at bitrate multiplied`() {
+    val pacer = Pacer(burstMs = 10, minBurstBytes = 1000)
+    //1 Mbps * 8 = 1 byte per microsecond, 10ms of burst = 10000 bytes
+    pacer.setBitrate(1_000_000, 8f)
+    assertTrue(pacer.isEnabled)
+    val start = 1_000_000_000L
+    assertEquals(0L, pacer.reserve(10_000, start))
+    //5000 bytes of debt at 1 byte per microsecond
+    assertEquals(5_000_000L, pacer.reserve(5_000, start))
+    //after 5ms debt is paid, 1ms later there are tokens for 1000 bytes
+    assertEquals(0L, pacer.reserve(1_000, start + 6_000_000))
+    assertEquals(1_000_000L, pacer.reserve(1_000, start + 6_000_000))
+  }
+
+  @Test
+  fun `GIVEN pacer idle WHEN reserve THEN tokens are limited to burst`() {
+    val pacer = Pacer(burstMs = 10, minBurstBytes = 1000)
+    pacer.setBitrate(1_000_000, 8f)
+    val start = 1_000_000_000L
+    pacer.reserve(0, start)
+    //1 second idle only allow 10ms of burst
+    assertEquals(0L, pacer.reserve(10_000, start + 1_000_000_000))
+    assertEquals(1_000_000L, pacer.reserve(1_000, start + 1_000_000_000))
+  }
+
+  @Test
+  fun `GIVEN rate limit WHEN try reserve THEN discard packets over the limit without debt`() {
+    val pacer = Pacer(burstMs = 10, minBurstBytes = 1000)
+    pacer.setBitrate(1_000_000, 8f)
+    val start = 1_000_000_000L
+    assertTrue(pacer.tryReserve(8_000, start))
+    assertFalse(pacer.tryReserve(4_000, start))
+    assertTrue(pacer.tryReserve(2_000, start))
+    //discarded packets don't consume tokens
+    assertTrue(pacer.tryReserve(1_000, start + 1_000_000))
+  }
+
+  @Test
+  fun `GIVEN frame delays WHEN add THEN calculate last, max and average`() {
+    val pacer = Pacer()
+    pacer.addFrameDelay(10)
+    pacer.addFrameDelay(30)
+    pacer.addFrameDelay(5)
+    assertEquals(5L, pacer.lastDelay)
+    assertEquals(30L, pacer.maxDelay)
+    assertEquals(15L, pacer.averageDelay)
+    pacer.resetDelay()
+    assertEquals(0L, pacer.averageDelay)
+    assertEquals(0L, pacer.maxDelay)
+  }
+}
\ No newline at end of file
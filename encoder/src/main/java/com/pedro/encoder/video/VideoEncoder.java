@@ -29,6 +29,9 @@ import android.view.Surface;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import com.pedro.common.NalScanner;
+import com.pedro.common.NalUnit;
+import com.pedro.common.VideoCodec;
 import com.pedro.encoder.BaseEncoder;
 import com.pedro.encoder.Frame;
 import com.pedro.encoder.input.video.FpsLimiter;
@@ -300,6 +303,10 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     //H265
     if (type.equals(CodecUtil.H265_MIME)) {
       List<ByteBuffer> byteBufferList = extractVpsSpsPpsFromH265(mediaFormat.getByteBuffer("csd-0"));
+      if (byteBufferList.size() != 3) {
+        Log.e(TAG, "vps/sps/pps not found in csd-0");
+        return;
+      }
       oldSps = byteBufferList.get(1);
       oldPps = byteBufferList.get(2);
       oldVps = byteBufferList.get(0);
@@ -352,84 +359,69 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
    * decode sps and pps if the encoder never call to MediaCodec.INFO_OUTPUT_FORMAT_CHANGED
    */
   private Pair<ByteBuffer, ByteBuffer> decodeSpsPpsFromBuffer(ByteBuffer outputBuffer, int length) {
-    byte[] csd = new byte[length];
-    outputBuffer.get(csd, 0, length);
-    outputBuffer.rewind();
-    int i = 0;
-    int spsIndex = -1;
-    int ppsIndex = -1;
-    while (i < length - 4) {
-      if (csd[i] == 0 && csd[i + 1] == 0 && csd[i + 2] == 0 && csd[i + 3] == 1) {
-        if (spsIndex == -1) {
-          spsIndex = i;
-        } else {
-          ppsIndex = i;
-          break;
-        }
+    outputBuffer.limit(outputBuffer.position() + length);
+    ByteBuffer sps = null;
+    ByteBuffer pps = null;
+    NalScanner scanner = new NalScanner(VideoCodec.H264).reset(outputBuffer);
+    NalUnit nal;
+    while ((nal = scanner.next()) != null) {
+      if (nal.getType() == 7 && sps == null) {
+        sps = copyNalUnit(outputBuffer, nal);
+      } else if (nal.getType() == 8 && pps == null) {
+        pps = copyNalUnit(outputBuffer, nal);
       }
-      i++;
     }
-    if (spsIndex != -1 && ppsIndex != -1) {
-      byte[] sps = new byte[ppsIndex];
-      System.arraycopy(csd, spsIndex, sps, 0, ppsIndex);
-      byte[] pps = new byte[length - ppsIndex];
-      System.arraycopy(csd, ppsIndex, pps, 0, length - ppsIndex);
-      return new Pair<>(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps));
+    if (sps != null && pps != null) {
+      return new Pair<>(sps, pps);
     }
     return null;
   }
 
   /**
-   * You need find 0 0 0 1 byte sequence that is the initiation of vps, sps and pps
-   * buffers.
+   * Find vps, sps and pps in the buffer. The buffer could contain other NAL units and
+   * use 3 or 4 bytes start codes.
    *
    * @param csd0byteBuffer get in mediacodec case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED
-   * @return list with vps, sps and pps
+   * @return list with vps, sps and pps or empty list if any of them is not found
    */
   private List<ByteBuffer> extractVpsSpsPpsFromH265(ByteBuffer csd0byteBuffer) {
     List<ByteBuffer> byteBufferList = new ArrayList<>();
-    int vpsPosition = -1;
-    int spsPosition = -1;
-    int ppsPosition = -1;
-    int contBufferInitiation = 0;
-    int length = csd0byteBuffer.remaining();
-    byte[] csdArray = new byte[length];
-    csd0byteBuffer.get(csdArray, 0, length);
-    csd0byteBuffer.rewind();
-    for (int i = 0; i < csdArray.length; i++) {
-      if (contBufferInitiation == 3 && csdArray[i] == 1) {
-        if (vpsPosition == -1) {
-          vpsPosition = i - 3;
-        } else if (spsPosition == -1) {
-          spsPosition = i - 3;
-        } else {
-          ppsPosition = i - 3;
-        }
-      }
-      if (csdArray[i] == 0) {
-        contBufferInitiation++;
-      } else {
-        contBufferInitiation = 0;
+    ByteBuffer vps = null;
+    ByteBuffer sps = null;
+    ByteBuffer pps = null;
+    NalScanner scanner = new NalScanner(VideoCodec.H265).reset(csd0byteBuffer);
+    NalUnit nal;
+    while ((nal = scanner.next()) != null) {
+      if (nal.getType() == 32 && vps == null) {
+        vps = copyNalUnit(csd0byteBuffer, nal);
+      } else if (nal.getType() == 33 && sps == null) {
+        sps = copyNalUnit(csd0byteBuffer, nal);
+      } else if (nal.getType() == 34 && pps == null) {
+        pps = copyNalUnit(csd0byteBuffer, nal);
       }
     }
-    byte[] vps = new byte[spsPosition];
-    byte[] sps = new byte[ppsPosition - spsPosition];
-    byte[] pps = new byte[csdArray.length - ppsPosition];
-    for (int i = 0; i < csdArray.length; i++) {
-      if (i < spsPosition) {
-        vps[i] = csdArray[i];
-      } else if (i < ppsPosition) {
-        sps[i - spsPosition] = csdArray[i];
-      } else {
-        pps[i - ppsPosition] = csdArray[i];
-      }
+    if (vps != null && sps != null && pps != null) {
+      byteBufferList.add(vps);
+      byteBufferList.add(sps);
+      byteBufferList.add(pps);
     }
-    byteBufferList.add(ByteBuffer.wrap(vps));
-    byteBufferList.add(ByteBuffer.wrap(sps));
-    byteBufferList.add(ByteBuffer.wrap(pps));
     return byteBufferList;
   }
 
+  /**
+   * Copy a NAL unit with 4 bytes start code. The buffer is not modified.
+   */
+  private ByteBuffer copyNalUnit(ByteBuffer buffer, NalUnit nal) {
+    ByteBuffer view = buffer.duplicate();
+    view.limit(nal.getOffset() + nal.getLength());
+    view.position(nal.getOffset());
+    ByteBuffer data = ByteBuffer.allocate(nal.getLength() + 4);
+    data.putInt(0x00000001);
+    data.put(view);
+    data.rewind();
+    return data;
+  }
+
   @Override
   protected Frame getInputFrame() throws InterruptedException {
     Frame frame = queue.take();
@@ -29,16 +29,24 @@ import com.pedro.common.VideoCodec;
 import com.pedro.library.base.DisplayBase;
 import com.pedro.library.util.streamclient.StreamBaseClient;
 import com.pedro.rtmp.rtmp.RtmpClient;
+import com.pedro.rtmp.rtmp.RtmpFanOut;
 import com.pedro.rtsp.rtsp.RtspClient;
+import com.pedro.srt.srt.SrtClient;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
 
 /**
  * Created by pedro, HirogaKatageri on 2021-05-24.
  *
  * Experimental Class.
  *
- * It supports multiple streams of rtmp and rtsp at same time.
+ * It supports multiple streams of rtmp, rtsp and srt at same time.
+ * Rtmp frames are packetized only one time and shared by all rtmp clients.
+ * Use the constructor with a srt ConnectChecker list to stream with srt (RtpType.SRT).
  * You must set the same number of ConnectChecker that you want use.
  *
  * For example. 2 RTMP and 1 RTSP:
@@ -73,9 +81,17 @@ public class MultiRtpDisplay extends DisplayBase {
 
   private final RtmpClient[] rtmpClients;
   private final RtspClient[] rtspClients;
+  private final SrtClient[] srtClients;
+  //packetize rtmp frames only one time for all rtmp clients
+  private final RtmpFanOut rtmpFanOut;
 
   public MultiRtpDisplay(Context context, boolean useOpenGL, ConnectChecker[] connectCheckerRtmpList,
       ConnectChecker[] connectCheckerRtspList) {
+    this(context, useOpenGL, connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpDisplay(Context context, boolean useOpenGL, ConnectChecker[] connectCheckerRtmpList,
+      ConnectChecker[] connectCheckerRtspList, ConnectChecker[] connectCheckerSrtList) {
     super(context, useOpenGL);
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -87,13 +103,31 @@ public class MultiRtpDisplay extends DisplayBase {
     for (int i = 0; i < rtspClients.length; i++) {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+    }
+    rtmpFanOut = initFanOut();
+  }
+
+  private RtmpFanOut initFanOut() {
+    RtmpFanOut fanOut = new RtmpFanOut(Arrays.asList(rtmpClients));
+    //new clients need a keyframe to start
+    fanOut.setOnKeyFrameRequired(() -> {
+      requestKeyFrame();
+      return Unit.INSTANCE;
+    });
+    return fanOut;
   }
 
   public boolean isStreaming(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].isStreaming();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].isStreaming();
+    } else {
+      return srtClients[index].isStreaming();
     }
   }
 
@@ -110,14 +144,41 @@ public class MultiRtpDisplay extends DisplayBase {
     }
   }
 
+  /**
+   * Request a keyframe to the encoder when the client discards video by congestion. Disabled by
+   * default because the encoder is shared, a keyframe requested by a client is sent to all clients.
+   */
+  public void setRequestKeyFrameOnDiscard(RtpType rtpType, int index, boolean enabled) {
+    Function0<Unit> callback = enabled ? () -> {
+      requestKeyFrame();
+      return Unit.INSTANCE;
+    } : null;
+    if (rtpType == RtpType.RTMP) {
+      rtmpClients[index].setOnKeyFrameRequired(callback);
+    } else if (rtpType == RtpType.RTSP) {
+      rtspClients[index].setOnKeyFrameRequired(callback);
+    } else {
+      srtClients[index].setOnKeyFrameRequired(callback);
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException with RtpType.SRT. Srt has no user/password authorization,
+   * use the passphrase of the SrtClient instead.
+   */
   public void setAuthorization(RtpType rtpType, int index, String user, String password) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].setAuthorization(user, password);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].setAuthorization(user, password);
+    } else {
+      throw new IllegalArgumentException("srt doesn't support user/password authorization, use a passphrase");
     }
   }
 
+  /**
+   * Set authorization of rtmp and rtsp clients. Srt clients are not affected.
+   */
   public void setAuthorization(String user, String password) {
     for (RtmpClient rtmpClient : rtmpClients) {
       rtmpClient.setAuthorization(user, password);
@@ -129,12 +190,13 @@ public class MultiRtpDisplay extends DisplayBase {
 
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.setAudioInfo(sampleRate, isStereo);
-    }
+    rtmpFanOut.setAudioInfo(sampleRate, isStereo);
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.setAudioInfo(sampleRate, isStereo);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.setAudioInfo(sampleRate, isStereo);
+    }
   }
 
   public void startStream(RtpType rtpType, int index, String url) {
@@ -152,6 +214,12 @@ public class MultiRtpDisplay extends DisplayBase {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStarEncoder = false;
+          break;
+        }
+      }
     }
     if (shouldStarEncoder) super.startStream("");
     if (rtpType == RtpType.RTMP) {
@@ -162,8 +230,10 @@ public class MultiRtpDisplay extends DisplayBase {
       }
       rtmpClients[index].setFps(videoEncoder.getFps());
       rtmpClients[index].connect(url);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].connect(url);
+    } else {
+      srtClients[index].connect(url);
     }
   }
 
@@ -171,8 +241,10 @@ public class MultiRtpDisplay extends DisplayBase {
     boolean shouldStopEncoder = true;
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].disconnect();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].disconnect();
+    } else {
+      srtClients[index].disconnect();
     }
     for (RtmpClient rtmpClient : rtmpClients) {
       if (rtmpClient.isStreaming()) {
@@ -187,8 +259,17 @@ public class MultiRtpDisplay extends DisplayBase {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStopEncoder = false;
+          break;
+        }
+      }
+    }
+    if (shouldStopEncoder) {
+      super.stopStream();
+      rtmpFanOut.reset();
     }
-    if (shouldStopEncoder) super.stopStream();
   }
 
   @Override
@@ -207,11 +288,17 @@ public class MultiRtpDisplay extends DisplayBase {
         requestKeyFrame();
         rtmpClients[index].reConnect(delay, backupUrl);
       }
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       result = rtspClients[index].shouldRetry(reason);
       if (result) {
         requestKeyFrame();
-        rtmpClients[index].reConnect(delay, backupUrl);
+        rtspClients[index].reConnect(delay, backupUrl);
+      }
+    } else {
+      result = srtClients[index].shouldRetry(reason);
+      if (result) {
+        requestKeyFrame();
+        srtClients[index].reConnect(delay, backupUrl);
       }
     }
     return result;
@@ -224,30 +311,39 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.setReTries(reTries);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.setReTries(reTries);
+    }
   }
 
 
   public boolean hasCongestion(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].hasCongestion();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].hasCongestion();
+    } else {
+      return srtClients[index].hasCongestion();
     }
   }
 
   public void resizeCache(RtpType rtpType, int index, int newSize) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].resizeCache(newSize);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].resizeCache(newSize);
+    } else {
+      srtClients[index].resizeCache(newSize);
     }
   }
 
   public int getCacheSize(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].getCacheSize();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].getCacheSize();
+    } else {
+      return srtClients[index].getCacheSize();
     }
   }
 
@@ -259,6 +355,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getSentAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getSentAudioFrames();
+    }
     return number;
   }
 
@@ -270,6 +369,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getSentVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getSentVideoFrames();
+    }
     return number;
   }
 
@@ -281,6 +383,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getDroppedAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getDroppedAudioFrames();
+    }
     return number;
   }
 
@@ -292,6 +397,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       number += rtspClient.getDroppedVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      number += srtClient.getDroppedVideoFrames();
+    }
     return number;
   }
 
@@ -302,6 +410,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetSentAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetSentAudioFrames();
+    }
   }
 
   public void resetSentVideoFrames() {
@@ -311,6 +422,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetSentVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetSentVideoFrames();
+    }
   }
 
   public void resetDroppedAudioFrames() {
@@ -320,6 +434,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetDroppedAudioFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetDroppedAudioFrames();
+    }
   }
 
   public void resetDroppedVideoFrames() {
@@ -329,36 +446,42 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.resetDroppedVideoFrames();
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.resetDroppedVideoFrames();
+    }
   }
 
   @Override
   protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.sendAudio(aacBuffer.duplicate(), info);
-    }
+    rtmpFanOut.sendAudio(aacBuffer.duplicate(), info);
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.sendAudio(aacBuffer.duplicate(), info);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.sendAudio(aacBuffer.duplicate(), info);
+    }
   }
 
   @Override
   protected void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
-    }
+    rtmpFanOut.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.setVideoInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
+    }
   }
 
   @Override
   protected void getH264DataRtp(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient : rtmpClients) {
-      rtmpClient.sendVideo(h264Buffer.duplicate(), info);
-    }
+    rtmpFanOut.sendVideo(h264Buffer.duplicate(), info);
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.sendVideo(h264Buffer.duplicate(), info);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.sendVideo(h264Buffer.duplicate(), info);
+    }
   }
 
   @Override
@@ -368,12 +491,13 @@ public class MultiRtpDisplay extends DisplayBase {
 
   @Override
   protected void setVideoCodecImp(VideoCodec codec) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-        rtmpClient.setVideoCodec(codec);
-    }
+    rtmpFanOut.setVideoCodec(codec);
     for (RtspClient rtspClient: rtspClients) {
         rtspClient.setVideoCodec(codec);
     }
+    for (SrtClient srtClient: srtClients) {
+        srtClient.setVideoCodec(codec);
+    }
   }
 
   @Override
@@ -390,6 +514,9 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient : rtspClients) {
       rtspClient.setLogs(enable);
     }
+    for (SrtClient srtClient : srtClients) {
+      srtClient.setLogs(enable);
+    }
   }
 
   public void setCheckServerAlive(boolean enable) {
@@ -399,5 +526,8 @@ public class MultiRtpDisplay extends DisplayBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setCheckServerAlive(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setCheckServerAlive(enable);
+    }
   }
 }
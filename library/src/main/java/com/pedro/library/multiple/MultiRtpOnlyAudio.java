@@ -25,14 +25,19 @@ import com.pedro.common.ConnectChecker;
 import com.pedro.library.base.OnlyAudioBase;
 import com.pedro.library.util.streamclient.StreamBaseClient;
 import com.pedro.rtmp.rtmp.RtmpClient;
+import com.pedro.rtmp.rtmp.RtmpFanOut;
 import com.pedro.rtsp.rtsp.RtspClient;
+import com.pedro.srt.srt.SrtClient;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Created by pedro on 30/5/21.
  *
- * Support multiple streams in rtmp and rtsp at same time.
+ * Support multiple streams in rtmp, rtsp and srt at same time.
+ * Rtmp frames are packetized only one time and shared by all rtmp clients.
+ * Use the constructors with a srt ConnectChecker list to stream with srt (RtpType.SRT).
  * You must set the same number of ConnectChecker that you want use.
  *
  * For example. 2 RTMP and 1 RTSP:
@@ -66,9 +71,17 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
 
   private final RtmpClient[] rtmpClients;
   private final RtspClient[] rtspClients;
+  private final SrtClient[] srtClients;
+  //packetize rtmp frames only one time for all rtmp clients
+  private final RtmpFanOut rtmpFanOut;
 
   public MultiRtpOnlyAudio(ConnectChecker[] connectCheckerRtmpList,
                            ConnectChecker[] connectCheckerRtspList) {
+    this(connectCheckerRtmpList, connectCheckerRtspList, null);
+  }
+
+  public MultiRtpOnlyAudio(ConnectChecker[] connectCheckerRtmpList,
+                           ConnectChecker[] connectCheckerRtspList, ConnectChecker[] connectCheckerSrtList) {
     super();
     int rtmpSize = connectCheckerRtmpList != null ? connectCheckerRtmpList.length : 0;
     rtmpClients = new RtmpClient[rtmpSize];
@@ -82,21 +95,32 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
       rtspClients[i] = new RtspClient(connectCheckerRtspList[i]);
       rtspClients[i].setOnlyAudio(true);
     }
+    int srtSize = connectCheckerSrtList != null ? connectCheckerSrtList.length : 0;
+    srtClients = new SrtClient[srtSize];
+    for (int i = 0; i < srtClients.length; i++) {
+      srtClients[i] = new SrtClient(connectCheckerSrtList[i]);
+      srtClients[i].setOnlyAudio(true);
+    }
+    rtmpFanOut = new RtmpFanOut(Arrays.asList(rtmpClients));
   }
 
   public boolean isStreaming(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].isStreaming();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].isStreaming();
+    } else {
+      return srtClients[index].isStreaming();
     }
   }
 
   public void resizeCache(RtpType rtpType, int index, int newSize) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].resizeCache(newSize);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].resizeCache(newSize);
+    } else {
+      srtClients[index].resizeCache(newSize);
     }
   }
 
@@ -107,13 +131,18 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resizeCache(newSize);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resizeCache(newSize);
+    }
   }
 
   public int getCacheSize(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].getCacheSize();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].getCacheSize();
+    } else {
+      return srtClients[index].getCacheSize();
     }
   }
 
@@ -125,6 +154,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getSentAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getSentAudioFrames();
+    }
     return number;
   }
 
@@ -136,6 +168,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getSentVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getSentVideoFrames();
+    }
     return number;
   }
 
@@ -147,6 +182,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getDroppedAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getDroppedAudioFrames();
+    }
     return number;
   }
 
@@ -158,6 +196,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       number += rtspClient.getDroppedVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      number += srtClient.getDroppedVideoFrames();
+    }
     return number;
   }
 
@@ -168,6 +209,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetSentAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetSentAudioFrames();
+    }
   }
 
   public void resetSentVideoFrames() {
@@ -177,6 +221,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetSentVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetSentVideoFrames();
+    }
   }
 
   public void resetDroppedAudioFrames() {
@@ -186,6 +233,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetDroppedAudioFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetDroppedAudioFrames();
+    }
   }
 
   public void resetDroppedVideoFrames() {
@@ -195,16 +245,28 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.resetDroppedVideoFrames();
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.resetDroppedVideoFrames();
+    }
   }
 
+  /**
+   * @throws IllegalArgumentException with RtpType.SRT. Srt has no user/password authorization,
+   * use the passphrase of the SrtClient instead.
+   */
   public void setAuthorization(RtpType rtpType, int index, String user, String password) {
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].setAuthorization(user, password);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].setAuthorization(user, password);
+    } else {
+      throw new IllegalArgumentException("srt doesn't support user/password authorization, use a passphrase");
     }
   }
 
+  /**
+   * Set authorization of rtmp and rtsp clients. Srt clients are not affected.
+   */
   public void setAuthorization(String user, String password) {
     for (RtmpClient rtmpClient: rtmpClients) {
       rtmpClient.setAuthorization(user, password);
@@ -229,12 +291,13 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
 
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.setAudioInfo(sampleRate, isStereo);
-    }
+    rtmpFanOut.setAudioInfo(sampleRate, isStereo);
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setAudioInfo(sampleRate, isStereo);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setAudioInfo(sampleRate, isStereo);
+    }
   }
 
   public void startStream(RtpType rtpType, int index, String url) {
@@ -252,12 +315,20 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStarEncoder = false;
+          break;
+        }
+      }
     }
     if (shouldStarEncoder) super.startStream("");
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].connect(url);
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].connect(url);
+    } else {
+      srtClients[index].connect(url);
     }
   }
 
@@ -269,8 +340,10 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     boolean shouldStopEncoder = true;
     if (rtpType == RtpType.RTMP) {
       rtmpClients[index].disconnect();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       rtspClients[index].disconnect();
+    } else {
+      srtClients[index].disconnect();
     }
     for (RtmpClient rtmpClient: rtmpClients) {
       if (rtmpClient.isStreaming()) {
@@ -285,8 +358,17 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
           break;
         }
       }
+      for (SrtClient srtClient : srtClients) {
+        if (srtClient.isStreaming()) {
+          shouldStopEncoder = false;
+          break;
+        }
+      }
+    }
+    if (shouldStopEncoder) {
+      super.stopStream();
+      rtmpFanOut.reset();
     }
-    if (shouldStopEncoder) super.stopStream();
   }
 
   @Override
@@ -300,6 +382,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setReTries(reTries);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setReTries(reTries);
+    }
   }
 
   public boolean reTry(RtpType rtpType, int index, long delay, String reason, @Nullable String backupUrl) {
@@ -309,10 +394,15 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
       if (result) {
         rtmpClients[index].reConnect(delay, backupUrl);
       }
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       result = rtspClients[index].shouldRetry(reason);
       if (result) {
-        rtmpClients[index].reConnect(delay, backupUrl);
+        rtspClients[index].reConnect(delay, backupUrl);
+      }
+    } else {
+      result = srtClients[index].shouldRetry(reason);
+      if (result) {
+        srtClients[index].reConnect(delay, backupUrl);
       }
     }
     return result;
@@ -321,19 +411,22 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
   public boolean hasCongestion(RtpType rtpType, int index) {
     if (rtpType == RtpType.RTMP) {
       return rtmpClients[index].hasCongestion();
-    } else {
+    } else if (rtpType == RtpType.RTSP) {
       return rtspClients[index].hasCongestion();
+    } else {
+      return srtClients[index].hasCongestion();
     }
   }
 
   @Override
   protected void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    for (RtmpClient rtmpClient: rtmpClients) {
-      rtmpClient.sendAudio(aacBuffer.duplicate(), info);
-    }
+    rtmpFanOut.sendAudio(aacBuffer.duplicate(), info);
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.sendAudio(aacBuffer.duplicate(), info);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.sendAudio(aacBuffer.duplicate(), info);
+    }
   }
 
   @Override
@@ -355,6 +448,9 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setLogs(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setLogs(enable);
+    }
   }
 
   public void setCheckServerAlive(boolean enable) {
@@ -364,5 +460,8 @@ public class MultiRtpOnlyAudio extends OnlyAudioBase {
     for (RtspClient rtspClient: rtspClients) {
       rtspClient.setCheckServerAlive(enable);
     }
+    for (SrtClient srtClient: srtClients) {
+      srtClient.setCheckServerAlive(enable);
+    }
   }
 }
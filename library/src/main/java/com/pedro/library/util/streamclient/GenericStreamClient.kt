@@ -113,6 +113,12 @@ class GenericStreamClient(
     srtClient.clearCache()
   }
 
+  override fun setRequestKeyFrameOnDiscard(enabled: Boolean) {
+    rtmpClient.setRequestKeyFrameOnDiscard(enabled)
+    rtspClient.setRequestKeyFrameOnDiscard(enabled)
+    srtClient.setRequestKeyFrameOnDiscard(enabled)
+  }
+
   override fun getCacheSize(): Int = connectedStreamClient?.getCacheSize() ?: 0
 
   override fun getItemsInCache(): Int = connectedStreamClient?.getItemsInCache() ?: 0
@@ -51,6 +51,90 @@ class RtmpStreamClient(
     rtmpClient.setWriteChunkSize(chunkSize)
   }
 
+  /**
+   * Must be called before start stream or will be ignored.
+   *
+   * Reuse packet buffers after write it in the socket instead of allocate it per frame.
+   * Reduce GC work with high resolution and fps.
+   */
+  fun setUseBufferPool(enabled: Boolean) {
+    rtmpClient.setUseBufferPool(enabled)
+  }
+
+  /**
+   * Must be called before start stream or will be ignored.
+   *
+   * Pack consecutive audio/video frames in a single rtmp aggregate message up to windowMs.
+   * Reduce headers and writes in slow networks but the server must support aggregate messages.
+   *
+   * @param windowMs 0 to disable it (default). Recommended 50 to 100ms.
+   */
+  fun setAggregateWindow(windowMs: Long) {
+    rtmpClient.setAggregateWindow(windowMs)
+  }
+
+  /**
+   * Must be called before start stream or will be ignored.
+   *
+   * Write all queued frames in a single batch with only one flush. Reduce CPU and wakeups with
+   * high fps. Frames could be delayed up to maxLatencyMs waiting to fill the batch.
+   * Ignored if aggregate window is enabled.
+   *
+   * @param maxBytes max bytes per batch. 0 to disable it (default).
+   * @param maxLatencyMs max time waiting for more frames. 0 to only write frames already queued.
+   */
+  fun setBatchMode(maxBytes: Int, maxLatencyMs: Long) {
+    rtmpClient.setBatchMode(maxBytes, maxLatencyMs)
+  }
+
+  /**
+   * Must be called before start stream or will be ignored.
+   *
+   * Use a non blocking socket. Packets are not blocked while kernel buffer is full so
+   * hasCongestion can detect the congestion before the cache is filled.
+   * Ignored with rtmpt and rtmpts.
+   */
+  fun setUseChannelSocket(enabled: Boolean) {
+    rtmpClient.setUseChannelSocket(enabled)
+  }
+
+  /**
+   * @return bytes waiting to be sent in the socket. Only available using channel socket.
+   */
+  fun getUnsentBytes(): Int = rtmpClient.unsentBytes
+
+  /**
+   * @return total time in ms blocked waiting to write in the socket. Only available using channel socket.
+   */
+  fun getWriteStallTime(): Long = rtmpClient.writeStallTime
+
+  /**
+   * Must be called before start stream or will be ignored.
+   *
+   * Window announced to the server. The server acknowledges each time it receives this bytes so
+   * a small value (like 256KB) updates the acknowledgement metrics more often.
+   *
+   * @param size 0 to use the window received from the server (default).
+   */
+  fun setAcknowledgementWindowSize(size: Int) {
+    rtmpClient.setAcknowledgementWindowSize(size)
+  }
+
+  /**
+   * @return bytes written and not acknowledged by the server yet. Not available with rtmpt and rtmpts.
+   */
+  fun getBytesInFlight(): Long = rtmpClient.bytesInFlight
+
+  /**
+   * @return bits per second received by the server using acknowledgements. 0 if unknown.
+   */
+  fun getDeliveredBitrate(): Long = rtmpClient.deliveredBitrate
+
+  /**
+   * @return approximated round trip time in ms using acknowledgements. -1 if unknown.
+   */
+  fun getAcknowledgementRtt(): Long = rtmpClient.acknowledgementRtt
+
   override fun reTry(delay: Long, reason: String, backupUrl: String?): Boolean {
     val result = rtmpClient.shouldRetry(reason)
     if (result) {
@@ -86,6 +170,10 @@ class RtmpStreamClient(
     rtmpClient.clearCache()
   }
 
+  override fun setRequestKeyFrameOnDiscard(enabled: Boolean) {
+    rtmpClient.setOnKeyFrameRequired(if (enabled) { { streamClientListener?.onRequestKeyframe() } } else null)
+  }
+
   override fun getCacheSize(): Int = rtmpClient.cacheSize
 
   override fun getItemsInCache(): Int = rtmpClient.getItemsInCache()
@@ -16,6 +16,9 @@
 
 package com.pedro.library.util.streamclient
 
+import com.pedro.rtsp.rtcp.ReceiverReport
+import com.pedro.rtsp.rtcp.RtcpStatsListener
+import com.pedro.rtsp.rtp.packets.FecMask
 import com.pedro.rtsp.rtsp.Protocol
 import com.pedro.rtsp.rtsp.RtspClient
 
@@ -37,6 +40,99 @@ class RtspStreamClient(
     rtspClient.setProtocol(protocol)
   }
 
+  /**
+   * Must be called before start stream or will be ignored.
+   *
+   * Socket send buffer size. A bigger buffer absorb bursts of packets (keyframes) in slow networks.
+   *
+   * @param size in bytes. 0 to use the system default.
+   */
+  fun setSendBufferSize(size: Int) {
+    rtspClient.setSendBufferSize(size)
+  }
+
+  /**
+   * Spread video packets in time instead of send a whole frame at once. Reduce packet loss
+   * produced by keyframe bursts with Protocol.UDP. Audio is not paced. Ignored with Protocol.TCP.
+   * Call it again if you change the video bitrate while streaming.
+   *
+   * @param bitrate video bitrate in bits per second. 0 to disable it (default).
+   * @param multiplier max send rate is bitrate * multiplier. Recommended 2 to 3.
+   */
+  fun setPacing(bitrate: Long, multiplier: Float) {
+    rtspClient.setPacing(bitrate, multiplier)
+  }
+
+  /**
+   * @return time in ms that the last video frame was delayed by pacing.
+   */
+  fun getPacingDelay(): Long = rtspClient.getPacingDelay()
+
+  fun getMaxPacingDelay(): Long = rtspClient.getMaxPacingDelay()
+
+  fun getAveragePacingDelay(): Long = rtspClient.getAveragePacingDelay()
+
+  fun resetPacingDelay() {
+    rtspClient.resetPacingDelay()
+  }
+
+  /**
+   * Must be called before start stream or will be ignored.
+   *
+   * Retransmit video packets lost when the server request it using RTCP NACK (RFC 4588 RTX).
+   * Only with Protocol.UDP and the server must support it.
+   *
+   * @param maxBitrate max bits per second used by retransmissions. 0 means no limit.
+   */
+  fun setRetransmission(enabled: Boolean, maxBitrate: Long) {
+    rtspClient.setRetransmission(enabled, maxBitrate)
+  }
+
+  fun getRetransmittedPackets(): Long = rtspClient.getRetransmittedPackets()
+
+  /**
+   * Must be called before start stream or will be ignored.
+   *
+   * Send XOR FEC packets (RFC 5109 ulpfec) to recover packets lost without wait a retransmission.
+   * Only with Protocol.UDP and the server must support it.
+   *
+   * @param ratio FEC packets sent per media packet in range (0, 1]. 0 to disable it (default).
+   * @param mask ROW to recover isolated losses or COLUMN to recover burst losses.
+   */
+  fun setFec(ratio: Float, mask: FecMask) {
+    rtspClient.setFec(ratio, mask)
+  }
+
+  fun getFecPacketsSent(): Long = rtspClient.getFecPacketsSent()
+
+  /**
+   * Receive RTCP reports sent by the server with packet loss, jitter and rtt of each stream.
+   * Callbacks are called in a background thread.
+   */
+  fun setRtcpStatsListener(listener: RtcpStatsListener?) {
+    rtspClient.setRtcpStatsListener(listener)
+  }
+
+  /**
+   * @return last RTCP report received about the video stream or null if the server never sent it.
+   */
+  fun getVideoReport(): ReceiverReport? = rtspClient.getVideoReport()
+
+  /**
+   * @return last RTCP report received about the audio stream or null if the server never sent it.
+   */
+  fun getAudioReport(): ReceiverReport? = rtspClient.getAudioReport()
+
+  /**
+   * hasCongestion also returns true if the server report at least this percent of packets lost.
+   * Useful with Protocol.UDP where the cache is never filled.
+   *
+   * @param percentLost range 0 to 100. Default 10.
+   */
+  fun setPacketLossThreshold(percentLost: Float) {
+    rtspClient.setPacketLossThreshold(percentLost)
+  }
+
   override fun setAuthorization(user: String?, password: String?) {
     rtspClient.setAuthorization(user, password)
   }
@@ -72,6 +168,10 @@ class RtspStreamClient(
     rtspClient.clearCache()
   }
 
+  override fun setRequestKeyFrameOnDiscard(enabled: Boolean) {
+    rtspClient.setOnKeyFrameRequired(if (enabled) { { streamClientListener?.onRequestKeyframe() } } else null)
+  }
+
   override fun getCacheSize(): Int = rtspClient.cacheSize
 
   override fun getItemsInCache(): Int = rtspClient.getItemsInCache()
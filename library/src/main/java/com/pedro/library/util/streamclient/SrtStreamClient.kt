@@ -17,6 +17,8 @@
 package com.pedro.library.util.streamclient
 
 import com.pedro.srt.srt.SrtClient
+import com.pedro.srt.srt.SrtStats
+import com.pedro.srt.srt.SrtStatsListener
 import com.pedro.srt.srt.packets.control.handshake.EncryptionType
 
 /**
@@ -34,6 +36,89 @@ class SrtStreamClient(
     srtClient.setPassphrase(passphrase, type)
   }
 
+  /**
+   * Encryption keys are refreshed after refreshRate packets (2^24 by default). The new key is
+   * announced preAnnounce packets before the switch (2^16 by default). Must be called before connect.
+   */
+  fun setKeyRefreshRate(refreshRate: Int, preAnnounce: Int) {
+    srtClient.setKeyRefreshRate(refreshRate, preAnnounce)
+  }
+
+  /**
+   * Max bandwidth of LiveCC in bits per second. Packets are never sent faster than it.
+   * 0 to calculate it using input bandwidth and overhead (default). Can be called while streaming.
+   */
+  fun setMaxBandwidth(bitrate: Long) {
+    srtClient.setMaxBandwidth(bitrate)
+  }
+
+  /**
+   * Input bandwidth in bits per second. 0 to measure it from the encoders output (default).
+   * Can be called while streaming.
+   */
+  fun setInputBandwidth(bitrate: Long) {
+    srtClient.setInputBandwidth(bitrate)
+  }
+
+  /**
+   * Bandwidth over the input bandwidth used to recover lost packets. Range 5 to 100, 25 by default.
+   */
+  fun setBandwidthOverhead(percent: Int) {
+    srtClient.setBandwidthOverhead(percent)
+  }
+
+  fun getSendingRate(): Long = srtClient.getSendingRate()
+
+  fun getInputRate(): Long = srtClient.getInputRate()
+
+  /**
+   * @return time in microseconds between 2 data packets.
+   */
+  fun getSendPeriod(): Long = srtClient.getSendPeriod()
+
+  /**
+   * @return time in ms that the last frame was delayed by pacing.
+   */
+  fun getPacingDelay(): Long = srtClient.getPacingDelay()
+
+  fun getMaxPacingDelay(): Long = srtClient.getMaxPacingDelay()
+
+  fun getAveragePacingDelay(): Long = srtClient.getAveragePacingDelay()
+
+  fun resetPacingDelay() {
+    srtClient.resetPacingDelay()
+  }
+
+  /**
+   * Receive the stats of the connection each second (rtt, receiver buffer and rates reported in ACK
+   * packets, NAKs and retransmissions). Callbacks are called in a background thread.
+   */
+  fun setSrtStatsListener(listener: SrtStatsListener?) {
+    srtClient.setSrtStatsListener(listener)
+  }
+
+  fun getStats(): SrtStats = srtClient.getStats()
+
+  /**
+   * hasCongestion also returns true if the receiver reported at least this percent of packets lost.
+   *
+   * @param percentLost range 0 to 100. Default 10.
+   */
+  fun setPacketLossThreshold(percentLost: Float) {
+    srtClient.setPacketLossThreshold(percentLost)
+  }
+
+  /**
+   * @return packets dropped because they can't arrive in time to the receiver.
+   */
+  fun getDroppedPackets(): Long = srtClient.getDroppedPackets()
+
+  fun getDroppedBytes(): Long = srtClient.getDroppedBytes()
+
+  fun resetDroppedPackets() {
+    srtClient.resetDroppedPackets()
+  }
+
   override fun setAuthorization(user: String?, password: String?) {
     srtClient.setAuthorization(user, password)
   }
@@ -69,6 +154,10 @@ class SrtStreamClient(
     srtClient.clearCache()
   }
 
+  override fun setRequestKeyFrameOnDiscard(enabled: Boolean) {
+    srtClient.setOnKeyFrameRequired(if (enabled) { { streamClientListener?.onRequestKeyframe() } } else null)
+  }
+
   override fun getCacheSize(): Int = srtClient.cacheSize
 
   override fun getItemsInCache(): Int = srtClient.getItemsInCache()
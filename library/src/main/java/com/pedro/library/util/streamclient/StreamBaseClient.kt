@@ -47,6 +47,12 @@ abstract class StreamBaseClient {
   @Throws(RuntimeException::class)
   abstract fun resizeCache(newSize: Int)
   abstract fun clearCache()
+
+  /**
+   * Request a keyframe to the encoder when video frames are discarded by congestion.
+   * This way the stream can be decoded again as soon as possible.
+   */
+  abstract fun setRequestKeyFrameOnDiscard(enabled: Boolean)
   abstract fun getCacheSize(): Int
   abstract fun getItemsInCache(): Int
   abstract fun getSentAudioFrames(): Long
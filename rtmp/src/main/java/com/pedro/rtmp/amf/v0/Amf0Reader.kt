@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.amf.v0
+
+import java.io.IOException
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Read AMF0 values from an encoded body without decode it to AmfData objects.
+ * Values are located by offset (position of the type marker) so only the values requested are decoded.
+ */
+class Amf0Reader {
+
+  companion object {
+    private val types = AmfType.values()
+  }
+
+  private var bytes = ByteArray(0)
+  private var length = 0
+
+  fun setData(bytes: ByteArray, length: Int) {
+    this.bytes = bytes
+    this.length = length
+  }
+
+  /**
+   * @return offset of the value in the index position of the body or -1 if not found.
+   */
+  @Throws(IOException::class)
+  fun getValueOffset(index: Int): Int {
+    var offset = 0
+    for (i in 0 until index) {
+      if (offset >= length) return -1
+      offset = skipValue(offset)
+    }
+    return if (offset < length) offset else -1
+  }
+
+  fun getType(offset: Int): AmfType? {
+    if (offset < 0 || offset >= length) return null
+    return types.find { it.mark == bytes[offset] }
+  }
+
+  /**
+   * @return the number or null if the value in offset is not a number.
+   */
+  fun readNumber(offset: Int): Double? {
+    if (getType(offset) != AmfType.NUMBER || offset + 9 > length) return null
+    return Double.fromBits(readLong(offset + 1))
+  }
+
+  /**
+   * @return the string or null if the value in offset is not a string.
+   */
+  fun readString(offset: Int): String? {
+    return when (getType(offset)) {
+      AmfType.STRING -> {
+        val size = readUInt16(offset + 1)
+        if (offset + 3 + size > length) null else String(bytes, offset + 3, size, Charsets.UTF_8)
+      }
+      AmfType.LONG_STRING -> {
+        val size = readInt(offset + 1)
+        if (size < 0 || offset + 5 + size > length) null else String(bytes, offset + 5, size, Charsets.UTF_8)
+      }
+      else -> null
+    }
+  }
+
+  /**
+   * Find a property of an object or ecma array comparing encoded keys so keys are not decoded.
+   * @return offset of the property value or -1 if not found.
+   */
+  @Throws(IOException::class)
+  fun findProperty(objectOffset: Int, name: String): Int {
+    var offset = when (getType(objectOffset)) {
+      AmfType.OBJECT -> objectOffset + 1
+      AmfType.ECMA_ARRAY -> objectOffset + 5
+      else -> return -1
+    }
+    val key = name.toByteArray(Charsets.UTF_8)
+    while (offset + 2 < length) {
+      val keySize = readUInt16(offset)
+      if (keySize == 0 && bytes[offset + 2] == AmfType.OBJECT_END.mark) return -1
+      val valueOffset = offset + 2 + keySize
+      if (keySize == key.size && matches(offset + 2, key)) return valueOffset
+      offset = skipValue(valueOffset)
+    }
+    return -1
+  }
+
+  /**
+   * @return offset after the value.
+   */
+  @Throws(IOException::class)
+  fun skipValue(offset: Int): Int {
+    val end = when (val type = getType(offset)) {
+      AmfType.NUMBER -> offset + 9
+      AmfType.BOOLEAN -> offset + 2
+      AmfType.STRING -> offset + 3 + readUInt16(offset + 1)
+      AmfType.LONG_STRING, AmfType.XML_DOCUMENT -> offset + 5 + readInt(offset + 1)
+      AmfType.NULL, AmfType.UNDEFINED, AmfType.UNSUPPORTED -> offset + 1
+      AmfType.DATE -> offset + 11
+      AmfType.OBJECT -> skipProperties(offset + 1)
+      AmfType.ECMA_ARRAY -> skipProperties(offset + 5)
+      AmfType.STRICT_ARRAY -> {
+        var itemOffset = offset + 5
+        for (i in 0 until readInt(offset + 1)) itemOffset = skipValue(itemOffset)
+        itemOffset
+      }
+      else -> throw IOException("Unimplemented AMF data type: ${type?.name}")
+    }
+    if (end > length || end <= offset) throw IOException("AMF value out of bounds")
+    return end
+  }
+
+  @Throws(IOException::class)
+  private fun skipProperties(start: Int): Int {
+    var offset = start
+    while (offset + 2 < length) {
+      val keySize = readUInt16(offset)
+      if (keySize == 0 && bytes[offset + 2] == AmfType.OBJECT_END.mark) return offset + 3
+      offset = skipValue(offset + 2 + keySize)
+    }
+    throw IOException("AMF object end not found")
+  }
+
+  private fun matches(offset: Int, key: ByteArray): Boolean {
+    for (i in key.indices) {
+      if (bytes[offset + i] != key[i]) return false
+    }
+    return true
+  }
+
+  private fun readUInt16(offset: Int): Int {
+    if (offset + 2 > length) return 0
+    return (bytes[offset].toInt() and 0xff shl 8) or (bytes[offset + 1].toInt() and 0xff)
+  }
+
+  private fun readInt(offset: Int): Int {
+    if (offset + 4 > length) return 0
+    return (readUInt16(offset) shl 16) or readUInt16(offset + 2)
+  }
+
+  private fun readLong(offset: Int): Long {
+    return (readInt(offset).toLong() shl 32) or (readInt(offset + 4).toLong() and 0xffffffffL)
+  }
+}
\ No newline at end of file
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.amf.v0
+
+import java.nio.ByteBuffer
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Encode AMF0 values directly in a reusable buffer without create AmfData objects.
+ * Use array() and size to get the encoded data. The buffer grows if needed and it is reused after clear.
+ */
+class Amf0Writer(initialSize: Int = 256) {
+
+  private var buffer: ByteBuffer = ByteBuffer.allocate(initialSize)
+
+  val size: Int
+    get() = buffer.position()
+
+  /**
+   * Backing array of the buffer. Only the first size bytes are valid.
+   */
+  fun array(): ByteArray = buffer.array()
+
+  fun clear() {
+    buffer.clear()
+  }
+
+  /**
+   * Discard all values written after position.
+   */
+  fun reset(position: Int) {
+    buffer.position(position)
+  }
+
+  fun writeNumber(value: Double) {
+    ensureCapacity(9)
+    buffer.put(AmfType.NUMBER.mark)
+    buffer.putDouble(value)
+  }
+
+  /**
+   * Overwrite a number value already written. Offset is the position of the number marker.
+   */
+  fun setNumber(offset: Int, value: Double) {
+    buffer.putDouble(offset + 1, value)
+  }
+
+  fun writeBoolean(value: Boolean) {
+    ensureCapacity(2)
+    buffer.put(AmfType.BOOLEAN.mark)
+    buffer.put(if (value) 1 else 0)
+  }
+
+  fun writeNull() {
+    ensureCapacity(1)
+    buffer.put(AmfType.NULL.mark)
+  }
+
+  /**
+   * Write a string or a long string depend of the size.
+   */
+  fun writeString(value: String) {
+    val length = getUtf8Length(value)
+    if (length > 0xFFFF) {
+      ensureCapacity(5 + length)
+      buffer.put(AmfType.LONG_STRING.mark)
+      buffer.putInt(length)
+    } else {
+      ensureCapacity(3 + length)
+      buffer.put(AmfType.STRING.mark)
+      buffer.putShort(length.toShort())
+    }
+    putUtf8(value, length)
+  }
+
+  fun startObject() {
+    ensureCapacity(1)
+    buffer.put(AmfType.OBJECT.mark)
+  }
+
+  /**
+   * Items must be written as properties and closed with endObject.
+   */
+  fun startEcmaArray(length: Int) {
+    ensureCapacity(5)
+    buffer.put(AmfType.ECMA_ARRAY.mark)
+    buffer.putInt(length)
+  }
+
+  /**
+   * Items must be written as values after it.
+   */
+  fun startStrictArray(length: Int) {
+    ensureCapacity(5)
+    buffer.put(AmfType.STRICT_ARRAY.mark)
+    buffer.putInt(length)
+  }
+
+  /**
+   * Write a property name of an object or ecma array. The value must be written after it.
+   */
+  fun writeKey(name: String) {
+    val length = getUtf8Length(name)
+    ensureCapacity(2 + length)
+    buffer.putShort(length.toShort())
+    putUtf8(name, length)
+  }
+
+  fun writeProperty(name: String, value: String) {
+    writeKey(name)
+    writeString(value)
+  }
+
+  fun writeProperty(name: String, value: Double) {
+    writeKey(name)
+    writeNumber(value)
+  }
+
+  fun writeProperty(name: String, value: Boolean) {
+    writeKey(name)
+    writeBoolean(value)
+  }
+
+  fun endObject() {
+    ensureCapacity(3)
+    buffer.putShort(0)
+    buffer.put(AmfType.OBJECT_END.mark)
+  }
+
+  private fun putUtf8(value: String, length: Int) {
+    //unpaired surrogates are counted as 1 byte too, so same length is not enough to be ascii
+    if (length == value.length && value.none { Character.isSurrogate(it) }) {
+      //ascii, write chars directly
+      for (i in value.indices) buffer.put(value[i].code.toByte())
+    } else {
+      buffer.put(value.toByteArray(Charsets.UTF_8))
+    }
+  }
+
+  private fun getUtf8Length(value: String): Int {
+    var length = 0
+    var i = 0
+    while (i < value.length) {
+      val c = value[i]
+      length += when {
+        c.code < 0x80 -> 1
+        c.code < 0x800 -> 2
+        Character.isHighSurrogate(c) && i + 1 < value.length && Character.isLowSurrogate(value[i + 1]) -> {
+          i++
+          4
+        }
+        //unpaired surrogate is encoded as '?'
+        Character.isSurrogate(c) -> 1
+        else -> 3
+      }
+      i++
+    }
+    return length
+  }
+
+  private fun ensureCapacity(size: Int) {
+    if (buffer.remaining() >= size) return
+    val newBuffer = ByteBuffer.allocate(Integer.highestOneBit(buffer.position() + size) shl 1)
+    buffer.flip()
+    newBuffer.put(buffer)
+    buffer = newBuffer
+  }
+}
\ No newline at end of file
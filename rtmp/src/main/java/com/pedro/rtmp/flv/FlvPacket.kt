@@ -16,8 +16,33 @@
 
 package com.pedro.rtmp.flv
 
+import com.pedro.common.FrameType
+import com.pedro.rtmp.flv.audio.AacPacket
+import com.pedro.rtmp.flv.video.FourCCPacketType
+import com.pedro.rtmp.flv.video.VideoDataType
+
 /**
  * Created by pedro on 8/04/21.
  */
-data class FlvPacket(val buffer: ByteArray = byteArrayOf(), var timeStamp: Long = 0,
-                     val length: Int = 0, val type: FlvType = FlvType.AUDIO)
\ No newline at end of file
+data class FlvPacket(var buffer: ByteArray = byteArrayOf(), var timeStamp: Long = 0,
+                     var length: Int = 0, var type: FlvType = FlvType.AUDIO) {
+
+  //owners of the packet, a pooled packet is recycled when all owners released it
+  internal var references = 1
+
+  fun getFrameType(): FrameType {
+    if (type == FlvType.AUDIO) {
+      return if (buffer[1] == AacPacket.Type.SEQUENCE.mark) FrameType.CONFIG else FrameType.AUDIO
+    }
+    val header = buffer[0].toInt()
+    val isExHeader = header and 0x80 != 0
+    val isConfig = if (isExHeader) {
+      header and 0x0F == FourCCPacketType.SEQUENCE_START.value
+    } else {
+      buffer[1].toInt() == 0 //AVC sequence header
+    }
+    return if (isConfig) FrameType.CONFIG
+    else if ((header shr 4) and 0x07 == VideoDataType.KEYFRAME.value) FrameType.KEY_FRAME
+    else FrameType.INTER_FRAME
+  }
+}
\ No newline at end of file
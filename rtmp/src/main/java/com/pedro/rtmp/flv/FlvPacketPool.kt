@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.flv
+
+import com.pedro.common.ByteArrayPool
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Reuse FlvPacket and his buffer after the packet was written in the socket.
+ * The buffer of a packet obtained here could be bigger than length so always use length to read it.
+ */
+class FlvPacketPool(
+  private val bufferPool: ByteArrayPool = ByteArrayPool(),
+  private val maxPackets: Int = 64
+) {
+
+  private val packets = ArrayDeque<FlvPacket>(maxPackets)
+
+  fun obtain(length: Int, timeStamp: Long, type: FlvType): FlvPacket {
+    val flvPacket = synchronized(packets) { packets.removeLastOrNull() } ?: FlvPacket()
+    flvPacket.buffer = bufferPool.acquire(length)
+    flvPacket.length = length
+    flvPacket.timeStamp = timeStamp
+    flvPacket.type = type
+    flvPacket.references = 1
+    return flvPacket
+  }
+
+  /**
+   * Share the packet with other owners. Each owner must call recycle after use it.
+   */
+  fun retain(flvPacket: FlvPacket, owners: Int = 1) {
+    synchronized(flvPacket) { flvPacket.references += owners }
+  }
+
+  /**
+   * Release an owner of the packet. The packet is recycled when all owners released it.
+   * Packet and buffer can't be used after recycle it.
+   */
+  fun recycle(flvPacket: FlvPacket) {
+    val released = synchronized(flvPacket) { --flvPacket.references <= 0 }
+    if (!released) return
+    bufferPool.release(flvPacket.buffer)
+    flvPacket.buffer = EMPTY
+    flvPacket.length = 0
+    synchronized(packets) {
+      if (packets.size < maxPackets) packets.addLast(flvPacket)
+    }
+  }
+
+  fun clear() {
+    synchronized(packets) { packets.clear() }
+    bufferPool.clear()
+  }
+
+  private companion object {
+    val EMPTY = ByteArray(0)
+  }
+}
\ No newline at end of file
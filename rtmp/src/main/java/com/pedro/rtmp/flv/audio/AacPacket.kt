@@ -19,6 +19,7 @@ package com.pedro.rtmp.flv.audio
 import android.media.MediaCodec
 import com.pedro.common.removeInfo
 import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvPacketPool
 import com.pedro.rtmp.flv.FlvType
 import java.nio.ByteBuffer
 import kotlin.experimental.or
@@ -38,6 +39,8 @@ class AacPacket {
   private var audioSize = AudioSize.SND_16_BIT
   //In encoder we are using always AAC LC. Change me if needed
   private val objectType = AudioObjectType.AAC_LC
+  //if not null, packets are obtained from this pool and must be recycled after send it
+  var packetPool: FlvPacketPool? = null
 
   enum class Type(val mark: Byte) {
     SEQUENCE(0x00), RAW(0x01)
@@ -69,21 +72,25 @@ class AacPacket {
     }
     header[0] = header[0] or (soundRate.value shl 2).toByte()
     header[0] = header[0] or (AudioFormat.AAC.value shl 4).toByte()
-    val buffer: ByteArray
+    val ts = info.presentationTimeUs / 1000
+    val flvPacket: FlvPacket
     if (!configSend) {
       val config = AudioSpecificConfig(objectType.value, sampleRate, if (isStereo) 2 else 1)
-      buffer = ByteArray(config.size + header.size)
+      flvPacket = createPacket(config.size + header.size, ts)
       header[1] = Type.SEQUENCE.mark
-      config.write(buffer, header.size)
+      config.write(flvPacket.buffer, header.size)
       configSend = true
     } else {
       header[1] = Type.RAW.mark
-      buffer = ByteArray(fixedBuffer.remaining() + header.size)
-      fixedBuffer.get(buffer, header.size, fixedBuffer.remaining())
+      flvPacket = createPacket(fixedBuffer.remaining() + header.size, ts)
+      fixedBuffer.get(flvPacket.buffer, header.size, fixedBuffer.remaining())
     }
-    System.arraycopy(header, 0, buffer, 0, header.size)
-    val ts = info.presentationTimeUs / 1000
-    callback(FlvPacket(buffer, ts, buffer.size, FlvType.AUDIO))
+    System.arraycopy(header, 0, flvPacket.buffer, 0, header.size)
+    callback(flvPacket)
+  }
+
+  private fun createPacket(length: Int, ts: Long): FlvPacket {
+    return packetPool?.obtain(length, ts, FlvType.AUDIO) ?: FlvPacket(ByteArray(length), ts, length, FlvType.AUDIO)
   }
 
   fun reset() {
@@ -18,8 +18,11 @@ package com.pedro.rtmp.flv.video
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.NalScanner
+import com.pedro.common.VideoCodec
 import com.pedro.common.removeInfo
 import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvPacketPool
 import com.pedro.rtmp.flv.FlvType
 import java.nio.ByteBuffer
 
@@ -39,6 +42,9 @@ class H265Packet {
   private var sps: ByteArray? = null
   private var pps: ByteArray? = null
   private var vps: ByteArray? = null
+  private val scanner = NalScanner(VideoCodec.H265)
+  //if not null, packets are obtained from this pool and must be recycled after send it
+  var packetPool: FlvPacketPool? = null
 
   fun sendVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer) {
     val mSps = removeHeader(sps)
@@ -80,7 +86,6 @@ class H265Packet {
     header[6] = (cts shr 8).toByte()
     header[7] = cts.toByte()
 
-    var buffer: ByteArray
     if (!configSend) {
       //avoid send cts on sequence start
       header[0] = (0b10000000 or (VideoDataType.KEYFRAME.value shl 4) or FourCCPacketType.SEQUENCE_START.value).toByte()
@@ -89,38 +94,50 @@ class H265Packet {
       val vps = this.vps
       if (sps != null && pps != null && vps != null) {
         val config = VideoSpecificConfigHEVC(sps, pps, vps)
-        buffer = ByteArray(config.size + header.size - ctsLength)
-        config.write(buffer, header.size - ctsLength)
+        val flvPacket = createPacket(config.size + header.size - ctsLength, ts)
+        config.write(flvPacket.buffer, header.size - ctsLength)
+        System.arraycopy(header, 0, flvPacket.buffer, 0, header.size - ctsLength)
+        callback(flvPacket)
       } else {
         Log.e(TAG, "waiting for a valid sps and pps")
         return
       }
-
-      System.arraycopy(header, 0, buffer, 0, header.size - ctsLength)
-      callback(FlvPacket(buffer, ts, buffer.size, FlvType.VIDEO))
       configSend = true
     }
-    val headerSize = getHeaderSize(fixedBuffer)
-    if (headerSize == 0) return //invalid buffer or waiting for sps/pps
-    fixedBuffer.rewind()
-    val validBuffer = removeHeader(fixedBuffer, headerSize)
-    val size = validBuffer.remaining()
-    buffer = ByteArray(header.size + size + naluSize)
-
-    val type: Int = validBuffer.get(0).toInt().shr(1 and 0x3f)
-    var nalType = VideoDataType.INTER_FRAME.value
-    if (type == VideoNalType.IDR_N_LP.value || type == VideoNalType.IDR_W_DLP.value || info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
-      nalType = VideoDataType.KEYFRAME.value
-    } else if (type == VideoNalType.HEVC_VPS.value || type == VideoNalType.HEVC_SPS.value || type == VideoNalType.HEVC_PPS.value) {
-      // we don't need send it because we already do it in video config
-      return
+    //a buffer could contain multiple NAL units (AUD, SEI, multiple slices...),
+    //all of them are written in the same packet preceded by its size
+    var size = 0
+    var isKeyFrame = info.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME
+    scanner.reset(fixedBuffer)
+    while (true) {
+      val nal = scanner.next() ?: break
+      // we don't need send vps, sps and pps because we already do it in video config
+      if (nal.isParameterSet() || nal.isAud()) continue
+      if (nal.isKeyFrame()) isKeyFrame = true
+      size += naluSize + nal.length
     }
+    if (size == 0) return //invalid buffer or only video config
+    val nalType = if (isKeyFrame) VideoDataType.KEYFRAME.value else VideoDataType.INTER_FRAME.value
+    val flvPacket = createPacket(header.size + size, ts)
+    val buffer = flvPacket.buffer
     header[0] = (0b10000000 or (nalType shl 4) or FourCCPacketType.CODED_FRAMES.value).toByte()
-    writeNaluSize(buffer, header.size, size)
-    validBuffer.get(buffer, header.size + naluSize, size)
+    var offset = header.size
+    scanner.reset(fixedBuffer)
+    while (true) {
+      val nal = scanner.next() ?: break
+      if (nal.isParameterSet() || nal.isAud()) continue
+      writeNaluSize(buffer, offset, nal.length)
+      fixedBuffer.position(nal.offset)
+      fixedBuffer.get(buffer, offset + naluSize, nal.length)
+      offset += naluSize + nal.length
+    }
 
     System.arraycopy(header, 0, buffer, 0, header.size)
-    callback(FlvPacket(buffer, ts, buffer.size, FlvType.VIDEO))
+    callback(flvPacket)
+  }
+
+  private fun createPacket(length: Int, ts: Long): FlvPacket {
+    return packetPool?.obtain(length, ts, FlvType.VIDEO) ?: FlvPacket(ByteArray(length), ts, length, FlvType.VIDEO)
   }
 
   //naluSize = UInt32
@@ -132,50 +149,11 @@ class H265Packet {
   }
 
   private fun removeHeader(byteBuffer: ByteBuffer, size: Int = -1): ByteBuffer {
-    val position = if (size == -1) getStartCodeSize(byteBuffer) else size
+    val position = if (size == -1) NalScanner.getStartCodeSize(byteBuffer, 0, byteBuffer.limit()) else size
     byteBuffer.position(position)
     return byteBuffer.slice()
   }
 
-  private fun getHeaderSize(byteBuffer: ByteBuffer): Int {
-    if (byteBuffer.remaining() < 4) return 0
-
-    val sps = this.sps
-    val pps = this.pps
-    val vps = this.vps
-    if (sps != null && pps != null && vps != null) {
-      val startCodeSize = getStartCodeSize(byteBuffer)
-      if (startCodeSize == 0) return 0
-      val startCode = ByteArray(startCodeSize) { 0x00 }
-      startCode[startCodeSize - 1] = 0x01
-      val avcHeader = startCode.plus(vps).plus(startCode).plus(sps).plus(startCode).plus(pps).plus(startCode)
-      if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
-
-      val possibleAvcHeader = ByteArray(avcHeader.size)
-      byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
-      return if (avcHeader.contentEquals(possibleAvcHeader)) {
-        avcHeader.size
-      } else {
-        startCodeSize
-      }
-    }
-    return 0
-  }
-
-  private fun getStartCodeSize(byteBuffer: ByteBuffer): Int {
-    var startCodeSize = 0
-    if (byteBuffer.get(0).toInt() == 0x00 && byteBuffer.get(1).toInt() == 0x00
-      && byteBuffer.get(2).toInt() == 0x00 && byteBuffer.get(3).toInt() == 0x01) {
-      //match 00 00 00 01
-      startCodeSize = 4
-    } else if (byteBuffer.get(0).toInt() == 0x00 && byteBuffer.get(1).toInt() == 0x00
-      && byteBuffer.get(2).toInt() == 0x01) {
-      //match 00 00 01
-      startCodeSize = 3
-    }
-    return startCodeSize
-  }
-
   fun reset(resetInfo: Boolean = true) {
     if (resetInfo) {
       sps = null
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp
+
+import com.pedro.common.TimeUtils
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Estimate the state of the connection using Acknowledgement messages. The server send the total
+ * bytes received each time it receives window bytes so we can calculate:
+ * - Bytes in flight: written in the socket but not received by the server (kernel buffers and network).
+ * - Delivered bitrate: bits per second received by the server.
+ * - RTT: time since the last byte acknowledged was written. It includes the time in kernel buffers
+ * and the ack delay so it is only an approximation, more accurate with small windows.
+ */
+class AcknowledgementEstimator {
+
+  companion object {
+    private const val MAX_SAMPLES = 64
+    private const val MIN_RATE_INTERVAL = 500L
+    private const val DEFAULT_SAMPLE_STEP = 64 * 1024
+  }
+
+  private val sync = Any()
+  private var bytesWritten = 0L
+  private var bytesAcknowledged = 0L
+  private var lastSequence = -1L
+  private var acknowledgements = 0
+  private var windowSize = 0
+  //total bytes written and time, used to know when an acknowledged byte was written
+  private val sampleBytes = LongArray(MAX_SAMPLES)
+  private val sampleTimes = LongArray(MAX_SAMPLES)
+  private var sampleStart = 0
+  private var sampleCount = 0
+  private var lastSampleBytes = 0L
+  private var rateStartTime = 0L
+  private var rateStartBytes = 0L
+
+  /**
+   * Bits per second received by the server. 0 if unknown.
+   */
+  @Volatile
+  var deliveredBitrate = 0L
+    private set
+  /**
+   * Approximated round trip time in ms. -1 if unknown.
+   */
+  @Volatile
+  var rtt = -1L
+    private set
+
+  val bytesInFlight: Long
+    get() = synchronized(sync) { bytesWritten - bytesAcknowledged }
+
+  /**
+   * Window announced to the server. The server acknowledge us each time it receives this bytes.
+   */
+  fun setWindowSize(windowSize: Int) {
+    synchronized(sync) { this.windowSize = windowSize }
+  }
+
+  fun onBytesWritten(bytes: Int) {
+    synchronized(sync) {
+      bytesWritten += bytes
+      val step = if (windowSize in 1 until Int.MAX_VALUE) (windowSize / 4).coerceAtLeast(1) else DEFAULT_SAMPLE_STEP
+      if (bytesWritten - lastSampleBytes >= step) {
+        addSample(bytesWritten, TimeUtils.getCurrentTimeMillis())
+        lastSampleBytes = bytesWritten
+      }
+    }
+  }
+
+  fun onAcknowledgement(sequenceNumber: Int) {
+    synchronized(sync) {
+      val now = TimeUtils.getCurrentTimeMillis()
+      val sequence = sequenceNumber.toLong() and 0xffffffffL
+      bytesAcknowledged = if (lastSequence < 0) {
+        sequence
+      } else {
+        //sequence number is an UInt32 that could wrap
+        bytesAcknowledged + ((sequence - lastSequence) and 0xffffffffL)
+      }
+      //few servers include handshake bytes
+      bytesAcknowledged = bytesAcknowledged.coerceAtMost(bytesWritten)
+      lastSequence = sequence
+      acknowledgements++
+      updateRate(now)
+      updateRtt(now)
+    }
+  }
+
+  /**
+   * Bytes in flight without the acknowledgement window are bigger than percentUsed of the bytes
+   * delivered in a second. Only detected after 2 acknowledgements.
+   */
+  fun hasCongestion(percentUsed: Float): Boolean {
+    synchronized(sync) {
+      val bitrate = deliveredBitrate
+      if (acknowledgements < 2 || bitrate <= 0) return false
+      val window = if (windowSize in 1 until Int.MAX_VALUE) windowSize else 0
+      val excess = bytesWritten - bytesAcknowledged - window
+      return excess > bitrate / 8 * (percentUsed / 100f)
+    }
+  }
+
+  fun reset() {
+    synchronized(sync) {
+      bytesWritten = 0
+      bytesAcknowledged = 0
+      lastSequence = -1
+      acknowledgements = 0
+      sampleStart = 0
+      sampleCount = 0
+      lastSampleBytes = 0
+      rateStartTime = 0
+      rateStartBytes = 0
+      deliveredBitrate = 0
+      rtt = -1
+    }
+  }
+
+  private fun updateRate(now: Long) {
+    if (rateStartTime == 0L) {
+      rateStartTime = now
+      rateStartBytes = bytesAcknowledged
+      return
+    }
+    val elapsed = now - rateStartTime
+    if (elapsed < MIN_RATE_INTERVAL) return
+    val bitrate = (bytesAcknowledged - rateStartBytes) * 8000 / elapsed
+    deliveredBitrate = if (deliveredBitrate == 0L) bitrate else (deliveredBitrate * 3 + bitrate) / 4
+    rateStartTime = now
+    rateStartBytes = bytesAcknowledged
+  }
+
+  private fun updateRtt(now: Long) {
+    //discard samples already acknowledged, first sample not acknowledged was written after the ack byte
+    while (sampleCount > 0) {
+      if (sampleBytes[sampleStart] >= bytesAcknowledged) {
+        rtt = now - sampleTimes[sampleStart]
+        return
+      }
+      sampleStart = (sampleStart + 1) % MAX_SAMPLES
+      sampleCount--
+    }
+  }
+
+  private fun addSample(bytes: Long, time: Long) {
+    if (sampleCount == MAX_SAMPLES) {
+      sampleStart = (sampleStart + 1) % MAX_SAMPLES
+      sampleCount--
+    }
+    val index = (sampleStart + sampleCount) % MAX_SAMPLES
+    sampleBytes[index] = bytes
+    sampleTimes[index] = time
+    sampleCount++
+  }
+}
\ No newline at end of file
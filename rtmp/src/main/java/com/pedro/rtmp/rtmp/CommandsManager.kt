@@ -21,7 +21,10 @@ import com.pedro.common.TimeUtils
 import com.pedro.common.VideoCodec
 import com.pedro.rtmp.amf.v0.*
 import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvType
+import com.pedro.rtmp.rtmp.chunk.ChunkWriter
 import com.pedro.rtmp.rtmp.message.*
+import com.pedro.rtmp.rtmp.message.command.Command
 import com.pedro.rtmp.rtmp.message.control.Event
 import com.pedro.rtmp.rtmp.message.control.Type
 import com.pedro.rtmp.rtmp.message.control.UserControl
@@ -67,6 +70,14 @@ abstract class CommandsManager {
   var videoCodec = VideoCodec.H264
   //Avoid write a packet in middle of other.
   private val writeSync = Mutex(locked = false)
+  //Reusable buffer to write messages with all chunks in a single write
+  protected val chunkWriter = ChunkWriter()
+  private val aggregate = Aggregate()
+  //count bytes written by commands
+  private val countingOutput = CountingOutputStream()
+  val acknowledgementEstimator = AcknowledgementEstimator()
+  //window announced to the server, 0 to use the window received from the server
+  var acknowledgementWindowSize = 0
 
   fun setVideoResolution(width: Int, height: Int) {
     this.width = width
@@ -90,7 +101,7 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   suspend fun sendChunkSize(socket: RtmpSocket) {
     writeSync.withLock {
-      val output = socket.getOutStream()
+      val output = getOutput(socket)
       if (RtmpConfig.writeChunkSize != RtmpConfig.DEFAULT_CHUNK_SIZE) {
         val chunkSize = SetChunkSize(RtmpConfig.writeChunkSize)
         chunkSize.header.timeStamp = getCurrentTimestamp()
@@ -108,7 +119,7 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   suspend fun sendConnect(auth: String, socket: RtmpSocket) {
     writeSync.withLock {
-      val output = socket.getOutStream()
+      val output = getOutput(socket)
       sendConnect(auth, output)
       socket.flush()
     }
@@ -117,7 +128,7 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   suspend fun createStream(socket: RtmpSocket) {
     writeSync.withLock {
-      val output = socket.getOutStream()
+      val output = getOutput(socket)
       createStream(output)
       socket.flush()
     }
@@ -128,7 +139,9 @@ abstract class CommandsManager {
     val input = socket.getInputStream()
     val message = RtmpMessage.getRtmpMessage(input, readChunkSize, sessionHistory)
     sessionHistory.setReadHeader(message.header)
-    Log.i(TAG, "read $message")
+    //commands are decoded lazily, log only the values already read to avoid decode the body
+    if (message is Command) Log.i(TAG, "read command '${message.name}', transactionId=${message.commandId}")
+    else Log.i(TAG, "read $message")
     bytesRead += message.header.getPacketLength()
     return message
   }
@@ -136,7 +149,7 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   suspend fun sendMetadata(socket: RtmpSocket) {
     writeSync.withLock {
-      val output = socket.getOutStream()
+      val output = getOutput(socket)
       sendMetadata(output)
       socket.flush()
     }
@@ -145,7 +158,7 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   suspend fun sendPublish(socket: RtmpSocket) {
     writeSync.withLock {
-      val output = socket.getOutStream()
+      val output = getOutput(socket)
       sendPublish(output)
       socket.flush()
     }
@@ -154,8 +167,10 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   suspend fun sendWindowAcknowledgementSize(socket: RtmpSocket) {
     writeSync.withLock {
-      val output = socket.getOutStream()
-      val windowAcknowledgementSize = WindowAcknowledgementSize(RtmpConfig.acknowledgementWindowSize, getCurrentTimestamp())
+      val output = getOutput(socket)
+      val windowSize = if (acknowledgementWindowSize > 0) acknowledgementWindowSize else RtmpConfig.acknowledgementWindowSize
+      acknowledgementEstimator.setWindowSize(windowSize)
+      val windowAcknowledgementSize = WindowAcknowledgementSize(windowSize, getCurrentTimestamp())
       windowAcknowledgementSize.writeHeader(output)
       windowAcknowledgementSize.writeBody(output)
       socket.flush()
@@ -164,7 +179,7 @@ abstract class CommandsManager {
 
   suspend fun sendPong(event: Event, socket: RtmpSocket) {
     writeSync.withLock {
-      val output = socket.getOutStream()
+      val output = getOutput(socket)
       val pong = UserControl(Type.PONG_REPLY, event)
       pong.writeHeader(output)
       pong.writeBody(output)
@@ -176,7 +191,7 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   suspend fun sendClose(socket: RtmpSocket) {
     writeSync.withLock {
-      val output = socket.getOutStream()
+      val output = getOutput(socket)
       sendClose(output)
       socket.flush()
     }
@@ -187,7 +202,7 @@ abstract class CommandsManager {
       if (bytesRead >= RtmpConfig.acknowledgementWindowSize) {
         acknowledgementSequence += bytesRead
         bytesRead -= RtmpConfig.acknowledgementWindowSize
-        val output = socket.getOutStream()
+        val output = getOutput(socket)
         val acknowledgement = Acknowledgement(acknowledgementSequence)
         acknowledgement.writeHeader(output)
         acknowledgement.writeBody(output)
@@ -200,33 +215,78 @@ abstract class CommandsManager {
   @Throws(IOException::class)
   suspend fun sendVideoPacket(flvPacket: FlvPacket, socket: RtmpSocket): Int {
     writeSync.withLock {
-      val output = socket.getOutStream()
-      if (akamaiTs) {
-        flvPacket.timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000)
-      }
-      val video = Video(flvPacket, streamId)
-      video.writeHeader(output)
-      video.writeBody(output)
+      val video = Video(flvPacket, streamId, getPacketTimeStamp(flvPacket))
+      val size = chunkWriter.write(video, socket)
+      acknowledgementEstimator.onBytesWritten(size)
       socket.flush(true)
-      return video.header.getPacketLength() //get packet size with header included to calculate bps
+      return size //get packet size with headers included to calculate bps
     }
   }
 
   @Throws(IOException::class)
   suspend fun sendAudioPacket(flvPacket: FlvPacket, socket: RtmpSocket): Int {
     writeSync.withLock {
-      val output = socket.getOutStream()
-      if (akamaiTs) {
-        flvPacket.timeStamp = ((TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000)
+      val audio = Audio(flvPacket, streamId, getPacketTimeStamp(flvPacket))
+      val size = chunkWriter.write(audio, socket)
+      acknowledgementEstimator.onBytesWritten(size)
+      socket.flush(true)
+      return size //get packet size with headers included to calculate bps
+    }
+  }
+
+  /**
+   * Write multiple audio/video packets with a single flush.
+   */
+  @Throws(IOException::class)
+  suspend fun sendPackets(flvPackets: List<FlvPacket>, socket: RtmpSocket): Int {
+    writeSync.withLock {
+      var size = 0
+      flvPackets.forEach { flvPacket ->
+        val timeStamp = getPacketTimeStamp(flvPacket)
+        val message = if (flvPacket.type == FlvType.VIDEO) {
+          Video(flvPacket, streamId, timeStamp)
+        } else {
+          Audio(flvPacket, streamId, timeStamp)
+        }
+        val written = chunkWriter.write(message, socket)
+        acknowledgementEstimator.onBytesWritten(written)
+        size += written
       }
-      val audio = Audio(flvPacket, streamId)
-      audio.writeHeader(output)
-      audio.writeBody(output)
       socket.flush(true)
-      return audio.header.getPacketLength() //get packet size with header included to calculate bps
+      return size //get packet size with headers included to calculate bps
+    }
+  }
+
+  /**
+   * Send multiple audio/video packets in a single aggregate message.
+   */
+  @Throws(IOException::class)
+  suspend fun sendAggregatePacket(flvPackets: List<FlvPacket>, socket: RtmpSocket): Int {
+    writeSync.withLock {
+      aggregate.clear()
+      aggregate.setStreamId(streamId)
+      flvPackets.forEach { aggregate.add(it, getPacketTimeStamp(it)) }
+      val size = chunkWriter.write(aggregate, socket)
+      acknowledgementEstimator.onBytesWritten(size)
+      socket.flush(true)
+      return size //get packet size with headers included to calculate bps
     }
   }
 
+  /**
+   * Packet could be shared with other senders so never modify it
+   */
+  private fun getPacketTimeStamp(flvPacket: FlvPacket): Long {
+    return if (akamaiTs) {
+      (TimeUtils.getCurrentTimeNano() / 1000 - startTs) / 1000
+    } else flvPacket.timeStamp
+  }
+
+  private fun getOutput(socket: RtmpSocket): OutputStream {
+    countingOutput.output = socket.getOutStream()
+    return countingOutput
+  }
+
   abstract fun sendConnect(auth: String, output: OutputStream)
   abstract fun createStream(output: OutputStream)
   abstract fun sendMetadata(output: OutputStream)
@@ -242,5 +302,25 @@ abstract class CommandsManager {
     sessionHistory.reset()
     acknowledgementSequence = 0
     bytesRead = 0
+    acknowledgementEstimator.reset()
+  }
+
+  private inner class CountingOutputStream: OutputStream() {
+
+    lateinit var output: OutputStream
+
+    override fun write(b: Int) {
+      output.write(b)
+      acknowledgementEstimator.onBytesWritten(1)
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+      output.write(b, off, len)
+      acknowledgementEstimator.onBytesWritten(len)
+    }
+
+    override fun flush() {
+      output.flush()
+    }
   }
 }
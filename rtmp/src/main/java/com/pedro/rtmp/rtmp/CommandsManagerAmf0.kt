@@ -18,139 +18,135 @@ package com.pedro.rtmp.rtmp
 
 import android.util.Log
 import com.pedro.common.VideoCodec
-import com.pedro.rtmp.amf.v0.AmfData
-import com.pedro.rtmp.amf.v0.AmfEcmaArray
-import com.pedro.rtmp.amf.v0.AmfNull
-import com.pedro.rtmp.amf.v0.AmfObject
-import com.pedro.rtmp.amf.v0.AmfStrictArray
-import com.pedro.rtmp.amf.v0.AmfString
 import com.pedro.rtmp.flv.audio.AudioFormat
 import com.pedro.rtmp.flv.video.VideoFormat
 import com.pedro.rtmp.rtmp.chunk.ChunkStreamId
 import com.pedro.rtmp.rtmp.chunk.ChunkType
 import com.pedro.rtmp.rtmp.message.BasicHeader
-import com.pedro.rtmp.rtmp.message.command.CommandAmf0
-import com.pedro.rtmp.rtmp.message.data.DataAmf0
+import com.pedro.rtmp.rtmp.message.MessageTemplateAmf0
+import com.pedro.rtmp.rtmp.message.MessageType
 import java.io.OutputStream
 
+/**
+ * Commands are encoded directly in reusable templates. Templates with arguments that only depend
+ * of the stream name are encoded once and only the transaction id is patched on each send.
+ */
 class CommandsManagerAmf0: CommandsManager() {
+
+  private val connect = createTemplate("connect", ChunkStreamId.OVER_CONNECTION)
+  private val releaseStream = createTemplate("releaseStream", ChunkStreamId.OVER_STREAM)
+  private val fcPublish = createTemplate("FCPublish", ChunkStreamId.OVER_STREAM)
+  private val createStream = createTemplate("createStream", ChunkStreamId.OVER_CONNECTION).apply {
+    writer.writeNull()
+  }
+  private val publish = createTemplate("publish", ChunkStreamId.OVER_STREAM)
+  private val closeStream = createTemplate("closeStream", ChunkStreamId.OVER_STREAM).apply {
+    writer.writeNull()
+  }
+  private val metadata = MessageTemplateAmf0("@setDataFrame", MessageType.DATA_AMF0,
+      BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_CONNECTION.mark))
+  //stream name encoded in the templates
+  private var templateStreamName: String? = null
+
   override fun sendConnect(auth: String, output: OutputStream) {
-    val connect = CommandAmf0("connect", ++commandId, getCurrentTimestamp(), streamId,
-        BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_CONNECTION.mark))
-    val connectInfo = AmfObject()
-    connectInfo.setProperty("app", appName + auth)
-    connectInfo.setProperty("flashVer", "FMLE/3.0 (compatible; Lavf57.56.101)")
-    connectInfo.setProperty("swfUrl", "")
-    connectInfo.setProperty("tcUrl", tcUrl + auth)
-    connectInfo.setProperty("fpad", false)
-    connectInfo.setProperty("capabilities", 239.0)
+    connect.clearArguments()
+    val writer = connect.writer
+    writer.startObject()
+    writer.writeProperty("app", appName + auth)
+    writer.writeProperty("flashVer", "FMLE/3.0 (compatible; Lavf57.56.101)")
+    writer.writeProperty("swfUrl", "")
+    writer.writeProperty("tcUrl", tcUrl + auth)
+    writer.writeProperty("fpad", false)
+    writer.writeProperty("capabilities", 239.0)
     if (!audioDisabled) {
-      connectInfo.setProperty("audioCodecs", 3191.0)
+      writer.writeProperty("audioCodecs", 3191.0)
     }
     if (!videoDisabled) {
-      connectInfo.setProperty("videoCodecs", 252.0)
-      connectInfo.setProperty("videoFunction", 1.0)
+      writer.writeProperty("videoCodecs", 252.0)
+      writer.writeProperty("videoFunction", 1.0)
       if (videoCodec == VideoCodec.H265) {
-        val list = mutableListOf<AmfData>()
-        list.add(AmfString("hvc1"))
-        val array = AmfStrictArray(list)
-        connectInfo.setProperty("fourCcList", array)
+        writer.writeKey("fourCcList")
+        writer.startStrictArray(1)
+        writer.writeString("hvc1")
       }
     }
-    connectInfo.setProperty("pageUrl", "")
-    connectInfo.setProperty("objectEncoding", 0.0)
-    connect.addData(connectInfo)
-
-    connect.writeHeader(output)
-    connect.writeBody(output)
-    sessionHistory.setPacket(commandId, "connect")
-    Log.i(TAG, "send $connect")
+    writer.writeProperty("pageUrl", "")
+    writer.writeProperty("objectEncoding", 0.0)
+    writer.endObject()
+    send(connect, output)
   }
 
   override fun createStream(output: OutputStream) {
-    val releaseStream = CommandAmf0("releaseStream", ++commandId, getCurrentTimestamp(), streamId,
-        BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_STREAM.mark))
-    releaseStream.addData(AmfNull())
-    releaseStream.addData(AmfString(streamName))
-
-    releaseStream.writeHeader(output)
-    releaseStream.writeBody(output)
-    sessionHistory.setPacket(commandId, "releaseStream")
-    Log.i(TAG, "send $releaseStream")
-
-    val fcPublish = CommandAmf0("FCPublish", ++commandId, getCurrentTimestamp(), streamId,
-        BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_STREAM.mark))
-    fcPublish.addData(AmfNull())
-    fcPublish.addData(AmfString(streamName))
-
-    fcPublish.writeHeader(output)
-    fcPublish.writeBody(output)
-    sessionHistory.setPacket(commandId, "FCPublish")
-    Log.i(TAG, "send $fcPublish")
-
-    val createStream = CommandAmf0("createStream", ++commandId, getCurrentTimestamp(), streamId,
-        BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_CONNECTION.mark))
-    createStream.addData(AmfNull())
-
-    createStream.writeHeader(output)
-    createStream.writeBody(output)
-    sessionHistory.setPacket(commandId, "createStream")
-    Log.i(TAG, "send $createStream")
+    updateStreamTemplates()
+    send(releaseStream, output)
+    send(fcPublish, output)
+    send(createStream, output)
   }
 
   override fun sendMetadata(output: OutputStream) {
-    val name = "@setDataFrame"
-    val metadata = DataAmf0(name, getCurrentTimestamp(), streamId)
-    metadata.addData(AmfString("onMetaData"))
-    val amfEcmaArray = AmfEcmaArray()
-    amfEcmaArray.setProperty("duration", 0.0)
+    metadata.clearArguments()
+    val writer = metadata.writer
+    writer.writeString("onMetaData")
+    var length = 2
+    if (!videoDisabled) length += 5
+    if (!audioDisabled) length += 5
+    writer.startEcmaArray(length)
+    writer.writeProperty("duration", 0.0)
     if (!videoDisabled) {
-      amfEcmaArray.setProperty("width", width.toDouble())
-      amfEcmaArray.setProperty("height", height.toDouble())
+      writer.writeProperty("width", width.toDouble())
+      writer.writeProperty("height", height.toDouble())
       //few servers don't support it even if it is in the standard rtmp enhanced
       //val codecValue = if (videoCodec == VideoCodec.H265) VideoFormat.HEVC.value else VideoFormat.AVC.value
-      //amfEcmaArray.setProperty("videocodecid", codecValue.toDouble())
-      amfEcmaArray.setProperty("videocodecid", VideoFormat.AVC.value.toDouble())
-      amfEcmaArray.setProperty("framerate", fps.toDouble())
-      amfEcmaArray.setProperty("videodatarate", 0.0)
+      //writer.writeProperty("videocodecid", codecValue.toDouble())
+      writer.writeProperty("videocodecid", VideoFormat.AVC.value.toDouble())
+      writer.writeProperty("framerate", fps.toDouble())
+      writer.writeProperty("videodatarate", 0.0)
     }
     if (!audioDisabled) {
-      amfEcmaArray.setProperty("audiocodecid", AudioFormat.AAC.value.toDouble())
-      amfEcmaArray.setProperty("audiosamplerate", sampleRate.toDouble())
-      amfEcmaArray.setProperty("audiosamplesize", 16.0)
-      amfEcmaArray.setProperty("audiodatarate", 0.0)
-      amfEcmaArray.setProperty("stereo", isStereo)
+      writer.writeProperty("audiocodecid", AudioFormat.AAC.value.toDouble())
+      writer.writeProperty("audiosamplerate", sampleRate.toDouble())
+      writer.writeProperty("audiosamplesize", 16.0)
+      writer.writeProperty("audiodatarate", 0.0)
+      writer.writeProperty("stereo", isStereo)
     }
-    amfEcmaArray.setProperty("filesize", 0.0)
-    metadata.addData(amfEcmaArray)
-
-    metadata.writeHeader(output)
-    metadata.writeBody(output)
+    writer.writeProperty("filesize", 0.0)
+    writer.endObject()
+    metadata.update(0, getCurrentTimestamp(), streamId)
+    chunkWriter.write(metadata, output)
     Log.i(TAG, "send $metadata")
   }
 
   override fun sendPublish(output: OutputStream) {
-    val name = "publish"
-    val publish = CommandAmf0(name, ++commandId, getCurrentTimestamp(), streamId,
-        BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_STREAM.mark))
-    publish.addData(AmfNull())
-    publish.addData(AmfString(streamName))
-    publish.addData(AmfString("live"))
-
-    publish.writeHeader(output)
-    publish.writeBody(output)
-    sessionHistory.setPacket(commandId, name)
-    Log.i(TAG, "send $publish")
+    updateStreamTemplates()
+    send(publish, output)
   }
 
   override fun sendClose(output: OutputStream) {
-    val name = "closeStream"
-    val closeStream = CommandAmf0(name, ++commandId, getCurrentTimestamp(), streamId, BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_STREAM.mark))
-    closeStream.addData(AmfNull())
+    send(closeStream, output)
+  }
+
+  private fun send(template: MessageTemplateAmf0, output: OutputStream) {
+    template.update(++commandId, getCurrentTimestamp(), streamId)
+    chunkWriter.write(template, output)
+    sessionHistory.setPacket(commandId, template.name)
+    Log.i(TAG, "send $template")
+  }
+
+  private fun updateStreamTemplates() {
+    if (templateStreamName == streamName) return
+    listOf(releaseStream, fcPublish).forEach {
+      it.clearArguments()
+      it.writer.writeNull()
+      it.writer.writeString(streamName)
+    }
+    publish.clearArguments()
+    publish.writer.writeNull()
+    publish.writer.writeString(streamName)
+    publish.writer.writeString("live")
+    templateStreamName = streamName
+  }
 
-    closeStream.writeHeader(output)
-    closeStream.writeBody(output)
-    sessionHistory.setPacket(commandId, name)
-    Log.i(TAG, "send $closeStream")
+  private fun createTemplate(name: String, chunkStreamId: ChunkStreamId): MessageTemplateAmf0 {
+    return MessageTemplateAmf0(name, MessageType.COMMAND_AMF0, BasicHeader(ChunkType.TYPE_0, chunkStreamId.mark))
   }
 }
\ No newline at end of file
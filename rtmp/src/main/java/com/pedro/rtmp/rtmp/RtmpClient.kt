@@ -23,6 +23,9 @@ import com.pedro.common.TimeUtils
 import com.pedro.common.VideoCodec
 import com.pedro.common.onMainThread
 import com.pedro.rtmp.amf.AmfVersion
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvPacketPool
+import com.pedro.rtmp.flv.FlvType
 import com.pedro.rtmp.rtmp.message.*
 import com.pedro.rtmp.rtmp.message.command.Command
 import com.pedro.rtmp.rtmp.message.control.Type
@@ -30,6 +33,7 @@ import com.pedro.rtmp.rtmp.message.control.UserControl
 import com.pedro.rtmp.utils.AuthUtil
 import com.pedro.rtmp.utils.RtmpConfig
 import com.pedro.rtmp.utils.socket.RtmpSocket
+import com.pedro.rtmp.utils.socket.TcpChannelSocket
 import com.pedro.rtmp.utils.socket.TcpSocket
 import com.pedro.rtmp.utils.socket.TcpTunneledSocket
 import kotlinx.coroutines.CoroutineScope
@@ -69,6 +73,7 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
   private var url: String? = null
   private var tlsEnabled = false
   private var tunneled = false
+  private var useChannelSocket = false
 
   private var doingRetry = false
   private var numRetry = 0
@@ -87,6 +92,33 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
     get() = rtmpSender.getSentAudioFrames()
   val sentVideoFrames: Long
     get() = rtmpSender.getSentVideoFrames()
+  /**
+   * Bytes waiting to be accepted by the kernel. Only reported by non blocking socket.
+   */
+  val unsentBytes: Int
+    get() = socket?.getUnsentBytes() ?: 0
+  /**
+   * Total time in ms blocked waiting for the socket to be writable. Only reported by non blocking socket.
+   */
+  val writeStallTime: Long
+    get() = socket?.getWriteStallTime() ?: 0
+
+  /**
+   * Bytes written in the socket and not acknowledged by the server yet.
+   * Only updated if the server send Acknowledgement messages. Not available with tunneled connections.
+   */
+  val bytesInFlight: Long
+    get() = commandsManager.acknowledgementEstimator.bytesInFlight
+  /**
+   * Bits per second received by the server calculated using Acknowledgement messages. 0 if unknown.
+   */
+  val deliveredBitrate: Long
+    get() = commandsManager.acknowledgementEstimator.deliveredBitrate
+  /**
+   * Approximated round trip time in ms calculated using Acknowledgement messages. -1 if unknown.
+   */
+  val acknowledgementRtt: Long
+    get() = commandsManager.acknowledgementEstimator.rtt
 
   fun setVideoCodec(videoCodec: VideoCodec) {
     if (!isStreaming) {
@@ -137,6 +169,66 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
     }
   }
 
+  /**
+   * Reuse packet buffers instead of allocate it per frame.
+   * Must be called before connect
+   */
+  fun setUseBufferPool(enabled: Boolean) {
+    if (!isStreaming) {
+      rtmpSender.setUseBufferPool(enabled)
+    }
+  }
+
+  /**
+   * Window size announced to the server. The server send an acknowledgement each time it receives
+   * this bytes. Use a small value (like 256KB) to get bytesInFlight, deliveredBitrate and
+   * acknowledgementRtt updated more often.
+   * Must be called before connect
+   *
+   * @param size 0 to use the window received from the server (default).
+   */
+  fun setAcknowledgementWindowSize(size: Int) {
+    if (!isStreaming) {
+      commandsManager.acknowledgementWindowSize = size.coerceAtLeast(0)
+    }
+  }
+
+  /**
+   * Send consecutive audio/video packets in a single aggregate message stored up to windowMs.
+   * Less headers and writes in the socket but increase latency up to windowMs.
+   * Must be called before connect
+   *
+   * @param windowMs 0 to disable it. Recommended 50 to 100ms
+   */
+  fun setAggregateWindow(windowMs: Long) {
+    if (!isStreaming) {
+      rtmpSender.setAggregateWindow(windowMs)
+    }
+  }
+
+  /**
+   * Write all queued packets with a single flush, up to maxBytes, waiting up to maxLatencyMs
+   * for more packets. Less flushes and wakeups at high fps. Ignored with aggregate window.
+   * Must be called before connect
+   *
+   * @param maxBytes 0 to disable it (default).
+   */
+  fun setBatchMode(maxBytes: Int, maxLatencyMs: Long) {
+    if (!isStreaming) {
+      rtmpSender.setBatchMode(maxBytes, maxLatencyMs)
+    }
+  }
+
+  /**
+   * Use a non blocking SocketChannel instead of a blocking Socket. Not used with tunneled connections.
+   * Must be called before connect
+   */
+  fun setUseChannelSocket(enabled: Boolean) {
+    if (!isStreaming) {
+      useChannelSocket = enabled
+    }
+  }
+
   fun setAuthorization(user: String?, password: String?) {
     commandsManager.setAuth(user, password)
   }
@@ -224,6 +316,8 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
           }
           val socket = this@RtmpClient.socket ?: throw IOException("Invalid socket, Connection failed")
           commandsManager.sendChunkSize(socket)
+          //announce our window so the server acknowledge us with that frequency
+          if (commandsManager.acknowledgementWindowSize > 0) commandsManager.sendWindowAcknowledgementSize(socket)
           commandsManager.sendConnect("", socket)
           //read packets until you did success connection to server and you are ready to send packets
           while (scope.isActive && !publishPermitted) {
@@ -248,8 +342,10 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
     while (scope.isActive && isStreaming) {
       val error = runCatching {
         if (isAlive()) {
-          //ignore packet after connect if tunneled to avoid spam idle
           if (!tunneled) handleMessages()
+          //read only data already received if tunneled to avoid spam idle, the tunnel stores it until read
+          else if ((socket?.getInputStream()?.available() ?: 0) > 0) handleMessages()
+          else delay(50)
         } else {
           onMainThread {
             connectChecker.onConnectionFailed("No response from server")
@@ -302,6 +398,8 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
   private fun establishConnection(): Boolean {
     val socket = if (tunneled) {
       TcpTunneledSocket(commandsManager.host, commandsManager.port, tlsEnabled)
+    } else if (useChannelSocket) {
+      TcpChannelSocket(commandsManager.host, commandsManager.port, tlsEnabled)
     } else {
       TcpSocket(commandsManager.host, commandsManager.port, tlsEnabled)
     }
@@ -333,6 +431,7 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
       }
       MessageType.ACKNOWLEDGEMENT -> {
         val acknowledgement = message as Acknowledgement
+        commandsManager.acknowledgementEstimator.onAcknowledgement(acknowledgement.sequenceNumber)
       }
       MessageType.WINDOW_ACKNOWLEDGEMENT_SIZE -> {
         val windowAcknowledgementSize = message as WindowAcknowledgementSize
@@ -544,6 +643,27 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
     }
   }
 
+  /**
+   * @return true if the client is the owner of the packet and will recycle it.
+   */
+  internal fun sendSharedPacket(flvPacket: FlvPacket, config: FlvPacket?): Boolean {
+    val disabled = if (flvPacket.type == FlvType.VIDEO) commandsManager.videoDisabled else commandsManager.audioDisabled
+    if (disabled) return false
+    return rtmpSender.sendSharedPacket(flvPacket, config)
+  }
+
+  internal fun resetSharedConfig(type: FlvType) {
+    rtmpSender.resetSharedConfig(type)
+  }
+
+  internal fun setSharedPacketPool(pool: FlvPacketPool?) {
+    rtmpSender.setSharedPacketPool(pool)
+  }
+
+  internal fun setOnSharedKeyFrameRequired(callback: (() -> Unit)?) {
+    rtmpSender.setOnSharedKeyFrameRequired(callback)
+  }
+
   @JvmOverloads
   @Throws(IllegalArgumentException::class)
   fun hasCongestion(percentUsed: Float = 20f): Boolean {
@@ -579,5 +699,13 @@ class RtmpClient(private val connectChecker: ConnectChecker) {
     rtmpSender.clearCache()
   }
 
+  /**
+   * Called when video frames are discarded by congestion and the stream can't be decoded until
+   * the next keyframe.
+   */
+  fun setOnKeyFrameRequired(callback: (() -> Unit)?) {
+    rtmpSender.setOnKeyFrameRequired(callback)
+  }
+
   fun getItemsInCache(): Int = rtmpSender.getItemsInCache()
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp
+
+import android.media.MediaCodec
+import com.pedro.common.FrameType
+import com.pedro.common.VideoCodec
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvPacketPool
+import com.pedro.rtmp.flv.FlvType
+import com.pedro.rtmp.flv.audio.AacPacket
+import com.pedro.rtmp.flv.video.H264Packet
+import com.pedro.rtmp.flv.video.H265Packet
+import java.nio.ByteBuffer
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Packetize each frame only one time and send the same packets to multiple clients.
+ * Each client keeps his own cache so congestion and discard policy are handled per client.
+ *
+ * Keyframes are only requested, using onKeyFrameRequired, for clients that start after the last
+ * keyframe. Requests on discard are opt-in per client using RtmpClient.setOnKeyFrameRequired, so a
+ * congested client doesn't force keyframes to the others.
+ *
+ * Packets are shared by all clients so never modify a packet after create it.
+ * Don't use setUseBufferPool of the clients, use setUseBufferPool of this class instead.
+ */
+class RtmpFanOut(private val clients: List<RtmpClient>) {
+
+  private val aacPacket = AacPacket()
+  private val h264Packet = H264Packet()
+  private val h265Packet = H265Packet()
+  private var videoCodec = VideoCodec.H264
+  @Volatile
+  private var packetPool: FlvPacketPool? = null
+  //last config created, sent to clients that start after it.
+  //Written by the encoder thread of each type and cleared in reset from the caller thread.
+  @Volatile
+  private var audioConfig: FlvPacket? = null
+  @Volatile
+  private var videoConfig: FlvPacket? = null
+  private val callback: (FlvPacket) -> Unit = { flvPacket -> onPacket(flvPacket) }
+  /**
+   * Called when a client started after the last keyframe and needs one to start.
+   */
+  @Volatile
+  var onKeyFrameRequired: (() -> Unit)? = null
+
+  init {
+    clients.forEach {
+      it.setSharedPacketPool(null)
+      it.setOnSharedKeyFrameRequired { onKeyFrameRequired?.invoke() }
+    }
+  }
+
+  fun setVideoCodec(videoCodec: VideoCodec) {
+    this.videoCodec = videoCodec
+    clients.forEach { it.setVideoCodec(videoCodec) }
+  }
+
+  /**
+   * Reuse packets and buffers after all clients wrote it in the socket.
+   * Must be called before start stream.
+   */
+  fun setUseBufferPool(enabled: Boolean) {
+    packetPool?.clear()
+    val pool = if (enabled) FlvPacketPool() else null
+    packetPool = pool
+    aacPacket.packetPool = pool
+    h264Packet.packetPool = pool
+    h265Packet.packetPool = pool
+    clients.forEach { it.setSharedPacketPool(pool) }
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    aacPacket.sendAudioInfo(sampleRate, isStereo)
+    aacPacket.reset()
+    clients.forEach { it.setAudioInfo(sampleRate, isStereo) }
+  }
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    if (videoCodec == VideoCodec.H265) {
+      if (vps == null) throw IllegalArgumentException("vps can't be null with h265")
+      h265Packet.sendVideoInfo(sps, pps, vps)
+      h265Packet.reset(false)
+    } else {
+      h264Packet.sendVideoInfo(sps, pps)
+      h264Packet.reset(false)
+    }
+  }
+
+  fun sendVideo(videoBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (clients.none { it.isStreaming }) return
+    if (videoCodec == VideoCodec.H265) {
+      h265Packet.createFlvVideoPacket(videoBuffer, info, callback)
+    } else {
+      h264Packet.createFlvVideoPacket(videoBuffer, info, callback)
+    }
+  }
+
+  fun sendAudio(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (clients.none { it.isStreaming }) return
+    aacPacket.createFlvAudioPacket(aacBuffer, info, callback)
+  }
+
+  /**
+   * Discard config and info. Call it after stop all clients.
+   */
+  fun reset() {
+    audioConfig?.let { packetPool?.recycle(it) }
+    videoConfig?.let { packetPool?.recycle(it) }
+    audioConfig = null
+    videoConfig = null
+    aacPacket.reset()
+    h264Packet.reset()
+    h265Packet.reset()
+  }
+
+  private fun onPacket(flvPacket: FlvPacket) {
+    if (flvPacket.getFrameType() == FrameType.CONFIG) {
+      updateConfig(flvPacket)
+      return
+    }
+    val config = if (flvPacket.type == FlvType.AUDIO) audioConfig else videoConfig
+    val pool = packetPool
+    pool?.retain(flvPacket, clients.size)
+    clients.forEach { client ->
+      if (!client.sendSharedPacket(flvPacket, config)) pool?.recycle(flvPacket)
+    }
+    //release our own reference
+    pool?.recycle(flvPacket)
+  }
+
+  private fun updateConfig(flvPacket: FlvPacket) {
+    val old = if (flvPacket.type == FlvType.AUDIO) audioConfig else videoConfig
+    if (flvPacket.type == FlvType.AUDIO) audioConfig = flvPacket else videoConfig = flvPacket
+    old?.let { packetPool?.recycle(it) }
+    clients.forEach { it.resetSharedConfig(flvPacket.type) }
+  }
+}
\ No newline at end of file
@@ -20,10 +20,13 @@ import android.media.MediaCodec
 import android.util.Log
 import com.pedro.common.BitrateManager
 import com.pedro.common.ConnectChecker
+import com.pedro.common.FrameQueue
+import com.pedro.common.FrameType
+import com.pedro.common.TimeUtils
 import com.pedro.common.VideoCodec
 import com.pedro.common.onMainThread
-import com.pedro.common.trySend
 import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvPacketPool
 import com.pedro.rtmp.flv.FlvType
 import com.pedro.rtmp.flv.audio.AacPacket
 import com.pedro.rtmp.flv.video.H264Packet
@@ -39,8 +42,6 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
 import java.nio.ByteBuffer
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 
 /**
@@ -60,8 +61,9 @@ class RtmpSender(
 
   private var job: Job? = null
   private val scope = CoroutineScope(Dispatchers.IO)
-  @Volatile
-  private var queue: BlockingQueue<FlvPacket> = LinkedBlockingQueue(cacheSize)
+  private val queue = FrameQueue(cacheSize, FlvPacket::getFrameType).apply {
+    onDiscard = { flvPacket -> onFrameDiscarded(flvPacket) }
+  }
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
   var socket: RtmpSocket? = null
@@ -72,9 +74,38 @@ class RtmpSender(
   var videoCodec = VideoCodec.H264
   private val bitrateManager: BitrateManager = BitrateManager(connectChecker)
   private var isEnableLogs = true
+  @Volatile
+  private var packetPool: FlvPacketPool? = null
+  private val videoCallback: (FlvPacket) -> Unit = { flvPacket -> enqueueVideoFrame(flvPacket) }
+  private val audioCallback: (FlvPacket) -> Unit = { flvPacket -> enqueueAudioFrame(flvPacket) }
+  //config already sent using shared packets
+  @Volatile
+  private var audioConfigSent = false
+  @Volatile
+  private var videoConfigSent = false
+  private var keyFrameRequested = false
+  //keyframe needed to start sending shared packets, independent of the discard policy of the queue
+  @Volatile
+  private var onSharedKeyFrameRequired: (() -> Unit)? = null
+  //packets waiting to be sent in the same aggregate message
+  private val aggregatePackets = ArrayList<FlvPacket>()
+  private var aggregateBytes = 0
+  private var aggregateStart = 0L
+  @Volatile
+  private var aggregateWindow = 0L
+  //packets written with a single flush
+  private val batch = ArrayList<FlvPacket>()
+  @Volatile
+  private var batchMaxBytes = 0
+  @Volatile
+  private var batchMaxLatency = 0L
+  //packet polled that doesn't fit in the current batch, it is the first of the next batch
+  private var batchCarried: FlvPacket? = null
 
   companion object {
     private const val TAG = "RtmpSender"
+    //max body size of an aggregate message
+    private const val MAX_AGGREGATE_SIZE = 64 * 1024
   }
 
   fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
@@ -90,46 +121,156 @@ class RtmpSender(
     aacPacket.sendAudioInfo(sampleRate, isStereo)
   }
 
+  /**
+   * Reuse FlvPacket and buffers after write it in the socket instead of allocate it per frame.
+   * Must be called before start stream.
+   */
+  fun setUseBufferPool(enabled: Boolean) {
+    packetPool?.clear()
+    val pool = if (enabled) FlvPacketPool() else null
+    packetPool = pool
+    aacPacket.packetPool = pool
+    h264Packet.packetPool = pool
+    h265Packet.packetPool = pool
+  }
+
+  /**
+   * Send consecutive audio/video packets in a single aggregate message. Packets are stored until
+   * the window time is reached (using packet timestamps or time waiting) so the latency is increased
+   * up to window. Config and packets bigger than 64KB are sent alone.
+   *
+   * @param windowMs 0 to disable it.
+   */
+  fun setAggregateWindow(windowMs: Long) {
+    aggregateWindow = windowMs.coerceAtLeast(0)
+  }
+
+  /**
+   * Write all packets queued in a single batch with only one flush instead of flush per packet.
+   * Packets are written in timestamp order and the bitrate is calculated per batch.
+   * Ignored if aggregate window is enabled.
+   *
+   * @param maxBytes max bytes of a batch. 0 to disable it.
+   * @param maxLatencyMs max time waiting for more packets if the batch is not full. 0 to only send
+   * packets already queued.
+   */
+  fun setBatchMode(maxBytes: Int, maxLatencyMs: Long) {
+    batchMaxBytes = maxBytes.coerceAtLeast(0)
+    batchMaxLatency = maxLatencyMs.coerceAtLeast(0)
+  }
+
+  /**
+   * Use the pool of a shared packetizer to recycle packets received using sendSharedPacket.
+   */
+  internal fun setSharedPacketPool(pool: FlvPacketPool?) {
+    packetPool = pool
+  }
+
+  /**
+   * Enqueue a packet created by a shared packetizer (RtmpFanOut). The sender could start after the
+   * config was created so config is sent before the first audio packet and video keyframe.
+   *
+   * @return true if the sender is the owner of the packet and will recycle it.
+   */
+  internal fun sendSharedPacket(flvPacket: FlvPacket, config: FlvPacket?): Boolean {
+    if (!running) return false
+    if (flvPacket.type == FlvType.AUDIO) {
+      if (!audioConfigSent) {
+        if (config == null) return false
+        packetPool?.retain(config)
+        queue.offer(config)
+        audioConfigSent = true
+      }
+    } else if (!videoConfigSent) {
+      if (config == null || flvPacket.getFrameType() != FrameType.KEY_FRAME) {
+        if (!keyFrameRequested) {
+          keyFrameRequested = true
+          onSharedKeyFrameRequired?.invoke()
+        }
+        return false
+      }
+      packetPool?.retain(config)
+      queue.offer(config)
+      videoConfigSent = true
+    }
+    queue.offer(flvPacket)
+    return true
+  }
+
+  internal fun setOnSharedKeyFrameRequired(callback: (() -> Unit)?) {
+    onSharedKeyFrameRequired = callback
+  }
+
+  /**
+   * Config of the shared packetizer changed so we need send it again.
+   */
+  internal fun resetSharedConfig(type: FlvType) {
+    if (type == FlvType.AUDIO) {
+      audioConfigSent = false
+    } else {
+      videoConfigSent = false
+      keyFrameRequested = false
+    }
+  }
+
+  /**
+   * Called when video is discarded by congestion. Request a keyframe to the encoder to recover faster.
+   */
+  fun setOnKeyFrameRequired(callback: (() -> Unit)?) {
+    queue.onKeyFrameRequired = callback
+  }
+
   private fun enqueueVideoFrame(flvPacket: FlvPacket) {
-    val result = queue.trySend(flvPacket)
-    if (!result) {
+    queue.offer(flvPacket)
+  }
+
+  private fun enqueueAudioFrame(flvPacket: FlvPacket) {
+    queue.offer(flvPacket)
+  }
+
+  private fun onFrameDiscarded(flvPacket: FlvPacket) {
+    if (flvPacket.type == FlvType.VIDEO) {
       Log.i(TAG, "Video frame discarded")
       droppedVideoFrames++
+    } else {
+      Log.i(TAG, "Audio frame discarded")
+      droppedAudioFrames++
     }
+    packetPool?.recycle(flvPacket)
   }
 
   fun sendVideoFrame(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       if (videoCodec == VideoCodec.H265) {
-        h265Packet.createFlvVideoPacket(h264Buffer, info) { flvPacket ->
-          enqueueVideoFrame(flvPacket)
-        }
+        h265Packet.createFlvVideoPacket(h264Buffer, info, videoCallback)
       } else {
-        h264Packet.createFlvVideoPacket(h264Buffer, info) { flvPacket ->
-          enqueueVideoFrame(flvPacket)
-        }
+        h264Packet.createFlvVideoPacket(h264Buffer, info, videoCallback)
       }
     }
   }
 
   fun sendAudioFrame(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
-      aacPacket.createFlvAudioPacket(aacBuffer, info) { flvPacket ->
-        val result = queue.trySend(flvPacket)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
-        }
-      }
+      aacPacket.createFlvAudioPacket(aacBuffer, info, audioCallback)
     }
   }
 
   fun start() {
-    queue.clear()
+    clearPending()
+    //packets waiting an aggregate message of the previous stream
+    aggregatePackets.forEach { packetPool?.recycle(it) }
+    aggregatePackets.clear()
+    aggregateBytes = 0
+    audioConfigSent = false
+    videoConfigSent = false
+    keyFrameRequested = false
     running = true
+    //aggregate messages already reduce writes so it has priority over batches
+    val batchMode = batchMaxBytes > 0 && aggregateWindow == 0L
     job = scope.launch {
       var bytesSend = 0L
-      val bitrateTask = async {
+      //bitrate is calculated per batch in batch mode
+      val bitrateTask = if (batchMode) null else async {
         while (scope.isActive && running) {
           //bytes to bits
           bitrateManager.calculateBitrate(bytesSend * 8)
@@ -139,31 +280,29 @@ class RtmpSender(
       }
       while (scope.isActive && running) {
         val error = runCatching {
+          if (batchMode) {
+            //bytes to bits
+            bitrateManager.calculateBitrate(sendBatch() * 8L)
+            return@runCatching
+          }
+          val timeout = if (aggregatePackets.isEmpty()) 1000L else {
+            (aggregateWindow - (TimeUtils.getCurrentTimeMillis() - aggregateStart)).coerceAtLeast(0)
+          }
           val flvPacket = runInterruptible {
-            queue.poll(1, TimeUnit.SECONDS)
+            queue.poll(timeout, TimeUnit.MILLISECONDS)
           }
           if (flvPacket == null) {
-            Log.i(TAG, "Skipping iteration, frame null")
-          } else {
-            var size = 0
-            if (flvPacket.type == FlvType.VIDEO) {
-              videoFramesSent++
-              socket?.let { socket ->
-                size = commandsManager.sendVideoPacket(flvPacket, socket)
-                if (isEnableLogs) {
-                  Log.i(TAG, "wrote Video packet, size $size")
-                }
-              }
+            if (aggregatePackets.isNotEmpty()) {
+              bytesSend += sendAggregate()
             } else {
-              audioFramesSent++
-              socket?.let { socket ->
-                size = commandsManager.sendAudioPacket(flvPacket, socket)
-                if (isEnableLogs) {
-                  Log.i(TAG, "wrote Audio packet, size $size")
-                }
-              }
+              Log.i(TAG, "Skipping iteration, frame null")
             }
-            bytesSend += size
+          } else if (aggregateWindow > 0 && canAggregate(flvPacket)) {
+            bytesSend += addAggregatePacket(flvPacket)
+          } else {
+            //keep packets order
+            if (aggregatePackets.isNotEmpty()) bytesSend += sendAggregate()
+            bytesSend += sendPacket(flvPacket)
           }
         }.exceptionOrNull()
         if (error != null) {
@@ -177,6 +316,115 @@ class RtmpSender(
     }
   }
 
+  /**
+   * Wait the first packet and collect all packets queued until maxBytes or maxLatency.
+   * @return bytes written
+   */
+  private suspend fun sendBatch(): Int {
+    val first = batchCarried ?: runInterruptible { queue.poll(1, TimeUnit.SECONDS) }
+    batchCarried = null
+    if (first == null) {
+      Log.i(TAG, "Skipping iteration, frame null")
+      return 0
+    }
+    batch.add(first)
+    var bytes = first.length
+    val deadline = TimeUtils.getCurrentTimeMillis() + batchMaxLatency
+    val accept: (FlvPacket) -> Boolean = {
+      val accepted = bytes + it.length <= batchMaxBytes
+      if (accepted) bytes += it.length
+      accepted
+    }
+    while (true) {
+      queue.drainTo(batch, accept)
+      val remaining = deadline - TimeUtils.getCurrentTimeMillis()
+      if (bytes >= batchMaxBytes || remaining <= 0 || queue.size > 0) break
+      val flvPacket = runInterruptible { queue.poll(remaining, TimeUnit.MILLISECONDS) } ?: break
+      if (!accept(flvPacket)) {
+        batchCarried = flvPacket
+        break
+      }
+      batch.add(flvPacket)
+    }
+    //audio and video are queued when encoded, write it in timestamp order
+    batch.sortBy { it.timeStamp }
+    var size = 0
+    batch.forEach { if (it.type == FlvType.VIDEO) videoFramesSent++ else audioFramesSent++ }
+    socket?.let { socket ->
+      size = commandsManager.sendPackets(batch, socket)
+      if (isEnableLogs) {
+        Log.i(TAG, "wrote batch, packets ${batch.size}, size $size")
+      }
+    }
+    batch.forEach { packetPool?.recycle(it) }
+    batch.clear()
+    return size
+  }
+
+  private suspend fun sendPacket(flvPacket: FlvPacket): Int {
+    var size = 0
+    if (flvPacket.type == FlvType.VIDEO) {
+      videoFramesSent++
+      socket?.let { socket ->
+        size = commandsManager.sendVideoPacket(flvPacket, socket)
+        if (isEnableLogs) {
+          Log.i(TAG, "wrote Video packet, size $size")
+        }
+      }
+    } else {
+      audioFramesSent++
+      socket?.let { socket ->
+        size = commandsManager.sendAudioPacket(flvPacket, socket)
+        if (isEnableLogs) {
+          Log.i(TAG, "wrote Audio packet, size $size")
+        }
+      }
+    }
+    //packet already written in the socket, we can reuse it
+    packetPool?.recycle(flvPacket)
+    return size
+  }
+
+  private suspend fun sendAggregate(): Int {
+    if (aggregatePackets.size == 1) {
+      val size = sendPacket(aggregatePackets[0])
+      aggregatePackets.clear()
+      aggregateBytes = 0
+      return size
+    }
+    var size = 0
+    aggregatePackets.forEach { if (it.type == FlvType.VIDEO) videoFramesSent++ else audioFramesSent++ }
+    socket?.let { socket ->
+      size = commandsManager.sendAggregatePacket(aggregatePackets, socket)
+      if (isEnableLogs) {
+        Log.i(TAG, "wrote Aggregate packet, messages ${aggregatePackets.size}, size $size")
+      }
+    }
+    aggregatePackets.clear()
+    aggregateBytes = 0
+    return size
+  }
+
+  /**
+   * @return bytes sent if the aggregate message was sent
+   */
+  private suspend fun addAggregatePacket(flvPacket: FlvPacket): Int {
+    var size = 0
+    if (aggregateBytes + flvPacket.length > MAX_AGGREGATE_SIZE) size += sendAggregate()
+    if (aggregatePackets.isEmpty()) aggregateStart = TimeUtils.getCurrentTimeMillis()
+    aggregatePackets.add(flvPacket)
+    aggregateBytes += flvPacket.length
+    if (flvPacket.timeStamp - aggregatePackets[0].timeStamp >= aggregateWindow
+      || TimeUtils.getCurrentTimeMillis() - aggregateStart >= aggregateWindow) {
+      size += sendAggregate()
+    }
+    return size
+  }
+
+  private fun canAggregate(flvPacket: FlvPacket): Boolean {
+    return flvPacket.length <= MAX_AGGREGATE_SIZE && flvPacket.getFrameType() != FrameType.CONFIG
+  }
+
   suspend fun stop(clear: Boolean = true) {
     running = false
     aacPacket.reset()
@@ -184,11 +432,21 @@ class RtmpSender(
     h265Packet.reset(clear)
     resetSentAudioFrames()
     resetSentVideoFrames()
-    resetDroppedAudioFrames()
-    resetDroppedVideoFrames()
     job?.cancelAndJoin()
     job = null
+    clearPending()
+    //after clear, packets cleared are counted as discarded
+    resetDroppedAudioFrames()
+    resetDroppedVideoFrames()
+  }
+
+  /**
+   * Release packets queued and the packet carried to the next batch. The send job must be stopped.
+   */
+  private fun clearPending() {
     queue.clear()
+    batchCarried?.let { packetPool?.recycle(it) }
+    batchCarried = null
   }
 
   @Throws(IllegalArgumentException::class)
@@ -197,16 +455,27 @@ class RtmpSender(
     val size = queue.size.toFloat()
     val remaining = queue.remainingCapacity().toFloat()
     val capacity = size + remaining
-    return size >= capacity * (percentUsed / 100f)
+    return size >= capacity * (percentUsed / 100f) || hasSocketCongestion(percentUsed)
+        || commandsManager.acknowledgementEstimator.hasCongestion(percentUsed)
+  }
+
+  /**
+   * Non blocking sockets report bytes that the kernel can't accept yet. This is detected before
+   * the queue is filled.
+   */
+  private fun hasSocketCongestion(percentUsed: Float): Boolean {
+    val socket = this.socket ?: return false
+    val maxUnsent = socket.getMaxUnsentBytes()
+    if (maxUnsent <= 0) return false
+    val unsent = socket.getUnsentBytes()
+    return unsent > 0 && unsent >= maxUnsent * (percentUsed / 100f)
   }
 
   fun resizeCache(newSize: Int) {
     if (newSize < queue.size - queue.remainingCapacity()) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<FlvPacket> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    queue.resize(newSize)
   }
 
   fun getCacheSize(): Int {
@@ -216,6 +485,7 @@ class RtmpSender(
   fun getItemsInCache(): Int = queue.size
 
   fun clearCache() {
+    //the packet carried to the next batch is owned by the send job and will be sent
     queue.clear()
   }
 
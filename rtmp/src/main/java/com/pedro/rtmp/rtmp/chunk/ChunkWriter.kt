@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp.chunk
+
+import com.pedro.rtmp.rtmp.message.BasicHeader
+import com.pedro.rtmp.rtmp.message.RtmpMessage
+import com.pedro.rtmp.utils.RtmpConfig
+import com.pedro.rtmp.utils.socket.RtmpSocket
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Write a rtmp message (header and all chunks) in a reusable buffer and send it with a single write.
+ *
+ * The body is copied from the message to the buffer interleaving TYPE_3 headers between chunks.
+ * Video and Audio messages return the FlvPacket buffer as body so no intermediate copy is created
+ * for them. The socket could copy it again, TcpSocket writes in a BufferedOutputStream that copies
+ * messages smaller than its buffer (8KB) to send them together in the next flush.
+ */
+class ChunkWriter(private val direct: Boolean = false) {
+
+  private var buffer: ByteBuffer = allocate(INITIAL_SIZE)
+  //headers are immutable, reuse it while the chunk stream id doesn't change
+  private var continuationHeader = BasicHeader(ChunkType.TYPE_3, 0)
+
+  companion object {
+    private const val INITIAL_SIZE = 64 * 1024
+    //basic header (1 byte), message header (11 bytes) and extended timestamp (4 bytes)
+    private const val MAX_HEADER_SIZE = 16
+    //basic header (1 byte) and extended timestamp (4 bytes)
+    private const val MAX_CONTINUATION_HEADER_SIZE = 5
+  }
+
+  /**
+   * @return bytes written in the socket
+   */
+  @Throws(IOException::class)
+  fun write(message: RtmpMessage, socket: RtmpSocket, chunkSize: Int = RtmpConfig.writeChunkSize): Int {
+    val buffer = fill(message, chunkSize)
+    val size = buffer.remaining()
+    socket.write(buffer)
+    return size
+  }
+
+  /**
+   * Same as write in a socket but used for messages written in the socket output stream.
+   * Direct buffers are copied to the stream.
+   */
+  @Throws(IOException::class)
+  fun write(message: RtmpMessage, output: OutputStream, chunkSize: Int = RtmpConfig.writeChunkSize): Int {
+    val buffer = fill(message, chunkSize)
+    val size = buffer.remaining()
+    if (buffer.hasArray()) {
+      output.write(buffer.array(), buffer.arrayOffset(), size)
+    } else {
+      val bytes = ByteArray(size)
+      buffer.get(bytes)
+      output.write(bytes)
+    }
+    return size
+  }
+
+  /**
+   * Put the message in the internal buffer ready to read (position 0 and limit the message size).
+   * The buffer is reused in the next call.
+   */
+  fun fill(message: RtmpMessage, chunkSize: Int = RtmpConfig.writeChunkSize): ByteBuffer {
+    val header = message.header
+    val body = message.storeBody()
+    val length = message.getSize()
+    val chunks = if (length == 0) 1 else (length + chunkSize - 1) / chunkSize
+    val buffer = ensureCapacity(MAX_HEADER_SIZE + length + (chunks - 1) * MAX_CONTINUATION_HEADER_SIZE)
+    buffer.clear()
+    header.writeHeader(header.basicHeader, buffer)
+    val continuationHeader = getContinuationHeader(header.basicHeader.chunkStreamId)
+    var pos = 0
+    var remaining = length
+    while (remaining > chunkSize) {
+      buffer.put(body, pos, chunkSize)
+      remaining -= chunkSize
+      pos += chunkSize
+      header.writeHeader(continuationHeader, buffer)
+    }
+    buffer.put(body, pos, remaining)
+    buffer.flip()
+    return buffer
+  }
+
+  private fun getContinuationHeader(chunkStreamId: Int): BasicHeader {
+    if (continuationHeader.chunkStreamId != chunkStreamId) {
+      continuationHeader = BasicHeader(ChunkType.TYPE_3, chunkStreamId)
+    }
+    return continuationHeader
+  }
+
+  private fun ensureCapacity(size: Int): ByteBuffer {
+    if (buffer.capacity() < size) {
+      buffer = allocate(Integer.highestOneBit(size - 1) shl 1)
+    }
+    return buffer
+  }
+
+  private fun allocate(size: Int): ByteBuffer {
+    return if (direct) ByteBuffer.allocateDirect(size) else ByteBuffer.allocate(size)
+  }
+}
\ No newline at end of file
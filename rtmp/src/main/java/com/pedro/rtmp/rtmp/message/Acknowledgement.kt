@@ -26,9 +26,13 @@ import java.io.InputStream
 /**
  * Created by pedro on 21/04/21.
  */
-class Acknowledgement(private var sequenceNumber: Int = 0):
+class Acknowledgement(sequenceNumber: Int = 0):
     RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.PROTOCOL_CONTROL.mark)) {
 
+  //total bytes received, UInt32 that could wrap
+  var sequenceNumber = sequenceNumber
+    private set
+
   override fun readBody(input: InputStream) {
     sequenceNumber = input.readUInt32()
   }
@@ -16,26 +16,102 @@
 
 package com.pedro.rtmp.rtmp.message
 
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvType
 import com.pedro.rtmp.rtmp.chunk.ChunkStreamId
 import com.pedro.rtmp.rtmp.chunk.ChunkType
+import com.pedro.rtmp.utils.readUntil
 import java.io.InputStream
 
 /**
  * Created by pedro on 21/04/21.
+ *
+ * Multiple audio/video messages in a single message. The body is a list of FLV tags:
+ * tag header (11 bytes), tag data and back pointer (4 bytes, size of header and data).
+ * Message timestamp is the timestamp of the first tag, the server use the tag timestamps
+ * relative to it.
+ *
+ * The body buffer is reused after clear.
  */
-class Aggregate: RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.PROTOCOL_CONTROL.mark)) {
+class Aggregate(streamId: Int = 0): RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.VIDEO.mark)) {
 
-  override fun readBody(input: InputStream) {
-    TODO("Not yet implemented")
+  companion object {
+    private const val TAG_HEADER_SIZE = 11
+    private const val BACK_POINTER_SIZE = 4
+    private const val TAG_AUDIO = 8
+    private const val TAG_VIDEO = 9
+  }
+
+  private var body = ByteArray(0)
+  private var bodySize = 0
+  var count = 0
+    private set
+  var firstTimeStamp = 0L
+    private set
+
+  init {
+    header.messageStreamId = streamId
+  }
+
+  fun add(flvPacket: FlvPacket, timeStamp: Long = flvPacket.timeStamp) {
+    if (count == 0) {
+      firstTimeStamp = timeStamp
+      header.timeStamp = timeStamp.toInt()
+    }
+    val tagSize = TAG_HEADER_SIZE + flvPacket.length
+    ensureCapacity(bodySize + tagSize + BACK_POINTER_SIZE)
+    var pos = bodySize
+    body[pos++] = (if (flvPacket.type == FlvType.VIDEO) TAG_VIDEO else TAG_AUDIO).toByte()
+    pos = putInt24(pos, flvPacket.length)
+    pos = putInt24(pos, (timeStamp and 0xffffff).toInt())
+    body[pos++] = (timeStamp ushr 24).toByte()
+    pos = putInt24(pos, 0)
+    System.arraycopy(flvPacket.buffer, 0, body, pos, flvPacket.length)
+    pos += flvPacket.length
+    putInt24(pos + 1, tagSize)
+    body[pos] = (tagSize ushr 24).toByte()
+    bodySize = pos + BACK_POINTER_SIZE
+    count++
+    header.messageLength = bodySize
+  }
+
+  fun clear() {
+    bodySize = 0
+    count = 0
+    header.messageLength = 0
   }
 
-  override fun storeBody(): ByteArray {
-    TODO("Not yet implemented")
+  fun setStreamId(streamId: Int) {
+    header.messageStreamId = streamId
   }
 
+  override fun readBody(input: InputStream) {
+    //not handled, stored to keep the stream aligned
+    val bytes = ByteArray(header.messageLength)
+    input.readUntil(bytes)
+    body = bytes
+    bodySize = bytes.size
+  }
+
+  override fun storeBody(): ByteArray = body
+
   override fun getType(): MessageType = MessageType.AGGREGATE
 
-  override fun getSize(): Int {
-    TODO("Not yet implemented")
+  override fun getSize(): Int = bodySize
+
+  private fun putInt24(pos: Int, value: Int): Int {
+    body[pos] = (value ushr 16).toByte()
+    body[pos + 1] = (value ushr 8).toByte()
+    body[pos + 2] = value.toByte()
+    return pos + 3
+  }
+
+  private fun ensureCapacity(size: Int) {
+    if (body.size >= size) return
+    body = body.copyOf(Integer.highestOneBit(size - 1) shl 1)
+  }
+
+  override fun toString(): String {
+    return "Aggregate, messages: $count, size: ${getSize()}"
   }
 }
\ No newline at end of file
@@ -24,11 +24,15 @@ import java.io.InputStream
 /**
  * Created by pedro on 21/04/21.
  */
-class Audio(private val flvPacket: FlvPacket = FlvPacket(), streamId: Int = 0): RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.AUDIO.mark)) {
+class Audio(
+  private val flvPacket: FlvPacket = FlvPacket(),
+  streamId: Int = 0,
+  timeStamp: Long = flvPacket.timeStamp
+): RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.AUDIO.mark)) {
 
   init {
     header.messageStreamId = streamId
-    header.timeStamp = flvPacket.timeStamp.toInt()
+    header.timeStamp = timeStamp.toInt()
     header.messageLength = flvPacket.length
   }
 
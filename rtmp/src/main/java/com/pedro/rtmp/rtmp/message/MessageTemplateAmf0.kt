@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp.message
+
+import com.pedro.rtmp.amf.v0.Amf0Writer
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * AMF0 command or data message encoded once and reused. The body start with the name and,
+ * for commands, the transaction id. Arguments are written using the writer.
+ *
+ * The transaction id, timestamp and stream id are patched in place before send it so a template
+ * could be sent multiple times (reconnections) without encode it again.
+ */
+class MessageTemplateAmf0(
+  val name: String,
+  private val messageType: MessageType,
+  basicHeader: BasicHeader
+): RtmpMessage(basicHeader) {
+
+  val writer = Amf0Writer()
+  //position of the transaction id marker, -1 for data messages
+  private val transactionIdOffset: Int
+  private val argumentsOffset: Int
+  var commandId = 0
+    private set
+
+  init {
+    writer.writeString(name)
+    transactionIdOffset = if (messageType == MessageType.COMMAND_AMF0) {
+      val offset = writer.size
+      writer.writeNumber(0.0)
+      offset
+    } else -1
+    argumentsOffset = writer.size
+  }
+
+  /**
+   * Remove all arguments to write new ones.
+   */
+  fun clearArguments() {
+    writer.reset(argumentsOffset)
+  }
+
+  /**
+   * Prepare the message to be sent. Must be called after write arguments.
+   */
+  fun update(commandId: Int, timeStamp: Int, streamId: Int) {
+    this.commandId = commandId
+    if (transactionIdOffset >= 0) writer.setNumber(transactionIdOffset, commandId.toDouble())
+    header.timeStamp = timeStamp
+    header.messageStreamId = streamId
+    header.messageLength = writer.size
+  }
+
+  override fun readBody(input: InputStream) {
+    throw IOException("Message template can't be read")
+  }
+
+  /**
+   * @return the writer array without copy it. Only the first getSize() bytes are valid.
+   */
+  override fun storeBody(): ByteArray = writer.array()
+
+  override fun getType(): MessageType = messageType
+
+  override fun getSize(): Int = writer.size
+
+  override fun toString(): String {
+    return "MessageTemplateAmf0(name='$name', transactionId=$commandId, timeStamp=${header.timeStamp}, streamId=${header.messageStreamId}, bodySize=${getSize()})"
+  }
+}
\ No newline at end of file
@@ -21,6 +21,7 @@ import com.pedro.rtmp.utils.*
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
+import java.nio.ByteBuffer
 import kotlin.math.min
 
 /**
@@ -159,6 +160,59 @@ class RtmpHeader(var basicHeader: BasicHeader) {
     }
   }
 
+  /**
+   * Same as writeHeader with OutputStream but writing directly in a buffer.
+   * Check ChunkType class to know header structure
+   */
+  fun writeHeader(basicHeader: BasicHeader, buffer: ByteBuffer) {
+    // Write basic header byte
+    buffer.put(((basicHeader.chunkType.mark.toInt() shl 6) or basicHeader.chunkStreamId).toByte())
+    when (basicHeader.chunkType) {
+      ChunkType.TYPE_0 -> {
+        buffer.putUInt24(min(timeStamp, 0xffffff))
+        buffer.putUInt24(messageLength)
+        messageType?.let { messageType ->
+          buffer.put(messageType.mark)
+        }
+        buffer.putInt(Integer.reverseBytes(messageStreamId))
+        //extended timestamp
+        if (timeStamp > 0xffffff) {
+          buffer.putInt(timeStamp)
+        }
+      }
+      ChunkType.TYPE_1 -> {
+        buffer.putUInt24(min(timeStamp, 0xffffff))
+        buffer.putUInt24(messageLength)
+        messageType?.let { messageType ->
+          buffer.put(messageType.mark)
+        }
+        //extended timestamp
+        if (timeStamp > 0xffffff) {
+          buffer.putInt(timeStamp)
+        }
+      }
+      ChunkType.TYPE_2 -> {
+        buffer.putUInt24(min(timeStamp, 0xffffff))
+        //extended timestamp
+        if (timeStamp > 0xffffff) {
+          buffer.putInt(timeStamp)
+        }
+      }
+      ChunkType.TYPE_3 -> {
+        //extended timestamp
+        if (timeStamp > 0xffffff) {
+          buffer.putInt(timeStamp)
+        }
+      }
+    }
+  }
+
+  private fun ByteBuffer.putUInt24(value: Int) {
+    put((value ushr 16).toByte())
+    put((value ushr 8).toByte())
+    put(value.toByte())
+  }
+
   fun getPacketLength(): Int = messageLength + basicHeader.getHeaderSize(timeStamp)
 
   override fun toString(): String {
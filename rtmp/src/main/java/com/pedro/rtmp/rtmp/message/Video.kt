@@ -24,11 +24,15 @@ import java.io.InputStream
 /**
  * Created by pedro on 21/04/21.
  */
-class Video(private val flvPacket: FlvPacket = FlvPacket(), streamId: Int = 0): RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.VIDEO.mark)) {
+class Video(
+  private val flvPacket: FlvPacket = FlvPacket(),
+  streamId: Int = 0,
+  timeStamp: Long = flvPacket.timeStamp
+): RtmpMessage(BasicHeader(ChunkType.TYPE_0, ChunkStreamId.VIDEO.mark)) {
 
   init {
     header.messageStreamId = streamId
-    header.timeStamp = flvPacket.timeStamp.toInt()
+    header.timeStamp = timeStamp.toInt()
     header.messageLength = flvPacket.length
   }
 
@@ -16,6 +16,7 @@
 
 package com.pedro.rtmp.rtmp.message.command
 
+import com.pedro.rtmp.amf.v0.Amf0Reader
 import com.pedro.rtmp.amf.v0.AmfData
 import com.pedro.rtmp.amf.v0.AmfNumber
 import com.pedro.rtmp.amf.v0.AmfObject
@@ -24,16 +25,25 @@ import com.pedro.rtmp.rtmp.chunk.ChunkStreamId
 import com.pedro.rtmp.rtmp.chunk.ChunkType
 import com.pedro.rtmp.rtmp.message.BasicHeader
 import com.pedro.rtmp.rtmp.message.MessageType
+import com.pedro.rtmp.utils.readUntil
+import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
+import java.io.IOException
 import java.io.InputStream
 
 /**
  * Created by pedro on 21/04/21.
+ *
+ * Commands read from the server are decoded lazily. Only name and transaction id are decoded
+ * on read, other values are located in the body when requested.
  */
 class CommandAmf0(name: String = "", commandId: Int = 0, private val timestamp: Int = 0, private val streamId: Int = 0, basicHeader: BasicHeader =
     BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_CONNECTION.mark)): Command(name, commandId, timestamp, streamId, basicHeader = basicHeader) {
 
   private val data: MutableList<AmfData> = mutableListOf()
+  //body read and not decoded in data yet
+  private var body: ByteArray? = null
+  private val reader = Amf0Reader()
 
   init {
     val amfString = AmfString(name)
@@ -45,44 +55,64 @@ class CommandAmf0(name: String = "", commandId: Int = 0, private val timestamp:
   }
 
   fun addData(amfData: AmfData) {
+    decode()
     data.add(amfData)
     bodySize += amfData.getSize() + 1
     header.messageLength = bodySize
   }
 
   override fun getStreamId(): Int {
-    return (data[3] as AmfNumber).value.toInt()
+    if (body == null) return (data[3] as AmfNumber).value.toInt()
+    return reader.readNumber(reader.getValueOffset(3))?.toInt() ?: throw ClassCastException("stream id is not a number")
   }
 
   override fun getDescription(): String {
-    return ((data[3] as AmfObject).getProperty("description") as AmfString).value
+    if (body == null) return ((data[3] as AmfObject).getProperty("description") as AmfString).value
+    return getInfoProperty("description")
   }
 
   override fun getCode(): String {
-    return ((data[3] as AmfObject).getProperty("code") as AmfString).value
+    if (body == null) return ((data[3] as AmfObject).getProperty("code") as AmfString).value
+    return getInfoProperty("code")
   }
 
   override fun readBody(input: InputStream) {
     data.clear()
+    val bytes = ByteArray(header.messageLength)
+    input.readUntil(bytes)
+    reader.setData(bytes, bytes.size)
+    //check that the body is valid without decode it
+    var offset = 0
+    while (offset < bytes.size) offset = reader.skipValue(offset)
+    body = bytes
+    reader.readString(reader.getValueOffset(0))?.let { name = it }
+    reader.readNumber(reader.getValueOffset(1))?.let { commandId = it.toInt() }
+    bodySize = bytes.size
+  }
+
+  private fun getInfoProperty(name: String): String {
+    val offset = reader.findProperty(reader.getValueOffset(3), name)
+    return reader.readString(offset) ?: throw ClassCastException("$name is not a string")
+  }
+
+  /**
+   * Decode the body read in AmfData values.
+   */
+  @Throws(IOException::class)
+  private fun decode() {
+    val bytes = body ?: return
+    body = null
+    val input = ByteArrayInputStream(bytes)
     var bytesRead = 0
-    while (bytesRead < header.messageLength) {
+    while (bytesRead < bytes.size) {
       val amfData = AmfData.getAmfData(input)
       bytesRead += amfData.getSize() + 1
       data.add(amfData)
     }
-    if (data.isNotEmpty()) {
-      if (data[0] is AmfString) {
-        name = (data[0] as AmfString).value
-      }
-      if (data.size >= 2 && data[1] is AmfNumber) {
-        commandId = (data[1] as AmfNumber).value.toInt()
-      }
-    }
-    bodySize = bytesRead
-    header.messageLength = bodySize
   }
 
   override fun storeBody(): ByteArray {
+    decode()
     val byteArrayOutputStream = ByteArrayOutputStream()
     data.forEach {
       it.writeHeader(byteArrayOutputStream)
@@ -94,6 +124,7 @@ class CommandAmf0(name: String = "", commandId: Int = 0, private val timestamp:
   override fun getType(): MessageType = MessageType.COMMAND_AMF0
 
   override fun toString(): String {
+    decode()
     return "Command(name='$name', transactionId=$commandId, timeStamp=$timestamp, streamId=$streamId, data=$data, bodySize=$bodySize)"
   }
 }
\ No newline at end of file
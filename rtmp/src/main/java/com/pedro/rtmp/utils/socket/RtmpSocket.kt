@@ -16,8 +16,10 @@
 
 package com.pedro.rtmp.utils.socket
 
+import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
+import java.nio.ByteBuffer
 
 /**
  * Created by pedro on 5/4/22.
@@ -39,4 +41,37 @@ abstract class RtmpSocket {
   abstract fun close()
   abstract fun isConnected(): Boolean
   abstract fun isReachable(): Boolean
+
+  /**
+   * Bytes accepted by the socket that are still waiting to be written in the kernel send buffer.
+   * Always 0 in blocking implementations.
+   */
+  open fun getUnsentBytes(): Int = 0
+
+  /**
+   * Max unsent bytes before packet writes block. 0 if writes always block.
+   */
+  open fun getMaxUnsentBytes(): Int = 0
+
+  /**
+   * Total time in milliseconds blocked waiting for the socket to be writable.
+   */
+  open fun getWriteStallTime(): Long = 0
+
+  /**
+   * Write buffer content from position to limit.
+   * By default it is written in the output stream, buffered streams copy writes smaller than
+   * its buffer. Socket implementations could override it to write the buffer without copy it.
+   */
+  @Throws(IOException::class)
+  open fun write(buffer: ByteBuffer) {
+    if (buffer.hasArray()) {
+      getOutStream().write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+      buffer.position(buffer.limit())
+    } else {
+      val bytes = ByteArray(buffer.remaining())
+      buffer.get(bytes)
+      getOutStream().write(bytes)
+    }
+  }
 }
\ No newline at end of file
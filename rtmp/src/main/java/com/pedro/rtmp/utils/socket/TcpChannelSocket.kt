@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.utils.socket
+
+import com.pedro.common.TimeUtils
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetSocketAddress
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.SocketChannel
+import java.security.GeneralSecurityException
+import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLEngine
+import javax.net.ssl.SSLEngineResult
+import javax.net.ssl.SSLException
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Socket implementation using a non blocking SocketChannel. TLS is done with SSLEngine.
+ *
+ * Packets (flush with isPacket = true) are written without block while the bytes that the kernel
+ * can't accept are under maxUnsentBytes. The rest of writes (commands) block until all data is sent.
+ * Unsent bytes and time blocked waiting to write are exposed as congestion signals.
+ */
+class TcpChannelSocket(
+  private val host: String,
+  private val port: Int,
+  private val secured: Boolean,
+  private val maxUnsentBytes: Int = 512 * 1024
+): RtmpSocket() {
+
+  private var channel: SocketChannel? = null
+  private var readSelector: Selector? = null
+  private var writeSelector: Selector? = null
+  private var sslEngine: SSLEngine? = null
+  private val writeLock = Any()
+  private val readLock = Any()
+  //data ready to write in the channel (encrypted if secured), always in read mode
+  private var pending: ByteBuffer = ByteBuffer.allocateDirect(64 * 1024).apply { limit(0) }
+  //received data from channel, write mode
+  private var netIn: ByteBuffer = ByteBuffer.allocateDirect(32 * 1024)
+  //decrypted data if secured, read mode
+  private var appIn: ByteBuffer = ByteBuffer.allocate(32 * 1024).apply { limit(0) }
+  private val output = ChannelOutputStream()
+  private val input = ChannelInputStream()
+  @Volatile
+  private var unsentBytes = 0
+  @Volatile
+  private var writeStallTime = 0L
+  @Volatile
+  private var connected = false
+
+  override fun getOutStream(): OutputStream = output
+
+  override fun getInputStream(): InputStream = input
+
+  override fun flush(isPacket: Boolean) {
+    synchronized(writeLock) {
+      drain(if (isPacket) maxUnsentBytes else 0)
+    }
+  }
+
+  override fun write(buffer: ByteBuffer) {
+    synchronized(writeLock) {
+      val channel = this.channel ?: throw IOException("socket not connected")
+      val engine = sslEngine
+      if (engine != null) {
+        while (buffer.hasRemaining()) wrap(engine, buffer)
+        channel.write(pending)
+      } else {
+        //avoid copy the buffer if we can write it directly
+        if (!pending.hasRemaining()) channel.write(buffer)
+        if (buffer.hasRemaining()) {
+          ensurePendingCapacity(buffer.remaining())
+          appendPending(buffer)
+        }
+      }
+      unsentBytes = pending.remaining()
+    }
+  }
+
+  override fun connect() {
+    try {
+      val channel = SocketChannel.open()
+      this.channel = channel
+      channel.socket().connect(InetSocketAddress(host, port), timeout)
+      channel.socket().tcpNoDelay = true
+      channel.configureBlocking(false)
+      val readSelector = Selector.open()
+      val writeSelector = Selector.open()
+      channel.register(readSelector, SelectionKey.OP_READ)
+      channel.register(writeSelector, SelectionKey.OP_WRITE)
+      this.readSelector = readSelector
+      this.writeSelector = writeSelector
+      if (secured) {
+        val context = SSLContext.getInstance("TLS")
+        context.init(null, null, null)
+        val engine = context.createSSLEngine(host, port)
+        engine.useClientMode = true
+        engine.enabledProtocols = engine.supportedProtocols.filter {
+          it == "TLSv1.1" || it == "TLSv1.2" || it == "TLSv1.3"
+        }.toTypedArray()
+        sslEngine = engine
+        doHandshake(engine)
+      }
+      connected = true
+    } catch (e: GeneralSecurityException) {
+      close()
+      throw IOException("Create SSL socket failed: ${e.message}")
+    }
+  }
+
+  override fun close() {
+    connected = false
+    try {
+      sslEngine?.closeOutbound()
+      readSelector?.close()
+      writeSelector?.close()
+      channel?.close()
+    } catch (ignored: Exception) {}
+    sslEngine = null
+    synchronized(writeLock) {
+      pending.limit(0)
+      unsentBytes = 0
+    }
+  }
+
+  override fun isConnected(): Boolean = connected && channel?.isConnected == true
+
+  override fun isReachable(): Boolean = channel?.socket()?.inetAddress?.isReachable(5000) ?: false
+
+  override fun getUnsentBytes(): Int = unsentBytes
+
+  override fun getMaxUnsentBytes(): Int = maxUnsentBytes
+
+  override fun getWriteStallTime(): Long = writeStallTime
+
+  /**
+   * Write pending data in the channel until remaining bytes are under maxPending.
+   */
+  private fun drain(maxPending: Int) {
+    val channel = this.channel ?: throw IOException("socket not connected")
+    channel.write(pending)
+    while (pending.remaining() > maxPending) {
+      waitWritable()
+      channel.write(pending)
+    }
+    unsentBytes = pending.remaining()
+  }
+
+  private fun waitWritable() {
+    val selector = writeSelector ?: throw IOException("socket not connected")
+    val start = TimeUtils.getCurrentTimeMillis()
+    val ready = selector.select(timeout.toLong())
+    selector.selectedKeys().clear()
+    writeStallTime += TimeUtils.getCurrentTimeMillis() - start
+    if (ready == 0) throw SocketTimeoutException("write timeout, socket not writable")
+  }
+
+  /**
+   * Read data from channel to the buffer (write mode). Blocking until data is available or timeout.
+   * @return bytes read
+   */
+  private fun readChannel(buffer: ByteBuffer): Int {
+    val channel = this.channel ?: throw IOException("socket not connected")
+    var result = channel.read(buffer)
+    while (result == 0) {
+      val selector = readSelector ?: throw IOException("socket not connected")
+      val ready = selector.select(timeout.toLong())
+      selector.selectedKeys().clear()
+      if (ready == 0) throw SocketTimeoutException("read timeout")
+      result = channel.read(buffer)
+    }
+    if (result < 0) throw IOException("socket closed by server")
+    return result
+  }
+
+  private fun readNetIn() {
+    if (!netIn.hasRemaining()) {
+      netIn = grow(netIn, netIn.capacity() * 2)
+    }
+    readChannel(netIn)
+  }
+
+  /**
+   * Fill appIn with new data. Blocking until data is available or timeout.
+   */
+  private fun fillInput() {
+    val engine = sslEngine
+    if (engine == null) {
+      appIn.clear()
+      try {
+        readChannel(appIn)
+      } finally {
+        appIn.flip()
+      }
+      return
+    }
+    while (!appIn.hasRemaining()) {
+      netIn.flip()
+      appIn.compact()
+      val result = try {
+        engine.unwrap(netIn, appIn)
+      } finally {
+        netIn.compact()
+        appIn.flip()
+      }
+      when (result.status) {
+        SSLEngineResult.Status.OK -> {
+          if (result.handshakeStatus != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            handleHandshakeStatus(engine, result.handshakeStatus)
+          }
+        }
+        SSLEngineResult.Status.BUFFER_UNDERFLOW -> readNetIn()
+        SSLEngineResult.Status.BUFFER_OVERFLOW -> {
+          appIn = grow(appIn, appIn.capacity() + engine.session.applicationBufferSize, readMode = true)
+        }
+        SSLEngineResult.Status.CLOSED -> throw IOException("socket closed by server")
+        else -> throw SSLException("unexpected unwrap status ${result.status}")
+      }
+    }
+  }
+
+  /**
+   * Encrypt src and append it to pending.
+   */
+  private fun wrap(engine: SSLEngine, src: ByteBuffer) {
+    ensurePendingCapacity(engine.session.packetBufferSize)
+    //set pending in write mode after current data
+    val position = pending.position()
+    pending.position(pending.limit())
+    pending.limit(pending.capacity())
+    val result = try {
+      engine.wrap(src, pending)
+    } finally {
+      pending.limit(pending.position())
+      pending.position(position)
+    }
+    when (result.status) {
+      SSLEngineResult.Status.OK -> {
+        if (result.handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) runTasks(engine)
+      }
+      SSLEngineResult.Status.BUFFER_OVERFLOW -> drain(0)
+      SSLEngineResult.Status.CLOSED -> throw IOException("socket closed")
+      else -> throw SSLException("unexpected wrap status ${result.status}")
+    }
+  }
+
+  private fun doHandshake(engine: SSLEngine) {
+    engine.beginHandshake()
+    var status = engine.handshakeStatus
+    while (status != SSLEngineResult.HandshakeStatus.FINISHED &&
+      status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+      handleHandshakeStatus(engine, status)
+      status = engine.handshakeStatus
+    }
+  }
+
+  private fun handleHandshakeStatus(engine: SSLEngine, status: SSLEngineResult.HandshakeStatus) {
+    when (status) {
+      SSLEngineResult.HandshakeStatus.NEED_WRAP -> {
+        synchronized(writeLock) {
+          wrap(engine, EMPTY)
+          drain(0)
+        }
+      }
+      SSLEngineResult.HandshakeStatus.NEED_UNWRAP -> {
+        netIn.flip()
+        appIn.compact()
+        val result = try {
+          engine.unwrap(netIn, appIn)
+        } finally {
+          netIn.compact()
+          appIn.flip()
+        }
+        when (result.status) {
+          SSLEngineResult.Status.BUFFER_UNDERFLOW -> readNetIn()
+          SSLEngineResult.Status.BUFFER_OVERFLOW -> {
+            appIn = grow(appIn, appIn.capacity() + engine.session.applicationBufferSize, readMode = true)
+          }
+          SSLEngineResult.Status.CLOSED -> throw IOException("socket closed by server")
+          else -> {}
+        }
+      }
+      SSLEngineResult.HandshakeStatus.NEED_TASK -> runTasks(engine)
+      else -> {}
+    }
+  }
+
+  private fun runTasks(engine: SSLEngine) {
+    var task = engine.delegatedTask
+    while (task != null) {
+      task.run()
+      task = engine.delegatedTask
+    }
+  }
+
+  private fun ensurePendingCapacity(size: Int) {
+    if (pending.capacity() - pending.remaining() < size) {
+      pending = grow(pending, Integer.highestOneBit(pending.remaining() + size) shl 1, readMode = true)
+    } else if (pending.capacity() - pending.limit() < size) {
+      pending.compact()
+      pending.flip()
+    }
+  }
+
+  private fun appendPending(src: ByteBuffer) {
+    val position = pending.position()
+    pending.position(pending.limit())
+    pending.limit(pending.capacity())
+    pending.put(src)
+    pending.limit(pending.position())
+    pending.position(position)
+  }
+
+  private fun grow(buffer: ByteBuffer, size: Int, readMode: Boolean = false): ByteBuffer {
+    val newBuffer = if (buffer.isDirect) ByteBuffer.allocateDirect(size) else ByteBuffer.allocate(size)
+    if (!readMode) buffer.flip()
+    newBuffer.put(buffer)
+    if (readMode) newBuffer.flip()
+    return newBuffer
+  }
+
+  private inner class ChannelOutputStream: OutputStream() {
+
+    private val single = ByteArray(1)
+
+    override fun write(b: Int) {
+      single[0] = b.toByte()
+      write(single, 0, 1)
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+      this@TcpChannelSocket.write(ByteBuffer.wrap(b, off, len))
+    }
+
+    override fun flush() {
+      this@TcpChannelSocket.flush(false)
+    }
+  }
+
+  private inner class ChannelInputStream: InputStream() {
+
+    override fun read(): Int {
+      synchronized(readLock) {
+        if (!appIn.hasRemaining()) fillInput()
+        return appIn.get().toInt() and 0xff
+      }
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+      if (len == 0) return 0
+      synchronized(readLock) {
+        if (!appIn.hasRemaining()) fillInput()
+        val size = minOf(len, appIn.remaining())
+        appIn.get(b, off, size)
+        return size
+      }
+    }
+
+    override fun available(): Int = appIn.remaining()
+  }
+
+  private companion object {
+    val EMPTY: ByteBuffer = ByteBuffer.allocate(0)
+  }
+}
\ No newline at end of file
@@ -17,82 +17,111 @@
 package com.pedro.rtmp.utils.socket
 
 import android.util.Log
+import com.pedro.common.TLSSocketFactory
 import com.pedro.common.TimeUtils
 import java.io.*
-import java.net.HttpURLConnection
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.net.ProxySelector
+import java.net.Socket
 import java.net.SocketTimeoutException
-import java.net.URL
+import java.net.URI
+import java.security.GeneralSecurityException
 import java.util.concurrent.atomic.AtomicLong
-import javax.net.ssl.HttpsURLConnection
 
 /**
  * Created by pedro on 5/4/22.
+ *
+ * RTMPT implementation. All requests are done in the same HTTP/1.1 keep-alive connection:
+ * - Send requests are pipelined, we don't wait the response of a request before send the next one
+ * until maxPipelinedRequests. Responses are read in order.
+ * - Video/audio packets are stored until maxStoredBytes or maxStoredTime is reached.
+ * - Idle requests are only done when we need read data and the server has nothing to send,
+ * with an exponential back-off between them.
  */
 class TcpTunneledSocket(private val host: String, private val port: Int, private val secured: Boolean): RtmpSocket() {
 
   private val TAG = "TcpTunneledSocket"
 
+  companion object {
+    //send video/audio packets in packs of 32KB or 50ms of data on each HTTP request.
+    private const val MAX_STORED_BYTES = 32 * 1024
+    private const val MAX_STORED_TIME = 50L
+    private const val MAX_PIPELINED_REQUESTS = 4
+    private const val MIN_IDLE_DELAY = 10L
+    private const val MAX_IDLE_DELAY = 500L
+    //server data stored and not read yet. Idle requests are not done while there is data pending
+    //so only send responses can fill it, if the reader stop consuming it the connection fails.
+    private const val MAX_RECEIVED_BYTES = 256 * 1024
+  }
+
   private val headers = mapOf(
     "Content-Type" to "application/x-fcs",
-    "User-Agent" to "Shockwave Flash"
+    "User-Agent" to "Shockwave Flash",
+    "Connection" to "Keep-Alive",
+    "Cache-Control" to "no-cache"
   )
+  private var socket: Socket? = null
+  private var socketInput: InputStream? = null
+  private var socketOutput: OutputStream? = null
+  private var proxy: Proxy = Proxy.NO_PROXY
   private var connectionId: String = ""
+  @Volatile
   private var connected = false
   private var index = AtomicLong(0)
-  private var output = ByteArrayOutputStream()
-  private var input = ByteArrayInputStream(byteArrayOf())
+  private val output = ByteArrayOutputStream()
+  private val input = TunneledInputStream()
   private val sync = Any()
-  private var storedPackets = 0
-  //send video/audio packets in packs of 10 on each HTTP request.
-  private val maxStoredPackets = 10
+  //requests written and waiting a response
+  private var pendingResponses = 0
+  private var storedSince = 0L
+  private var received = ByteArray(4096)
+  private var receivedStart = 0
+  private var receivedEnd = 0
 
   override fun getOutStream(): OutputStream = output
 
-  override fun getInputStream(): InputStream {
-    synchronized(sync) {
-      val start = TimeUtils.getCurrentTimeMillis()
-      while (input.available() <= 1 && connected) {
-        val i = index.addAndGet(1)
-        val bytes = requestRead("idle/$connectionId/$i", secured)
-        input = ByteArrayInputStream(bytes, 1, bytes.size)
-        if (TimeUtils.getCurrentTimeMillis() - start >= timeout) {
-          throw SocketTimeoutException("couldn't receive a valid packet")
-        }
-      }
-    }
-    return input
-  }
+  override fun getInputStream(): InputStream = input
 
   override fun flush(isPacket: Boolean) {
     synchronized(sync) {
-      if (isPacket && storedPackets < maxStoredPackets) {
-        storedPackets++
-        return
-      }
       if (!connected) return
-      val i = index.addAndGet(1)
-      val bytes = output.toByteArray()
-      output.reset()
-      requestWrite("send/$connectionId/$i", secured, bytes)
-      storedPackets = 0
+      val size = output.size()
+      if (size == 0) return
+      if (isPacket) {
+        val now = TimeUtils.getCurrentTimeMillis()
+        if (storedSince == 0L) storedSince = now
+        if (size < MAX_STORED_BYTES && now - storedSince < MAX_STORED_TIME) return
+      }
+      try {
+        //wait older responses to keep the pipeline bounded
+        while (pendingResponses >= MAX_PIPELINED_REQUESTS) onData(readResponse())
+        writeRequest("send/$connectionId/${index.addAndGet(1)}", output)
+      } finally {
+        output.reset()
+        storedSince = 0
+      }
     }
   }
 
   override fun connect() {
     synchronized(sync) {
       try {
-        //optional in few servers
-        requestWrite("fcs/ident2", secured, byteArrayOf(0x00))
-      } catch (ignored: IOException) { }
-      try {
-        val openResult = requestRead("open/1", secured)
+        proxy = selectProxy()
+        openSocket()
+        try {
+          //optional in few servers
+          request("fcs/ident2", byteArrayOf(0x00))
+        } catch (ignored: IOException) { }
+        val openResult = request("open/1", byteArrayOf(0x00))
         connectionId = String(openResult).trimIndent()
-        requestWrite("idle/$connectionId/${index.get()}", secured, byteArrayOf(0x00))
+        onData(request("idle/$connectionId/${index.get()}", byteArrayOf(0x00)))
         connected = true
         Log.i(TAG, "Connection success")
       } catch (e: IOException) {
         Log.e(TAG, "Connection failed: ${e.message}")
         connected = false
+        closeSocket()
       }
     }
   }
@@ -100,70 +129,313 @@ class TcpTunneledSocket(private val host: String, private val port: Int, private
   override fun close() {
     Log.i(TAG, "closing tunneled socket...")
     connected = false
-    synchronized(sync) {
-      Thread {
+    Thread {
+      synchronized(sync) {
         try {
-          requestWrite("close/$connectionId", secured, byteArrayOf(0x00))
-          Log.i(TAG, "Close success")
+          output.reset()
+          storedSince = 0
+          if (connectionId.isNotEmpty()) {
+            request("close/$connectionId", byteArrayOf(0x00))
+            Log.i(TAG, "Close success")
+          }
         } catch (e: IOException) {
           Log.e(TAG, "Close request failed: ${e.message}")
         } finally {
+          closeSocket()
           index.set(0)
           connectionId = ""
+          receivedStart = 0
+          receivedEnd = 0
         }
-      }.start()
-    }
+      }
+    }.start()
   }
 
   override fun isConnected(): Boolean = connected
 
   override fun isReachable(): Boolean = connected
 
+  /**
+   * Block until server data is available. Pipelined responses are read first and idle requests
+   * are only done if there are no responses pending, waiting more between them while the server
+   * has nothing to send.
+   */
   @Throws(IOException::class)
-  private fun requestWrite(path: String, secured: Boolean, data: ByteArray) {
-    val socket = configureSocket(path, secured)
+  private fun waitData() {
+    val start = TimeUtils.getCurrentTimeMillis()
+    var delay = MIN_IDLE_DELAY
+    while (true) {
+      synchronized(sync) {
+        if (receivedEnd > receivedStart) return
+        if (!connected) throw IOException("Tunneled socket closed")
+        if (pendingResponses > 0) {
+          onData(readResponse())
+        } else {
+          onData(request("idle/$connectionId/${index.addAndGet(1)}", byteArrayOf(0x00)))
+        }
+        if (receivedEnd > receivedStart) return
+      }
+      if (TimeUtils.getCurrentTimeMillis() - start >= timeout) {
+        throw SocketTimeoutException("couldn't receive a valid packet")
+      }
+      try {
+        Thread.sleep(delay)
+      } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        throw InterruptedIOException("interrupted waiting data")
+      }
+      delay = (delay * 2).coerceAtMost(MAX_IDLE_DELAY)
+    }
+  }
+
+  /**
+   * Store the data of a send/idle response. The first byte is the polling interval suggested by
+   * the server, we ignore it and use our own back-off.
+   * Throw IOException if the reader is not consuming the stored data.
+   */
+  @Throws(IOException::class)
+  private fun onData(bytes: ByteArray) {
+    if (bytes.size <= 1) return
+    val length = bytes.size - 1
+    if (receivedEnd - receivedStart + length > MAX_RECEIVED_BYTES) {
+      //discard bytes would corrupt the rtmp chunk stream
+      throw IOException("${receivedEnd - receivedStart} bytes of server data not read")
+    }
+    if (receivedEnd + length > received.size) {
+      val pending = receivedEnd - receivedStart
+      if (pending + length > received.size) {
+        val newBuffer = ByteArray(Integer.highestOneBit(pending + length) shl 1)
+        System.arraycopy(received, receivedStart, newBuffer, 0, pending)
+        received = newBuffer
+      } else {
+        System.arraycopy(received, receivedStart, received, 0, pending)
+      }
+      receivedStart = 0
+      receivedEnd = pending
+    }
+    System.arraycopy(bytes, 1, received, receivedEnd, length)
+    receivedEnd += length
+  }
+
+  /**
+   * Write a request and read all responses until the response of this request.
+   * Data of previous pipelined responses is stored.
+   */
+  @Throws(IOException::class)
+  private fun request(path: String, data: ByteArray): ByteArray {
+    writeRequest(path, ByteArrayOutputStream(data.size).apply { write(data) })
+    while (pendingResponses > 1) onData(readResponse())
+    return readResponse()
+  }
+
+  @Throws(IOException::class)
+  private fun writeRequest(path: String, data: ByteArrayOutputStream) {
+    if (socket == null) openSocket()
+    val stream = socketOutput ?: throw IOException("Tunneled socket not connected")
     try {
-      socket.connect()
-      socket.outputStream.write(data)
-      val bytes = socket.inputStream.readBytes()
-      if (bytes.size > 1) input = ByteArrayInputStream(bytes, 1, bytes.size)
-      val success = socket.responseCode == HttpURLConnection.HTTP_OK
-      if (!success) throw IOException("send packet failed: ${socket.responseMessage}")
-    } finally {
-      socket.disconnect()
+      writeHttpRequest(stream, path, data)
+    } catch (e: IOException) {
+      closeSocket()
+      throw e
     }
+    pendingResponses++
+  }
+
+  @Throws(IOException::class)
+  private fun writeHttpRequest(stream: OutputStream, path: String, data: ByteArrayOutputStream) {
+    val target = if (proxy.type() == Proxy.Type.HTTP && !secured) "http://$host:$port/$path" else "/$path"
+    val request = StringBuilder("POST $target HTTP/1.1\r\n")
+    request.append("Host: $host:$port\r\n")
+    headers.forEach { (key, value) -> request.append("$key: $value\r\n") }
+    request.append("Content-Length: ${data.size()}\r\n\r\n")
+    stream.write(request.toString().toByteArray(Charsets.US_ASCII))
+    data.writeTo(stream)
+    stream.flush()
   }
 
   @Throws(IOException::class)
-  private fun requestRead(path: String, secured: Boolean): ByteArray {
-    val socket = configureSocket(path, secured)
+  private fun readResponse(): ByteArray {
+    val stream = socketInput ?: throw IOException("Tunneled socket not connected")
+    pendingResponses--
+    val statusLine: String
+    val body: ByteArray
     try {
-      socket.connect()
-      val data = socket.inputStream.readBytes()
-      val success = socket.responseCode == HttpURLConnection.HTTP_OK
-      if (!success) throw IOException("receive packet failed: ${socket.responseMessage}")
-      return data
-    } finally {
-      socket.disconnect()
+      statusLine = readLine(stream)
+      body = readResponseBody(stream, statusLine)
+    } catch (e: IOException) {
+      //connection state is unknown, reconnect in the next request
+      closeSocket()
+      throw e
     }
+    if (statusLine.split(" ").getOrNull(1) != "200") throw IOException("request failed: $statusLine")
+    return body
   }
 
-  private fun configureSocket(path: String, secured: Boolean): HttpURLConnection {
+  @Throws(IOException::class)
+  private fun readResponseBody(stream: InputStream, statusLine: String): ByteArray {
+    if (statusLine.split(" ").getOrNull(1)?.toIntOrNull() == null) throw IOException("invalid response: $statusLine")
+    var contentLength = -1
+    var chunked = false
+    var keepAlive = !statusLine.startsWith("HTTP/1.0")
+    while (true) {
+      val line = readLine(stream)
+      if (line.isEmpty()) break
+      val separator = line.indexOf(':')
+      if (separator < 0) continue
+      val key = line.substring(0, separator).trim()
+      val value = line.substring(separator + 1).trim()
+      when {
+        key.equals("Content-Length", true) -> contentLength = value.toIntOrNull() ?: -1
+        key.equals("Transfer-Encoding", true) -> chunked = value.contains("chunked", true)
+        key.equals("Connection", true) -> keepAlive = !value.equals("close", true)
+      }
+    }
+    val body = when {
+      chunked -> readChunkedBody(stream)
+      contentLength >= 0 -> readBytes(stream, contentLength)
+      else -> {
+        keepAlive = false
+        stream.readBytes()
+      }
+    }
+    if (!keepAlive) {
+      //server doesn't support keep-alive, reconnect in the next request
+      if (pendingResponses > 0) throw IOException("connection closed with $pendingResponses requests pending")
+      closeSocket()
+    }
+    return body
+  }
+
+  @Throws(IOException::class)
+  private fun readChunkedBody(stream: InputStream): ByteArray {
+    val body = ByteArrayOutputStream()
+    while (true) {
+      val size = readLine(stream).substringBefore(';').trim().toIntOrNull(16) ?: throw IOException("invalid chunk size")
+      if (size == 0) {
+        //trailers
+        while (readLine(stream).isNotEmpty()) continue
+        return body.toByteArray()
+      }
+      body.write(readBytes(stream, size))
+      readLine(stream)
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun readBytes(stream: InputStream, length: Int): ByteArray {
+    val bytes = ByteArray(length)
+    var read = 0
+    while (read < length) {
+      val result = stream.read(bytes, read, length - read)
+      if (result < 0) throw EOFException("connection closed reading response")
+      read += result
+    }
+    return bytes
+  }
+
+  @Throws(IOException::class)
+  private fun readLine(stream: InputStream): String {
+    val line = StringBuilder()
+    while (true) {
+      val b = stream.read()
+      if (b < 0) throw EOFException("connection closed reading response")
+      if (b == '\n'.code) break
+      if (b != '\r'.code) line.append(b.toChar())
+    }
+    return line.toString()
+  }
+
+  @Throws(IOException::class)
+  private fun openSocket() {
+    closeSocket()
     val schema = if (secured) "https" else "http"
-    val url = URL("$schema://$host:$port/$path")
-    val socket = if (secured) {
-      url.openConnection() as HttpsURLConnection
-    } else {
-      url.openConnection() as HttpURLConnection
-    }
-    Log.i(TAG, "open: $url")
-    socket.requestMethod = "POST"
-    headers.forEach { (key, value) ->
-      socket.addRequestProperty(key, value)
-    }
-    socket.doOutput = true
-    socket.connectTimeout = timeout
-    socket.readTimeout = timeout
-    return socket
+    Log.i(TAG, "open: $schema://$host:$port")
+    val address = proxy.address() as? InetSocketAddress
+    val socket = Socket()
+    try {
+      if (proxy.type() == Proxy.Type.HTTP && address != null) {
+        socket.connect(address, timeout)
+      } else {
+        socket.connect(InetSocketAddress(host, port), timeout)
+      }
+      socket.soTimeout = timeout
+      socket.tcpNoDelay = true
+      val connectedSocket = if (secured) {
+        if (proxy.type() == Proxy.Type.HTTP) openProxyTunnel(socket)
+        try {
+          TLSSocketFactory().createSocket(socket, host, port, true)
+        } catch (e: GeneralSecurityException) {
+          throw IOException("Create SSL socket failed: ${e.message}")
+        }
+      } else socket
+      connectedSocket.soTimeout = timeout
+      socketInput = BufferedInputStream(connectedSocket.getInputStream())
+      socketOutput = BufferedOutputStream(connectedSocket.getOutputStream())
+      this.socket = connectedSocket
+      pendingResponses = 0
+    } catch (e: IOException) {
+      socket.close()
+      throw e
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun openProxyTunnel(socket: Socket) {
+    val stream = socket.getOutputStream()
+    stream.write("CONNECT $host:$port HTTP/1.1\r\nHost: $host:$port\r\n\r\n".toByteArray(Charsets.US_ASCII))
+    stream.flush()
+    val response = socket.getInputStream()
+    val statusLine = readLine(response)
+    while (readLine(response).isNotEmpty()) continue
+    if (statusLine.split(" ").getOrNull(1) != "200") throw IOException("proxy tunnel failed: $statusLine")
+  }
+
+  private fun selectProxy(): Proxy {
+    return try {
+      val schema = if (secured) "https" else "http"
+      ProxySelector.getDefault()?.select(URI("$schema://$host:$port/"))
+        ?.firstOrNull { it.type() == Proxy.Type.HTTP } ?: Proxy.NO_PROXY
+    } catch (e: Exception) {
+      Proxy.NO_PROXY
+    }
+  }
+
+  private fun closeSocket() {
+    try {
+      socket?.close()
+    } catch (ignored: IOException) { }
+    socket = null
+    socketInput = null
+    socketOutput = null
+    pendingResponses = 0
+  }
+
+  private inner class TunneledInputStream: InputStream() {
+
+    override fun read(): Int {
+      while (true) {
+        waitData()
+        synchronized(sync) {
+          if (receivedEnd > receivedStart) return received[receivedStart++].toInt() and 0xff
+        }
+      }
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+      if (len == 0) return 0
+      while (true) {
+        waitData()
+        synchronized(sync) {
+          val length = minOf(len, receivedEnd - receivedStart)
+          if (length > 0) {
+            System.arraycopy(received, receivedStart, b, off, length)
+            receivedStart += length
+            return length
+          }
+        }
+      }
+    }
+
+    override fun available(): Int = synchronized(sync) { receivedEnd - receivedStart }
   }
 }
\ No newline at end of file
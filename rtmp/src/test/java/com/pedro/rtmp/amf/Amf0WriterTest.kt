@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.amf
+
+import com.pedro.rtmp.amf.v0.Amf0Reader
+import com.pedro.rtmp.amf.v0.Amf0Writer
+import com.pedro.rtmp.amf.v0.AmfBoolean
+import com.pedro.rtmp.amf.v0.AmfData
+import com.pedro.rtmp.amf.v0.AmfEcmaArray
+import com.pedro.rtmp.amf.v0.AmfNull
+import com.pedro.rtmp.amf.v0.AmfNumber
+import com.pedro.rtmp.amf.v0.AmfObject
+import com.pedro.rtmp.amf.v0.AmfStrictArray
+import com.pedro.rtmp.amf.v0.AmfString
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class Amf0WriterTest {
+
+  private fun encode(vararg values: AmfData): ByteArray {
+    val output = ByteArrayOutputStream()
+    values.forEach {
+      it.writeHeader(output)
+      it.writeBody(output)
+    }
+    return output.toByteArray()
+  }
+
+  @Test
+  fun `GIVEN amf values WHEN write with writer THEN get same buffer than amf data`() {
+    val amfObject = AmfObject()
+    amfObject.setProperty("app", "live/ñ")
+    amfObject.setProperty("fpad", false)
+    amfObject.setProperty("capabilities", 239.0)
+    amfObject.setProperty("fourCcList", AmfStrictArray(mutableListOf(AmfString("hvc1"))))
+    val ecmaArray = AmfEcmaArray()
+    ecmaArray.setProperty("width", 640.0)
+    ecmaArray.setProperty("stereo", true)
+    val expected = encode(AmfString("connect"), AmfNumber(1.0), AmfNull(), amfObject, ecmaArray)
+
+    val writer = Amf0Writer(8)
+    writer.writeString("connect")
+    writer.writeNumber(1.0)
+    writer.writeNull()
+    writer.startObject()
+    writer.writeProperty("app", "live/ñ")
+    writer.writeProperty("fpad", false)
+    writer.writeProperty("capabilities", 239.0)
+    writer.writeKey("fourCcList")
+    writer.startStrictArray(1)
+    writer.writeString("hvc1")
+    writer.endObject()
+    writer.startEcmaArray(2)
+    writer.writeProperty("width", 640.0)
+    writer.writeProperty("stereo", true)
+    writer.endObject()
+
+    assertArrayEquals(expected, writer.array().copyOf(writer.size))
+  }
+
+  @Test
+  fun `GIVEN string with unpaired surrogate WHEN write with writer THEN get same buffer than amf data`() {
+    val value = "live\uD800"
+    val expected = encode(AmfString(value))
+
+    val writer = Amf0Writer(8)
+    writer.writeString(value)
+
+    assertArrayEquals(expected, writer.array().copyOf(writer.size))
+  }
+
+  @Test
+  fun `GIVEN an encoded command WHEN find properties with reader THEN get expected values`() {
+    val info = AmfObject()
+    info.setProperty("level", "status")
+    info.setProperty("details", AmfObject().apply { setProperty("code", "inner") })
+    info.setProperty("code", "NetStream.Publish.Start")
+    val bytes = encode(AmfString("onStatus"), AmfNumber(0.0), AmfNull(), info)
+
+    val reader = Amf0Reader()
+    reader.setData(bytes, bytes.size)
+    assertEquals("onStatus", reader.readString(reader.getValueOffset(0)))
+    assertEquals(0.0, reader.readNumber(reader.getValueOffset(1)) ?: -1.0, 0.0)
+    val infoOffset = reader.getValueOffset(3)
+    assertEquals("NetStream.Publish.Start", reader.readString(reader.findProperty(infoOffset, "code")))
+    assertEquals(-1, reader.findProperty(infoOffset, "description"))
+    assertNull(reader.readString(reader.findProperty(infoOffset, "description")))
+    assertEquals(-1, reader.getValueOffset(4))
+  }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.flv
+
+import com.pedro.common.FrameQueue
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class FlvPacketPoolTest {
+
+  @Test
+  fun `GIVEN a recycled packet WHEN obtain a packet THEN reuse it`() {
+    val pool = FlvPacketPool()
+    val flvPacket = pool.obtain(100, 0, FlvType.VIDEO)
+    pool.recycle(flvPacket)
+    val reused = pool.obtain(50, 10, FlvType.AUDIO)
+    assertSame(flvPacket, reused)
+    assertEquals(50, reused.length)
+    assertEquals(10, reused.timeStamp)
+    assertEquals(FlvType.AUDIO, reused.type)
+  }
+
+  @Test
+  fun `GIVEN a shared packet WHEN all owners recycle it THEN the packet is reused`() {
+    val pool = FlvPacketPool()
+    val flvPacket = pool.obtain(100, 0, FlvType.VIDEO)
+    val buffer = flvPacket.buffer
+    pool.retain(flvPacket, 2)
+    pool.recycle(flvPacket)
+    pool.recycle(flvPacket)
+    assertSame(buffer, flvPacket.buffer)
+    assertNotSame(flvPacket, pool.obtain(100, 0, FlvType.VIDEO))
+    pool.recycle(flvPacket)
+    assertEquals(0, flvPacket.length)
+    assertSame(flvPacket, pool.obtain(100, 0, FlvType.VIDEO))
+  }
+
+  @Test
+  fun `GIVEN shared packets in a queue WHEN clear the queue THEN the packets are recycled`() {
+    val pool = FlvPacketPool()
+    val queue = FrameQueue(10, FlvPacket::getFrameType)
+    queue.onDiscard = { pool.recycle(it) }
+    val flvPacket = pool.obtain(100, 0, FlvType.AUDIO)
+    flvPacket.buffer[1] = 1 //aac raw
+    //shared with other queue that already sent it
+    pool.retain(flvPacket)
+    queue.offer(flvPacket)
+    pool.recycle(flvPacket)
+    assertEquals(100, flvPacket.length)
+    queue.clear()
+    assertEquals(0, flvPacket.length)
+    assertSame(flvPacket, pool.obtain(100, 0, FlvType.VIDEO))
+  }
+}
\ No newline at end of file
@@ -18,9 +18,11 @@ package com.pedro.rtmp.flv.video
 
 import android.media.MediaCodec
 import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvPacketPool
 import com.pedro.rtmp.flv.FlvType
 import org.junit.Assert.assertArrayEquals
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
 import org.junit.Test
 import java.nio.ByteBuffer
 
@@ -57,4 +59,62 @@ class H264PacketTest {
     assertArrayEquals(expectedConfig, frames[0].buffer)
     assertArrayEquals(expectedFlvPacket, frames[1].buffer)
   }
+
+  @Test
+  fun `GIVEN a h264 buffer and a packet pool WHEN call create a h264 packet after recycle THEN reuse packet and buffer`() {
+    val header = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x05)
+    val fakeH264 = header.plus(ByteArray(300) { 0x00 })
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 123456789L
+    info.offset = 0
+    info.size = fakeH264.size
+    info.flags = 1
+    val packetPool = FlvPacketPool()
+    val h264Packet = H264Packet()
+    h264Packet.packetPool = packetPool
+    val sps = byteArrayOf(103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+    val pps = byteArrayOf(104, -18, 13, -117)
+    h264Packet.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps))
+
+    val frames = mutableListOf<FlvPacket>()
+    h264Packet.createFlvVideoPacket(ByteBuffer.wrap(fakeH264), info) { frames.add(it) }
+    assertEquals(2, frames.size)
+    //flv header + nalu size + h264 buffer without start code
+    val expectedLength = 5 + 4 + fakeH264.size - 4
+    val packet = frames[1]
+    val buffer = packet.buffer
+    assertEquals(expectedLength, packet.length)
+    assertTrue(buffer.size >= expectedLength)
+    packetPool.recycle(packet)
+
+    h264Packet.createFlvVideoPacket(ByteBuffer.wrap(fakeH264), info) { frames.add(it) }
+    assertEquals(3, frames.size)
+    assertTrue(packet === frames[2])
+    assertTrue(buffer === frames[2].buffer)
+    assertEquals(expectedLength, frames[2].length)
+  }
+
+  @Test
+  fun `GIVEN a h264 buffer with multiple nal units WHEN create a h264 packet THEN write each nal unit with its size`() {
+    val aud = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x09, 0xF0.toByte())
+    val sei = byteArrayOf(0x00, 0x00, 0x01, 0x06, 0x05, 0x01)
+    val slice = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x41, 0x07, 0x08)
+    val fakeH264 = aud.plus(sei).plus(slice)
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 123456789L
+    info.offset = 0
+    info.size = fakeH264.size
+    info.flags = 0
+    val h264Packet = H264Packet()
+    val sps = byteArrayOf(103, 100, 0, 30, -84, -76, 15, 2, -115, 53, 2, 2, 2, 7, -117, 23, 8)
+    val pps = byteArrayOf(104, -18, 13, -117)
+    h264Packet.sendVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps))
+
+    val frames = mutableListOf<FlvPacket>()
+    h264Packet.createFlvVideoPacket(ByteBuffer.wrap(fakeH264), info) { frames.add(it) }
+    assertEquals(2, frames.size)
+    //aud is not needed in flv
+    val expected = byteArrayOf(39, 1, 0, 0, 0, 0, 0, 0, 3, 6, 5, 1, 0, 0, 0, 3, 65, 7, 8)
+    assertArrayEquals(expected, frames[1].buffer.copyOf(frames[1].length))
+  }
 }
\ No newline at end of file
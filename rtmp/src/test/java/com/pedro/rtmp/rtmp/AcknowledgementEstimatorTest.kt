@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class AcknowledgementEstimatorTest {
+
+  @Test
+  fun `GIVEN bytes written WHEN receive acknowledgements THEN get bytes in flight`() {
+    val estimator = AcknowledgementEstimator()
+    estimator.setWindowSize(1000)
+    estimator.onBytesWritten(1500)
+    assertEquals(1500L, estimator.bytesInFlight)
+    estimator.onAcknowledgement(1000)
+    assertEquals(500L, estimator.bytesInFlight)
+    assertTrue(estimator.rtt >= 0)
+    //server count handshake bytes
+    estimator.onAcknowledgement(4000)
+    assertEquals(0L, estimator.bytesInFlight)
+    assertFalse(estimator.hasCongestion(20f))
+  }
+
+  @Test
+  fun `GIVEN a sequence number that wraps WHEN receive acknowledgement THEN count bytes after wrap`() {
+    val estimator = AcknowledgementEstimator()
+    estimator.onBytesWritten(Int.MAX_VALUE)
+    estimator.onBytesWritten(Int.MAX_VALUE)
+    estimator.onBytesWritten(100)
+    estimator.onAcknowledgement(-10) //0xFFFFFFF6
+    assertEquals(2L * Int.MAX_VALUE + 100 - 0xFFFFFFF6L, estimator.bytesInFlight)
+    estimator.onAcknowledgement(10)
+    assertEquals(2L * Int.MAX_VALUE + 100 - 0x10000000AL, estimator.bytesInFlight)
+    estimator.reset()
+    assertEquals(0L, estimator.bytesInFlight)
+    assertEquals(-1L, estimator.rtt)
+  }
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp.chunk
+
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvType
+import com.pedro.rtmp.rtmp.message.Audio
+import com.pedro.rtmp.rtmp.message.Video
+import com.pedro.rtmp.utils.RtmpConfig
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class ChunkWriterTest {
+
+  @Test
+  fun `GIVEN a video packet bigger than chunk size WHEN fill THEN get same buffer as write header and body`() {
+    val fakePacket = FlvPacket(
+      buffer = ByteArray(300) { it.toByte() },
+      timeStamp = 1234567,
+      length = 300,
+      type = FlvType.VIDEO
+    )
+    val output = ByteArrayOutputStream()
+    val video = Video(fakePacket)
+    video.writeHeader(output)
+    video.writeBody(output)
+
+    val buffer = ChunkWriter().fill(Video(fakePacket), RtmpConfig.writeChunkSize)
+    val result = ByteArray(buffer.remaining())
+    buffer.get(result)
+    assertArrayEquals(output.toByteArray(), result)
+  }
+
+  @Test
+  fun `GIVEN an audio packet with extended timestamp and bigger buffer WHEN fill THEN write only packet length`() {
+    val fakePacket = FlvPacket(
+      buffer = ByteArray(512) { it.toByte() },
+      timeStamp = 0x1ffffffL,
+      length = 260,
+      type = FlvType.AUDIO
+    )
+    val output = ByteArrayOutputStream()
+    val audio = Audio(fakePacket)
+    audio.writeHeader(output)
+    audio.writeBody(output)
+
+    val buffer = ChunkWriter(direct = true).fill(Audio(fakePacket), RtmpConfig.writeChunkSize)
+    val result = ByteArray(buffer.remaining())
+    buffer.get(result)
+    assertArrayEquals(output.toByteArray(), result)
+  }
+}
\ No newline at end of file
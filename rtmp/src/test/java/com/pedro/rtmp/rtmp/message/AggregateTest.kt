@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtmp.rtmp.message
+
+import com.pedro.rtmp.flv.FlvPacket
+import com.pedro.rtmp.flv.FlvType
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class AggregateTest {
+
+  @Test
+  fun `GIVEN audio and video packets WHEN add to aggregate THEN get flv tags with back pointers`() {
+    val audio = FlvPacket(byteArrayOf(1, 2), 0x01000010, 2, FlvType.AUDIO)
+    val video = FlvPacket(byteArrayOf(3, 4, 5), 0x01000020, 3, FlvType.VIDEO)
+    val expectedBody = byteArrayOf(
+      8, 0, 0, 2, 0, 0, 0x10, 1, 0, 0, 0, 1, 2, 0, 0, 0, 13,
+      9, 0, 0, 3, 0, 0, 0x20, 1, 0, 0, 0, 3, 4, 5, 0, 0, 0, 14
+    )
+
+    val aggregate = Aggregate(1)
+    aggregate.add(audio)
+    aggregate.add(video)
+
+    assertEquals(2, aggregate.count)
+    assertEquals(expectedBody.size, aggregate.getSize())
+    assertEquals(expectedBody.size, aggregate.header.messageLength)
+    assertEquals(0x01000010, aggregate.header.timeStamp)
+    assertArrayEquals(expectedBody, aggregate.storeBody().copyOf(aggregate.getSize()))
+
+    aggregate.clear()
+    aggregate.add(video)
+    assertEquals(1, aggregate.count)
+    assertArrayEquals(expectedBody.copyOfRange(17, expectedBody.size), aggregate.storeBody().copyOf(aggregate.getSize()))
+  }
+}
\ No newline at end of file
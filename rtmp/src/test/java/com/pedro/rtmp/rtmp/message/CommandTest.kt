@@ -16,8 +16,12 @@
 
 package com.pedro.rtmp.rtmp.message
 
+import com.pedro.rtmp.amf.v0.AmfNull
 import com.pedro.rtmp.amf.v0.AmfNumber
+import com.pedro.rtmp.amf.v0.AmfObject
 import com.pedro.rtmp.amf.v0.AmfString
+import com.pedro.rtmp.rtmp.chunk.ChunkStreamId
+import com.pedro.rtmp.rtmp.chunk.ChunkType
 import com.pedro.rtmp.rtmp.message.command.CommandAmf0
 import com.pedro.rtmp.utils.CommandSessionHistory
 import com.pedro.rtmp.utils.RtmpConfig
@@ -62,4 +66,51 @@ class CommandTest {
 
     assertArrayEquals(expectedBuffer, output.toByteArray())
   }
+
+  @Test
+  fun `GIVEN a command template WHEN update transaction id THEN get same buffer than command amf0`() {
+    val template = MessageTemplateAmf0("publish", MessageType.COMMAND_AMF0, BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_STREAM.mark))
+    template.writer.writeNull()
+    template.writer.writeString("stream")
+    template.writer.writeString("live")
+
+    listOf(1, 7).forEach { id ->
+      val commandAmf0 = CommandAmf0("publish", id, 10, 1, BasicHeader(ChunkType.TYPE_0, ChunkStreamId.OVER_STREAM.mark))
+      commandAmf0.addData(AmfNull())
+      commandAmf0.addData(AmfString("stream"))
+      commandAmf0.addData(AmfString("live"))
+      val expected = ByteArrayOutputStream()
+      commandAmf0.writeHeader(expected)
+      commandAmf0.writeBody(expected)
+
+      template.update(id, 10, 1)
+      val output = ByteArrayOutputStream()
+      template.writeHeader(output)
+      template.writeBody(output)
+      assertArrayEquals(expected.toByteArray(), output.toByteArray())
+    }
+  }
+
+  @Test
+  fun `GIVEN a received onStatus command WHEN get code and description THEN get expected values`() {
+    val info = AmfObject()
+    info.setProperty("level", "status")
+    info.setProperty("code", "NetStream.Publish.Start")
+    info.setProperty("description", "Start publishing")
+    val commandAmf0 = CommandAmf0("onStatus")
+    commandAmf0.addData(AmfNull())
+    commandAmf0.addData(info)
+    val output = ByteArrayOutputStream()
+    commandAmf0.writeHeader(output)
+    commandAmf0.writeBody(output)
+
+    val message = RtmpMessage.getRtmpMessage(ByteArrayInputStream(output.toByteArray()), RtmpConfig.DEFAULT_CHUNK_SIZE, commandSessionHistory)
+
+    assertTrue(message is CommandAmf0)
+    val command = message as CommandAmf0
+    assertEquals("onStatus", command.name)
+    assertEquals("NetStream.Publish.Start", command.getCode())
+    assertEquals("Start publishing", command.getDescription())
+    assertEquals(commandAmf0.toString(), command.toString())
+  }
 }
\ No newline at end of file
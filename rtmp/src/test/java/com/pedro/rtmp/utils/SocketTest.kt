@@ -16,8 +16,17 @@
 
 package com.pedro.rtmp.utils
 
+import com.pedro.rtmp.utils.socket.TcpChannelSocket
 import com.pedro.rtmp.utils.socket.TcpSocket
+import com.pedro.rtmp.utils.socket.TcpTunneledSocket
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
 import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.net.ServerSocket
+import java.nio.ByteBuffer
+import kotlin.concurrent.thread
 
 class SocketTest {
 
@@ -28,4 +37,103 @@ class SocketTest {
         socket.getInputStream()
         socket.close()
     }
+
+    @Test
+    fun `check tcp channel socket write and read`() {
+        val server = ServerSocket(0)
+        val data = ByteArray(300_000) { it.toByte() }
+        val received = ByteArray(data.size + 1)
+        val serverThread = thread {
+            server.accept().use { client ->
+                client.getInputStream().readUntil(received)
+                client.getOutputStream().write(byteArrayOf(1, 2, 3))
+                client.getOutputStream().flush()
+            }
+        }
+        val socket = TcpChannelSocket("127.0.0.1", server.localPort, false)
+        socket.connect()
+        socket.getOutStream().write(0)
+        socket.write(ByteBuffer.wrap(data))
+        socket.flush()
+        assertEquals(0, socket.getUnsentBytes())
+        val response = ByteArray(3)
+        socket.getInputStream().readUntil(response)
+        serverThread.join()
+        socket.close()
+        server.close()
+        assertArrayEquals(byteArrayOf(1, 2, 3), response)
+        assertArrayEquals(byteArrayOf(0).plus(data), received)
+    }
+
+    @Test
+    fun `check tunneled socket reuse connection for all requests`() {
+        val server = ServerSocket(0)
+        val data = ByteArray(100) { it.toByte() }
+        val sent = ByteArrayOutputStream()
+        val paths = mutableListOf<String>()
+        var connections = 0
+        val serverThread = thread {
+            while (true) {
+                val client = server.accept()
+                connections++
+                val input = client.getInputStream()
+                val output = client.getOutputStream()
+                var idleRequests = 0
+                while (true) {
+                    val path = readRequestLine(input).split(" ")[1]
+                    var length = 0
+                    while (true) {
+                        val line = readRequestLine(input)
+                        if (line.isEmpty()) break
+                        if (line.startsWith("Content-Length")) length = line.substringAfter(":").trim().toInt()
+                    }
+                    val body = ByteArray(length)
+                    input.readUntil(body)
+                    paths.add(path)
+                    val response = when {
+                        path.startsWith("/fcs") -> null
+                        path.startsWith("/open") -> "id1\n".toByteArray()
+                        path.startsWith("/idle") -> if (idleRequests++ == 1) byteArrayOf(1, 1, 2, 3) else byteArrayOf(1)
+                        path.startsWith("/send") -> {
+                            sent.write(body)
+                            byteArrayOf(1)
+                        }
+                        else -> byteArrayOf(0)
+                    }
+                    val status = if (response == null) "404 Not Found" else "200 OK"
+                    output.write("HTTP/1.1 $status\r\nContent-Length: ${response?.size ?: 0}\r\n\r\n".toByteArray())
+                    response?.let { output.write(it) }
+                    output.flush()
+                    if (path.startsWith("/close")) break
+                }
+                client.close()
+                break
+            }
+        }
+        val socket = TcpTunneledSocket("127.0.0.1", server.localPort, false)
+        socket.connect()
+        socket.getOutStream().write(data)
+        socket.flush(true)
+        socket.getOutStream().write(data)
+        socket.flush()
+        val response = ByteArray(3)
+        socket.getInputStream().readUntil(response)
+        socket.close()
+        serverThread.join(5000)
+        server.close()
+        assertEquals(1, connections)
+        assertArrayEquals(byteArrayOf(1, 2, 3), response)
+        assertArrayEquals(data.plus(data), sent.toByteArray())
+        assertEquals(listOf("/fcs/ident2", "/open/1", "/idle/id1/0", "/send/id1/1", "/idle/id1/2", "/close/id1"), paths)
+    }
+
+    private fun readRequestLine(input: InputStream): String {
+        val line = StringBuilder()
+        while (true) {
+            val b = input.read()
+            if (b < 0 || b == '\n'.code) break
+            if (b != '\r'.code) line.append(b.toChar())
+        }
+        return line.toString()
+    }
 }
\ No newline at end of file
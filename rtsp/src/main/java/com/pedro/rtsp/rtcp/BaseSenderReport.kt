@@ -40,14 +40,25 @@ abstract class BaseSenderReport internal constructor() {
   private var audioOctetCount = 0L
   val PACKET_LENGTH = 28
   protected val TAG = "BaseSenderReport"
+  /**
+   * Writes are synchronized with this lock. Share it with the rtp socket of the same session
+   * if both write in the same stream.
+   */
+  var lock: Any = Any()
+  //parse reports received from the server
+  var rtcpReceiver: RtcpReceiver? = null
 
   companion object {
+    /**
+     * @param sendBufferSize SO_SNDBUF of UDP sockets. 0 to use the system default.
+     */
     @JvmStatic
-    fun getInstance(protocol: Protocol, videoSourcePort: Int, audioSourcePort: Int): BaseSenderReport {
+    @JvmOverloads
+    fun getInstance(protocol: Protocol, videoSourcePort: Int, audioSourcePort: Int, sendBufferSize: Int = 0): BaseSenderReport {
       return if (protocol === Protocol.TCP) {
         SenderReportTcp()
       } else {
-        SenderReportUdp(videoSourcePort, audioSourcePort)
+        SenderReportUdpChannel(videoSourcePort, audioSourcePort, sendBufferSize)
       }
     }
   }
@@ -81,11 +92,18 @@ abstract class BaseSenderReport internal constructor() {
   fun setSSRC(ssrcVideo: Long, ssrcAudio: Long) {
     videoBuffer.setLong(ssrcVideo, 4, 8)
     audioBuffer.setLong(ssrcAudio, 4, 8)
+    rtcpReceiver?.setSSRC(ssrcVideo, ssrcAudio)
   }
 
   @Throws(IOException::class)
   abstract fun setDataStream(outputStream: OutputStream, host: String)
 
+  /**
+   * Start to read RTCP packets received from the server, if the protocol has its own sockets.
+   * In TCP mode packets are interleaved in the RTSP connection and read by RtspClient.
+   */
+  open fun startReceiving() {}
+
   @Throws(IOException::class)
   suspend fun update(rtpFrame: RtpFrame, isEnableLogs: Boolean): Boolean {
     return if (rtpFrame.channelIdentifier == RtpConstants.trackVideo) {
@@ -143,6 +161,7 @@ abstract class BaseSenderReport internal constructor() {
 
   abstract fun close()
 
+  //the middle 32 bits of the NTP timestamp are used by the server as LSR, see RtcpReceiver.getNtpMiddle
   private fun setData(buffer: ByteArray, ntpts: Long, rtpts: Long) {
     val hb = ntpts / 1000000000
     val lb = (ntpts - hb * 1000000000) * 4294967296L / 1000000000
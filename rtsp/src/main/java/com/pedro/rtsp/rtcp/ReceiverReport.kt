@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Last report block received from the server about one of our streams.
+ *
+ * @param ssrc of the stream reported (video or audio ssrc sent by us).
+ * @param reporterSsrc ssrc of the server that send the report.
+ * @param isVideo true if the stream reported is the video stream.
+ * @param fractionLost fraction (0 to 1) of packets lost since the previous report.
+ * @param cumulativeLost total packets lost since the stream started.
+ * @param highestSequence extended highest sequence number received by the server.
+ * @param jitter interarrival jitter in RTP timestamp units (90000 per second for video, sample rate for audio).
+ * @param rtt round trip time in milliseconds calculated with LSR and DLSR, -1 if the server has not received a sender report yet.
+ * @param cname canonical name of the server received in SDES packets, if any.
+ * @param timeStamp time in milliseconds when the report was received.
+ */
+data class ReceiverReport(
+  val ssrc: Long,
+  val reporterSsrc: Long,
+  val isVideo: Boolean,
+  val fractionLost: Float,
+  val cumulativeLost: Int,
+  val highestSequence: Long,
+  val jitter: Long,
+  val rtt: Long,
+  val cname: String?,
+  val timeStamp: Long
+) {
+  fun getJitterMs(clockRate: Int): Float = jitter * 1000f / clockRate
+}
\ No newline at end of file
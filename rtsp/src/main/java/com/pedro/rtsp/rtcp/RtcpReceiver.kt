@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+import android.util.Log
+import com.pedro.common.TimeUtils
+import com.pedro.rtsp.utils.RtpConstants
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Parse RTCP compound packets received from the server (SR, RR, SDES, BYE and generic NACK) and
+ * keep the last report block received about our video and audio streams.
+ *
+ * RTT is calculated using LSR and DLSR: rtt = arrival - LSR - DLSR. LSR is the middle 32 bits of
+ * the NTP timestamp that we wrote in the sender report so arrival must use the same clock that
+ * BaseSenderReport.
+ */
+class RtcpReceiver {
+
+  companion object {
+    private const val TAG = "RtcpReceiver"
+    const val PT_SR = 200
+    const val PT_RR = 201
+    const val PT_SDES = 202
+    const val PT_BYE = 203
+    const val PT_RTPFB = 205
+    //RFC 4585, generic NACK format of transport layer feedback
+    private const val FMT_NACK = 1
+    private const val REPORT_BLOCK_LENGTH = 24
+    private const val SDES_CNAME = 1
+    //reports older than this are ignored to check packet loss
+    private const val REPORT_TIMEOUT = 10_000L
+
+    /**
+     * @return middle 32 bits of the NTP timestamp calculated in the same way that BaseSenderReport.
+     */
+    fun getNtpMiddle(nanos: Long): Long {
+      val hb = nanos / 1000000000
+      val lb = (nanos - hb * 1000000000) * 4294967296L / 1000000000
+      return ((hb and 0xFFFF) shl 16) or (lb shr 16)
+    }
+  }
+
+  @Volatile
+  private var ssrcVideo = -1L
+  @Volatile
+  private var ssrcAudio = -1L
+  private val cnames = HashMap<Long, String>()
+  private val interleavedHeader = ByteArray(3)
+  private var buffer = ByteArray(RtpConstants.MTU)
+  @Volatile
+  var videoReport: ReceiverReport? = null
+    private set
+  @Volatile
+  var audioReport: ReceiverReport? = null
+    private set
+  @Volatile
+  var listener: RtcpStatsListener? = null
+  /**
+   * Called for each generic NACK entry received: ssrc of the media, first packet lost (PID) and
+   * bitmask of the following 16 packets lost (BLP).
+   */
+  @Volatile
+  var onNack: ((ssrc: Long, pid: Int, blp: Int) -> Unit)? = null
+
+  /**
+   * @param ssrc unsigned 32 bits value read from a RTCP packet.
+   */
+  fun isVideoSsrc(ssrc: Long): Boolean = ssrc == ssrcVideo
+
+  fun setSSRC(ssrcVideo: Long, ssrcAudio: Long) {
+    //ssrc values are read as unsigned 32 bits
+    this.ssrcVideo = ssrcVideo and 0xFFFFFFFFL
+    this.ssrcAudio = ssrcAudio and 0xFFFFFFFFL
+  }
+
+  /**
+   * Parse a compound RTCP packet.
+   * @return false if the packet is malformed. Packets parsed before the error are processed.
+   */
+  fun handlePacket(data: ByteArray, offset: Int, length: Int, arrivalNanos: Long = TimeUtils.getCurrentTimeNano()): Boolean {
+    synchronized(this) {
+      var position = offset
+      val end = offset + length
+      while (position + 4 <= end) {
+        val first = data[position].toInt() and 0xFF
+        if (first shr 6 != 2) return false
+        val count = first and 0x1F
+        val type = data[position + 1].toInt() and 0xFF
+        val packetLength = (readLong(data, position + 2, 2).toInt() + 1) * 4
+        if (position + packetLength > end) return false
+        val valid = when (type) {
+          PT_SR -> readReportBlocks(data, position, packetLength, 28, count, arrivalNanos)
+          PT_RR -> readReportBlocks(data, position, packetLength, 8, count, arrivalNanos)
+          PT_SDES -> readSdes(data, position + 4, position + packetLength, count)
+          PT_BYE -> readBye(data, position + 4, position + packetLength, count)
+          PT_RTPFB -> if (count == FMT_NACK) readNack(data, position, packetLength) else true
+          else -> true
+        }
+        if (!valid) return false
+        position += packetLength
+      }
+      return position == end
+    }
+  }
+
+  /**
+   * Read a message of the RTSP connection after record. In TCP mode the server send RTCP packets
+   * interleaved in odd channels ($ + channel + length + packet). Other data is discarded.
+   */
+  @Throws(IOException::class)
+  fun readInterleaved(input: InputStream) {
+    val first = input.read()
+    if (first == -1) throw IOException("Connection closed by server")
+    if (first != '$'.code) {
+      //RTSP message from server, discard the line
+      while (true) {
+        val value = input.read()
+        if (value == -1) throw IOException("Connection closed by server")
+        if (value == '\n'.code) return
+      }
+    }
+    readFully(input, interleavedHeader, 3)
+    val channel = interleavedHeader[0].toInt() and 0xFF
+    val length = readLong(interleavedHeader, 1, 2).toInt()
+    if (buffer.size < length) buffer = ByteArray(length)
+    readFully(input, buffer, length)
+    if (channel % 2 == 1 && !handlePacket(buffer, 0, length)) {
+      Log.e(TAG, "Malformed RTCP packet received in channel $channel")
+    }
+  }
+
+  /**
+   * @return true if the last report received of any stream has at least percentLost of packets lost.
+   */
+  fun hasPacketLoss(percentLost: Float): Boolean {
+    val now = TimeUtils.getCurrentTimeMillis()
+    return listOfNotNull(videoReport, audioReport).any { report ->
+      now - report.timeStamp < REPORT_TIMEOUT && report.fractionLost * 100 >= percentLost
+    }
+  }
+
+  fun reset() {
+    synchronized(this) {
+      cnames.clear()
+      videoReport = null
+      audioReport = null
+    }
+  }
+
+  private fun readReportBlocks(data: ByteArray, position: Int, packetLength: Int, headerLength: Int, count: Int, arrivalNanos: Long): Boolean {
+    if (headerLength + count * REPORT_BLOCK_LENGTH > packetLength) return false
+    val reporterSsrc = readLong(data, position + 4, 4)
+    for (i in 0 until count) {
+      val block = position + headerLength + i * REPORT_BLOCK_LENGTH
+      val ssrc = readLong(data, block, 4)
+      val isVideo = ssrc == ssrcVideo
+      //reports about other streams are not useful for us
+      if (!isVideo && ssrc != ssrcAudio) continue
+      var cumulativeLost = readLong(data, block + 5, 3).toInt()
+      //24 bits signed value
+      if (cumulativeLost and 0x800000 != 0) cumulativeLost -= 0x1000000
+      val report = ReceiverReport(
+        ssrc = ssrc,
+        reporterSsrc = reporterSsrc,
+        isVideo = isVideo,
+        fractionLost = (data[block + 4].toInt() and 0xFF) / 256f,
+        cumulativeLost = cumulativeLost,
+        highestSequence = readLong(data, block + 8, 4),
+        jitter = readLong(data, block + 12, 4),
+        rtt = calculateRtt(readLong(data, block + 16, 4), readLong(data, block + 20, 4), arrivalNanos),
+        cname = cnames[reporterSsrc],
+        timeStamp = TimeUtils.getCurrentTimeMillis()
+      )
+      if (isVideo) videoReport = report else audioReport = report
+      listener?.onReceiverReport(report)
+    }
+    return true
+  }
+
+  private fun readSdes(data: ByteArray, start: Int, end: Int, count: Int): Boolean {
+    var position = start
+    for (i in 0 until count) {
+      if (position + 4 > end) return false
+      val ssrc = readLong(data, position, 4)
+      position += 4
+      while (true) {
+        if (position >= end) return false
+        val type = data[position].toInt() and 0xFF
+        if (type == 0) {
+          //end of items, chunks are 32 bits aligned
+          position = (position - start + 4) / 4 * 4 + start
+          break
+        }
+        if (position + 2 > end) return false
+        val length = data[position + 1].toInt() and 0xFF
+        if (position + 2 + length > end) return false
+        if (type == SDES_CNAME) cnames[ssrc] = String(data, position + 2, length, Charsets.UTF_8)
+        position += 2 + length
+      }
+    }
+    return true
+  }
+
+  private fun readBye(data: ByteArray, start: Int, end: Int, count: Int): Boolean {
+    val reasonPosition = start + count * 4
+    if (reasonPosition > end) return false
+    val reason = if (reasonPosition < end) {
+      val length = data[reasonPosition].toInt() and 0xFF
+      if (reasonPosition + 1 + length > end) return false
+      String(data, reasonPosition + 1, length, Charsets.UTF_8)
+    } else null
+    for (i in 0 until count) {
+      val ssrc = readLong(data, start + i * 4, 4)
+      Log.i(TAG, "BYE received, ssrc: $ssrc, reason: $reason")
+      cnames.remove(ssrc)
+      listener?.onBye(ssrc, reason)
+    }
+    return true
+  }
+
+  private fun readNack(data: ByteArray, position: Int, packetLength: Int): Boolean {
+    //header, ssrc of sender and ssrc of media
+    if (packetLength < 16) return false
+    val ssrc = readLong(data, position + 8, 4)
+    var fci = position + 12
+    while (fci + 4 <= position + packetLength) {
+      val pid = readLong(data, fci, 2).toInt()
+      val blp = readLong(data, fci + 2, 2).toInt()
+      onNack?.invoke(ssrc, pid, blp)
+      fci += 4
+    }
+    return true
+  }
+
+  private fun calculateRtt(lsr: Long, dlsr: Long, arrivalNanos: Long): Long {
+    //the server has not received a sender report yet
+    if (lsr == 0L) return -1
+    val rtt = (getNtpMiddle(arrivalNanos) - lsr - dlsr) and 0xFFFFFFFFL
+    //negative value caused by rounding, rtt is near to 0
+    if (rtt > 0x7FFFFFFFL) return 0
+    //1/65536 seconds to milliseconds
+    return rtt * 1000 / 65536
+  }
+
+  private fun readLong(data: ByteArray, position: Int, length: Int): Long {
+    var value = 0L
+    for (i in position until position + length) {
+      value = (value shl 8) or (data[i].toLong() and 0xFF)
+    }
+    return value
+  }
+
+  @Throws(IOException::class)
+  private fun readFully(input: InputStream, data: ByteArray, length: Int) {
+    var read = 0
+    while (read < length) {
+      val result = input.read(data, read, length - read)
+      if (result == -1) throw IOException("Connection closed by server")
+      read += result
+    }
+  }
+}
\ No newline at end of file
@@ -18,7 +18,6 @@ package com.pedro.rtsp.rtcp
 
 import android.util.Log
 import com.pedro.rtsp.rtsp.RtpFrame
-import com.pedro.rtsp.utils.RtpConstants
 import java.io.IOException
 import java.io.OutputStream
 
@@ -44,7 +43,7 @@ class SenderReportTcp : BaseSenderReport() {
 
   @Throws(IOException::class)
   private fun sendReportTCP(buffer: ByteArray, channelIdentifier: Int, type: String, packet: Long, octet: Long, isEnableLogs: Boolean) {
-    synchronized(RtpConstants.lock) {
+    synchronized(lock) {
       tcpHeader[1] = (2 * channelIdentifier + 1).toByte()
       outputStream?.write(tcpHeader)
       outputStream?.write(buffer, 0, PACKET_LENGTH)
@@ -19,6 +19,11 @@ package com.pedro.rtsp.rtcp
 import android.util.Log
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
 import java.io.IOException
 import java.io.OutputStream
 import java.net.DatagramPacket
@@ -35,6 +40,7 @@ class SenderReportUdp(
 ) : BaseSenderReport() {
 
   private val datagramPacket = DatagramPacket(byteArrayOf(0), 1)
+  private var scope = CoroutineScope(Dispatchers.IO)
 
   init {
     if (multicastSocketVideo == null) multicastSocketVideo = MulticastSocket(videoSourcePort)
@@ -53,14 +59,45 @@ class SenderReportUdp(
     sendReportUDP(buffer, rtpFrame.rtcpPort, type, packetCount, octetCount, isEnableLogs)
   }
 
+  override fun startReceiving() {
+    scope = CoroutineScope(Dispatchers.IO)
+    multicastSocketVideo?.let { receive(it) }
+    //same socket in both tracks, only one reader needed
+    if (multicastSocketAudio !== multicastSocketVideo) multicastSocketAudio?.let { receive(it) }
+  }
+
   override fun close() {
+    scope.cancel()
     multicastSocketVideo?.close()
     multicastSocketAudio?.close()
   }
 
+  /**
+   * The server send reports to the same port that we use to send our reports.
+   * The loop ends when the socket is closed.
+   */
+  private fun receive(socket: MulticastSocket) {
+    scope.launch {
+      val packet = DatagramPacket(ByteArray(RtpConstants.MTU), RtpConstants.MTU)
+      while (isActive) {
+        val error = runCatching {
+          packet.length = RtpConstants.MTU
+          socket.receive(packet)
+          if (rtcpReceiver?.handlePacket(packet.data, packet.offset, packet.length) == false) {
+            Log.e(TAG, "Malformed RTCP packet received from port ${packet.port}")
+          }
+        }.exceptionOrNull()
+        if (error != null) {
+          if (!socket.isClosed) Log.e(TAG, "RTCP receive error", error)
+          return@launch
+        }
+      }
+    }
+  }
+
   @Throws(IOException::class)
   private fun sendReportUDP(buffer: ByteArray, port: Int, type: String, packet: Long, octet: Long, isEnableLogs: Boolean) {
-    synchronized(RtpConstants.lock) {
+    synchronized(lock) {
       datagramPacket.data = buffer
       datagramPacket.port = port
       datagramPacket.length = PACKET_LENGTH
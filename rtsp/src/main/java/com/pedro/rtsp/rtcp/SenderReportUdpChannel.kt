@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+import android.util.Log
+import com.pedro.rtsp.rtp.sockets.UdpChannel
+import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.utils.RtpConstants
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.IOException
+import java.io.OutputStream
+import java.net.InetAddress
+import java.nio.ByteBuffer
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Send sender reports and receive reports of the server over UDP using a DatagramChannel per track.
+ */
+class SenderReportUdpChannel @JvmOverloads constructor(
+  videoSourcePort: Int, audioSourcePort: Int, sendBufferSize: Int = 0
+) : BaseSenderReport() {
+
+  private val videoChannel = UdpChannel(videoSourcePort, sendBufferSize)
+  private val audioChannel = try {
+    UdpChannel(audioSourcePort, sendBufferSize)
+  } catch (e: IOException) {
+    videoChannel.close()
+    throw e
+  }
+  private var scope = CoroutineScope(Dispatchers.IO)
+
+  @Throws(IOException::class)
+  override fun setDataStream(outputStream: OutputStream, host: String) {
+    val address = InetAddress.getByName(host)
+    videoChannel.setHost(address)
+    audioChannel.setHost(address)
+  }
+
+  @Throws(IOException::class)
+  override suspend fun sendReport(buffer: ByteArray, rtpFrame: RtpFrame, type: String, packetCount: Long, octetCount: Long, isEnableLogs: Boolean) {
+    synchronized(lock) {
+      val channel = if (type == "Video") videoChannel else audioChannel
+      channel.send(buffer, PACKET_LENGTH, rtpFrame.rtcpPort)
+      if (isEnableLogs) {
+        Log.i(TAG, "wrote report: $type, port: ${rtpFrame.rtcpPort}, packets: $packetCount, octet: $octetCount")
+      }
+    }
+  }
+
+  override fun startReceiving() {
+    scope = CoroutineScope(Dispatchers.IO)
+    receive(videoChannel)
+    receive(audioChannel)
+  }
+
+  override fun close() {
+    scope.cancel()
+    videoChannel.close()
+    audioChannel.close()
+  }
+
+  /**
+   * The server send reports to the same port that we use to send our reports.
+   * The loop ends when the channel is closed.
+   */
+  private fun receive(channel: UdpChannel) {
+    scope.launch {
+      val buffer = ByteBuffer.allocate(RtpConstants.MTU)
+      while (isActive) {
+        val error = runCatching {
+          buffer.clear()
+          val address = channel.receive(buffer)
+          if (rtcpReceiver?.handlePacket(buffer.array(), 0, buffer.position()) == false) {
+            Log.e(TAG, "Malformed RTCP packet received from $address")
+          }
+        }.exceptionOrNull()
+        if (error != null) {
+          if (!channel.isClosed) Log.e(TAG, "RTCP receive error", error)
+          return@launch
+        }
+      }
+    }
+  }
+}
\ No newline at end of file
@@ -18,6 +18,7 @@ package com.pedro.rtsp.rtp.packets
 
 import android.media.MediaCodec
 import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.rtsp.RtpFramePool
 import com.pedro.rtsp.utils.RtpConstants
 import com.pedro.rtsp.utils.setLong
 import java.nio.ByteBuffer
@@ -36,6 +37,10 @@ abstract class BasePacket(private val clock: Long, private val payloadType: Int)
   private var ssrc = 0L
   protected val maxPacketSize = RtpConstants.MTU - 28
   protected val TAG = "BasePacket"
+  /**
+   * If set, buffers and frames are taken from the pool. The receiver of the frames must release it.
+   */
+  var framePool: RtpFramePool? = null
 
   abstract fun createAndSendPacket(
     byteBuffer: ByteBuffer,
@@ -57,8 +62,11 @@ abstract class BasePacket(private val clock: Long, private val payloadType: Int)
     this.ssrc = ssrc
   }
 
+  /**
+   * @return a buffer with at least size length. Use the size requested as packet length.
+   */
   protected fun getBuffer(size: Int): ByteArray {
-    val buffer = ByteArray(size)
+    val buffer = framePool?.getBuffer(size) ?: ByteArray(size)
     buffer[0] = 0x80.toByte()
     buffer[1] = payloadType.toByte()
     setLongSSRC(buffer, ssrc)
@@ -66,6 +74,11 @@ abstract class BasePacket(private val clock: Long, private val payloadType: Int)
     return buffer
   }
 
+  protected fun createFrame(buffer: ByteArray, timeStamp: Long, length: Int): RtpFrame {
+    return framePool?.getFrame(buffer, timeStamp, length, rtpPort, rtcpPort, channelIdentifier)
+      ?: RtpFrame(buffer, timeStamp, length, rtpPort, rtcpPort, channelIdentifier)
+  }
+
   protected fun updateTimeStamp(buffer: ByteArray, timestamp: Long): Long {
     val ts = timestamp * clock / 1000000000L
     buffer.setLong(ts, 4, 8)
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp.packets
+
+import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.rtsp.RtpFramePool
+import com.pedro.rtsp.utils.RtpConstants
+import com.pedro.rtsp.utils.setLong
+import java.util.Random
+import kotlin.math.ceil
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * RFC 5109
+ *
+ * XOR forward error correction (ULPFEC) generated over the RTP packets of a stream and sent as a
+ * separated stream with its own ssrc, payload type and sequence number.
+ *
+ * Packets are copied in a group until the end of a frame (marker bit) with enough packets to
+ * generate at least one FEC packet at the protection ratio or until MAX_GROUP_SIZE packets.
+ * Each FEC packet only use level 0 and protects the full payload of its packets.
+ *
+ * Buffers are preallocated, no memory is allocated per packet if a frame pool is used.
+ */
+class FecEncoder(private val payloadType: Int) {
+
+  companion object {
+    //max packets in a group using the long mask (L bit)
+    const val MAX_GROUP_SIZE = 48
+    private const val SHORT_MASK_SIZE = 16
+    private const val FEC_HEADER_LENGTH = 10
+  }
+
+  /**
+   * If set, buffers and frames are taken from the pool. The receiver of the frames must release it.
+   */
+  var framePool: RtpFramePool? = null
+  private val packets = Array(MAX_GROUP_SIZE) { ByteArray(RtpConstants.MTU) }
+  private val lengths = IntArray(MAX_GROUP_SIZE)
+  private val offsets = IntArray(MAX_GROUP_SIZE)
+  private var count = 0
+  //metadata of the last packet protected, used by the FEC packets of the group
+  private var timeStamp = 0L
+  private var rtpPort = 0
+  private var rtcpPort = 0
+  private var channelIdentifier = 0
+  private var baseSeq = 0
+  private var seq = Random().nextInt(0xFFFF)
+  private var ssrc = 0L
+  private var ratio = 0.25f
+  private var mask = FecMask.ROW
+
+  /**
+   * @param ratio FEC packets generated per media packet, in range (0, 1].
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setProtection(ratio: Float, mask: FecMask) {
+    if (ratio <= 0 || ratio > 1) throw IllegalArgumentException("the ratio must be in range (0, 1]")
+    this.ratio = ratio
+    this.mask = mask
+  }
+
+  fun setSSRC(ssrc: Long) {
+    this.ssrc = ssrc
+  }
+
+  /**
+   * Protect a packet. The frame is not modified and can be released after this call.
+   * FEC packets generated, if any, are added to output.
+   */
+  fun add(frame: RtpFrame, output: MutableList<RtpFrame>) {
+    val buffer = frame.buffer
+    val length = frame.length
+    if (length > RtpConstants.MTU || length <= RtpConstants.RTP_HEADER_LENGTH) return
+    val packetSeq = (buffer[2].toInt() and 0xFF shl 8) or (buffer[3].toInt() and 0xFF)
+    //packets discarded before send could produce a gap bigger than the mask
+    if (count > 0 && ((packetSeq - baseSeq) and 0xFFFF) >= MAX_GROUP_SIZE) flush(output)
+    if (count == 0) baseSeq = packetSeq
+    System.arraycopy(buffer, 0, packets[count], 0, length)
+    lengths[count] = length
+    offsets[count] = (packetSeq - baseSeq) and 0xFFFF
+    count++
+    timeStamp = frame.timeStamp
+    rtpPort = frame.rtpPort
+    rtcpPort = frame.rtcpPort
+    channelIdentifier = frame.channelIdentifier
+    val marker = buffer[1].toInt() and 0x80 != 0
+    if (count == MAX_GROUP_SIZE || (marker && count * ratio >= 1f)) flush(output)
+  }
+
+  fun reset() {
+    count = 0
+    seq = Random().nextInt(0xFFFF)
+    ssrc = 0
+  }
+
+  private fun flush(output: MutableList<RtpFrame>) {
+    val fecCount = ceil(count * ratio).toInt().coerceIn(1, count)
+    val longMask = offsets[count - 1] >= SHORT_MASK_SIZE
+    val maskBits = if (longMask) MAX_GROUP_SIZE else SHORT_MASK_SIZE
+    val fecHeader = RtpConstants.RTP_HEADER_LENGTH
+    val payloadOffset = fecHeader + FEC_HEADER_LENGTH + 2 + maskBits / 8
+    for (i in 0 until fecCount) {
+      var protectionLength = 0
+      for (j in 0 until count) {
+        if (isProtected(j, i, fecCount)) protectionLength = maxOf(protectionLength, lengths[j] - RtpConstants.RTP_HEADER_LENGTH)
+      }
+      val fecLength = payloadOffset + protectionLength
+      val fec = framePool?.getBuffer(fecLength) ?: ByteArray(fecLength)
+      fec.fill(0, 0, fecLength)
+      var recoveryLength = 0
+      var packetMask = 0L
+      for (j in 0 until count) {
+        if (!isProtected(j, i, fecCount)) continue
+        val packet = packets[j]
+        val payloadLength = lengths[j] - RtpConstants.RTP_HEADER_LENGTH
+        //P, X, CC, M and PT recovery
+        fec[fecHeader] = (fec[fecHeader].toInt() xor packet[0].toInt()).toByte()
+        fec[fecHeader + 1] = (fec[fecHeader + 1].toInt() xor packet[1].toInt()).toByte()
+        //TS recovery
+        for (k in 4 until 8) fec[fecHeader + k] = (fec[fecHeader + k].toInt() xor packet[k].toInt()).toByte()
+        recoveryLength = recoveryLength xor payloadLength
+        packetMask = packetMask or (1L shl (maskBits - 1 - offsets[j]))
+        for (k in 0 until payloadLength) {
+          fec[payloadOffset + k] = (fec[payloadOffset + k].toInt() xor packet[RtpConstants.RTP_HEADER_LENGTH + k].toInt()).toByte()
+        }
+      }
+      //E = 0, L and P, X, CC recovery
+      fec[fecHeader] = ((fec[fecHeader].toInt() and 0x3F) or (if (longMask) 0x40 else 0)).toByte()
+      fec.setLong(baseSeq.toLong(), fecHeader + 2, fecHeader + 4)
+      fec.setLong(recoveryLength.toLong(), fecHeader + 8, fecHeader + 10)
+      //level 0 header
+      fec.setLong(protectionLength.toLong(), fecHeader + FEC_HEADER_LENGTH, fecHeader + FEC_HEADER_LENGTH + 2)
+      fec.setLong(packetMask, fecHeader + FEC_HEADER_LENGTH + 2, payloadOffset)
+      //RTP header with the timestamp of the last packet protected
+      fec[0] = 0x80.toByte()
+      fec[1] = payloadType.toByte()
+      seq = (seq + 1) and 0xFFFF
+      fec.setLong(seq.toLong(), 2, 4)
+      System.arraycopy(packets[count - 1], 4, fec, 4, 4)
+      fec.setLong(ssrc, 8, 12)
+      output.add(framePool?.getFrame(fec, timeStamp, fecLength, rtpPort, rtcpPort, channelIdentifier)
+        ?: RtpFrame(fec, timeStamp, fecLength, rtpPort, rtcpPort, channelIdentifier))
+    }
+    count = 0
+  }
+
+  private fun isProtected(packet: Int, fec: Int, fecCount: Int): Boolean {
+    return when (mask) {
+      FecMask.ROW -> packet * fecCount / count == fec
+      FecMask.COLUMN -> packet % fecCount == fec
+    }
+  }
+}
\ No newline at end of file
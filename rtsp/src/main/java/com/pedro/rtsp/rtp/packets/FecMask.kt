@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp.packets
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Packets protected by each FEC packet of a group.
+ */
+enum class FecMask {
+  /**
+   * Each FEC packet protects consecutive packets. Recover isolated losses.
+   */
+  ROW,
+  /**
+   * Each FEC packet protects packets interleaved (one of each N). Recover burst losses.
+   */
+  COLUMN
+}
\ No newline at end of file
@@ -52,7 +52,7 @@ class G711Packet(
       markPacket(buffer)
       val rtpTs = updateTimeStamp(buffer, ts)
       updateSeq(buffer)
-      val rtpFrame = RtpFrame(buffer, rtpTs, RtpConstants.RTP_HEADER_LENGTH + size , rtpPort, rtcpPort, channelIdentifier)
+      val rtpFrame = createFrame(buffer, rtpTs, RtpConstants.RTP_HEADER_LENGTH + size)
       sum += size
       callback(rtpFrame)
     }
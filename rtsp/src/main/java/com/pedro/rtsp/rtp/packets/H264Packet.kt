@@ -18,10 +18,12 @@ package com.pedro.rtsp.rtp.packets
 
 import android.media.MediaCodec
 import android.util.Log
+import com.pedro.common.NalScanner
+import com.pedro.common.NalUnit
+import com.pedro.common.VideoCodec
 import com.pedro.common.removeInfo
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
-import com.pedro.rtsp.utils.getVideoStartCodeSize
 import java.nio.ByteBuffer
 import kotlin.experimental.and
 
@@ -41,6 +43,18 @@ class H264Packet(
   private var sendKeyFrame = false
   private var sps: ByteArray? = null
   private var pps: ByteArray? = null
+  private val scanner = NalScanner(VideoCodec.H264)
+  //small NAL units of the current access unit waiting to be sent together in a STAP-A
+  private val aggregatedOffsets = IntArray(MAX_AGGREGATED_UNITS)
+  private val aggregatedLengths = IntArray(MAX_AGGREGATED_UNITS)
+  private var aggregatedCount = 0
+  private var aggregatedSize = 0
+  //STAP-A payload without the STAP-A NAL header
+  private val maxAggregatedSize = maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 1
+
+  companion object {
+    private const val MAX_AGGREGATED_UNITS = 64
+  }
 
   init {
     channelIdentifier = RtpConstants.trackVideo
@@ -53,75 +67,136 @@ class H264Packet(
     callback: (RtpFrame) -> Unit
   ) {
     val fixedBuffer = byteBuffer.removeInfo(bufferInfo)
-    // We read a NAL units from ByteBuffer and we send them
-    // NAL units are preceded with 0x00000001
-    val header = ByteArray(getHeaderSize(fixedBuffer) + 1)
-    if (header.size == 1) return //invalid buffer or waiting for sps/pps
-    fixedBuffer.rewind()
-    fixedBuffer.get(header, 0, header.size)
     val ts = bufferInfo.presentationTimeUs * 1000L
-    val naluLength = fixedBuffer.remaining()
-    val type: Int = (header[header.size - 1] and 0x1F).toInt()
-    if (type == RtpConstants.IDR || bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
-      stapA?.let {
-        val buffer = getBuffer(it.size + RtpConstants.RTP_HEADER_LENGTH)
-        val rtpTs = updateTimeStamp(buffer, ts)
-        markPacket(buffer) //mark end frame
-        System.arraycopy(it, 0, buffer, RtpConstants.RTP_HEADER_LENGTH, it.size)
-        updateSeq(buffer)
-        val rtpFrame = RtpFrame(buffer, rtpTs, it.size + RtpConstants.RTP_HEADER_LENGTH, rtpPort, rtcpPort, channelIdentifier)
-        callback(rtpFrame)
-        sendKeyFrame = true
-      } ?: run {
-        Log.i(TAG, "can't create key frame because setSpsPps was not called")
-      }
-    }
-    if (sendKeyFrame) {
-      // Small NAL unit => Single NAL unit
-      if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 1) {
-        val buffer = getBuffer(naluLength + RtpConstants.RTP_HEADER_LENGTH + 1)
-        buffer[RtpConstants.RTP_HEADER_LENGTH] = header[header.size - 1]
-        fixedBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 1, naluLength)
-        val rtpTs = updateTimeStamp(buffer, ts)
-        markPacket(buffer) //mark end frame
-        updateSeq(buffer)
-        val rtpFrame = RtpFrame(buffer, rtpTs, buffer.size, rtpPort, rtcpPort, channelIdentifier)
-        callback(rtpFrame)
-      } else {
-        // Set FU-A header
-        header[1] = header[header.size - 1] and 0x1F // FU header type
-        header[1] = header[1].plus(0x80).toByte()  // set start bit to 1
-        // Set FU-A indicator
-        header[0] = header[header.size - 1] and 0x60 and 0xFF.toByte() // FU indicator NRI
-        header[0] = header[0].plus(28).toByte()
-        var sum = 0
-        while (sum < naluLength) {
-          val length = if (naluLength - sum > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2) {
-            maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2
-          } else {
-            fixedBuffer.remaining()
-          }
-          val buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 2)
-          buffer[RtpConstants.RTP_HEADER_LENGTH] = header[0]
-          buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[1]
+    var stapASent = false
+    // A buffer could contain multiple NAL units (AUD, SEI, multiple slices...).
+    // Consecutive small NAL units are aggregated in a STAP-A and big NAL units are fragmented
+    aggregatedCount = 0
+    aggregatedSize = 0
+    scanner.reset(fixedBuffer)
+    while (true) {
+      val nal = scanner.next() ?: break
+      // sps and pps are sent in the STAP-A before each keyframe
+      if (nal.isParameterSet()) continue
+      if (!stapASent && (nal.isKeyFrame() || bufferInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME)) {
+        stapA?.let {
+          val buffer = getBuffer(it.size + RtpConstants.RTP_HEADER_LENGTH)
           val rtpTs = updateTimeStamp(buffer, ts)
-          fixedBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, length)
-          sum += length
-          // Last packet before next NAL
-          if (sum >= naluLength) {
-            // End bit on
-            buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = buffer[RtpConstants.RTP_HEADER_LENGTH + 1].plus(0x40).toByte()
-            markPacket(buffer) //mark end frame
-          }
+          markPacket(buffer) //mark end frame
+          System.arraycopy(it, 0, buffer, RtpConstants.RTP_HEADER_LENGTH, it.size)
           updateSeq(buffer)
-          val rtpFrame = RtpFrame(buffer, rtpTs, buffer.size, rtpPort, rtcpPort, channelIdentifier)
+          val rtpFrame = createFrame(buffer, rtpTs, it.size + RtpConstants.RTP_HEADER_LENGTH)
           callback(rtpFrame)
-          // Switch start bit
-          header[1] = header[1] and 0x7F
+          sendKeyFrame = true
+        } ?: run {
+          Log.i(TAG, "can't create key frame because setSpsPps was not called")
         }
+        stapASent = true
+      }
+      if (!sendKeyFrame) {
+        Log.i(TAG, "waiting for keyframe")
+        return
       }
+      // 2 bytes of NAL unit size in the STAP-A
+      if (nal.length + 2 <= maxAggregatedSize) {
+        if (aggregatedCount == MAX_AGGREGATED_UNITS || aggregatedSize + nal.length + 2 > maxAggregatedSize) {
+          sendAggregated(fixedBuffer, ts, false, callback)
+        }
+        aggregatedOffsets[aggregatedCount] = nal.offset
+        aggregatedLengths[aggregatedCount] = nal.length
+        aggregatedCount++
+        aggregatedSize += nal.length + 2
+      } else {
+        sendAggregated(fixedBuffer, ts, false, callback)
+        sendNalUnit(fixedBuffer, nal, ts, callback)
+      }
+    }
+    sendAggregated(fixedBuffer, ts, true, callback)
+  }
+
+  /**
+   * Send NAL units aggregated in a STAP-A or as single NAL unit if there is only one.
+   */
+  private fun sendAggregated(fixedBuffer: ByteBuffer, ts: Long, endFrame: Boolean, callback: (RtpFrame) -> Unit) {
+    if (aggregatedCount == 0) return
+    val packetLength: Int
+    val buffer: ByteArray
+    if (aggregatedCount == 1) {
+      packetLength = aggregatedLengths[0] + RtpConstants.RTP_HEADER_LENGTH
+      buffer = getBuffer(packetLength)
+      fixedBuffer.position(aggregatedOffsets[0])
+      fixedBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH, aggregatedLengths[0])
     } else {
-      Log.i(TAG, "waiting for keyframe")
+      packetLength = aggregatedSize + RtpConstants.RTP_HEADER_LENGTH + 1
+      buffer = getBuffer(packetLength)
+      var forbidden = 0
+      var nri = 0
+      var offset = RtpConstants.RTP_HEADER_LENGTH + 1
+      for (i in 0 until aggregatedCount) {
+        val length = aggregatedLengths[i]
+        val nalHeader = fixedBuffer.get(aggregatedOffsets[i]).toInt()
+        forbidden = forbidden or (nalHeader and 0x80)
+        nri = maxOf(nri, nalHeader and 0x60)
+        buffer[offset] = (length shr 8).toByte()
+        buffer[offset + 1] = (length and 0xFF).toByte()
+        fixedBuffer.position(aggregatedOffsets[i])
+        fixedBuffer.get(buffer, offset + 2, length)
+        offset += length + 2
+      }
+      // STAP-A NAL header is 24 with the highest NRI of the NAL units
+      buffer[RtpConstants.RTP_HEADER_LENGTH] = (forbidden or nri or 24).toByte()
+    }
+    val rtpTs = updateTimeStamp(buffer, ts)
+    if (endFrame) markPacket(buffer) //mark end frame
+    updateSeq(buffer)
+    val rtpFrame = createFrame(buffer, rtpTs, packetLength)
+    callback(rtpFrame)
+    aggregatedCount = 0
+    aggregatedSize = 0
+  }
+
+  private fun sendNalUnit(fixedBuffer: ByteBuffer, nal: NalUnit, ts: Long, callback: (RtpFrame) -> Unit) {
+    val nalHeader = fixedBuffer.get(nal.offset)
+    val naluLength = nal.length - 1
+    fixedBuffer.position(nal.offset + 1)
+    // Small NAL unit => Single NAL unit
+    if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 1) {
+      val packetLength = naluLength + RtpConstants.RTP_HEADER_LENGTH + 1
+      val buffer = getBuffer(packetLength)
+      buffer[RtpConstants.RTP_HEADER_LENGTH] = nalHeader
+      fixedBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 1, naluLength)
+      val rtpTs = updateTimeStamp(buffer, ts)
+      if (nal.isLast) markPacket(buffer) //mark end frame
+      updateSeq(buffer)
+      val rtpFrame = createFrame(buffer, rtpTs, packetLength)
+      callback(rtpFrame)
+    } else {
+      // Set FU-A indicator
+      val fuIndicator = ((nalHeader and 0x60) + 28).toByte() // FU indicator NRI
+      // Set FU-A header
+      var fuHeader = ((nalHeader and 0x1F) + 0x80).toByte() // FU header type and start bit to 1
+      var sum = 0
+      while (sum < naluLength) {
+        val length = minOf(naluLength - sum, maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2)
+        val packetLength = length + RtpConstants.RTP_HEADER_LENGTH + 2
+        val buffer = getBuffer(packetLength)
+        buffer[RtpConstants.RTP_HEADER_LENGTH] = fuIndicator
+        buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = fuHeader
+        val rtpTs = updateTimeStamp(buffer, ts)
+        fixedBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, length)
+        sum += length
+        // Last packet before next NAL
+        if (sum >= naluLength) {
+          // End bit on
+          buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = buffer[RtpConstants.RTP_HEADER_LENGTH + 1].plus(0x40).toByte()
+          if (nal.isLast) markPacket(buffer) //mark end frame
+        }
+        updateSeq(buffer)
+        val rtpFrame = createFrame(buffer, rtpTs, packetLength)
+        callback(rtpFrame)
+        // Switch start bit
+        fuHeader = fuHeader and 0x7F
+      }
     }
   }
 
@@ -147,30 +222,6 @@ class H264Packet(
     }
   }
 
-  private fun getHeaderSize(byteBuffer: ByteBuffer): Int {
-    if (byteBuffer.remaining() < 4) return 0
-
-    val sps = this.sps
-    val pps = this.pps
-    if (sps != null && pps != null) {
-      val startCodeSize = byteBuffer.getVideoStartCodeSize()
-      if (startCodeSize == 0) return 0
-      val startCode = ByteArray(startCodeSize) { 0x00 }
-      startCode[startCodeSize - 1] = 0x01
-      val avcHeader = startCode.plus(sps).plus(startCode).plus(pps).plus(startCode)
-      if (byteBuffer.remaining() < avcHeader.size) return startCodeSize
-
-      val possibleAvcHeader = ByteArray(avcHeader.size)
-      byteBuffer.get(possibleAvcHeader, 0, possibleAvcHeader.size)
-      return if (avcHeader.contentEquals(possibleAvcHeader)) {
-        avcHeader.size
-      } else {
-        startCodeSize
-      }
-    }
-    return 0
-  }
-
   override fun reset() {
     super.reset()
     sendKeyFrame = false
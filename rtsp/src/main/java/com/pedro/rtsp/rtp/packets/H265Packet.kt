@@ -17,10 +17,12 @@
 package com.pedro.rtsp.rtp.packets
 
 import android.media.MediaCodec
+import com.pedro.common.NalScanner
+import com.pedro.common.NalUnit
+import com.pedro.common.VideoCodec
 import com.pedro.common.removeInfo
 import com.pedro.rtsp.rtsp.RtpFrame
 import com.pedro.rtsp.utils.RtpConstants
-import com.pedro.rtsp.utils.getVideoStartCodeSize
 import java.nio.ByteBuffer
 import kotlin.experimental.and
 
@@ -34,6 +36,19 @@ class H265Packet: BasePacket(
   RtpConstants.payloadType + RtpConstants.trackVideo
 ) {
 
+  private val scanner = NalScanner(VideoCodec.H265)
+  //small NAL units of the current access unit waiting to be sent together in an AP
+  private val aggregatedOffsets = IntArray(MAX_AGGREGATED_UNITS)
+  private val aggregatedLengths = IntArray(MAX_AGGREGATED_UNITS)
+  private var aggregatedCount = 0
+  private var aggregatedSize = 0
+  //AP payload without the AP PayloadHdr
+  private val maxAggregatedSize = maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2
+
+  companion object {
+    private const val MAX_AGGREGATED_UNITS = 64
+  }
+
   init {
     channelIdentifier = RtpConstants.trackVideo
   }
@@ -44,49 +59,114 @@ class H265Packet: BasePacket(
     callback: (RtpFrame) -> Unit
   ) {
     val fixedBuffer = byteBuffer.removeInfo(bufferInfo)
-    // We read a NAL units from ByteBuffer and we send them
-    // NAL units are preceded with 0x00000001
-    val header = ByteArray(fixedBuffer.getVideoStartCodeSize() + 2)
-    if (header.size == 2) return //invalid buffer or waiting for sps/pps/vps
-    fixedBuffer.get(header, 0, header.size)
     val ts = bufferInfo.presentationTimeUs * 1000L
-    val naluLength = fixedBuffer.remaining()
-    val type: Int = header[header.size - 2].toInt().shr(1 and 0x3f)
+    // A buffer could contain multiple NAL units (AUD, SEI, vps/sps/pps, multiple slices...).
+    // Consecutive small NAL units are aggregated in an AP and big NAL units are fragmented
+    aggregatedCount = 0
+    aggregatedSize = 0
+    scanner.reset(fixedBuffer)
+    while (true) {
+      val nal = scanner.next() ?: break
+      if (nal.length < 2) continue
+      // 2 bytes of NAL unit size in the AP
+      if (nal.length + 2 <= maxAggregatedSize) {
+        if (aggregatedCount == MAX_AGGREGATED_UNITS || aggregatedSize + nal.length + 2 > maxAggregatedSize) {
+          sendAggregated(fixedBuffer, ts, false, callback)
+        }
+        aggregatedOffsets[aggregatedCount] = nal.offset
+        aggregatedLengths[aggregatedCount] = nal.length
+        aggregatedCount++
+        aggregatedSize += nal.length + 2
+      } else {
+        sendAggregated(fixedBuffer, ts, false, callback)
+        sendNalUnit(fixedBuffer, nal, ts, callback)
+      }
+    }
+    sendAggregated(fixedBuffer, ts, true, callback)
+  }
+
+  /**
+   * Send NAL units aggregated in an AP or as single NAL unit if there is only one.
+   */
+  private fun sendAggregated(fixedBuffer: ByteBuffer, ts: Long, endFrame: Boolean, callback: (RtpFrame) -> Unit) {
+    if (aggregatedCount == 0) return
+    val packetLength: Int
+    val buffer: ByteArray
+    if (aggregatedCount == 1) {
+      packetLength = aggregatedLengths[0] + RtpConstants.RTP_HEADER_LENGTH
+      buffer = getBuffer(packetLength)
+      fixedBuffer.position(aggregatedOffsets[0])
+      fixedBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH, aggregatedLengths[0])
+    } else {
+      packetLength = aggregatedSize + RtpConstants.RTP_HEADER_LENGTH + 2
+      buffer = getBuffer(packetLength)
+      var forbidden = 0
+      var layerId = 0x3F
+      var tid = 0x07
+      var offset = RtpConstants.RTP_HEADER_LENGTH + 2
+      for (i in 0 until aggregatedCount) {
+        val length = aggregatedLengths[i]
+        val header0 = fixedBuffer.get(aggregatedOffsets[i]).toInt()
+        val header1 = fixedBuffer.get(aggregatedOffsets[i] + 1).toInt()
+        forbidden = forbidden or (header0 and 0x80)
+        layerId = minOf(layerId, ((header0 and 0x01) shl 5) or ((header1 and 0xF8) shr 3))
+        tid = minOf(tid, header1 and 0x07)
+        buffer[offset] = (length shr 8).toByte()
+        buffer[offset + 1] = (length and 0xFF).toByte()
+        fixedBuffer.position(aggregatedOffsets[i])
+        fixedBuffer.get(buffer, offset + 2, length)
+        offset += length + 2
+      }
+      //Set PayloadHdr (16bit type=48) with the lowest LayerId and TID of the NAL units
+      buffer[RtpConstants.RTP_HEADER_LENGTH] = (forbidden or (48 shl 1) or (layerId shr 5)).toByte()
+      buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = (((layerId and 0x1F) shl 3) or tid).toByte()
+    }
+    val rtpTs = updateTimeStamp(buffer, ts)
+    if (endFrame) markPacket(buffer) //mark end frame
+    updateSeq(buffer)
+    val rtpFrame = createFrame(buffer, rtpTs, packetLength)
+    callback(rtpFrame)
+    aggregatedCount = 0
+    aggregatedSize = 0
+  }
+
+  private fun sendNalUnit(fixedBuffer: ByteBuffer, nal: NalUnit, ts: Long, callback: (RtpFrame) -> Unit) {
+    val payloadHeader0 = fixedBuffer.get(nal.offset)
+    val payloadHeader1 = fixedBuffer.get(nal.offset + 1)
+    val naluLength = nal.length - 2
+    fixedBuffer.position(nal.offset + 2)
     // Small NAL unit => Single NAL unit
     if (naluLength <= maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 2) {
-      val buffer = getBuffer(naluLength + RtpConstants.RTP_HEADER_LENGTH + 2)
+      val packetLength = naluLength + RtpConstants.RTP_HEADER_LENGTH + 2
+      val buffer = getBuffer(packetLength)
       //Set PayloadHdr (exact copy of nal unit header)
-      buffer[RtpConstants.RTP_HEADER_LENGTH] = header[header.size - 2]
-      buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[header.size - 1]
+      buffer[RtpConstants.RTP_HEADER_LENGTH] = payloadHeader0
+      buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = payloadHeader1
       fixedBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 2, naluLength)
       val rtpTs = updateTimeStamp(buffer, ts)
-      markPacket(buffer) //mark end frame
+      if (nal.isLast) markPacket(buffer) //mark end frame
       updateSeq(buffer)
-      val rtpFrame = RtpFrame(buffer, rtpTs, buffer.size, rtpPort, rtcpPort, channelIdentifier)
+      val rtpFrame = createFrame(buffer, rtpTs, packetLength)
       callback(rtpFrame)
     } else {
       //Set PayloadHdr (16bit type=49)
-      header[0] = (49 shl 1).toByte()
-      header[1] = 1
+      val fuIndicator0 = (49 shl 1).toByte()
+      val fuIndicator1: Byte = 1
       // Set FU header
       //   +---------------+
       //   |0|1|2|3|4|5|6|7|
       //   +-+-+-+-+-+-+-+-+
       //   |S|E|  FuType   |
       //   +---------------+
-      header[2] = type.toByte() // FU header type
-      header[2] = header[2].plus(0x80).toByte() // Start bit
+      var fuHeader = (nal.type + 0x80).toByte() // FU header type and start bit
       var sum = 0
       while (sum < naluLength) {
-        val length = if (naluLength - sum > maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3) {
-          maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3
-        } else {
-          fixedBuffer.remaining()
-        }
-        val buffer = getBuffer(length + RtpConstants.RTP_HEADER_LENGTH + 3)
-        buffer[RtpConstants.RTP_HEADER_LENGTH] = header[0]
-        buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = header[1]
-        buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = header[2]
+        val length = minOf(naluLength - sum, maxPacketSize - RtpConstants.RTP_HEADER_LENGTH - 3)
+        val packetLength = length + RtpConstants.RTP_HEADER_LENGTH + 3
+        val buffer = getBuffer(packetLength)
+        buffer[RtpConstants.RTP_HEADER_LENGTH] = fuIndicator0
+        buffer[RtpConstants.RTP_HEADER_LENGTH + 1] = fuIndicator1
+        buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = fuHeader
         val rtpTs = updateTimeStamp(buffer, ts)
         fixedBuffer.get(buffer, RtpConstants.RTP_HEADER_LENGTH + 3, length)
         sum += length
@@ -94,13 +174,13 @@ class H265Packet: BasePacket(
         if (sum >= naluLength) {
           // End bit on
           buffer[RtpConstants.RTP_HEADER_LENGTH + 2] = buffer[RtpConstants.RTP_HEADER_LENGTH + 2].plus(0x40).toByte()
-          markPacket(buffer) //mark end frame
+          if (nal.isLast) markPacket(buffer) //mark end frame
         }
         updateSeq(buffer)
-        val rtpFrame = RtpFrame(buffer, rtpTs, buffer.size, rtpPort, rtcpPort, channelIdentifier)
+        val rtpFrame = createFrame(buffer, rtpTs, packetLength)
         callback(rtpFrame)
         // Switch start bit
-        header[2] = header[2] and 0x7F
+        fuHeader = fuHeader and 0x7F
       }
     }
   }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp.packets
+
+import com.pedro.rtsp.utils.RtpConstants
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Copy of the last RTP packets sent, indexed by sequence number in a ring buffer.
+ * Used to retransmit packets lost. Old packets are overwritten by new packets with the same index.
+ *
+ * @param capacity number of packets saved. Rounded up to a power of 2.
+ */
+class RtpHistory @JvmOverloads constructor(capacity: Int = 1024) {
+
+  private val size = Integer.highestOneBit(maxOf(capacity, 2) - 1) shl 1
+  private val mask = size - 1
+  private val buffers = Array(size) { ByteArray(RtpConstants.MTU) }
+  private val lengths = IntArray(size)
+  private val sequences = IntArray(size) { -1 }
+
+  /**
+   * Save a packet. Packets bigger than MTU are ignored.
+   */
+  fun add(buffer: ByteArray, length: Int) {
+    if (length > RtpConstants.MTU || length < RtpConstants.RTP_HEADER_LENGTH) return
+    val seq = getSequence(buffer)
+    val index = seq and mask
+    synchronized(this) {
+      System.arraycopy(buffer, 0, buffers[index], 0, length)
+      lengths[index] = length
+      sequences[index] = seq
+    }
+  }
+
+  /**
+   * Copy the packet with the sequence number to output.
+   * @return packet length or 0 if the packet is not in the history.
+   */
+  fun copy(seq: Int, output: ByteArray): Int {
+    val index = seq and mask
+    synchronized(this) {
+      if (sequences[index] != seq) return 0
+      val length = lengths[index]
+      System.arraycopy(buffers[index], 0, output, 0, length)
+      return length
+    }
+  }
+
+  fun clear() {
+    synchronized(this) {
+      sequences.fill(-1)
+    }
+  }
+
+  private fun getSequence(buffer: ByteArray): Int {
+    return (buffer[2].toInt() and 0xFF shl 8) or (buffer[3].toInt() and 0xFF)
+  }
+}
\ No newline at end of file
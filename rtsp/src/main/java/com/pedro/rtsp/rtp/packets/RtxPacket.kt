@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp.packets
+
+import com.pedro.rtsp.utils.RtpConstants
+import com.pedro.rtsp.utils.setLong
+import java.util.Random
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * RFC 4588
+ *
+ * Retransmission packet sent with its own ssrc, payload type and sequence number.
+ * Header is the same than the original packet (timestamp and marker) and the payload is the
+ * original sequence number (OSN) followed by the original payload.
+ */
+class RtxPacket(private val payloadType: Int) {
+
+  private var seq = Random().nextInt(0xFFFF)
+  private var ssrc = 0L
+
+  fun setSSRC(ssrc: Long) {
+    this.ssrc = ssrc
+  }
+
+  /**
+   * @param buffer must have at least length + 2 bytes.
+   * @return length of the RTX packet written in buffer.
+   */
+  fun create(original: ByteArray, length: Int, buffer: ByteArray): Int {
+    val header = RtpConstants.RTP_HEADER_LENGTH
+    System.arraycopy(original, 0, buffer, 0, header)
+    //keep marker bit
+    buffer[1] = ((original[1].toInt() and 0x80) or payloadType).toByte()
+    seq = (seq + 1) and 0xFFFF
+    buffer.setLong(seq.toLong(), 2, 4)
+    buffer.setLong(ssrc, 8, 12)
+    //OSN
+    buffer[header] = original[2]
+    buffer[header + 1] = original[3]
+    System.arraycopy(original, header, buffer, header + 2, length - header)
+    return length + 2
+  }
+
+  fun reset() {
+    seq = Random().nextInt(0xFFFF)
+    ssrc = 0
+  }
+}
\ No newline at end of file
@@ -27,14 +27,23 @@ import java.io.OutputStream
 abstract class BaseRtpSocket {
 
   protected val TAG = "BaseRtpSocket"
+  /**
+   * Writes are synchronized with this lock. Share it with the sender report of the same session
+   * if both write in the same stream.
+   */
+  var lock: Any = Any()
 
   companion object {
+    /**
+     * @param sendBufferSize SO_SNDBUF of UDP sockets. 0 to use the system default.
+     */
     @JvmStatic
-    fun getInstance(protocol: Protocol, videoSourcePort: Int, audioSourcePort: Int): BaseRtpSocket {
+    @JvmOverloads
+    fun getInstance(protocol: Protocol, videoSourcePort: Int, audioSourcePort: Int, sendBufferSize: Int = 0): BaseRtpSocket {
       return if (protocol === Protocol.TCP) {
         RtpSocketTcp()
       } else {
-        RtpSocketUdp(videoSourcePort, audioSourcePort)
+        RtpSocketUdpChannel(videoSourcePort, audioSourcePort, sendBufferSize)
       }
     }
   }
@@ -45,5 +54,13 @@ abstract class BaseRtpSocket {
   @Throws(IOException::class)
   abstract suspend fun sendFrame(rtpFrame: RtpFrame, isEnableLogs: Boolean)
 
+  /**
+   * Write multiple packets (normally all fragments of a frame) in a single call.
+   */
+  @Throws(IOException::class)
+  open suspend fun sendFrames(rtpFrames: List<RtpFrame>, isEnableLogs: Boolean) {
+    rtpFrames.forEach { sendFrame(it, isEnableLogs) }
+  }
+
   abstract fun close()
 }
\ No newline at end of file
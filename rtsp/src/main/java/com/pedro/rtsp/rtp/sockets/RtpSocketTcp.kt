@@ -18,7 +18,6 @@ package com.pedro.rtsp.rtp.sockets
 
 import android.util.Log
 import com.pedro.rtsp.rtsp.RtpFrame
-import com.pedro.rtsp.utils.RtpConstants
 import java.io.IOException
 import java.io.OutputStream
 
@@ -42,19 +41,35 @@ class RtpSocketTcp : BaseRtpSocket() {
 
   override fun close() {}
 
+  @Throws(IOException::class)
+  override suspend fun sendFrames(rtpFrames: List<RtpFrame>, isEnableLogs: Boolean) {
+    synchronized(lock) {
+      rtpFrames.forEach { writeFrame(it, isEnableLogs) }
+    }
+  }
+
   @Throws(IOException::class)
   private fun sendFrameTCP(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
-    synchronized(RtpConstants.lock) {
-      val len = rtpFrame.length
-      tcpHeader[1] = (2 * rtpFrame.channelIdentifier).toByte()
-      tcpHeader[2] = (len shr 8).toByte()
-      tcpHeader[3] = (len and 0xFF).toByte()
-      outputStream?.write(tcpHeader)
-      outputStream?.write(rtpFrame.buffer, 0, len)
-      outputStream?.flush()
-      if (isEnableLogs) {
-        Log.i(TAG, "wrote packet: ${(if (rtpFrame.isVideoFrame()) "Video" else "Audio")}, size: ${len + tcpHeader.size}")
-      }
+    synchronized(lock) {
+      writeFrame(rtpFrame, isEnableLogs)
+    }
+  }
+
+  /**
+   * The stream is flushed only at the end of an access unit (marker bit). If the stream is
+   * buffered, all packets of a frame are written to the socket together.
+   */
+  @Throws(IOException::class)
+  private fun writeFrame(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
+    val len = rtpFrame.length
+    tcpHeader[1] = (2 * rtpFrame.channelIdentifier).toByte()
+    tcpHeader[2] = (len shr 8).toByte()
+    tcpHeader[3] = (len and 0xFF).toByte()
+    outputStream?.write(tcpHeader)
+    outputStream?.write(rtpFrame.buffer, 0, len)
+    if (rtpFrame.buffer[1].toInt() and 0x80 != 0) outputStream?.flush()
+    if (isEnableLogs) {
+      Log.i(TAG, "wrote packet: ${(if (rtpFrame.isVideoFrame()) "Video" else "Audio")}, size: ${len + tcpHeader.size}")
     }
   }
 }
\ No newline at end of file
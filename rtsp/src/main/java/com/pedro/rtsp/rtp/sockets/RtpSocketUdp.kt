@@ -18,7 +18,6 @@ package com.pedro.rtsp.rtp.sockets
 
 import android.util.Log
 import com.pedro.rtsp.rtsp.RtpFrame
-import com.pedro.rtsp.utils.RtpConstants
 import java.io.IOException
 import java.io.OutputStream
 import java.net.DatagramPacket
@@ -60,7 +59,7 @@ class RtpSocketUdp(
 
   @Throws(IOException::class)
   private fun sendFrameUDP(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
-    synchronized(RtpConstants.lock) {
+    synchronized(lock) {
       datagramPacket.data = rtpFrame.buffer
       datagramPacket.port = rtpFrame.rtpPort
       datagramPacket.length = rtpFrame.length
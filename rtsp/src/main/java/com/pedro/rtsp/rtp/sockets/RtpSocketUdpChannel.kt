@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp.sockets
+
+import android.util.Log
+import com.pedro.rtsp.rtsp.RtpFrame
+import java.io.IOException
+import java.io.OutputStream
+import java.net.InetAddress
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Send RTP packets over UDP using a DatagramChannel per track.
+ */
+class RtpSocketUdpChannel @JvmOverloads constructor(
+  videoSourcePort: Int, audioSourcePort: Int, sendBufferSize: Int = 0
+) : BaseRtpSocket() {
+
+  private val videoChannel = UdpChannel(videoSourcePort, sendBufferSize)
+  private val audioChannel = try {
+    UdpChannel(audioSourcePort, sendBufferSize)
+  } catch (e: IOException) {
+    videoChannel.close()
+    throw e
+  }
+
+  @Throws(IOException::class)
+  override fun setDataStream(outputStream: OutputStream, host: String) {
+    val address = InetAddress.getByName(host)
+    videoChannel.setHost(address)
+    audioChannel.setHost(address)
+  }
+
+  @Throws(IOException::class)
+  override suspend fun sendFrame(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
+    synchronized(lock) {
+      writeFrame(rtpFrame, isEnableLogs)
+    }
+  }
+
+  @Throws(IOException::class)
+  override suspend fun sendFrames(rtpFrames: List<RtpFrame>, isEnableLogs: Boolean) {
+    synchronized(lock) {
+      rtpFrames.forEach { writeFrame(it, isEnableLogs) }
+    }
+  }
+
+  override fun close() {
+    videoChannel.close()
+    audioChannel.close()
+  }
+
+  @Throws(IOException::class)
+  private fun writeFrame(rtpFrame: RtpFrame, isEnableLogs: Boolean) {
+    val channel = if (rtpFrame.isVideoFrame()) videoChannel else audioChannel
+    channel.send(rtpFrame.buffer, rtpFrame.length, rtpFrame.rtpPort)
+    if (isEnableLogs) {
+      Log.i(TAG, "wrote packet: ${(if (rtpFrame.isVideoFrame()) "Video" else "Audio")}, size: ${rtpFrame.length}, port: ${rtpFrame.rtpPort}")
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp.sockets
+
+import android.os.Build
+import com.pedro.rtsp.utils.RtpConstants
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.SocketAddress
+import java.net.StandardSocketOptions
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * UDP socket bound to a source port using DatagramChannel. Packets are copied to a reusable
+ * direct buffer so the channel can write it without extra copies or allocations.
+ * Send is not thread safe, the caller must synchronize it. Receive can be called from other thread.
+ *
+ * @param sendBufferSize SO_SNDBUF in bytes. 0 to use the system default.
+ */
+class UdpChannel @JvmOverloads constructor(sourcePort: Int, sendBufferSize: Int = 0) {
+
+  private val channel: DatagramChannel = DatagramChannel.open()
+  private val sendBuffer = ByteBuffer.allocateDirect(RtpConstants.MTU)
+  private var host: InetAddress? = null
+  //cached to avoid allocate an address per packet
+  private var address: InetSocketAddress? = null
+
+  init {
+    try {
+      //DatagramChannel options and bind need API 24, configure the socket of the channel instead
+      val socket = channel.socket()
+      socket.reuseAddress = true
+      if (sendBufferSize > 0) socket.sendBufferSize = sendBufferSize
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 64)
+      }
+      socket.bind(InetSocketAddress(sourcePort))
+    } catch (e: IOException) {
+      channel.close()
+      throw e
+    }
+  }
+
+  val isClosed: Boolean
+    get() = !channel.isOpen
+
+  fun setHost(host: InetAddress) {
+    this.host = host
+    address = null
+  }
+
+  @Throws(IOException::class)
+  fun send(data: ByteArray, length: Int, port: Int) {
+    val buffer = if (length <= sendBuffer.capacity()) {
+      sendBuffer.clear()
+      sendBuffer.put(data, 0, length)
+      sendBuffer.flip()
+      sendBuffer
+    } else {
+      ByteBuffer.wrap(data, 0, length)
+    }
+    channel.send(buffer, getAddress(port))
+  }
+
+  /**
+   * Block until a packet is received.
+   * @return address of the sender. The packet is written in buffer from its position.
+   */
+  @Throws(IOException::class)
+  fun receive(buffer: ByteBuffer): SocketAddress? = channel.receive(buffer)
+
+  fun close() {
+    channel.close()
+  }
+
+  @Throws(IOException::class)
+  private fun getAddress(port: Int): InetSocketAddress {
+    val current = address
+    if (current != null && current.port == port) return current
+    val host = host ?: throw IOException("Host not configured")
+    return InetSocketAddress(host, port).also { address = it }
+  }
+}
\ No newline at end of file
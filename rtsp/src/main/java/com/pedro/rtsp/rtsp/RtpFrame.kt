@@ -20,35 +20,41 @@ import com.pedro.rtsp.utils.RtpConstants
 
 /**
  * Created by pedro on 7/11/18.
+ *
+ * Carrier of a RTP packet. The buffer could be bigger than the packet if it is provided by
+ * RtpFramePool so use length instead of buffer.size.
+ * Instances are reused by RtpFramePool so equality is by identity.
  */
-data class RtpFrame(val buffer: ByteArray, val timeStamp: Long, val length: Int,
-                    val rtpPort: Int, val rtcpPort: Int, val channelIdentifier: Int) {
+class RtpFrame(
+  buffer: ByteArray, timeStamp: Long, length: Int,
+  rtpPort: Int, rtcpPort: Int, channelIdentifier: Int
+) {
+
+  var buffer = buffer
+    private set
+  var timeStamp = timeStamp
+    private set
+  var length = length
+    private set
+  var rtpPort = rtpPort
+    private set
+  var rtcpPort = rtcpPort
+    private set
+  var channelIdentifier = channelIdentifier
+    private set
 
   fun isVideoFrame(): Boolean = channelIdentifier == RtpConstants.trackVideo
 
-  override fun equals(other: Any?): Boolean {
-    if (this === other) return true
-    if (javaClass != other?.javaClass) return false
-
-    other as RtpFrame
-
-    if (!buffer.contentEquals(other.buffer)) return false
-    if (timeStamp != other.timeStamp) return false
-    if (length != other.length) return false
-    if (rtpPort != other.rtpPort) return false
-    if (rtcpPort != other.rtcpPort) return false
-    if (channelIdentifier != other.channelIdentifier) return false
-
-    return true
+  internal fun set(buffer: ByteArray, timeStamp: Long, length: Int, rtpPort: Int, rtcpPort: Int, channelIdentifier: Int) {
+    this.buffer = buffer
+    this.timeStamp = timeStamp
+    this.length = length
+    this.rtpPort = rtpPort
+    this.rtcpPort = rtcpPort
+    this.channelIdentifier = channelIdentifier
   }
 
-  override fun hashCode(): Int {
-    var result = buffer.contentHashCode()
-    result = 31 * result + timeStamp.hashCode()
-    result = 31 * result + length
-    result = 31 * result + rtpPort
-    result = 31 * result + rtcpPort
-    result = 31 * result + channelIdentifier
-    return result
+  override fun toString(): String {
+    return "RtpFrame(timeStamp=$timeStamp, length=$length, rtpPort=$rtpPort, rtcpPort=$rtcpPort, channelIdentifier=$channelIdentifier)"
   }
 }
\ No newline at end of file
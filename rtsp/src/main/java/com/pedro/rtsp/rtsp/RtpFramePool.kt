@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtsp
+
+import com.pedro.rtsp.utils.RtpConstants
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Pool of RTP frames and MTU buffers to avoid allocate them per RTP packet.
+ * Packetizers get a buffer and a frame, the sender release the frame after write it in the socket
+ * or when it is discarded. A frame must be released only once and never used after release it.
+ *
+ * Buffers bigger than MTU are allocated and never reused.
+ */
+class RtpFramePool @JvmOverloads constructor(private val maxItems: Int = 512) {
+
+  private val buffers = ArrayDeque<ByteArray>()
+  private val frames = ArrayDeque<RtpFrame>()
+  /**
+   * Number of buffers and frames allocated because the pool was empty.
+   */
+  var allocations = 0L
+    get() = synchronized(this) { field }
+    private set
+
+  fun getBuffer(size: Int): ByteArray {
+    val buffer = synchronized(this) {
+      val buffer = if (size > RtpConstants.MTU) null else buffers.removeLastOrNull()
+      if (buffer == null) allocations++
+      buffer
+    }
+    return buffer ?: ByteArray(maxOf(size, RtpConstants.MTU))
+  }
+
+  fun getFrame(buffer: ByteArray, timeStamp: Long, length: Int, rtpPort: Int, rtcpPort: Int, channelIdentifier: Int): RtpFrame {
+    val frame = synchronized(this) {
+      val frame = frames.removeLastOrNull()
+      if (frame == null) allocations++
+      frame
+    }
+    return frame?.apply {
+      set(buffer, timeStamp, length, rtpPort, rtcpPort, channelIdentifier)
+    } ?: RtpFrame(buffer, timeStamp, length, rtpPort, rtcpPort, channelIdentifier)
+  }
+
+  fun release(frame: RtpFrame) {
+    synchronized(this) {
+      if (frame.buffer.size == RtpConstants.MTU && buffers.size < maxItems) buffers.addLast(frame.buffer)
+      if (frames.size < maxItems) frames.addLast(frame)
+    }
+  }
+
+  fun clear() {
+    synchronized(this) {
+      buffers.clear()
+      frames.clear()
+    }
+  }
+}
\ No newline at end of file
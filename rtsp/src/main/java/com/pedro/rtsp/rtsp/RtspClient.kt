@@ -21,8 +21,12 @@ import android.util.Log
 import com.pedro.common.AudioCodec
 import com.pedro.common.ConnectChecker
 import com.pedro.common.TLSSocketFactory
+import com.pedro.common.TimeUtils
 import com.pedro.common.VideoCodec
 import com.pedro.common.onMainThread
+import com.pedro.rtsp.rtcp.ReceiverReport
+import com.pedro.rtsp.rtcp.RtcpStatsListener
+import com.pedro.rtsp.rtp.packets.FecMask
 import com.pedro.rtsp.rtsp.commands.CommandsManager
 import com.pedro.rtsp.rtsp.commands.Method
 import com.pedro.rtsp.utils.RtpConstants
@@ -34,6 +38,7 @@ import kotlinx.coroutines.cancelAndJoin
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.withTimeoutOrNull
 import java.io.*
@@ -52,11 +57,18 @@ class RtspClient(private val connectChecker: ConnectChecker) {
 
   private val TAG = "RtspClient"
 
+  companion object {
+    private const val SERVER_ALIVE_INTERVAL = 2000L
+    //interleaved header and max RTCP packet length
+    private const val MAX_INTERLEAVED_SIZE = 4 + 65535
+  }
+
   private val urlPattern: Pattern = Pattern.compile("^rtsps?://([^/:]+)(?::(\\d+))*/([^/]+)/?([^*]*)$")
 
   //sockets objects
   private var connectionSocket: Socket? = null
-  private var reader: BufferedReader? = null
+  //buffered stream used to read responses and interleaved packets in TCP mode
+  private var input: BufferedInputStream? = null
   private var writer: BufferedWriter? = null
   private var scope = CoroutineScope(Dispatchers.IO)
   private var scopeRetry = CoroutineScope(Dispatchers.IO)
@@ -77,6 +89,7 @@ class RtspClient(private val connectChecker: ConnectChecker) {
   private var numRetry = 0
   private var reTries = 0
   private var checkServerAlive = false
+  private var sendBufferSize = 0
 
   val droppedAudioFrames: Long
     get() = rtspSender.droppedAudioFrames
@@ -122,6 +135,18 @@ class RtspClient(private val connectChecker: ConnectChecker) {
     commandsManager.audioDisabled = onlyVideo
   }
 
+  /**
+   * Must be called before connect
+   *
+   * @param size SO_SNDBUF in bytes of the sockets used to send packets. 0 to use the system default.
+   */
+  fun setSendBufferSize(size: Int) {
+    if (!isStreaming) {
+      sendBufferSize = size
+      rtspSender.setSendBufferSize(size)
+    }
+  }
+
   fun setProtocol(protocol: Protocol) {
     commandsManager.protocol = protocol
   }
@@ -230,18 +255,19 @@ class RtspClient(private val connectChecker: ConnectChecker) {
             }
           }
           connectionSocket?.soTimeout = 5000
-          val reader = BufferedReader(InputStreamReader(connectionSocket?.getInputStream()))
+          if (sendBufferSize > 0) connectionSocket?.sendBufferSize = sendBufferSize
+          val input = BufferedInputStream(connectionSocket?.getInputStream())
           val outputStream = connectionSocket?.getOutputStream()
           val writer = BufferedWriter(OutputStreamWriter(outputStream))
-          this@RtspClient.reader = reader
+          this@RtspClient.input = input
           this@RtspClient.writer = writer
           writer.write(commandsManager.createOptions())
           writer.flush()
-          commandsManager.getResponse(reader, Method.OPTIONS)
+          commandsManager.getResponse(input, Method.OPTIONS)
           writer.write(commandsManager.createAnnounce())
           writer.flush()
           //check if you need credential for stream, if you need try connect with credential
-          val announceResponse = commandsManager.getResponse(reader, Method.ANNOUNCE)
+          val announceResponse = commandsManager.getResponse(input, Method.ANNOUNCE)
           when (announceResponse.status) {
             403 -> {
               onMainThread {
@@ -259,7 +285,7 @@ class RtspClient(private val connectChecker: ConnectChecker) {
               } else {
                 writer.write(commandsManager.createAnnounceWithAuth(announceResponse.text))
                 writer.flush()
-                when (commandsManager.getResponse(reader, Method.ANNOUNCE).status) {
+                when (commandsManager.getResponse(input, Method.ANNOUNCE).status) {
                   401 -> {
                     onMainThread {
                       connectChecker.onAuthError()
@@ -293,7 +319,7 @@ class RtspClient(private val connectChecker: ConnectChecker) {
           if (!commandsManager.videoDisabled) {
             writer.write(commandsManager.createSetup(RtpConstants.trackVideo))
             writer.flush()
-            val setupVideoStatus = commandsManager.getResponse(reader, Method.SETUP).status
+            val setupVideoStatus = commandsManager.getResponse(input, Method.SETUP).status
             if (setupVideoStatus != 200) {
               onMainThread {
                 connectChecker.onConnectionFailed("Error configure stream, setup video $setupVideoStatus")
@@ -304,7 +330,7 @@ class RtspClient(private val connectChecker: ConnectChecker) {
           if (!commandsManager.audioDisabled) {
             writer.write(commandsManager.createSetup(RtpConstants.trackAudio))
             writer.flush()
-            val setupAudioStatus = commandsManager.getResponse(reader, Method.SETUP).status
+            val setupAudioStatus = commandsManager.getResponse(input, Method.SETUP).status
             if (setupAudioStatus != 200) {
               onMainThread {
                 connectChecker.onConnectionFailed("Error configure stream, setup audio $setupAudioStatus")
@@ -314,7 +340,7 @@ class RtspClient(private val connectChecker: ConnectChecker) {
           }
           writer.write(commandsManager.createRecord())
           writer.flush()
-          val recordStatus = commandsManager.getResponse(reader, Method.RECORD).status
+          val recordStatus = commandsManager.getResponse(input, Method.RECORD).status
           if (recordStatus != 200) {
             onMainThread {
               connectChecker.onConnectionFailed("Error configure stream, record $recordStatus")
@@ -351,14 +377,32 @@ class RtspClient(private val connectChecker: ConnectChecker) {
   }
 
   private suspend fun handleServerCommands() {
+    val input = this.input ?: throw IOException("Invalid input, Connection failed")
+    val tcp = commandsManager.protocol == Protocol.TCP
+    //In TCP mode, RTCP packets are interleaved with server commands so we need read bytes instead of lines.
+    //Reads time out to check that the server is alive while it has nothing to send.
+    if (tcp) connectionSocket?.soTimeout = SERVER_ALIVE_INTERVAL.toInt()
     //Read and print server commands received each 2 seconds
     while (scope.isActive && isStreaming) {
       val error = runCatching {
         if (isAlive()) {
-          delay(2000)
-          reader?.let { r ->
-            if (r.ready()) {
-              val command = commandsManager.getResponse(r)
+          if (tcp) {
+            //read as soon as received to calculate rtt correctly
+            val endTime = TimeUtils.getCurrentTimeMillis() + SERVER_ALIVE_INTERVAL
+            while (scope.isActive && isStreaming && TimeUtils.getCurrentTimeMillis() < endTime) {
+              //keep the bytes of a packet partially read if the read time out
+              input.mark(MAX_INTERLEAVED_SIZE)
+              try {
+                runInterruptible { rtspSender.readInterleaved(input) }
+              } catch (e: SocketTimeoutException) {
+                input.reset()
+                throw e
+              }
+            }
+          } else {
+            delay(SERVER_ALIVE_INTERVAL)
+            if (input.available() > 0) {
+              val command = commandsManager.getResponse(input)
               //Do something depend of command if required
             }
           }
@@ -398,8 +442,8 @@ class RtspClient(private val connectChecker: ConnectChecker) {
       writer?.write(commandsManager.createTeardown())
       writer?.flush()
       connectionSocket?.close()
-      reader?.close()
-      reader = null
+      input?.close()
+      input = null
       writer?.close()
       writer = null
       connectionSocket = null
@@ -488,5 +532,103 @@ class RtspClient(private val connectChecker: ConnectChecker) {
     rtspSender.clearCache()
   }
 
+  /**
+   * Called when video frames are discarded by congestion and the stream can't be decoded until
+   * the next keyframe.
+   */
+  fun setOnKeyFrameRequired(callback: (() -> Unit)?) {
+    rtspSender.setOnKeyFrameRequired(callback)
+  }
+
   fun getItemsInCache(): Int = rtspSender.getItemsInCache()
+
+  /**
+   * Spread video packets in time using a token bucket instead of send a whole frame at once.
+   * Reduce packet loss produced by keyframe bursts in UDP. Audio is not paced. Ignored in TCP mode.
+   * Can be called while streaming, call it again when the video bitrate change.
+   *
+   * @param bitrate target bitrate in bits per second. 0 to disable it (default).
+   * @param multiplier max send rate is bitrate * multiplier.
+   */
+  fun setPacing(bitrate: Long, multiplier: Float = 2.5f) {
+    rtspSender.setPacing(bitrate, multiplier)
+  }
+
+  /**
+   * Must be called before connect
+   *
+   * Retransmit video packets lost when the server request it (RTCP NACK) using a RFC 4588 RTX stream.
+   * Only used in UDP mode and the server must support it.
+   *
+   * @param maxBitrate max bits per second used by retransmissions. 0 means no limit.
+   */
+  @JvmOverloads
+  fun setRetransmission(enabled: Boolean, maxBitrate: Long = 0) {
+    if (!isStreaming) {
+      commandsManager.retransmissionEnabled = enabled
+      rtspSender.setRetransmission(enabled, maxBitrate)
+    }
+  }
+
+  fun getRetransmittedPackets(): Long = rtspSender.retransmittedPackets
+
+  /**
+   * Must be called before connect
+   *
+   * Send RFC 5109 XOR FEC packets (ulpfec) to recover packets lost without wait a retransmission.
+   * Only used in UDP mode and the server must support it.
+   *
+   * @param ratio FEC packets sent per media packet in range (0, 1]. 0 to disable it (default).
+   * @param mask ROW to recover isolated losses or COLUMN to recover burst losses.
+   */
+  @JvmOverloads
+  @Throws(IllegalArgumentException::class)
+  fun setFec(ratio: Float, mask: FecMask = FecMask.ROW) {
+    if (!isStreaming) {
+      rtspSender.setFec(ratio, mask)
+      commandsManager.fecEnabled = ratio > 0
+    }
+  }
+
+  fun getFecPacketsSent(): Long = rtspSender.fecPacketsSent
+
+  /**
+   * @return time in ms that the last video frame was delayed by pacing.
+   */
+  fun getPacingDelay(): Long = rtspSender.getPacingDelay()
+
+  fun getMaxPacingDelay(): Long = rtspSender.getMaxPacingDelay()
+
+  fun getAveragePacingDelay(): Long = rtspSender.getAveragePacingDelay()
+
+  fun resetPacingDelay() {
+    rtspSender.resetPacingDelay()
+  }
+
+  /**
+   * Set a listener to receive RTCP reports (packet loss, jitter and rtt) sent by the server.
+   * Callbacks are called in a background thread.
+   */
+  fun setRtcpStatsListener(listener: RtcpStatsListener?) {
+    rtspSender.setRtcpStatsListener(listener)
+  }
+
+  /**
+   * @return last RTCP report received about the video stream or null if the server never sent it.
+   */
+  fun getVideoReport(): ReceiverReport? = rtspSender.getVideoReport()
+
+  /**
+   * @return last RTCP report received about the audio stream or null if the server never sent it.
+   */
+  fun getAudioReport(): ReceiverReport? = rtspSender.getAudioReport()
+
+  /**
+   * hasCongestion returns true if the server report at least this percent of packets lost.
+   * Useful in UDP mode where the cache never grows.
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setPacketLossThreshold(percentLost: Float) {
+    rtspSender.setPacketLossThreshold(percentLost)
+  }
 }
\ No newline at end of file
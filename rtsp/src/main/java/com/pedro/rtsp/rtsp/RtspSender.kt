@@ -21,23 +21,33 @@ import android.util.Log
 import com.pedro.common.AudioCodec
 import com.pedro.common.BitrateManager
 import com.pedro.common.ConnectChecker
+import com.pedro.common.FrameQueue
+import com.pedro.common.FrameType
+import com.pedro.common.Pacer
+import com.pedro.common.TimeUtils
 import com.pedro.common.onMainThread
-import com.pedro.common.trySend
 import com.pedro.rtsp.rtcp.BaseSenderReport
+import com.pedro.rtsp.rtcp.ReceiverReport
+import com.pedro.rtsp.rtcp.RtcpReceiver
+import com.pedro.rtsp.rtcp.RtcpStatsListener
 import com.pedro.rtsp.rtp.packets.*
 import com.pedro.rtsp.rtp.sockets.BaseRtpSocket
 import com.pedro.rtsp.rtp.sockets.RtpSocketTcp
 import com.pedro.rtsp.utils.RtpConstants
+import com.pedro.rtsp.utils.getFrameType
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.cancelAndJoin
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
+import java.io.BufferedOutputStream
 import java.io.IOException
+import java.io.InputStream
 import java.io.OutputStream
 import java.nio.ByteBuffer
 import java.util.*
@@ -51,7 +61,35 @@ class RtspSender(private val connectChecker: ConnectChecker) {
   private var videoPacket: BasePacket? = null
   private var audioPacket: BasePacket? = null
   private var rtpSocket: BaseRtpSocket? = null
+  //rtp packets are recycled after write it in the socket or discard it
+  private val framePool = RtpFramePool()
+  //writes of this session, rtp packets and reports share the stream in TCP mode
+  private val writeLock = Any()
+  private var sendBufferSize = 0
+  //spread video packets in time, audio is never paced
+  private val pacer = Pacer(burstMs = 10, minBurstBytes = 2 * RtpConstants.MTU)
   private var baseSenderReport: BaseSenderReport? = null
+  private val rtcpReceiver = RtcpReceiver()
+  //percent of packets lost reported by the server to consider congestion
+  private var packetLossThreshold = 10f
+  //RFC 4588 retransmission of video packets requested by NACK, only in UDP mode
+  private var retransmissionEnabled = false
+  private var rtpHistory: RtpHistory? = null
+  private val rtxPacket = RtxPacket(RtpConstants.payloadTypeRtx)
+  //limit bandwidth used by retransmissions, packets over the limit are not retransmitted
+  private val rtxPacer = Pacer(burstMs = 100, minBurstBytes = RtpConstants.MTU)
+  private var videoRtpPort = 0
+  private var videoRtcpPort = 0
+  @Volatile
+  var retransmittedPackets: Long = 0
+    private set
+  //RFC 5109 forward error correction of each stream, only in UDP mode
+  private var fecEnabled = false
+  private var videoFec: FecEncoder? = null
+  private var audioFec: FecEncoder? = null
+  @Volatile
+  var fecPacketsSent: Long = 0
+    private set
 
   private val defaultCacheSize: Int
     get() = 10 * 1024 * 1024 / RtpConstants.MTU
@@ -61,8 +99,10 @@ class RtspSender(private val connectChecker: ConnectChecker) {
 
   private var job: Job? = null
   private val scope = CoroutineScope(Dispatchers.IO)
-  @Volatile
-  private var queue: BlockingQueue<RtpFrame> = LinkedBlockingQueue(cacheSize)
+  //a video frame is split in multiple rtp packets with the same timestamp
+  private val queue = FrameQueue(cacheSize, ::getFrameType) { rtpFrame -> rtpFrame.timeStamp }.apply {
+    onDiscard = { rtpFrame -> onFrameDiscarded(rtpFrame) }
+  }
 
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
@@ -75,29 +115,52 @@ class RtspSender(private val connectChecker: ConnectChecker) {
 
   companion object {
     private const val TAG = "RtspSender"
+    //max bytes buffered in TCP mode before write it to the socket
+    private const val INTERLEAVED_BUFFER_SIZE = 64 * 1024
+    //max time in ms between checks of audio packets while video is paced
+    private const val MAX_PACING_SLEEP = 5L
+    //max sequence numbers requested by NACK waiting to be retransmitted
+    private const val MAX_PENDING_NACKS = 512
   }
 
   @Throws(IOException::class)
   fun setSocketsInfo(protocol: Protocol, videoSourcePorts: IntArray, audioSourcePorts: IntArray) {
-    rtpSocket = BaseRtpSocket.getInstance(protocol, videoSourcePorts[0], audioSourcePorts[0])
-    baseSenderReport = BaseSenderReport.getInstance(protocol, videoSourcePorts[1], audioSourcePorts[1])
+    rtpSocket = BaseRtpSocket.getInstance(protocol, videoSourcePorts[0], audioSourcePorts[0], sendBufferSize).apply {
+      lock = writeLock
+    }
+    baseSenderReport = BaseSenderReport.getInstance(protocol, videoSourcePorts[1], audioSourcePorts[1], sendBufferSize).apply {
+      lock = writeLock
+      rtcpReceiver = this@RtspSender.rtcpReceiver
+    }
   }
 
   fun setVideoInfo(sps: ByteArray, pps: ByteArray, vps: ByteArray?) {
-    videoPacket = if (vps == null) H264Packet(sps, pps) else H265Packet()
+    videoPacket = (if (vps == null) H264Packet(sps, pps) else H265Packet()).apply {
+      framePool = this@RtspSender.framePool
+    }
   }
 
   fun setAudioInfo(sampleRate: Int, audioCodec: AudioCodec) {
-    audioPacket = if (audioCodec == AudioCodec.G711) G711Packet(sampleRate) else AacPacket(sampleRate)
+    audioPacket = (if (audioCodec == AudioCodec.G711) G711Packet(sampleRate) else AacPacket(sampleRate)).apply {
+      framePool = this@RtspSender.framePool
+    }
   }
 
   @Throws(IOException::class)
   fun setDataStream(outputStream: OutputStream, host: String) {
-    rtpSocket?.setDataStream(outputStream, host)
-    baseSenderReport?.setDataStream(outputStream, host)
+    //In TCP mode, interleaved packets and reports are buffered and written to the socket
+    //once per access unit or when the buffer is full instead of once per packet.
+    //Both use the same buffer to keep the order.
+    val output = if (rtpSocket is RtpSocketTcp) {
+      BufferedOutputStream(outputStream, INTERLEAVED_BUFFER_SIZE)
+    } else outputStream
+    rtpSocket?.setDataStream(output, host)
+    baseSenderReport?.setDataStream(output, host)
   }
 
   fun setVideoPorts(rtpPort: Int, rtcpPort: Int) {
+    videoRtpPort = rtpPort
+    videoRtcpPort = rtcpPort
     videoPacket?.setPorts(rtpPort, rtcpPort)
   }
 
@@ -108,11 +171,7 @@ class RtspSender(private val connectChecker: ConnectChecker) {
   fun sendVideoFrame(h264Buffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       videoPacket?.createAndSendPacket(h264Buffer, info) { rtpFrame ->
-        val result = queue.trySend(rtpFrame)
-        if (!result) {
-          Log.i(TAG, "Video frame discarded")
-          droppedVideoFrames++
-        }
+        queue.offer(rtpFrame)
       }
     }
   }
@@ -120,26 +179,52 @@ class RtspSender(private val connectChecker: ConnectChecker) {
   fun sendAudioFrame(aacBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
     if (running) {
       audioPacket?.createAndSendPacket(aacBuffer, info) { rtpFrame ->
-        val result = queue.trySend(rtpFrame)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
-        }
+        queue.offer(rtpFrame)
       }
     }
   }
 
+  /**
+   * Called when video is discarded by congestion. Request a keyframe to the encoder to recover faster.
+   */
+  fun setOnKeyFrameRequired(callback: (() -> Unit)?) {
+    queue.onKeyFrameRequired = callback
+  }
+
+  private fun onFrameDiscarded(rtpFrame: RtpFrame) {
+    if (rtpFrame.isVideoFrame()) {
+      Log.i(TAG, "Video frame discarded")
+      droppedVideoFrames++
+    } else {
+      Log.i(TAG, "Audio frame discarded")
+      droppedAudioFrames++
+    }
+    framePool.release(rtpFrame)
+  }
+
+  private fun getFrameType(rtpFrame: RtpFrame): FrameType = rtpFrame.getFrameType(videoPacket is H265Packet)
+
   fun start() {
     queue.clear()
     running = true
     job = scope.launch {
-      val ssrcVideo = Random().nextInt().toLong()
-      val ssrcAudio = Random().nextInt().toLong()
+      //ssrc is an unsigned 32 bits value, same than the value parsed from RTCP packets
+      val ssrcVideo = Random().nextInt().toLong() and 0xFFFFFFFFL
+      val ssrcAudio = Random().nextInt().toLong() and 0xFFFFFFFFL
       baseSenderReport?.setSSRC(ssrcVideo, ssrcAudio)
+      baseSenderReport?.startReceiving()
       videoPacket?.setSSRC(ssrcVideo)
       audioPacket?.setSSRC(ssrcAudio)
       val isTcp = rtpSocket is RtpSocketTcp
+      val batch = ArrayList<RtpFrame>()
+      val audioBatch = ArrayList<RtpFrame>()
       var bytesSend = 0L
+      pacer.reset()
+      val history = if (retransmissionEnabled && !isTcp) startRetransmission() else null
+      val fecActive = fecEnabled && !isTcp
+      val fecBatch = ArrayList<RtpFrame>()
+      videoFec?.setSSRC(Random().nextInt().toLong() and 0xFFFFFFFFL)
+      audioFec?.setSSRC(Random().nextInt().toLong() and 0xFFFFFFFFL)
       val bitrateTask = async {
         while (scope.isActive && running) {
           //bytes to bits
@@ -148,26 +233,77 @@ class RtspSender(private val connectChecker: ConnectChecker) {
           delay(timeMillis = 1000)
         }
       }
+
+      suspend fun onFrameSent(frame: RtpFrame) {
+        //4 is tcp header length
+        val packetSize = if (isTcp) frame.length + 4 else frame.length
+        bytesSend += packetSize
+        if (frame.isVideoFrame()) {
+          videoFramesSent++
+        } else {
+          audioFramesSent++
+        }
+        if (history != null && frame.isVideoFrame()) history.add(frame.buffer, frame.length)
+        if (fecActive) (if (frame.isVideoFrame()) videoFec else audioFec)?.add(frame, fecBatch)
+        if (baseSenderReport?.update(frame, isEnableLogs) == true) {
+          //4 is tcp header length
+          val reportSize = if (isTcp) baseSenderReport?.PACKET_LENGTH ?: (0 + 4) else baseSenderReport?.PACKET_LENGTH ?: 0
+          bytesSend += reportSize
+        }
+        framePool.release(frame)
+        if (fecBatch.isNotEmpty()) {
+          rtpSocket?.sendFrames(fecBatch, isEnableLogs)
+          fecBatch.forEach { fecFrame ->
+            bytesSend += fecFrame.length
+            framePool.release(fecFrame)
+          }
+          fecPacketsSent += fecBatch.size
+          fecBatch.clear()
+        }
+      }
+
+      //audio queued while video is waiting for the pacer
+      suspend fun sendQueuedAudio() {
+        if (queue.drainTo(audioBatch) { next -> !next.isVideoFrame() } == 0) return
+        rtpSocket?.sendFrames(audioBatch, isEnableLogs)
+        audioBatch.forEach { onFrameSent(it) }
+        audioBatch.clear()
+      }
+
+      suspend fun sendPaced(frames: List<RtpFrame>) {
+        val startTime = TimeUtils.getCurrentTimeNano()
+        frames.forEach { frame ->
+          val sendTime = TimeUtils.getCurrentTimeNano() + pacer.reserve(frame.length)
+          var remaining = sendTime - TimeUtils.getCurrentTimeNano()
+          while (remaining >= 1_000_000) {
+            sendQueuedAudio()
+            delay(minOf(remaining / 1_000_000, MAX_PACING_SLEEP))
+            remaining = sendTime - TimeUtils.getCurrentTimeNano()
+          }
+          rtpSocket?.sendFrame(frame, isEnableLogs)
+          onFrameSent(frame)
+        }
+        pacer.addFrameDelay((TimeUtils.getCurrentTimeNano() - startTime) / 1_000_000)
+      }
+
       while (scope.isActive && running) {
         val error = runCatching {
           val rtpFrame = runInterruptible {
             queue.poll(1, TimeUnit.SECONDS)
           }
           if (rtpFrame != null) {
-            rtpSocket?.sendFrame(rtpFrame, isEnableLogs)
-            //4 is tcp header length
-            val packetSize = if (isTcp) rtpFrame.length + 4 else rtpFrame.length
-            bytesSend += packetSize
-            if (rtpFrame.isVideoFrame()) {
-              videoFramesSent++
-            } else {
-              audioFramesSent++
+            //write all fragments of the same frame already queued in a single call
+            batch.add(rtpFrame)
+            queue.drainTo(batch) { next ->
+              next.timeStamp == rtpFrame.timeStamp && next.channelIdentifier == rtpFrame.channelIdentifier
             }
-            if (baseSenderReport?.update(rtpFrame, isEnableLogs) == true) {
-              //4 is tcp header length
-              val reportSize = if (isTcp) baseSenderReport?.PACKET_LENGTH ?: (0 + 4) else baseSenderReport?.PACKET_LENGTH ?: 0
-              bytesSend += reportSize
+            if (pacer.isEnabled && !isTcp && rtpFrame.isVideoFrame()) {
+              sendPaced(batch)
+            } else {
+              rtpSocket?.sendFrames(batch, isEnableLogs)
+              batch.forEach { onFrameSent(it) }
             }
+            batch.clear()
           }
         }.exceptionOrNull()
         if (error != null) {
@@ -181,20 +317,69 @@ class RtspSender(private val connectChecker: ConnectChecker) {
     }
   }
 
+  /**
+   * Listen NACK from the server and send the packets requested from the history in a child job.
+   */
+  private fun CoroutineScope.startRetransmission(): RtpHistory {
+    val history = rtpHistory ?: RtpHistory().also { rtpHistory = it }
+    history.clear()
+    rtxPacket.setSSRC(Random().nextInt().toLong() and 0xFFFFFFFFL)
+    rtxPacer.reset()
+    val nacks = Channel<Int>(MAX_PENDING_NACKS)
+    rtcpReceiver.onNack = { ssrc, pid, blp ->
+      if (rtcpReceiver.isVideoSsrc(ssrc)) {
+        nacks.trySend(pid)
+        for (i in 0 until 16) {
+          if (blp and (1 shl i) != 0) nacks.trySend((pid + i + 1) and 0xFFFF)
+        }
+      }
+    }
+    launch {
+      val original = ByteArray(RtpConstants.MTU)
+      for (seq in nacks) {
+        if (!running) break
+        val length = history.copy(seq, original)
+        //the packet is too old or the rtx packet doesn't fit in the MTU
+        if (length == 0 || length + 2 > RtpConstants.MTU) continue
+        if (!rtxPacer.tryReserve(length + 2)) continue
+        val buffer = framePool.getBuffer(length + 2)
+        val rtxLength = rtxPacket.create(original, length, buffer)
+        val frame = framePool.getFrame(buffer, 0, rtxLength, videoRtpPort, videoRtcpPort, RtpConstants.trackVideo)
+        try {
+          rtpSocket?.sendFrame(frame, isEnableLogs)
+          retransmittedPackets++
+        } catch (e: IOException) {
+          Log.e(TAG, "retransmission error: ", e)
+        } finally {
+          framePool.release(frame)
+        }
+      }
+    }
+    return history
+  }
+
   suspend fun stop() {
     running = false
     baseSenderReport?.reset()
     baseSenderReport?.close()
+    rtcpReceiver.onNack = null
+    rtcpReceiver.reset()
+    rtxPacket.reset()
+    retransmittedPackets = 0
+    videoFec?.reset()
+    audioFec?.reset()
+    fecPacketsSent = 0
     rtpSocket?.close()
     audioPacket?.reset()
     videoPacket?.reset()
     resetSentAudioFrames()
     resetSentVideoFrames()
-    resetDroppedAudioFrames()
-    resetDroppedVideoFrames()
     job?.cancelAndJoin()
     job = null
     queue.clear()
+    //after clear, frames cleared are counted as discarded
+    resetDroppedAudioFrames()
+    resetDroppedVideoFrames()
   }
 
   @Throws(IllegalArgumentException::class)
@@ -203,16 +388,109 @@ class RtspSender(private val connectChecker: ConnectChecker) {
     val size = queue.size.toFloat()
     val remaining = queue.remainingCapacity().toFloat()
     val capacity = size + remaining
-    return size >= capacity * (percentUsed / 100f)
+    //in UDP mode the queue is never full so packets lost reported by the server are the only way to detect it
+    return size >= capacity * (percentUsed / 100f) || rtcpReceiver.hasPacketLoss(packetLossThreshold)
+  }
+
+  /**
+   * @param percentLost fraction of packets lost (0 to 100) reported by the server in RTCP receiver
+   * reports to consider that the connection has congestion.
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setPacketLossThreshold(percentLost: Float) {
+    if (percentLost < 0 || percentLost > 100) throw IllegalArgumentException("the value must be in range 0 to 100")
+    packetLossThreshold = percentLost
+  }
+
+  /**
+   * Spread video packets in time using a token bucket instead of send a whole frame at once.
+   * Reduce packet loss produced by keyframe bursts in UDP. Audio is not paced.
+   * Ignored in TCP mode, TCP has its own congestion control.
+   * Can be called while streaming, call it again when the video bitrate change.
+   *
+   * @param bitrate target bitrate in bits per second. 0 to disable it (default).
+   * @param multiplier max send rate is bitrate * multiplier.
+   */
+  fun setPacing(bitrate: Long, multiplier: Float) {
+    pacer.setBitrate(bitrate, multiplier)
+  }
+
+  /**
+   * Retransmit video packets lost when the server request it using RTCP NACK (RFC 4585)
+   * with a RFC 4588 RTX stream. Only in UDP mode, TCP never lose packets.
+   * Must be called before start.
+   *
+   * @param maxBitrate max bits per second used by retransmissions. 0 means no limit.
+   */
+  fun setRetransmission(enabled: Boolean, maxBitrate: Long) {
+    retransmissionEnabled = enabled
+    rtxPacer.setBitrate(maxBitrate, 1f)
+  }
+
+  /**
+   * Send RFC 5109 XOR FEC packets of each stream to recover packets lost without wait a retransmission.
+   * Only in UDP mode. Must be called before start.
+   *
+   * @param ratio FEC packets sent per media packet in range (0, 1]. 0 to disable it (default).
+   * @param mask packets protected by each FEC packet.
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setFec(ratio: Float, mask: FecMask) {
+    fecEnabled = ratio > 0
+    if (!fecEnabled) return
+    val videoFec = videoFec ?: FecEncoder(RtpConstants.payloadTypeFecVideo).also {
+      it.framePool = framePool
+      videoFec = it
+    }
+    val audioFec = audioFec ?: FecEncoder(RtpConstants.payloadTypeFecAudio).also {
+      it.framePool = framePool
+      audioFec = it
+    }
+    videoFec.setProtection(ratio, mask)
+    audioFec.setProtection(ratio, mask)
+  }
+
+  /**
+   * @return time in ms that the last video frame was delayed by pacing.
+   */
+  fun getPacingDelay(): Long = pacer.lastDelay
+
+  fun getMaxPacingDelay(): Long = pacer.maxDelay
+
+  fun getAveragePacingDelay(): Long = pacer.averageDelay
+
+  fun resetPacingDelay() {
+    pacer.resetDelay()
+  }
+
+  /**
+   * @param size SO_SNDBUF in bytes of UDP sockets. 0 to use the system default.
+   */
+  fun setSendBufferSize(size: Int) {
+    sendBufferSize = size
+  }
+
+  fun setRtcpStatsListener(listener: RtcpStatsListener?) {
+    rtcpReceiver.listener = listener
+  }
+
+  fun getVideoReport(): ReceiverReport? = rtcpReceiver.videoReport
+
+  fun getAudioReport(): ReceiverReport? = rtcpReceiver.audioReport
+
+  /**
+   * Read RTCP packets interleaved in the RTSP connection (TCP mode).
+   */
+  @Throws(IOException::class)
+  fun readInterleaved(input: InputStream) {
+    rtcpReceiver.readInterleaved(input)
   }
 
   fun resizeCache(newSize: Int) {
     if (newSize < queue.size - queue.remainingCapacity()) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<RtpFrame> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    queue.resize(newSize)
   }
 
   fun getCacheSize(): Int {
@@ -109,8 +109,8 @@ class CommandParser {
           Method.TEARDOWN.name -> Method.TEARDOWN
           Method.PLAY.name -> Method.PLAY
           Method.PAUSE.name -> Method.PAUSE
-          Method.SET_PARAMETERS.name -> Method.SET_PARAMETERS
-          Method.GET_PARAMETERS.name -> Method.GET_PARAMETERS
+          Method.SET_PARAMETERS.name, "SET_PARAMETER" -> Method.SET_PARAMETERS
+          Method.GET_PARAMETERS.name, "GET_PARAMETER" -> Method.GET_PARAMETERS
           Method.REDIRECT.name -> Method.REDIRECT
           else -> Method.UNKNOWN
         }
@@ -30,8 +30,9 @@ import com.pedro.rtsp.utils.AuthUtil.getMd5Hash
 import com.pedro.rtsp.utils.RtpConstants
 import com.pedro.rtsp.utils.encodeToString
 import com.pedro.rtsp.utils.getData
-import java.io.BufferedReader
+import java.io.ByteArrayOutputStream
 import java.io.IOException
+import java.io.InputStream
 import java.nio.ByteBuffer
 import java.util.regex.Pattern
 
@@ -60,6 +61,10 @@ open class CommandsManager {
   var protocol: Protocol = Protocol.TCP
   var videoDisabled = false
   var audioDisabled = false
+  //RFC 4588 retransmission of video, only with UDP
+  var retransmissionEnabled = false
+  //RFC 5109 forward error correction, only with UDP
+  var fecEnabled = false
   private val commandParser = CommandParser()
   private var videoCodec: VideoCodec = VideoCodec.H264
   var audioCodec: AudioCodec = AudioCodec.AAC
@@ -147,20 +152,22 @@ open class CommandsManager {
   }
 
   private fun createBody(): String {
+    val fec = fecEnabled && protocol == Protocol.UDP
     var videoBody = ""
     if (!videoDisabled) {
+      val rtx = retransmissionEnabled && protocol == Protocol.UDP
       videoBody = if (videoCodec == VideoCodec.H264) {
-        createH264Body(RtpConstants.trackVideo, spsString, ppsString)
+        createH264Body(RtpConstants.trackVideo, spsString, ppsString, rtx, fec)
       } else {
-        createH265Body(RtpConstants.trackVideo, spsString, ppsString, vpsString)
+        createH265Body(RtpConstants.trackVideo, spsString, ppsString, vpsString, rtx, fec)
       }
     }
     var audioBody = ""
     if (!audioDisabled) {
       audioBody = if (audioCodec == AudioCodec.G711) {
-        SdpBody.createG711Body(RtpConstants.trackAudio, sampleRate, isStereo)
+        SdpBody.createG711Body(RtpConstants.trackAudio, sampleRate, isStereo, fec)
       } else {
-        createAacBody(RtpConstants.trackAudio, sampleRate, isStereo)
+        createAacBody(RtpConstants.trackAudio, sampleRate, isStereo, fec)
       }
     }
     return "v=0\r\n" +
@@ -245,11 +252,15 @@ open class CommandsManager {
     return teardown
   }
 
+  /**
+   * Read a response line by line from the same stream used to read interleaved packets in TCP mode,
+   * so no bytes are buffered out of it.
+   */
   @Throws(IOException::class)
-  fun getResponse(reader: BufferedReader, method: Method = Method.UNKNOWN): Command {
+  fun getResponse(input: InputStream, method: Method = Method.UNKNOWN): Command {
     var response = ""
     var line: String?
-    while (reader.readLine().also { line = it } != null) {
+    while (readLine(input).also { line = it } != null) {
       response += "${line ?: ""}\n"
       //end of response
       if ((line?.length ?: 0) < 3) break
@@ -268,6 +279,23 @@ open class CommandsManager {
     }
   }
 
+  /**
+   * @return line without line terminator or null if the stream ended.
+   */
+  @Throws(IOException::class)
+  private fun readLine(input: InputStream): String? {
+    val line = ByteArrayOutputStream()
+    while (true) {
+      val value = input.read()
+      if (value == -1) return if (line.size() == 0) null else line.toString(Charsets.UTF_8.name())
+      if (value == '\n'.code) break
+      line.write(value)
+    }
+    val bytes = line.toByteArray()
+    val length = if (bytes.isNotEmpty() && bytes.last() == '\r'.code.toByte()) bytes.size - 1 else bytes.size
+    return String(bytes, 0, length, Charsets.UTF_8)
+  }
+
   //Unused commands
   fun createPause(): String {
     return ""
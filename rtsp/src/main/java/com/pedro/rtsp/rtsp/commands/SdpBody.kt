@@ -42,38 +42,88 @@ object SdpBody {
       -1,  // 14
       -1)
 
-  fun createG711Body(trackAudio: Int, sampleRate: Int, isStereo: Boolean): String {
+  /**
+   * @param fec advertise RFC 5109 ulpfec stream.
+   */
+  @JvmOverloads
+  fun createG711Body(trackAudio: Int, sampleRate: Int, isStereo: Boolean, fec: Boolean = false): String {
     val channel = if (isStereo) 2 else 1
     val payload = RtpConstants.payloadTypeG711
-    return "m=audio 0 RTP/AVP ${payload}\r\n" +
+    val fecPayload = RtpConstants.payloadTypeFecAudio
+    return "m=audio 0 RTP/AVP ${payload}${getFecPayload(fec, fecPayload)}\r\n" +
         "a=rtpmap:$payload PCMA/$sampleRate/$channel\r\n" +
+        getFecAttributes(fec, fecPayload, sampleRate.toLong()) +
         "a=control:streamid=$trackAudio\r\n"
   }
 
-  fun createAacBody(trackAudio: Int, sampleRate: Int, isStereo: Boolean): String {
+  /**
+   * @param fec advertise RFC 5109 ulpfec stream.
+   */
+  @JvmOverloads
+  fun createAacBody(trackAudio: Int, sampleRate: Int, isStereo: Boolean, fec: Boolean = false): String {
     val sampleRateNum = AUDIO_SAMPLING_RATES.toList().indexOf(sampleRate)
     val channel = if (isStereo) 2 else 1
     val config = 2 and 0x1F shl 11 or (sampleRateNum and 0x0F shl 7) or (channel and 0x0F shl 3)
     val payload = RtpConstants.payloadType + trackAudio
-    return "m=audio 0 RTP/AVP ${payload}\r\n" +
+    val fecPayload = RtpConstants.payloadTypeFecAudio
+    return "m=audio 0 RTP/AVP ${payload}${getFecPayload(fec, fecPayload)}\r\n" +
         "a=rtpmap:$payload MPEG4-GENERIC/$sampleRate/$channel\r\n" +
         "a=fmtp:$payload profile-level-id=1; mode=AAC-hbr; config=${Integer.toHexString(config)}; sizelength=13; indexlength=3; indexdeltalength=3\r\n" +
+        getFecAttributes(fec, fecPayload, sampleRate.toLong()) +
         "a=control:streamid=$trackAudio\r\n"
   }
 
-  fun createH264Body(trackVideo: Int, sps: String, pps: String): String {
+  /**
+   * @param rtx advertise RFC 4588 retransmission with NACK feedback (RFC 4585).
+   * @param fec advertise RFC 5109 ulpfec stream.
+   */
+  @JvmOverloads
+  fun createH264Body(trackVideo: Int, sps: String, pps: String, rtx: Boolean = false, fec: Boolean = false): String {
     val payload = RtpConstants.payloadType + trackVideo
-    return "m=video 0 RTP/AVP $payload\r\n" +
+    val fecPayload = RtpConstants.payloadTypeFecVideo
+    return "m=video 0 ${getProfile(rtx)} $payload${getRtxPayload(rtx)}${getFecPayload(fec, fecPayload)}\r\n" +
         "a=rtpmap:$payload H264/${RtpConstants.clockVideoFrequency}\r\n" +
         "a=fmtp:$payload packetization-mode=1; sprop-parameter-sets=$sps,$pps\r\n" +
+        getRtxAttributes(rtx, payload) +
+        getFecAttributes(fec, fecPayload, RtpConstants.clockVideoFrequency) +
         "a=control:streamid=$trackVideo\r\n"
   }
 
-  fun createH265Body(trackVideo: Int, sps: String, pps: String, vps: String): String {
+  /**
+   * @param rtx advertise RFC 4588 retransmission with NACK feedback (RFC 4585).
+   * @param fec advertise RFC 5109 ulpfec stream.
+   */
+  @JvmOverloads
+  fun createH265Body(trackVideo: Int, sps: String, pps: String, vps: String, rtx: Boolean = false, fec: Boolean = false): String {
     val payload = RtpConstants.payloadType + trackVideo
-    return "m=video 0 RTP/AVP ${payload}\r\n" +
+    val fecPayload = RtpConstants.payloadTypeFecVideo
+    return "m=video 0 ${getProfile(rtx)} ${payload}${getRtxPayload(rtx)}${getFecPayload(fec, fecPayload)}\r\n" +
         "a=rtpmap:$payload H265/${RtpConstants.clockVideoFrequency}\r\n" +
         "a=fmtp:$payload packetization-mode=1; sprop-sps=$sps; sprop-pps=$pps; sprop-vps=$vps\r\n" +
+        getRtxAttributes(rtx, payload) +
+        getFecAttributes(fec, fecPayload, RtpConstants.clockVideoFrequency) +
         "a=control:streamid=$trackVideo\r\n"
   }
+
+  /**
+   * NACK feedback needs the AVPF profile (RFC 4585), plain AVP receivers ignore rtcp-fb.
+   */
+  private fun getProfile(rtx: Boolean): String = if (rtx) "RTP/AVPF" else "RTP/AVP"
+
+  private fun getRtxPayload(rtx: Boolean): String = if (rtx) " ${RtpConstants.payloadTypeRtx}" else ""
+
+  private fun getRtxAttributes(rtx: Boolean, payload: Int): String {
+    if (!rtx) return ""
+    val rtxPayload = RtpConstants.payloadTypeRtx
+    return "a=rtcp-fb:$payload nack\r\n" +
+        "a=rtpmap:$rtxPayload rtx/${RtpConstants.clockVideoFrequency}\r\n" +
+        "a=fmtp:$rtxPayload apt=$payload\r\n"
+  }
+
+  private fun getFecPayload(fec: Boolean, fecPayload: Int): String = if (fec) " $fecPayload" else ""
+
+  private fun getFecAttributes(fec: Boolean, fecPayload: Int, clock: Long): String {
+    if (!fec) return ""
+    return "a=rtpmap:$fecPayload ulpfec/$clock\r\n"
+  }
 }
\ No newline at end of file
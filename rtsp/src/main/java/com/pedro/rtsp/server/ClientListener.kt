@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.server
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Callbacks are called in the thread of the server that accept or close the connection so avoid block it.
+ */
+interface ClientListener {
+  fun onClientConnected(client: ServerClient)
+  fun onClientDisconnected(client: ServerClient)
+}
\ No newline at end of file
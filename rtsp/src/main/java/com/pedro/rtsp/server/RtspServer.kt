@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.server
+
+import android.media.MediaCodec
+import android.util.Log
+import com.pedro.common.AudioCodec
+import com.pedro.common.VideoCodec
+import com.pedro.rtsp.rtp.packets.AacPacket
+import com.pedro.rtsp.rtp.packets.BasePacket
+import com.pedro.rtsp.rtp.packets.G711Packet
+import com.pedro.rtsp.rtp.packets.H264Packet
+import com.pedro.rtsp.rtp.packets.H265Packet
+import com.pedro.rtsp.utils.RtpConstants
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.IOException
+import java.net.ServerSocket
+import java.nio.ByteBuffer
+import java.util.Random
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * RTSP server to play the stream directly from the device without a media server.
+ * Players connect using rtsp://ip:port/ (any path) with TCP interleaved or UDP transport.
+ *
+ * Each frame is packetized once and the RTP packets are shared by all players. Each player has its own
+ * queue so frames discarded for a slow player don't affect other players.
+ */
+class RtspServer @JvmOverloads constructor(
+  private val port: Int,
+  private val clientListener: ClientListener? = null
+) {
+
+  private val commandManager = ServerCommandManager()
+  private var serverSocket: ServerSocket? = null
+  private val clients = CopyOnWriteArrayList<ServerClient>()
+  private var scope = CoroutineScope(Dispatchers.IO)
+  private var videoPacket: BasePacket? = null
+  private var audioPacket: BasePacket? = null
+  //same ssrc for all players, packets are shared
+  private val ssrcVideo = Random().nextInt().toLong() and 0xFFFFFFFFL
+  private val ssrcAudio = Random().nextInt().toLong() and 0xFFFFFFFFL
+  //players that receive the frame in progress, a player never start in the middle of a frame
+  private val videoReceivers = ArrayList<ServerClient>()
+  private val audioReceivers = ArrayList<ServerClient>()
+  private var clientCacheSize = 10 * 1024 * 1024 / RtpConstants.MTU
+  private var nextUdpPort = UDP_PORT_START
+  private var onKeyFrameRequired: (() -> Unit)? = null
+  private var isEnableLogs = true
+  @Volatile
+  var isRunning = false
+    private set
+
+  companion object {
+    private const val TAG = "RtspServer"
+    //source ports used with players in UDP mode
+    private const val UDP_PORT_START = 50000
+    private const val UDP_PORT_END = 59998
+  }
+
+  /**
+   * Port of the server. Useful if the server was created with port 0.
+   */
+  val localPort: Int
+    get() = serverSocket?.localPort ?: port
+
+  fun setVideoCodec(videoCodec: VideoCodec) {
+    commandManager.videoCodec = videoCodec
+  }
+
+  fun setAudioCodec(audioCodec: AudioCodec) {
+    commandManager.audioCodec = audioCodec
+  }
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    commandManager.setVideoInfo(sps, pps, vps)
+    val spsData = commandManager.sps ?: return
+    val ppsData = commandManager.pps ?: return
+    videoPacket = (if (vps == null) H264Packet(spsData, ppsData) else H265Packet()).apply {
+      setSSRC(ssrcVideo)
+    }
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    commandManager.setAudioInfo(sampleRate, isStereo)
+    audioPacket = (if (commandManager.audioCodec == AudioCodec.G711) G711Packet(sampleRate) else AacPacket(sampleRate)).apply {
+      setSSRC(ssrcAudio)
+    }
+  }
+
+  /**
+   * Must be called before start server or will be ignored.
+   */
+  fun setOnlyAudio(onlyAudio: Boolean) {
+    commandManager.videoDisabled = onlyAudio
+    if (onlyAudio) commandManager.audioDisabled = false
+  }
+
+  /**
+   * Must be called before start server or will be ignored.
+   */
+  fun setOnlyVideo(onlyVideo: Boolean) {
+    commandManager.audioDisabled = onlyVideo
+    if (onlyVideo) commandManager.videoDisabled = false
+  }
+
+  /**
+   * @param size max RTP packets queued for each player.
+   * Must be called before start server or will be ignored.
+   */
+  fun setClientCacheSize(size: Int) {
+    if (!isRunning) clientCacheSize = size
+  }
+
+  /**
+   * Called when a player start to play or a player discard video by congestion.
+   * Request a keyframe to the encoder so the player can decode as soon as possible.
+   */
+  fun setOnKeyFrameRequired(callback: (() -> Unit)?) {
+    onKeyFrameRequired = callback
+  }
+
+  @Throws(IOException::class)
+  fun startServer() {
+    if (isRunning) return
+    val serverSocket = ServerSocket(port)
+    this.serverSocket = serverSocket
+    isRunning = true
+    scope = CoroutineScope(Dispatchers.IO)
+    scope.launch {
+      while (isActive && isRunning) {
+        val socket = try {
+          serverSocket.accept()
+        } catch (e: IOException) {
+          if (isRunning) Log.e(TAG, "accept error", e)
+          break
+        }
+        val client = try {
+          ServerClient(socket, commandManager, ssrcVideo, ssrcAudio, clientCacheSize,
+            ::getServerPorts, ::requestKeyFrame, ::removeClient)
+        } catch (e: IOException) {
+          Log.e(TAG, "client error", e)
+          socket.close()
+          continue
+        }
+        client.setLogs(isEnableLogs)
+        clients.add(client)
+        Log.i(TAG, "client connected: ${client.address}")
+        clientListener?.onClientConnected(client)
+        client.start()
+      }
+    }
+  }
+
+  fun stopServer() {
+    isRunning = false
+    runCatching { serverSocket?.close() }
+    serverSocket = null
+    scope.cancel()
+    clients.forEach { it.close() }
+    clients.clear()
+    videoPacket?.reset()
+    videoPacket?.setSSRC(ssrcVideo)
+    audioPacket?.reset()
+    audioPacket?.setSSRC(ssrcAudio)
+  }
+
+  fun sendVideo(videoBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (!isRunning) return
+    videoReceivers.clear()
+    clients.forEach { if (it.isPlaying) videoReceivers.add(it) }
+    if (videoReceivers.isEmpty()) return
+    videoPacket?.createAndSendPacket(videoBuffer, info) { rtpFrame ->
+      videoReceivers.forEach { it.sendFrame(rtpFrame) }
+    }
+  }
+
+  fun sendAudio(audioBuffer: ByteBuffer, info: MediaCodec.BufferInfo) {
+    if (!isRunning) return
+    audioReceivers.clear()
+    clients.forEach { if (it.isPlaying) audioReceivers.add(it) }
+    if (audioReceivers.isEmpty()) return
+    audioPacket?.createAndSendPacket(audioBuffer, info) { rtpFrame ->
+      audioReceivers.forEach { it.sendFrame(rtpFrame) }
+    }
+  }
+
+  /**
+   * @return players connected, playing or not.
+   */
+  fun getClients(): List<ServerClient> = clients.toList()
+
+  fun getNumClients(): Int = clients.size
+
+  fun setLogs(enable: Boolean) {
+    isEnableLogs = enable
+    clients.forEach { it.setLogs(enable) }
+  }
+
+  @Synchronized
+  private fun getServerPorts(): IntArray {
+    val port = nextUdpPort
+    nextUdpPort = if (port + 2 > UDP_PORT_END) UDP_PORT_START else port + 2
+    return intArrayOf(port, port + 1)
+  }
+
+  private fun requestKeyFrame() {
+    onKeyFrameRequired?.invoke()
+  }
+
+  private fun removeClient(client: ServerClient) {
+    if (clients.remove(client)) {
+      Log.i(TAG, "client disconnected: ${client.address}")
+      clientListener?.onClientDisconnected(client)
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.server
+
+import android.util.Log
+import com.pedro.common.FrameQueue
+import com.pedro.common.FrameType
+import com.pedro.rtsp.rtcp.BaseSenderReport
+import com.pedro.rtsp.rtcp.ReceiverReport
+import com.pedro.rtsp.rtcp.RtcpReceiver
+import com.pedro.rtsp.rtp.sockets.BaseRtpSocket
+import com.pedro.rtsp.rtsp.Protocol
+import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.rtsp.commands.Command
+import com.pedro.rtsp.rtsp.commands.Method
+import com.pedro.rtsp.utils.RtpConstants
+import com.pedro.rtsp.utils.getFrameType
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.IOException
+import java.net.Socket
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Player connected to RtspServer. Handle the RTSP session of the player and send the RTP packets
+ * created by the server. Each client has its own queue and discard frames independently
+ * so a slow player never delays other players.
+ */
+class ServerClient internal constructor(
+  private val socket: Socket,
+  private val commandManager: ServerCommandManager,
+  private val ssrcVideo: Long,
+  private val ssrcAudio: Long,
+  cacheSize: Int,
+  private val getServerPorts: () -> IntArray,
+  private val onKeyFrameRequired: () -> Unit,
+  private val onClosed: (ServerClient) -> Unit
+) {
+
+  val address: String = socket.inetAddress.hostAddress ?: ""
+  var protocol: Protocol? = null
+    private set
+  @Volatile
+  var isPlaying = false
+    private set
+  private val sessionId = String.format("%08X", Random().nextInt())
+  private var videoClientPorts: IntArray? = null
+  private var audioClientPorts: IntArray? = null
+  private var videoServerPorts: IntArray? = null
+  private var audioServerPorts: IntArray? = null
+  private var videoSetup = false
+  private var audioSetup = false
+  //players can't decode video until a keyframe
+  private var waitingKeyFrame = true
+  //responses, rtp packets and reports share the stream in TCP mode
+  private val writeLock = Any()
+  private val input = BufferedInputStream(socket.getInputStream())
+  private val output = BufferedOutputStream(socket.getOutputStream(), INTERLEAVED_BUFFER_SIZE)
+  private var rtpSocket: BaseRtpSocket? = null
+  private var senderReport: BaseSenderReport? = null
+  private val rtcpReceiver = RtcpReceiver()
+  private val scope = CoroutineScope(Dispatchers.IO)
+  @Volatile
+  private var closed = false
+  private var isEnableLogs = true
+  private val queue = FrameQueue(cacheSize, ::getFrameType) { rtpFrame -> rtpFrame.timeStamp }.apply {
+    onDiscard = { rtpFrame -> if (rtpFrame.isVideoFrame()) droppedVideoFrames++ else droppedAudioFrames++ }
+    onKeyFrameRequired = { this@ServerClient.onKeyFrameRequired() }
+  }
+
+  var droppedAudioFrames: Long = 0
+    private set
+  var droppedVideoFrames: Long = 0
+    private set
+  @Volatile
+  var sentPackets: Long = 0
+    private set
+
+  companion object {
+    private const val TAG = "ServerClient"
+    //max bytes buffered in TCP mode before write it to the socket
+    private const val INTERLEAVED_BUFFER_SIZE = 64 * 1024
+  }
+
+  internal fun start() {
+    scope.launch {
+      val error = runCatching {
+        //players send keep alive requests or RTCP reports, a silent player is gone
+        socket.soTimeout = ServerCommandManager.SESSION_TIMEOUT * 1000
+        while (isActive && !closed) {
+          input.mark(1)
+          val first = input.read()
+          if (first == -1) break
+          if (first == '$'.code) {
+            //RTCP interleaved in TCP mode
+            input.reset()
+            rtcpReceiver.readInterleaved(input)
+          } else {
+            val command = commandManager.getRequest(input, first) ?: break
+            if (!handleCommand(command)) break
+          }
+        }
+      }.exceptionOrNull()
+      if (error != null && !closed) Log.e(TAG, "client $address error", error)
+      close()
+    }
+  }
+
+  /**
+   * @return false if the session ends.
+   */
+  @Throws(IOException::class)
+  private fun handleCommand(command: Command): Boolean {
+    val cSeq = command.cSeq
+    when (command.method) {
+      Method.OPTIONS -> write(commandManager.createOptions(cSeq))
+      Method.DESCRIBE -> {
+        val response = if (!commandManager.videoDisabled && !commandManager.videoInfoReady()) {
+          commandManager.createResponse(cSeq, 503)
+        } else {
+          commandManager.createDescribe(cSeq, commandManager.getUrl(command), socket.localAddress.hostAddress ?: "")
+        }
+        write(response)
+      }
+      Method.SETUP -> write(setup(command))
+      Method.PLAY -> {
+        if (protocol == null) {
+          write(commandManager.createResponse(cSeq, 455))
+        } else if (!isValidSession(command)) {
+          write(commandManager.createResponse(cSeq, 454))
+        } else {
+          write(commandManager.createPlay(cSeq, sessionId))
+          //the player expect RTP packets after the response
+          if (!isPlaying) startSending()
+        }
+      }
+      Method.GET_PARAMETERS -> write(commandManager.createResponse(cSeq, 200, "Session: $sessionId\r\n"))
+      Method.TEARDOWN -> {
+        write(commandManager.createResponse(cSeq, 200, "Session: $sessionId\r\n"))
+        return false
+      }
+      else -> write(commandManager.createResponse(cSeq, 501))
+    }
+    return true
+  }
+
+  private fun setup(command: Command): String {
+    val cSeq = command.cSeq
+    val track = commandManager.getTrack(command)
+    val isVideo = track == RtpConstants.trackVideo && !commandManager.videoDisabled
+    val isAudio = track == RtpConstants.trackAudio && !commandManager.audioDisabled
+    if (!isVideo && !isAudio) return commandManager.createResponse(cSeq, 404)
+    if (isPlaying) return commandManager.createResponse(cSeq, 455)
+    //all tracks of a session use the same protocol
+    val protocol = commandManager.getProtocol(command)
+    if (protocol == null || (this.protocol != null && this.protocol != protocol)) {
+      return commandManager.createResponse(cSeq, 461)
+    }
+    var clientPorts: IntArray? = null
+    var serverPorts: IntArray? = null
+    if (protocol == Protocol.UDP) {
+      clientPorts = commandManager.getClientPorts(command) ?: return commandManager.createResponse(cSeq, 461)
+      serverPorts = getServerPorts()
+    }
+    this.protocol = protocol
+    if (isVideo) {
+      videoSetup = true
+      videoClientPorts = clientPorts
+      videoServerPorts = serverPorts
+    } else {
+      audioSetup = true
+      audioClientPorts = clientPorts
+      audioServerPorts = serverPorts
+    }
+    return commandManager.createSetup(cSeq, sessionId, track, protocol, clientPorts, serverPorts,
+      if (isVideo) ssrcVideo else ssrcAudio)
+  }
+
+  private fun isValidSession(command: Command): Boolean {
+    val session = commandManager.getSessionId(command)
+    return session.isEmpty() || session == sessionId
+  }
+
+  @Throws(IOException::class)
+  private fun startSending() {
+    val protocol = protocol ?: return
+    //source ports of tracks not configured are selected by the system
+    rtpSocket = BaseRtpSocket.getInstance(protocol, videoServerPorts?.get(0) ?: 0, audioServerPorts?.get(0) ?: 0).apply {
+      lock = writeLock
+      setDataStream(output, address)
+    }
+    senderReport = BaseSenderReport.getInstance(protocol, videoServerPorts?.get(1) ?: 0, audioServerPorts?.get(1) ?: 0).apply {
+      lock = writeLock
+      rtcpReceiver = this@ServerClient.rtcpReceiver
+      setDataStream(output, address)
+      setSSRC(ssrcVideo, ssrcAudio)
+      startReceiving()
+    }
+    queue.clear()
+    waitingKeyFrame = true
+    isPlaying = true
+    scope.launch {
+      val batch = ArrayList<RtpFrame>()
+      while (isActive && isPlaying) {
+        val error = runCatching {
+          val rtpFrame = runInterruptible {
+            queue.poll(1, TimeUnit.SECONDS)
+          }
+          if (rtpFrame != null) {
+            //write all fragments of the same frame already queued in a single call
+            batch.add(rtpFrame)
+            queue.drainTo(batch) { next ->
+              next.timeStamp == rtpFrame.timeStamp && next.channelIdentifier == rtpFrame.channelIdentifier
+            }
+            rtpSocket?.sendFrames(batch, isEnableLogs)
+            batch.forEach { senderReport?.update(it, isEnableLogs) }
+            sentPackets += batch.size
+            batch.clear()
+          }
+        }.exceptionOrNull()
+        if (error != null) {
+          if (!closed) Log.e(TAG, "client $address send error", error)
+          close()
+          return@launch
+        }
+      }
+    }
+    onKeyFrameRequired()
+  }
+
+  /**
+   * Called by the server with each RTP packet created. The buffer of the packet is shared by all clients
+   * so it must not be modified.
+   */
+  internal fun sendFrame(rtpFrame: RtpFrame) {
+    if (!isPlaying) return
+    val isVideo = rtpFrame.isVideoFrame()
+    if (if (isVideo) !videoSetup else !audioSetup) return
+    if (isVideo && waitingKeyFrame) {
+      if (getFrameType(rtpFrame) == FrameType.INTER_FRAME) return
+      waitingKeyFrame = false
+    }
+    val ports = if (isVideo) videoClientPorts else audioClientPorts
+    //UDP packets need the ports of this client
+    val frame = if (ports != null) {
+      RtpFrame(rtpFrame.buffer, rtpFrame.timeStamp, rtpFrame.length, ports[0], ports[1], rtpFrame.channelIdentifier)
+    } else rtpFrame
+    queue.offer(frame)
+  }
+
+  private fun getFrameType(rtpFrame: RtpFrame): FrameType = rtpFrame.getFrameType(commandManager.vps != null)
+
+  @Throws(IOException::class)
+  private fun write(response: String) {
+    synchronized(writeLock) {
+      output.write(response.toByteArray())
+      output.flush()
+    }
+  }
+
+  fun close() {
+    synchronized(this) {
+      if (closed) return
+      closed = true
+    }
+    isPlaying = false
+    scope.cancel()
+    runCatching { socket.close() }
+    rtpSocket?.close()
+    senderReport?.close()
+    queue.clear()
+    onClosed(this)
+  }
+
+  @Throws(IllegalArgumentException::class)
+  fun hasCongestion(percentUsed: Float = 20f): Boolean {
+    if (percentUsed < 0 || percentUsed > 100) throw IllegalArgumentException("the value must be in range 0 to 100")
+    val size = queue.size.toFloat()
+    val capacity = queue.capacity.toFloat()
+    return size >= capacity * (percentUsed / 100f)
+  }
+
+  fun getItemsInCache(): Int = queue.size
+
+  fun getVideoReport(): ReceiverReport? = rtcpReceiver.videoReport
+
+  fun getAudioReport(): ReceiverReport? = rtcpReceiver.audioReport
+
+  fun setLogs(enable: Boolean) {
+    isEnableLogs = enable
+  }
+
+  override fun toString(): String {
+    return "ServerClient(address=$address, protocol=$protocol, isPlaying=$isPlaying)"
+  }
+}
\ No newline at end of file
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.server
+
+import android.util.Log
+import com.pedro.common.AudioCodec
+import com.pedro.common.VideoCodec
+import com.pedro.rtsp.BuildConfig
+import com.pedro.rtsp.rtsp.Protocol
+import com.pedro.rtsp.rtsp.commands.Command
+import com.pedro.rtsp.rtsp.commands.CommandParser
+import com.pedro.rtsp.rtsp.commands.SdpBody
+import com.pedro.rtsp.utils.RtpConstants
+import com.pedro.rtsp.utils.encodeToString
+import com.pedro.rtsp.utils.getData
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.util.regex.Pattern
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Parse requests of players and create the responses of the server.
+ * Media info is shared by all clients of the server.
+ */
+class ServerCommandManager {
+
+  var sps: ByteArray? = null
+    private set
+  var pps: ByteArray? = null
+    private set
+  var vps: ByteArray? = null
+    private set
+  var sampleRate = 32000
+  var isStereo = true
+  var videoDisabled = false
+  var audioDisabled = false
+  var videoCodec: VideoCodec = VideoCodec.H264
+  var audioCodec: AudioCodec = AudioCodec.AAC
+  private val commandParser = CommandParser()
+
+  companion object {
+    private const val TAG = "ServerCommandManager"
+    //seconds without requests or RTCP before close the session
+    const val SESSION_TIMEOUT = 60
+    private const val MAX_REQUEST_LENGTH = 16 * 1024
+  }
+
+  fun videoInfoReady(): Boolean {
+    return sps != null && pps != null && if (videoCodec == VideoCodec.H264) true else vps != null
+  }
+
+  fun setVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
+    this.sps = sps.getData()
+    this.pps = pps.getData()
+    this.vps = vps?.getData()
+  }
+
+  fun setAudioInfo(sampleRate: Int, isStereo: Boolean) {
+    this.isStereo = isStereo
+    this.sampleRate = sampleRate
+  }
+
+  /**
+   * Read a request of the player. Bytes until the end of the headers are consumed, the body if any.
+   * @return null if the connection was closed.
+   */
+  @Throws(IOException::class)
+  fun getRequest(input: InputStream, firstByte: Int): Command? {
+    val builder = StringBuilder()
+    var value = firstByte
+    while (value != -1) {
+      builder.append(value.toChar())
+      //end of headers
+      if (builder.endsWith("\r\n\r\n") || builder.endsWith("\n\n")) break
+      if (builder.length > MAX_REQUEST_LENGTH) throw IOException("Request too long")
+      value = input.read()
+    }
+    if (value == -1) return null
+    val contentLength = getContentLength(builder)
+    for (i in 0 until contentLength) {
+      value = input.read()
+      if (value == -1) return null
+      builder.append(value.toChar())
+    }
+    val request = builder.toString()
+    Log.i(TAG, request)
+    return commandParser.parseCommand(request)
+  }
+
+  /**
+   * @return track of the url of a SETUP request (rtsp://host:port/path/streamid=X) or -1.
+   */
+  fun getTrack(command: Command): Int {
+    val matcher = Pattern.compile("streamid=(\\d+)", Pattern.CASE_INSENSITIVE).matcher(getUrl(command))
+    return if (matcher.find()) matcher.group(1)?.toInt() ?: -1 else -1
+  }
+
+  /**
+   * @return protocol requested in Transport header or null if not found.
+   */
+  fun getProtocol(command: Command): Protocol? {
+    val transport = getHeader(command, "Transport") ?: return null
+    return when {
+      transport.contains("RTP/AVP/TCP", ignoreCase = true) -> Protocol.TCP
+      transport.contains("RTP/AVP", ignoreCase = true) -> Protocol.UDP
+      else -> null
+    }
+  }
+
+  /**
+   * @return rtp and rtcp ports of the player requested in Transport header or null if not found.
+   */
+  fun getClientPorts(command: Command): IntArray? {
+    val transport = getHeader(command, "Transport") ?: return null
+    val matcher = Pattern.compile("client_port=(\\d+)(?:-(\\d+))?", Pattern.CASE_INSENSITIVE).matcher(transport)
+    if (!matcher.find()) return null
+    val rtpPort = matcher.group(1)?.toInt() ?: return null
+    val rtcpPort = matcher.group(2)?.toInt() ?: (rtpPort + 1)
+    return intArrayOf(rtpPort, rtcpPort)
+  }
+
+  fun getSessionId(command: Command): String = commandParser.getSessionId(command)
+
+  fun getUrl(command: Command): String {
+    val matcher = Pattern.compile("\\w+ (\\S+) RTSP", Pattern.CASE_INSENSITIVE).matcher(command.text)
+    return if (matcher.find()) matcher.group(1) ?: "" else ""
+  }
+
+  private fun getHeader(command: Command, name: String): String? {
+    val matcher = Pattern.compile("^$name\\s*:\\s*(.+?)\\s*$", Pattern.CASE_INSENSITIVE or Pattern.MULTILINE).matcher(command.text)
+    return if (matcher.find()) matcher.group(1) else null
+  }
+
+  private fun getContentLength(request: CharSequence): Int {
+    val matcher = Pattern.compile("Content-Length\\s*:\\s*(\\d+)", Pattern.CASE_INSENSITIVE).matcher(request)
+    return if (matcher.find()) matcher.group(1)?.toInt() ?: 0 else 0
+  }
+
+  private fun createBody(host: String): String {
+    var videoBody = ""
+    if (!videoDisabled) {
+      val sps = sps?.encodeToString() ?: ""
+      val pps = pps?.encodeToString() ?: ""
+      videoBody = if (videoCodec == VideoCodec.H264) {
+        SdpBody.createH264Body(RtpConstants.trackVideo, sps, pps)
+      } else {
+        SdpBody.createH265Body(RtpConstants.trackVideo, sps, pps, vps?.encodeToString() ?: "")
+      }
+    }
+    var audioBody = ""
+    if (!audioDisabled) {
+      audioBody = if (audioCodec == AudioCodec.G711) {
+        SdpBody.createG711Body(RtpConstants.trackAudio, sampleRate, isStereo)
+      } else {
+        SdpBody.createAacBody(RtpConstants.trackAudio, sampleRate, isStereo)
+      }
+    }
+    return "v=0\r\n" +
+        "o=- 0 0 IN IP4 $host\r\n" +
+        "s=Unnamed\r\n" +
+        "i=N/A\r\n" +
+        "c=IN IP4 0.0.0.0\r\n" +
+        "t=0 0\r\n" +
+        "a=control:*\r\n" +
+        videoBody + audioBody
+  }
+
+  //Responses
+  fun createOptions(cSeq: Int): String {
+    return createResponse(cSeq, 200, "Public: OPTIONS, DESCRIBE, SETUP, PLAY, TEARDOWN, GET_PARAMETER\r\n")
+  }
+
+  fun createDescribe(cSeq: Int, url: String, host: String): String {
+    val body = createBody(host)
+    val contentBase = if (url.endsWith("/")) url else "$url/"
+    return createResponse(cSeq, 200, "Content-Base: $contentBase\r\n" +
+        "Content-Type: application/sdp\r\n" +
+        "Content-Length: ${body.length}\r\n", body)
+  }
+
+  /**
+   * @param serverPorts source ports of the server in UDP mode.
+   */
+  fun createSetup(cSeq: Int, sessionId: String, track: Int, protocol: Protocol, clientPorts: IntArray?,
+    serverPorts: IntArray?, ssrc: Long): String {
+    val transport = if (protocol == Protocol.TCP) {
+      "RTP/AVP/TCP;unicast;interleaved=${2 * track}-${2 * track + 1}"
+    } else {
+      "RTP/AVP;unicast;client_port=${clientPorts?.get(0)}-${clientPorts?.get(1)};" +
+          "server_port=${serverPorts?.get(0)}-${serverPorts?.get(1)}"
+    }
+    return createResponse(cSeq, 200, "Transport: $transport;ssrc=${String.format("%08X", ssrc)}\r\n" +
+        "Session: $sessionId;timeout=$SESSION_TIMEOUT\r\n")
+  }
+
+  fun createPlay(cSeq: Int, sessionId: String): String {
+    return createResponse(cSeq, 200, "Session: $sessionId;timeout=$SESSION_TIMEOUT\r\n" +
+        "Range: npt=0.000-\r\n")
+  }
+
+  fun createResponse(cSeq: Int, status: Int, headers: String = "", body: String = ""): String {
+    val response = "RTSP/1.0 $status ${getReason(status)}\r\n" +
+        "CSeq: $cSeq\r\n" +
+        "Server: ${BuildConfig.LIBRARY_PACKAGE_NAME} ${BuildConfig.VERSION_NAME}\r\n" +
+        headers + "\r\n" + body
+    Log.i(TAG, response)
+    return response
+  }
+
+  private fun getReason(status: Int): String {
+    return when (status) {
+      200 -> "OK"
+      400 -> "Bad Request"
+      404 -> "Not Found"
+      454 -> "Session Not Found"
+      455 -> "Method Not Valid in This State"
+      461 -> "Unsupported Transport"
+      500 -> "Internal Server Error"
+      501 -> "Not Implemented"
+      503 -> "Service Unavailable"
+      else -> "Unknown"
+    }
+  }
+}
\ No newline at end of file
@@ -17,6 +17,9 @@
 package com.pedro.rtsp.utils
 
 import android.util.Base64
+import com.pedro.common.FrameType
+import com.pedro.common.NalScanner
+import com.pedro.rtsp.rtsp.RtpFrame
 import java.nio.ByteBuffer
 
 fun ByteArray.encodeToString(flags: Int = Base64.NO_WRAP): String {
@@ -40,15 +43,65 @@ fun ByteArray.setLong(n: Long, begin: Int, end: Int) {
 }
 
 fun ByteBuffer.getVideoStartCodeSize(): Int {
-  var startCodeSize = 0
-  if (this.get(0).toInt() == 0x00 && this.get(1).toInt() == 0x00
-    && this.get(2).toInt() == 0x00 && this.get(3).toInt() == 0x01) {
-    //match 00 00 00 01
-    startCodeSize = 4
-  } else if (this.get(0).toInt() == 0x00 && this.get(1).toInt() == 0x00
-    && this.get(2).toInt() == 0x01) {
-    //match 00 00 01
-    startCodeSize = 3
+  return NalScanner.getStartCodeSize(this, 0, this.limit())
+}
+
+/**
+ * Type of the frame that contains a RTP packet. Used to select the packets discarded on congestion.
+ * Aggregation packets are typed by the most important NAL unit inside: config, keyframe, inter frame.
+ */
+fun RtpFrame.getFrameType(isH265: Boolean): FrameType {
+  if (!isVideoFrame()) return FrameType.AUDIO
+  val header = RtpConstants.RTP_HEADER_LENGTH
+  return if (isH265) {
+    var type = buffer[header].toInt().shr(1) and 0x3F
+    //fragmentation unit, the real type is in the FU header
+    if (type == 49) type = buffer[header + 2].toInt() and 0x3F
+    //aggregation packet
+    if (type == 48) return getAggregatedFrameType(header + 2, 2, true)
+    getH265FrameType(type)
+  } else {
+    var type = buffer[header].toInt() and 0x1F
+    //FU-A, the real type is in the FU header
+    if (type == 28) type = buffer[header + 1].toInt() and 0x1F
+    //STAP-A
+    if (type == 24) return getAggregatedFrameType(header + 1, 1, false)
+    getH264FrameType(type)
+  }
+}
+
+private fun getH264FrameType(type: Int): FrameType {
+  return when (type) {
+    7, 8 -> FrameType.CONFIG //sps and pps
+    RtpConstants.IDR -> FrameType.KEY_FRAME
+    else -> FrameType.INTER_FRAME
+  }
+}
+
+private fun getH265FrameType(type: Int): FrameType {
+  return when (type) {
+    in 32..34 -> FrameType.CONFIG //vps, sps and pps
+    in 16..21 -> FrameType.KEY_FRAME
+    else -> FrameType.INTER_FRAME
+  }
+}
+
+/**
+ * Aggregation packets contain NAL units with 2 bytes of size before each one.
+ */
+private fun RtpFrame.getAggregatedFrameType(start: Int, headerSize: Int, isH265: Boolean): FrameType {
+  var frameType = FrameType.INTER_FRAME
+  var offset = start
+  while (offset + 2 + headerSize <= length) {
+    val size = ((buffer[offset].toInt() and 0xFF) shl 8) or (buffer[offset + 1].toInt() and 0xFF)
+    val nalFrameType = if (isH265) {
+      getH265FrameType(buffer[offset + 2].toInt().shr(1) and 0x3F)
+    } else {
+      getH264FrameType(buffer[offset + 2].toInt() and 0x1F)
+    }
+    if (nalFrameType == FrameType.CONFIG) return FrameType.CONFIG
+    if (nalFrameType == FrameType.KEY_FRAME) frameType = FrameType.KEY_FRAME
+    offset += 2 + size
   }
-  return startCodeSize
+  return frameType
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ package com.pedro.rtsp.utils
  */
 object RtpConstants {
 
+  @Deprecated("Each session use its own lock, see BaseRtpSocket.lock")
   @JvmField
   val lock = Any()
   var trackAudio = 1
@@ -31,6 +32,11 @@ object RtpConstants {
   const val payloadType = 96
   //PCMA, https://blog.csdn.net/hiwubihe/article/details/84569152
   const val payloadTypeG711 = 8
+  //RFC 4588 retransmission of video packets
+  const val payloadTypeRtx = 98
+  //RFC 5109 ulpfec of each stream
+  const val payloadTypeFecVideo = 99
+  const val payloadTypeFecAudio = 100
   //H264 IDR
   const val IDR = 5
 
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtcp
+
+import com.pedro.rtsp.rtsp.commands.CommandsManager
+import com.pedro.rtsp.rtsp.commands.Method
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class RtcpReceiverTest {
+
+  private val ssrcVideo = 0x11223344L
+  private val ssrcAudio = 0x55667788L
+  private val serverSsrc = 0x0A0B0C0DL
+
+  private fun ByteArrayOutputStream.writeInt(value: Long, length: Int = 4) {
+    for (i in length - 1 downTo 0) write((value shr (i * 8)).toInt() and 0xFF)
+  }
+
+  private fun ByteArrayOutputStream.writeReportBlock(ssrc: Long, fractionLost: Int, cumulativeLost: Long, lsr: Long, dlsr: Long) {
+    writeInt(ssrc)
+    write(fractionLost)
+    writeInt(cumulativeLost and 0xFFFFFF, 3)
+    writeInt(70000) //highest sequence
+    writeInt(1800) //jitter
+    writeInt(lsr)
+    writeInt(dlsr)
+  }
+
+  private fun createReceiverReport(
+    lsr: Long = 0, dlsr: Long = 0, videoSsrc: Long = ssrcVideo, audioSsrc: Long = ssrcAudio
+  ): ByteArray {
+    val output = ByteArrayOutputStream()
+    output.write(0x80 or 2)
+    output.write(RtcpReceiver.PT_RR)
+    output.writeInt(1 + 2 * 6L, 2)
+    output.writeInt(serverSsrc)
+    output.writeReportBlock(videoSsrc, 64, 20, lsr, dlsr)
+    output.writeReportBlock(audioSsrc, 0, -1, lsr, dlsr)
+    return output.toByteArray()
+  }
+
+  private fun createSdes(cname: String): ByteArray {
+    val output = ByteArrayOutputStream()
+    val itemsLength = 2 + cname.length + 1
+    val chunkLength = 4 + (itemsLength + 3) / 4 * 4
+    output.write(0x80 or 1)
+    output.write(RtcpReceiver.PT_SDES)
+    output.writeInt(chunkLength / 4L, 2)
+    output.writeInt(serverSsrc)
+    output.write(1)
+    output.write(cname.length)
+    output.write(cname.toByteArray())
+    repeat(chunkLength - 4 - itemsLength + 1) { output.write(0) }
+    return output.toByteArray()
+  }
+
+  @Test
+  fun `GIVEN receiver report WHEN handle packet THEN update stats of each stream`() {
+    val receiver = RtcpReceiver()
+    receiver.setSSRC(ssrcVideo, ssrcAudio)
+    val reports = mutableListOf<ReceiverReport>()
+    receiver.listener = object : RtcpStatsListener {
+      override fun onReceiverReport(report: ReceiverReport) { reports.add(report) }
+      override fun onBye(ssrc: Long, reason: String?) {}
+    }
+    val packet = createReceiverReport()
+    assertTrue(receiver.handlePacket(packet, 0, packet.size))
+    assertEquals(2, reports.size)
+    val video = receiver.videoReport!!
+    assertTrue(video.isVideo)
+    assertEquals(serverSsrc, video.reporterSsrc)
+    assertEquals(0.25f, video.fractionLost)
+    assertEquals(20, video.cumulativeLost)
+    assertEquals(70000L, video.highestSequence)
+    assertEquals(1800L, video.jitter)
+    assertEquals(20f, video.getJitterMs(90000))
+    assertEquals(-1L, video.rtt)
+    val audio = receiver.audioReport!!
+    assertFalse(audio.isVideo)
+    assertEquals(-1, audio.cumulativeLost)
+    assertTrue(receiver.hasPacketLoss(10f))
+    assertFalse(receiver.hasPacketLoss(30f))
+  }
+
+  @Test
+  fun `GIVEN ssrc with high bit set WHEN handle receiver report THEN match the reported streams`() {
+    val receiver = RtcpReceiver()
+    //ssrc generated with Random().nextInt() is negative if the high bit is set
+    val videoSsrc = 0x89ABCDEF.toInt().toLong()
+    val audioSsrc = 0xF0E0D0C0.toInt().toLong()
+    receiver.setSSRC(videoSsrc, audioSsrc)
+    val packet = createReceiverReport(videoSsrc = 0x89ABCDEFL, audioSsrc = 0xF0E0D0C0L)
+    assertTrue(receiver.handlePacket(packet, 0, packet.size))
+    assertEquals(0x89ABCDEFL, receiver.videoReport?.ssrc)
+    assertEquals(0xF0E0D0C0L, receiver.audioReport?.ssrc)
+  }
+
+  @Test
+  fun `GIVEN compound packet with SDES WHEN handle packet THEN report has cname and rtt`() {
+    val receiver = RtcpReceiver()
+    receiver.setSSRC(ssrcVideo, ssrcAudio)
+    val sentNanos = 12_345_000_000_000L
+    val arrivalNanos = sentNanos + 250_000_000L
+    val lsr = RtcpReceiver.getNtpMiddle(sentNanos)
+    //server hold the report 100ms, 1/65536 seconds units
+    val dlsr = 65536L / 10
+    val output = ByteArrayOutputStream()
+    output.write(createSdes("server"))
+    output.write(createReceiverReport(lsr, dlsr))
+    val packet = output.toByteArray()
+    assertTrue(receiver.handlePacket(packet, 0, packet.size, arrivalNanos))
+    val video = receiver.videoReport!!
+    assertEquals("server", video.cname)
+    assertEquals(150L, video.rtt)
+  }
+
+  @Test
+  fun `GIVEN interleaved data WHEN read THEN only parse rtcp channels`() {
+    val receiver = RtcpReceiver()
+    receiver.setSSRC(ssrcVideo, ssrcAudio)
+    val report = createReceiverReport()
+    val output = ByteArrayOutputStream()
+    output.write("RTSP/1.0 200 OK\r\n".toByteArray())
+    //rtp channel, ignored
+    output.write('$'.code)
+    output.write(0)
+    output.writeInt(report.size.toLong(), 2)
+    output.write(report)
+    assertNull(receiver.videoReport)
+    output.write('$'.code)
+    output.write(1)
+    output.writeInt(report.size.toLong(), 2)
+    output.write(report)
+    val input = ByteArrayInputStream(output.toByteArray())
+    receiver.readInterleaved(input)
+    receiver.readInterleaved(input)
+    assertNull(receiver.videoReport)
+    receiver.readInterleaved(input)
+    assertEquals(20, receiver.videoReport?.cumulativeLost)
+  }
+
+  @Test
+  fun `GIVEN response and interleaved data in same stream WHEN read response THEN interleaved data is not consumed`() {
+    val receiver = RtcpReceiver()
+    receiver.setSSRC(ssrcVideo, ssrcAudio)
+    val report = createReceiverReport()
+    val output = ByteArrayOutputStream()
+    output.write("RTSP/1.0 200 OK\r\nCSeq: 5\r\n\r\n".toByteArray())
+    output.write('$'.code)
+    output.write(1)
+    output.writeInt(report.size.toLong(), 2)
+    output.write(report)
+    val input = BufferedInputStream(ByteArrayInputStream(output.toByteArray()))
+    val response = CommandsManager().getResponse(input, Method.RECORD)
+    assertEquals(200, response.status)
+    assertEquals(5, response.cSeq)
+    receiver.readInterleaved(input)
+    assertEquals(20, receiver.videoReport?.cumulativeLost)
+  }
+
+  @Test
+  fun `GIVEN bye or malformed packet WHEN handle packet THEN notify bye and reject malformed`() {
+    val receiver = RtcpReceiver()
+    var byeSsrc = 0L
+    var byeReason: String? = null
+    receiver.listener = object : RtcpStatsListener {
+      override fun onReceiverReport(report: ReceiverReport) {}
+      override fun onBye(ssrc: Long, reason: String?) {
+        byeSsrc = ssrc
+        byeReason = reason
+      }
+    }
+    val output = ByteArrayOutputStream()
+    output.write(0x80 or 1)
+    output.write(RtcpReceiver.PT_BYE)
+    output.writeInt(2, 2)
+    output.writeInt(serverSsrc)
+    output.write(3)
+    output.write("end".toByteArray())
+    val bye = output.toByteArray()
+    assertTrue(receiver.handlePacket(bye, 0, bye.size))
+    assertEquals(serverSsrc, byeSsrc)
+    assertEquals("end", byeReason)
+    val report = createReceiverReport()
+    assertFalse(receiver.handlePacket(report, 0, report.size - 4))
+    report[0] = 0x40
+    assertFalse(receiver.handlePacket(report, 0, report.size))
+  }
+
+  @Test
+  fun `GIVEN generic nack WHEN handle packet THEN notify each fci entry`() {
+    val receiver = RtcpReceiver()
+    val nacks = mutableListOf<Triple<Long, Int, Int>>()
+    receiver.onNack = { ssrc, pid, blp -> nacks.add(Triple(ssrc, pid, blp)) }
+    val output = ByteArrayOutputStream()
+    output.write(0x80 or 1)
+    output.write(RtcpReceiver.PT_RTPFB)
+    output.writeInt(4, 2)
+    output.writeInt(serverSsrc)
+    output.writeInt(ssrcVideo)
+    output.writeInt(100, 2)
+    output.writeInt(0x0005, 2)
+    output.writeInt(65535, 2)
+    output.writeInt(0, 2)
+    val nack = output.toByteArray()
+    assertTrue(receiver.handlePacket(nack, 0, nack.size))
+    assertEquals(listOf(Triple(ssrcVideo, 100, 5), Triple(ssrcVideo, 65535, 0)), nacks)
+  }
+
+  @Test
+  fun `GIVEN nack with high bit media ssrc WHEN handle packet THEN ssrc match video stream`() {
+    val receiver = RtcpReceiver()
+    //ssrc generated with Random().nextInt() is negative if the high bit is set
+    receiver.setSSRC(0x9A000001.toInt().toLong(), ssrcAudio)
+    val nacks = mutableListOf<Long>()
+    receiver.onNack = { ssrc, _, _ -> if (receiver.isVideoSsrc(ssrc)) nacks.add(ssrc) }
+    val output = ByteArrayOutputStream()
+    output.write(0x80 or 1)
+    output.write(RtcpReceiver.PT_RTPFB)
+    output.writeInt(3, 2)
+    output.writeInt(serverSsrc)
+    output.writeInt(0x9A000001L)
+    output.writeInt(100, 2)
+    output.writeInt(0, 2)
+    val nack = output.toByteArray()
+    assertTrue(receiver.handlePacket(nack, 0, nack.size))
+    assertEquals(listOf(0x9A000001L), nacks)
+  }
+}
\ No newline at end of file
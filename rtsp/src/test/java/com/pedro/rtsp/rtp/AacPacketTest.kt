@@ -52,6 +52,6 @@ class AacPacketTest {
     val expectedSize = RtpConstants.RTP_HEADER_LENGTH + info.size + 4
     val packetResult = RtpFrame(expectedRtp, expectedTimeStamp, expectedSize, 1, 2, RtpConstants.trackAudio)
     assertEquals(1, frames.size)
-    assertEquals(packetResult, frames[0])
+    assertRtpFrameEquals(packetResult, frames[0])
   }
 }
\ No newline at end of file
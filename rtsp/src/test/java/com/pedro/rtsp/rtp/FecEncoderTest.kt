@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp
+
+import android.util.Log
+import com.pedro.rtsp.rtp.packets.FecEncoder
+import com.pedro.rtsp.rtp.packets.FecMask
+import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.rtsp.RtpFramePool
+import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class FecEncoderTest {
+
+  private val header = RtpConstants.RTP_HEADER_LENGTH
+
+  private fun createFrame(seq: Int, payloadLength: Int, marker: Boolean): RtpFrame {
+    val buffer = ByteArray(RtpConstants.MTU)
+    buffer[0] = 0x80.toByte()
+    buffer[1] = ((if (marker) 0x80 else 0) or RtpConstants.payloadType).toByte()
+    buffer[2] = (seq shr 8).toByte()
+    buffer[3] = seq.toByte()
+    buffer[7] = (seq / 4).toByte() //timestamp
+    for (i in 0 until payloadLength) buffer[header + i] = (seq * 31 + i).toByte()
+    return RtpFrame(buffer, seq / 4L, header + payloadLength, 0, 0, RtpConstants.trackVideo)
+  }
+
+  private fun getMask(fec: RtpFrame): Long {
+    val longMask = fec.buffer[header].toInt() and 0x40 != 0
+    val maskLength = if (longMask) 6 else 2
+    var mask = 0L
+    for (i in 0 until maskLength) mask = (mask shl 8) or (fec.buffer[header + 12 + i].toLong() and 0xFF)
+    return mask
+  }
+
+  /**
+   * Recover a packet using a FEC packet and the other packets protected (RFC 5109 section 8).
+   */
+  private fun recover(fec: RtpFrame, received: List<RtpFrame>, lostSeq: Int): ByteArray {
+    val buffer = fec.buffer
+    val longMask = buffer[header].toInt() and 0x40 != 0
+    val payloadOffset = header + 10 + 2 + if (longMask) 6 else 2
+    val recovered = ByteArray(header + fec.length - payloadOffset)
+    recovered[0] = buffer[header]
+    recovered[1] = buffer[header + 1]
+    System.arraycopy(buffer, header + 4, recovered, 4, 4)
+    var length = ((buffer[header + 8].toInt() and 0xFF) shl 8) or (buffer[header + 9].toInt() and 0xFF)
+    System.arraycopy(buffer, payloadOffset, recovered, header, fec.length - payloadOffset)
+    received.forEach { frame ->
+      for (i in 0 until 2) recovered[i] = (recovered[i].toInt() xor frame.buffer[i].toInt()).toByte()
+      for (i in 4 until 8) recovered[i] = (recovered[i].toInt() xor frame.buffer[i].toInt()).toByte()
+      length = length xor (frame.length - header)
+      for (i in header until frame.length) recovered[i] = (recovered[i].toInt() xor frame.buffer[i].toInt()).toByte()
+    }
+    recovered[0] = ((recovered[0].toInt() and 0x3F) or 0x80).toByte()
+    recovered[2] = (lostSeq shr 8).toByte()
+    recovered[3] = lostSeq.toByte()
+    return recovered.copyOf(header + length)
+  }
+
+  @Test
+  fun `GIVEN a frame with row mask WHEN protect THEN recover any lost packet`() {
+    val encoder = FecEncoder(RtpConstants.payloadTypeFecVideo)
+    encoder.setProtection(0.5f, FecMask.ROW)
+    val frames = (0 until 4).map { createFrame(65534 + it and 0xFFFF, 100 + it * 50, it == 3) }
+    val output = ArrayList<RtpFrame>()
+    frames.forEach { encoder.add(it, output) }
+    assertEquals(2, output.size)
+    assertEquals(0xC000L, getMask(output[0]))
+    assertEquals(0x3000L, getMask(output[1]))
+    assertEquals(RtpConstants.payloadTypeFecVideo, output[0].buffer[1].toInt() and 0x7F)
+    val lost = frames[1]
+    val recovered = recover(output[0], listOf(frames[0]), 65535)
+    assertArrayEquals(lost.buffer.copyOf(lost.length), recovered)
+    val lastLost = frames[3]
+    val lastRecovered = recover(output[1], listOf(frames[2]), 1)
+    assertArrayEquals(lastLost.buffer.copyOf(lastLost.length), lastRecovered)
+  }
+
+  @Test
+  fun `GIVEN packets with column mask WHEN protect THEN each fec protects interleaved packets`() {
+    val encoder = FecEncoder(RtpConstants.payloadTypeFecVideo)
+    encoder.setProtection(0.25f, FecMask.COLUMN)
+    val output = ArrayList<RtpFrame>()
+    //the group is not finished until a marker with enough packets for the ratio
+    encoder.add(createFrame(10, 10, true), output)
+    assertEquals(0, output.size)
+    for (seq in 11 until 30) encoder.add(createFrame(seq, 10, seq == 29), output)
+    assertEquals(5, output.size)
+    //20 packets need the long mask
+    assertEquals(0x40, output[0].buffer[header].toInt() and 0x40)
+    //offsets 0, 5, 10 and 15 of the 48 bits mask
+    assertEquals((1L shl 47) or (1L shl 42) or (1L shl 37) or (1L shl 32), getMask(output[0]))
+    val frames = listOf(10, 15, 20, 25).map { createFrame(it, 10, it == 10) }
+    val recovered = recover(output[0], frames.filter { it.timeStamp != 20 / 4L }, 20)
+    assertArrayEquals(frames[2].buffer.copyOf(frames[2].length), recovered)
+  }
+
+  @Test
+  fun `GIVEN a sequence gap WHEN protect THEN flush group with metadata of last packet protected`() {
+    val encoder = FecEncoder(RtpConstants.payloadTypeFecVideo)
+    encoder.setProtection(0.5f, FecMask.ROW)
+    val output = ArrayList<RtpFrame>()
+    for (seq in 0 until 3) encoder.add(createFrame(seq, 10, false), output)
+    assertEquals(0, output.size)
+    val next = createFrame(200, 10, false)
+    val frame = RtpFrame(next.buffer, next.timeStamp, next.length, 5000, 5001, RtpConstants.trackAudio)
+    encoder.add(frame, output)
+    assertEquals(2, output.size)
+    output.forEach {
+      assertEquals(2 / 4L, it.timeStamp)
+      assertEquals(0, it.rtpPort)
+      assertEquals(0, it.rtcpPort)
+      assertEquals(RtpConstants.trackVideo, it.channelIdentifier)
+    }
+  }
+
+  @Test
+  fun `GIVEN invalid ratio WHEN set protection THEN throw exception`() {
+    val encoder = FecEncoder(RtpConstants.payloadTypeFecVideo)
+    val result = runCatching { encoder.setProtection(1.5f, FecMask.ROW) }
+    assertTrue(result.exceptionOrNull() is IllegalArgumentException)
+  }
+
+  /**
+   * After warm up, buffers and frames of FEC packets are reused from the pool. The bytes allocated
+   * per packet are checked if the JVM can measure it.
+   */
+  @Test
+  fun `GIVEN encoder with pool WHEN protect packets in steady state THEN no allocation per packet`() {
+    val pool = RtpFramePool()
+    val encoder = FecEncoder(RtpConstants.payloadTypeFecVideo)
+    encoder.framePool = pool
+    encoder.setProtection(0.25f, FecMask.COLUMN)
+    val frames = (0 until 1000).map { createFrame(it, 1400, it % 20 == 19) }
+    val output = ArrayList<RtpFrame>()
+    var fecPackets = 0L
+    val protect = {
+      frames.forEach { frame ->
+        encoder.add(frame, output)
+        fecPackets += output.size
+        output.forEach { pool.release(it) }
+        output.clear()
+      }
+    }
+    repeat(5) { protect() }
+    val allocations = pool.allocations
+    fecPackets = 0
+    val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    val threadId = Thread.currentThread().id
+    val startBytes = threadBean?.getThreadAllocatedBytes(threadId) ?: 0
+    val iterations = 20
+    repeat(iterations) { protect() }
+    assertEquals(allocations, pool.allocations)
+    assertEquals(iterations * 250L, fecPackets)
+    if (threadBean != null && threadBean.isThreadAllocatedMemorySupported) {
+      val bytesPerPacket = (threadBean.getThreadAllocatedBytes(threadId) - startBytes) / (iterations * frames.size)
+      assertTrue(bytesPerPacket < RtpConstants.MTU / 10)
+    }
+  }
+
+  /**
+   * Benchmark of the encode cost per Mbit protected, reported in the test output. The bound is
+   * only to detect a big regression, a normal encode is a few orders of magnitude faster.
+   */
+  @Test
+  fun `GIVEN encoder WHEN protect packets THEN measure encode cost per Mbit`() {
+    val encoder = FecEncoder(RtpConstants.payloadTypeFecVideo)
+    encoder.setProtection(0.25f, FecMask.COLUMN)
+    val frames = (0 until 1000).map { createFrame(it, 1400, it % 20 == 19) }
+    val output = ArrayList<RtpFrame>()
+    val protect = {
+      frames.forEach { frame ->
+        encoder.add(frame, output)
+        output.clear()
+      }
+    }
+    //warm up
+    repeat(5) { protect() }
+    val iterations = 20
+    val startTime = System.nanoTime()
+    repeat(iterations) { protect() }
+    val elapsed = System.nanoTime() - startTime
+    val bits = iterations * frames.sumOf { it.length.toLong() } * 8
+    val nanosPerMbit = elapsed * 1_000_000 / bits
+    Log.i("FecEncoderTest", "encode cost: $nanosPerMbit ns/Mbit")
+    assertTrue(nanosPerMbit < 100_000_000)
+  }
+}
\ No newline at end of file
@@ -62,8 +62,8 @@ class H264PacketTest {
 
     assertNotEquals(0, frames.size)
     assertTrue(frames.size == 2)
-    assertEquals(expectedStapAResult, frames[0])
-    assertEquals(expectedPacketResult, frames[1])
+    assertRtpFrameEquals(expectedStapAResult, frames[0])
+    assertRtpFrameEquals(expectedPacketResult, frames[1])
   }
 
   @Test
@@ -105,8 +105,81 @@ class H264PacketTest {
 
     assertNotEquals(0, frames.size)
     assertTrue(frames.size == 3)
-    assertEquals(expectedStapAResult, frames[0])
-    assertEquals(expectedPacketResult, frames[1])
-    assertEquals(expectedPacketResult2, frames[2])
+    assertRtpFrameEquals(expectedStapAResult, frames[0])
+    assertRtpFrameEquals(expectedPacketResult, frames[1])
+    assertRtpFrameEquals(expectedPacketResult2, frames[2])
+  }
+
+  @Test
+  fun `GIVEN a ByteBuffer with multiple nal units WHEN create a packet THEN aggregate small nal units, fragment big nal units and mark only the last`() {
+    val aud = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x09, 0xF0.toByte())
+    val sps = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x67, 0x01)
+    val slice1 = byteArrayOf(0x00, 0x00, 0x01, 0x65).plus(ByteArray(100) { 0x11 })
+    val slice2 = byteArrayOf(0x00, 0x00, 0x01, 0x65).plus(ByteArray(2000) { 0x22 })
+    val fakeH264 = aud.plus(sps).plus(slice1).plus(slice2)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 123456789L
+    info.offset = 0
+    info.size = fakeH264.size
+    info.flags = 1
+
+    val h264Packet = H264Packet(byteArrayOf(0x67, 0x01), byteArrayOf(0x68, 0x02))
+    val frames = mutableListOf<RtpFrame>()
+    h264Packet.createAndSendPacket(ByteBuffer.wrap(fakeH264), info) {
+      frames.add(it)
+    }
+
+    val header = RtpConstants.RTP_HEADER_LENGTH
+    //stap-a with sps and pps, stap-a with aud and slice 1 and slice 2 in 2 FU-A, sps is only sent in the first stap-a
+    assertEquals(4, frames.size)
+    assertEquals(24, frames[0].buffer[header].toInt())
+    //STAP-A with the highest NRI
+    assertEquals(24 + 0x60, frames[1].buffer[header].toInt())
+    assertEquals(header + 1 + 2 + 2 + 2 + 101, frames[1].length)
+    assertEquals(2, frames[1].buffer[header + 2].toInt())
+    assertEquals(0x09, frames[1].buffer[header + 3].toInt())
+    assertEquals(101, frames[1].buffer[header + 6].toInt())
+    assertEquals(0x65, frames[1].buffer[header + 7].toInt())
+    assertEquals(0x11, frames[1].buffer[frames[1].length - 1].toInt())
+    assertEquals(28 + 0x60, frames[2].buffer[header].toInt())
+    assertEquals(0x22, frames[3].buffer[frames[3].length - 1].toInt())
+    //FU-A payload is slice 2 without nal header
+    assertEquals(2000, frames[2].length + frames[3].length - 2 * (header + 2))
+    val markers = frames.map { it.buffer[1].toInt() and 0x80 != 0 }
+    assertEquals(listOf(true, false, false, true), markers)
+  }
+
+  @Test
+  fun `GIVEN small nal units bigger than a packet WHEN create a packet THEN split them in multiple STAP-A`() {
+    val slice = byteArrayOf(0x00, 0x00, 0x01, 0x41).plus(ByteArray(599) { 0x33 })
+    val fakeH264 = slice.plus(slice).plus(slice)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 123456789L
+    info.offset = 0
+    info.size = fakeH264.size
+    info.flags = 0
+
+    val h264Packet = H264Packet(byteArrayOf(0x67, 0x01), byteArrayOf(0x68, 0x02))
+    val frames = mutableListOf<RtpFrame>()
+    //start with a keyframe
+    h264Packet.createAndSendPacket(ByteBuffer.wrap(byteArrayOf(0x00, 0x00, 0x01, 0x65, 0x00)), MediaCodec.BufferInfo().apply {
+      size = 5
+      flags = 1
+    }) {}
+    h264Packet.createAndSendPacket(ByteBuffer.wrap(fakeH264), info) {
+      frames.add(it)
+    }
+
+    val header = RtpConstants.RTP_HEADER_LENGTH
+    //2 slices fit in a STAP-A, the last one is sent as single nal unit
+    assertEquals(2, frames.size)
+    assertEquals(24 + 0x40, frames[0].buffer[header].toInt())
+    assertEquals(header + 1 + 2 * (2 + 600), frames[0].length)
+    assertEquals(0x41, frames[1].buffer[header].toInt())
+    assertEquals(header + 600, frames[1].length)
+    val markers = frames.map { it.buffer[1].toInt() and 0x80 != 0 }
+    assertEquals(listOf(false, true), markers)
   }
 }
\ No newline at end of file
@@ -58,7 +58,7 @@ class H265PacketTest {
 
     assertNotEquals(0, frames.size)
     assertTrue(frames.size == 1)
-    assertEquals(expectedPacketResult, frames[0])
+    assertRtpFrameEquals(expectedPacketResult, frames[0])
   }
 
   @Test
@@ -96,7 +96,48 @@ class H265PacketTest {
 
     assertNotEquals(0, frames.size)
     assertTrue(frames.size == 2)
-    assertEquals(expectedPacketResult, frames[0])
-    assertEquals(expectedPacketResult2, frames[1])
+    assertRtpFrameEquals(expectedPacketResult, frames[0])
+    assertRtpFrameEquals(expectedPacketResult2, frames[1])
+  }
+
+  @Test
+  fun `GIVEN a ByteBuffer with multiple nal units WHEN create a packet THEN aggregate small nal units in an AP and mark only the last`() {
+    val vps = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x40, 0x01, 0x0C)
+    val sps = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x42, 0x01, 0x01)
+    val pps = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x44, 0x01, 0x0C)
+    val slice1 = byteArrayOf(0x00, 0x00, 0x01, 0x26, 0x01).plus(ByteArray(100) { 0x11 })
+    val slice2 = byteArrayOf(0x00, 0x00, 0x01, 0x26, 0x01).plus(ByteArray(2000) { 0x22 })
+    val fakeH265 = vps.plus(sps).plus(pps).plus(slice1).plus(slice2)
+
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = 123456789L
+    info.offset = 0
+    info.size = fakeH265.size
+    info.flags = 1
+
+    val h265Packet = H265Packet()
+    val frames = mutableListOf<RtpFrame>()
+    h265Packet.createAndSendPacket(ByteBuffer.wrap(fakeH265), info) {
+      frames.add(it)
+    }
+
+    val header = RtpConstants.RTP_HEADER_LENGTH
+    //AP with vps, sps, pps and slice 1 and slice 2 in 2 FU
+    assertEquals(3, frames.size)
+    assertEquals(48 shl 1, frames[0].buffer[header].toInt())
+    assertEquals(1, frames[0].buffer[header + 1].toInt())
+    assertEquals(header + 2 + 3 * (2 + 3) + 2 + 102, frames[0].length)
+    assertEquals(3, frames[0].buffer[header + 3].toInt())
+    assertEquals(0x40, frames[0].buffer[header + 4].toInt())
+    assertEquals(0x42, frames[0].buffer[header + 9].toInt())
+    assertEquals(0x44, frames[0].buffer[header + 14].toInt())
+    assertEquals(102, frames[0].buffer[header + 18].toInt())
+    assertEquals(0x26, frames[0].buffer[header + 19].toInt())
+    assertEquals(0x11, frames[0].buffer[frames[0].length - 1].toInt())
+    assertEquals(49 shl 1, frames[1].buffer[header].toInt())
+    assertEquals(19 + 0x80, frames[1].buffer[header + 2].toInt() and 0xFF)
+    assertEquals(0x22, frames[2].buffer[frames[2].length - 1].toInt())
+    val markers = frames.map { it.buffer[1].toInt() and 0x80 != 0 }
+    assertEquals(listOf(false, false, true), markers)
   }
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp
+
+import com.pedro.rtsp.rtsp.RtpFrame
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * RtpFrame equality is by identity, compare the packet content and info.
+ */
+fun assertRtpFrameEquals(expected: RtpFrame, actual: RtpFrame) {
+  assertEquals(expected.toString(), actual.toString())
+  assertArrayEquals(expected.buffer.copyOf(expected.length), actual.buffer.copyOf(actual.length))
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp
+
+import com.pedro.rtsp.rtp.sockets.RtpSocketTcp
+import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.utils.RtpConstants
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class RtpSocketTcpTest {
+
+  private fun createFrame(value: Int, length: Int): RtpFrame {
+    val buffer = ByteArray(RtpConstants.MTU) { value.toByte() }
+    return RtpFrame(buffer, 0, length, 0, 1, RtpConstants.trackVideo)
+  }
+
+  @Test
+  fun `GIVEN buffered tcp socket WHEN send fragments of a frame THEN write all packets interleaved once at the end of the frame`() = runBlocking {
+    var writes = 0
+    var flushes = 0
+    val output = object : ByteArrayOutputStream() {
+      override fun write(b: ByteArray, off: Int, len: Int) {
+        writes++
+        super.write(b, off, len)
+      }
+
+      override fun flush() {
+        flushes++
+      }
+    }
+    val rtpSocket = RtpSocketTcp()
+    rtpSocket.setDataStream(BufferedOutputStream(output, 64 * 1024), "127.0.0.1")
+    val lastFragment = createFrame(2, 5)
+    //marker bit, end of access unit
+    lastFragment.buffer[1] = 0x82.toByte()
+    rtpSocket.sendFrames(listOf(createFrame(1, 10)), false)
+    assertEquals(0, writes)
+    rtpSocket.sendFrames(listOf(lastFragment), false)
+    assertEquals(1, writes)
+    assertEquals(1, flushes)
+    val expected = byteArrayOf('$'.code.toByte(), 0, 0, 10).plus(ByteArray(10) { 1 })
+      .plus(byteArrayOf('$'.code.toByte(), 0, 0, 5)).plus(lastFragment.buffer.copyOf(5))
+    assertArrayEquals(expected, output.toByteArray())
+  }
+}
\ No newline at end of file
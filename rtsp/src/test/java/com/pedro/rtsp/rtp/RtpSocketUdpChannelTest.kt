@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp
+
+import com.pedro.rtsp.rtp.sockets.RtpSocketUdpChannel
+import com.pedro.rtsp.rtsp.RtpFrame
+import com.pedro.rtsp.utils.RtpConstants
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class RtpSocketUdpChannelTest {
+
+  private fun createFrame(value: Int, length: Int, port: Int, track: Int): RtpFrame {
+    //pooled buffers are bigger than the packet
+    val buffer = ByteArray(RtpConstants.MTU) { value.toByte() }
+    return RtpFrame(buffer, 0, length, port, port + 1, track)
+  }
+
+  @Test
+  fun `GIVEN fragments of a frame WHEN send frames THEN receive each packet with its length`() = runBlocking {
+    val server = DatagramChannel.open().bind(InetSocketAddress("127.0.0.1", 0))
+    val port = (server.localAddress as InetSocketAddress).port
+    val rtpSocket = RtpSocketUdpChannel(0, 0, 64 * 1024)
+    try {
+      rtpSocket.setDataStream(ByteArrayOutputStream(), "127.0.0.1")
+      val frames = listOf(
+        createFrame(1, 1200, port, RtpConstants.trackVideo),
+        createFrame(2, 1200, port, RtpConstants.trackVideo),
+        createFrame(3, 300, port, RtpConstants.trackVideo)
+      )
+      rtpSocket.sendFrames(frames, false)
+      rtpSocket.sendFrame(createFrame(4, 100, port, RtpConstants.trackAudio), false)
+      val buffer = ByteBuffer.allocate(RtpConstants.MTU)
+      listOf(1 to 1200, 2 to 1200, 3 to 300, 4 to 100).forEach { (value, length) ->
+        buffer.clear()
+        server.receive(buffer)
+        assertEquals(length, buffer.position())
+        assertArrayEquals(ByteArray(length) { value.toByte() }, buffer.array().copyOf(length))
+      }
+    } finally {
+      rtpSocket.close()
+      server.close()
+    }
+  }
+}
\ No newline at end of file
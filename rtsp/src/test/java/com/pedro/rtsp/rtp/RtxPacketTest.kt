@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtp
+
+import com.pedro.rtsp.rtp.packets.RtpHistory
+import com.pedro.rtsp.rtp.packets.RtxPacket
+import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class RtxPacketTest {
+
+  private fun createPacket(seq: Int, payloadLength: Int): ByteArray {
+    val packet = ByteArray(RtpConstants.RTP_HEADER_LENGTH + payloadLength) { (it % 100).toByte() }
+    packet[0] = 0x80.toByte()
+    packet[1] = (0x80 or RtpConstants.payloadType).toByte()
+    packet[2] = (seq shr 8).toByte()
+    packet[3] = seq.toByte()
+    return packet
+  }
+
+  @Test
+  fun `GIVEN packets in history WHEN copy THEN get only packets not overwritten`() {
+    val history = RtpHistory(3)
+    val output = ByteArray(RtpConstants.MTU)
+    for (seq in 65534..65541) history.add(createPacket(seq and 0xFFFF, 10), RtpConstants.RTP_HEADER_LENGTH + 10)
+    //capacity rounded to 4, only last 4 packets are saved
+    assertEquals(0, history.copy(65535, output))
+    assertEquals(0, history.copy(1, output))
+    assertEquals(RtpConstants.RTP_HEADER_LENGTH + 10, history.copy(2, output))
+    assertArrayEquals(createPacket(5, 10).copyOfRange(4, 22), output.copyOfRange(4, 22))
+    history.clear()
+    assertEquals(0, history.copy(5, output))
+  }
+
+  @Test
+  fun `GIVEN original packet WHEN create rtx THEN get rtx header with osn and original payload`() {
+    val rtxPacket = RtxPacket(RtpConstants.payloadTypeRtx)
+    rtxPacket.setSSRC(0x01020304)
+    val original = createPacket(0x1234, 20)
+    val buffer = ByteArray(RtpConstants.MTU)
+    val length = rtxPacket.create(original, original.size, buffer)
+    val header = RtpConstants.RTP_HEADER_LENGTH
+    assertEquals(original.size + 2, length)
+    assertEquals(0x80 or RtpConstants.payloadTypeRtx, buffer[1].toInt() and 0xFF)
+    assertArrayEquals(original.copyOfRange(4, 8), buffer.copyOfRange(4, 8))
+    assertArrayEquals(byteArrayOf(1, 2, 3, 4), buffer.copyOfRange(8, 12))
+    assertArrayEquals(byteArrayOf(0x12, 0x34), buffer.copyOfRange(header, header + 2))
+    assertArrayEquals(original.copyOfRange(header, original.size), buffer.copyOfRange(header + 2, length))
+    //rtx stream has its own consecutive sequence numbers
+    val seq = (buffer[2].toInt() and 0xFF shl 8) or (buffer[3].toInt() and 0xFF)
+    rtxPacket.create(original, original.size, buffer)
+    assertEquals((seq + 1) and 0xFFFF, (buffer[2].toInt() and 0xFF shl 8) or (buffer[3].toInt() and 0xFF))
+  }
+}
\ No newline at end of file
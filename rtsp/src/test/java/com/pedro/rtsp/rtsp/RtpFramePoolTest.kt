@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.rtsp
+
+import android.media.MediaCodec
+import com.pedro.rtsp.rtp.packets.H264Packet
+import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class RtpFramePoolTest {
+
+  private val keyFrame = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x65).plus(ByteArray(200_000) { it.toByte() })
+  private val interFrame = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x41).plus(ByteArray(20_000) { it.toByte() })
+
+  @Test
+  fun `GIVEN released frame WHEN get buffer and frame THEN reuse it`() {
+    val pool = RtpFramePool()
+    val buffer = pool.getBuffer(100)
+    assertEquals(RtpConstants.MTU, buffer.size)
+    val frame = pool.getFrame(buffer, 1, 100, 2, 3, RtpConstants.trackVideo)
+    assertEquals(2L, pool.allocations)
+    pool.release(frame)
+    val reusedBuffer = pool.getBuffer(200)
+    val reusedFrame = pool.getFrame(reusedBuffer, 4, 200, 2, 3, RtpConstants.trackAudio)
+    assertSame(buffer, reusedBuffer)
+    assertSame(frame, reusedFrame)
+    assertEquals(200, reusedFrame.length)
+    assertEquals(4L, reusedFrame.timeStamp)
+    assertEquals(2L, pool.allocations)
+    //bigger than MTU is never reused
+    val bigFrame = pool.getFrame(pool.getBuffer(RtpConstants.MTU + 1), 0, RtpConstants.MTU + 1, 2, 3, RtpConstants.trackVideo)
+    pool.release(bigFrame)
+    assertNotSame(bigFrame.buffer, pool.getBuffer(RtpConstants.MTU + 1))
+  }
+
+  /**
+   * After warm up, the packetizer with the pool doesn't allocate buffers or frames per RTP packet.
+   * The bytes allocated per packet are checked if the JVM can measure it.
+   */
+  @Test
+  fun `GIVEN h264 packetizer with pool WHEN packetize frames in steady state THEN no allocation per packet`() {
+    val pool = RtpFramePool()
+    val h264Packet = H264Packet(byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x67, 0x01), byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x68, 0x02))
+    h264Packet.framePool = pool
+    val info = MediaCodec.BufferInfo()
+    var packets = 0L
+    val packetize = { frame: ByteArray, timeUs: Long ->
+      info.presentationTimeUs = timeUs
+      info.offset = 0
+      info.size = frame.size
+      info.flags = if (frame === keyFrame) MediaCodec.BUFFER_FLAG_KEY_FRAME else 0
+      h264Packet.createAndSendPacket(ByteBuffer.wrap(frame), info) { rtpFrame ->
+        packets++
+        pool.release(rtpFrame)
+      }
+    }
+    //warm up
+    for (i in 0 until 60) packetize(if (i % 30 == 0) keyFrame else interFrame, i * 33_333L)
+    val allocations = pool.allocations
+    packets = 0
+    val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    val threadId = Thread.currentThread().id
+    val startBytes = threadBean?.getThreadAllocatedBytes(threadId) ?: 0
+    for (i in 0 until 600) packetize(if (i % 30 == 0) keyFrame else interFrame, i * 33_333L)
+    assertEquals(allocations, pool.allocations)
+    assertTrue(packets > 0)
+    if (threadBean != null && threadBean.isThreadAllocatedMemorySupported) {
+      val bytesPerPacket = (threadBean.getThreadAllocatedBytes(threadId) - startBytes) / packets
+      //without pool each packet allocates a MTU buffer and a frame
+      assertTrue(bytesPerPacket < RtpConstants.MTU / 10)
+    }
+  }
+}
\ No newline at end of file
@@ -18,6 +18,7 @@ package com.pedro.rtsp.rtsp
 
 import com.pedro.rtsp.rtsp.commands.SdpBody
 import com.pedro.rtsp.utils.RtpConstants
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Test
 
@@ -80,4 +81,33 @@ class SdpBodyTest {
     assertTrue(result.contains(expectedPayload))
     assertTrue(result.contains(expectedTrack))
   }
+
+  @Test
+  fun `GIVEN h264 info with rtx WHEN create h264 body THEN get rtx and nack attributes`() {
+    val track = 1
+    val payload = RtpConstants.payloadType + track
+    val rtx = RtpConstants.payloadTypeRtx
+
+    val result = SdpBody.createH264Body(track, "abcd1234", "efgh5678", rtx = true)
+    assertTrue(result.contains("m=video 0 RTP/AVPF $payload $rtx\r\n"))
+    assertTrue(result.contains("a=rtcp-fb:$payload nack\r\n"))
+    assertTrue(result.contains("a=rtpmap:$rtx rtx/${RtpConstants.clockVideoFrequency}\r\n"))
+    assertTrue(result.contains("a=fmtp:$rtx apt=$payload\r\n"))
+    assertFalse(SdpBody.createH264Body(track, "abcd1234", "efgh5678").contains("rtx"))
+    assertTrue(SdpBody.createH264Body(track, "abcd1234", "efgh5678").contains("m=video 0 RTP/AVP $payload\r\n"))
+  }
+
+  @Test
+  fun `GIVEN fec enabled WHEN create bodies THEN get ulpfec payload of each stream`() {
+    val videoFec = RtpConstants.payloadTypeFecVideo
+    val audioFec = RtpConstants.payloadTypeFecAudio
+
+    val video = SdpBody.createH265Body(0, "abcd1234", "efgh5678", "ijk90", rtx = false, fec = true)
+    assertTrue(video.contains("m=video 0 RTP/AVP ${RtpConstants.payloadType} $videoFec\r\n"))
+    assertTrue(video.contains("a=rtpmap:$videoFec ulpfec/${RtpConstants.clockVideoFrequency}\r\n"))
+    val audio = SdpBody.createAacBody(1, 44100, true, fec = true)
+    assertTrue(audio.contains("m=audio 0 RTP/AVP ${RtpConstants.payloadType + 1} $audioFec\r\n"))
+    assertTrue(audio.contains("a=rtpmap:$audioFec ulpfec/44100\r\n"))
+    assertFalse(SdpBody.createG711Body(1, 8000, false).contains("ulpfec"))
+  }
 }
\ No newline at end of file
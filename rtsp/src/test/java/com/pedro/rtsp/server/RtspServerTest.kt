@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.rtsp.server
+
+import android.media.MediaCodec
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.DataInputStream
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.Socket
+import java.nio.ByteBuffer
+import java.util.regex.Pattern
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class RtspServerTest {
+
+  private val server = RtspServer(0)
+  private val sps = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x67, 0x42, 0x00, 0x1F)
+  private val pps = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x68, 0xCE.toByte(), 0x3C, 0x80.toByte())
+
+  private class Player(port: Int) {
+    val socket = Socket("127.0.0.1", port).apply { soTimeout = 5000 }
+    val input = DataInputStream(socket.getInputStream())
+    private var cSeq = 0
+    var session = ""
+
+    fun request(method: String, url: String, headers: String = ""): String {
+      val request = "$method $url RTSP/1.0\r\nCSeq: ${++cSeq}\r\n" +
+          (if (session.isEmpty()) "" else "Session: $session\r\n") + headers + "\r\n"
+      socket.getOutputStream().write(request.toByteArray())
+      val response = StringBuilder()
+      while (!response.endsWith("\r\n\r\n")) response.append(input.read().toChar())
+      val lengthMatcher = Pattern.compile("Content-Length: (\\d+)").matcher(response)
+      if (lengthMatcher.find()) {
+        val body = ByteArray(lengthMatcher.group(1)!!.toInt())
+        input.readFully(body)
+        response.append(String(body))
+      }
+      val sessionMatcher = Pattern.compile("Session: (\\w+)").matcher(response)
+      if (sessionMatcher.find()) session = sessionMatcher.group(1)!!
+      return response.toString()
+    }
+
+    /**
+     * @return rtp packet received in an interleaved channel. RTCP packets (odd channels) are skipped.
+     */
+    fun readInterleaved(): Pair<Int, ByteArray> {
+      while (true) {
+        assertEquals('$'.code, input.read())
+        val channel = input.read()
+        val packet = ByteArray(input.readUnsignedShort())
+        input.readFully(packet)
+        if (channel % 2 == 0) return Pair(channel, packet)
+      }
+    }
+
+    fun close() {
+      socket.close()
+    }
+  }
+
+  @Before
+  fun setup() {
+    server.setOnlyVideo(true)
+    server.setVideoInfo(ByteBuffer.wrap(sps), ByteBuffer.wrap(pps), null)
+    server.setLogs(false)
+    server.startServer()
+  }
+
+  @After
+  fun tearDown() {
+    server.stopServer()
+  }
+
+  private fun sendVideo(isKeyFrame: Boolean, timestamp: Long) {
+    val frame = byteArrayOf(0x00, 0x00, 0x00, 0x01, if (isKeyFrame) 0x65 else 0x41).plus(ByteArray(100) { 0x11 })
+    val info = MediaCodec.BufferInfo()
+    info.presentationTimeUs = timestamp
+    info.offset = 0
+    info.size = frame.size
+    info.flags = if (isKeyFrame) 1 else 0
+    server.sendVideo(ByteBuffer.wrap(frame), info)
+  }
+
+  private fun waitPlaying(clients: Int) {
+    val endTime = System.currentTimeMillis() + 5000
+    while (server.getClients().count { it.isPlaying } < clients && System.currentTimeMillis() < endTime) {
+      Thread.sleep(10)
+    }
+    assertEquals(clients, server.getClients().count { it.isPlaying })
+  }
+
+  @Test
+  fun `GIVEN multiple players in TCP mode WHEN send frames THEN all players receive the same packets starting from a keyframe`() {
+    val url = "rtsp://127.0.0.1:${server.localPort}/live"
+    val players = listOf(Player(server.localPort), Player(server.localPort))
+    players.forEach { player ->
+      assertTrue(player.request("OPTIONS", url).startsWith("RTSP/1.0 200 OK"))
+      val describe = player.request("DESCRIBE", url, "Accept: application/sdp\r\n")
+      assertTrue(describe.startsWith("RTSP/1.0 200 OK"))
+      assertTrue(describe.contains("a=rtpmap:96 H264/90000"))
+      assertTrue(describe.contains("a=control:streamid=0"))
+      val setup = player.request("SETUP", "$url/streamid=0", "Transport: RTP/AVP/TCP;unicast;interleaved=0-1\r\n")
+      assertTrue(setup.startsWith("RTSP/1.0 200 OK"))
+      assertTrue(setup.contains("interleaved=0-1"))
+      assertTrue(player.request("PLAY", url).startsWith("RTSP/1.0 200 OK"))
+    }
+    waitPlaying(2)
+    //players can't decode it without keyframe
+    sendVideo(false, 1000)
+    sendVideo(true, 2000)
+    sendVideo(false, 3000)
+
+    val received = players.map { player ->
+      List(3) { player.readInterleaved() }
+    }
+    received.forEach { packets ->
+      assertEquals(listOf(0, 0, 0), packets.map { it.first })
+      //stap-a with sps and pps, keyframe and inter frame
+      assertEquals(24, packets[0].second[12].toInt() and 0x1F)
+      assertEquals(5, packets[1].second[12].toInt() and 0x1F)
+      assertEquals(1, packets[2].second[12].toInt() and 0x1F)
+    }
+    //packets are created once so are the same for all players
+    for (i in 0 until 3) {
+      assertTrue(received[0][i].second.contentEquals(received[1][i].second))
+    }
+    players.forEach { it.close() }
+  }
+
+  @Test
+  fun `GIVEN a player in UDP mode WHEN send frames THEN receive packets in the client port`() {
+    val url = "rtsp://127.0.0.1:${server.localPort}/live"
+    val rtpSocket = DatagramSocket(0).apply { soTimeout = 5000 }
+    val player = Player(server.localPort)
+    player.request("DESCRIBE", url)
+    val clientPort = rtpSocket.localPort
+    val setup = player.request("SETUP", "$url/streamid=0",
+      "Transport: RTP/AVP;unicast;client_port=$clientPort-${clientPort + 1}\r\n")
+    assertTrue(setup.startsWith("RTSP/1.0 200 OK"))
+    assertTrue(setup.contains("server_port="))
+    assertTrue(player.request("PLAY", url).startsWith("RTSP/1.0 200 OK"))
+    waitPlaying(1)
+    sendVideo(true, 1000)
+
+    val packet = DatagramPacket(ByteArray(1500), 1500)
+    rtpSocket.receive(packet)
+    assertEquals(96, packet.data[1].toInt() and 0x7F)
+    assertEquals(24, packet.data[12].toInt() and 0x1F)
+    rtpSocket.receive(packet)
+    assertEquals(5, packet.data[12].toInt() and 0x1F)
+    player.close()
+    rtpSocket.close()
+  }
+
+  @Test
+  fun `GIVEN invalid requests WHEN send it to the server THEN get error responses`() {
+    val url = "rtsp://127.0.0.1:${server.localPort}/live"
+    val player = Player(server.localPort)
+    //audio is disabled
+    assertTrue(player.request("SETUP", "$url/streamid=1", "Transport: RTP/AVP/TCP;unicast;interleaved=2-3\r\n")
+      .startsWith("RTSP/1.0 404"))
+    assertTrue(player.request("SETUP", "$url/streamid=0", "Transport: RAW/RAW/UDP\r\n").startsWith("RTSP/1.0 461"))
+    assertTrue(player.request("PLAY", url).startsWith("RTSP/1.0 455"))
+    assertTrue(player.request("RECORD", url).startsWith("RTSP/1.0 501"))
+    assertTrue(player.request("TEARDOWN", url).startsWith("RTSP/1.0 200"))
+    player.close()
+  }
+}
\ No newline at end of file
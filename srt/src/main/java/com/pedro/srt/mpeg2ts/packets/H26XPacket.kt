@@ -19,6 +19,8 @@ package com.pedro.srt.mpeg2ts.packets
 import android.media.MediaCodec
 import android.os.Build
 import android.util.Log
+import com.pedro.common.NalScanner
+import com.pedro.common.VideoCodec
 import com.pedro.common.removeInfo
 import com.pedro.srt.mpeg2ts.Codec
 import com.pedro.srt.mpeg2ts.MpegTsPacket
@@ -27,7 +29,6 @@ import com.pedro.srt.mpeg2ts.Pes
 import com.pedro.srt.mpeg2ts.PesType
 import com.pedro.srt.mpeg2ts.psi.PsiManager
 import com.pedro.srt.srt.packets.data.PacketPosition
-import com.pedro.srt.utils.startWith
 import com.pedro.srt.utils.toByteArray
 import java.nio.ByteBuffer
 
@@ -47,8 +48,15 @@ class H26XPacket(
   private var pps: ByteArray? = null
   private var vps: ByteArray? = null
   private var codec = Codec.AVC
+  private var scanner = NalScanner(VideoCodec.H264)
+  private val audAvc = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x09, 0xf0.toByte())
+  private val audHevc = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x46, 0x01, 0x50)
   private var configSend = false
 
+  companion object {
+    private const val START_CODE_SIZE = 4
+  }
+
   override fun createAndSendPacket(
     byteBuffer: ByteBuffer,
     info: MediaCodec.BufferInfo,
@@ -79,9 +87,7 @@ class H26XPacket(
         return
       }
     }
-    val validBuffer = fixHeader(fixedBuffer, isKeyFrame)
-    val payload = ByteArray(validBuffer.remaining())
-    validBuffer.get(payload, 0, validBuffer.remaining())
+    val payload = createPayload(fixedBuffer, isKeyFrame)
 
     val pes = Pes(psiManager.getVideoPid().toInt(), isKeyFrame, PesType.VIDEO, info.presentationTimeUs, ByteBuffer.wrap(payload))
     val mpeg2tsPackets = mpegTsPacketizer.write(listOf(pes))
@@ -110,6 +116,7 @@ class H26XPacket(
 
   fun setVideoCodec(codec: Codec) {
     this.codec = codec
+    scanner = NalScanner(if (codec == Codec.HEVC) VideoCodec.H265 else VideoCodec.H264)
   }
 
   fun sendVideoInfo(sps: ByteBuffer, pps: ByteBuffer, vps: ByteBuffer?) {
@@ -121,47 +128,45 @@ class H26XPacket(
   /**
    * Doing video header check sanity.
    *
-   * Remove all header video info if necessary, make sure buffer start with prefix and add video info to first keyframe
+   * Copy all NAL units with a 4 bytes start code. In keyframes, video info in the buffer is replaced
+   * by an AUD and the video info (the buffer is only copied once).
    */
-  private fun fixHeader(byteBuffer: ByteBuffer, isKeyFrame: Boolean): ByteBuffer {
-    var noHeaderBuffer = removeHeader(byteBuffer, isKeyFrame) //remove video info header
-    val startCodeSize = getStartCodeSize(noHeaderBuffer)
-    if (startCodeSize == 0) { //make sure buffer start with prefix
-      val bufferWithPrefix = ByteBuffer.allocate(noHeaderBuffer.remaining() + 4)
-      bufferWithPrefix.putInt(0x00000001)
-      bufferWithPrefix.put(noHeaderBuffer)
-      noHeaderBuffer = bufferWithPrefix
+  private fun createPayload(byteBuffer: ByteBuffer, isKeyFrame: Boolean): ByteArray {
+    val vps = this.vps ?: byteArrayOf()
+    val sps = this.sps ?: byteArrayOf()
+    val pps = this.pps ?: byteArrayOf()
+    val aud = if (codec == Codec.AVC) audAvc else audHevc
+    var size = if (isKeyFrame) aud.size + vps.size + sps.size + pps.size else 0
+    scanner.reset(byteBuffer)
+    while (true) {
+      val nal = scanner.next() ?: break
+      if (isKeyFrame && (nal.isParameterSet() || nal.isAud())) continue
+      size += START_CODE_SIZE + nal.length
     }
-    return if (isKeyFrame) { //add video info to first keyframe
-      val vps = this.vps ?: byteArrayOf()
-      val sps = this.sps ?: byteArrayOf()
-      val pps = this.pps ?: byteArrayOf()
-      val audSize = if (codec == Codec.AVC) 6 else 7
-      val videoHeader = vps.plus(sps).plus(pps)
-      val validBuffer = ByteBuffer.allocate(audSize + videoHeader.size + noHeaderBuffer.remaining())
-      validBuffer.putInt(0x00000001)
-      if (codec == Codec.AVC) {
-        validBuffer.put(0x09.toByte())
-        validBuffer.put(0xf0.toByte())
-      } else {
-        validBuffer.put(0x46.toByte())
-        validBuffer.put(0x01.toByte())
-        validBuffer.put(0x50.toByte())
+    val payload = ByteArray(size)
+    var offset = 0
+    if (isKeyFrame) { //add video info to keyframe
+      for (data in arrayOf(aud, vps, sps, pps)) {
+        System.arraycopy(data, 0, payload, offset, data.size)
+        offset += data.size
       }
-      validBuffer.put(videoHeader)
-      validBuffer.put(noHeaderBuffer.toByteArray())
-      validBuffer.rewind()
       configSend = true
-      validBuffer
-    } else {
-      noHeaderBuffer.rewind()
-      noHeaderBuffer
     }
+    scanner.reset(byteBuffer)
+    while (true) {
+      val nal = scanner.next() ?: break
+      if (isKeyFrame && (nal.isParameterSet() || nal.isAud())) continue
+      payload[offset + START_CODE_SIZE - 1] = 0x01
+      byteBuffer.position(nal.offset)
+      byteBuffer.get(payload, offset + START_CODE_SIZE, nal.length)
+      offset += START_CODE_SIZE + nal.length
+    }
+    return payload
   }
 
   private fun getVideoInfoData(byteBuffer: ByteBuffer): ByteArray {
     byteBuffer.rewind()
-    val startCodeSize = getStartCodeSize(byteBuffer)
+    val startCodeSize = NalScanner.getStartCodeSize(byteBuffer, 0, byteBuffer.limit())
     return if (startCodeSize == 0) { //make sure video info start with prefix
       val validBuffer = ByteBuffer.allocate(byteBuffer.remaining() + 4)
       validBuffer.putInt(0x00000001)
@@ -171,50 +176,4 @@ class H26XPacket(
       byteBuffer.toByteArray()
     }
   }
-
-  private fun removeHeader(byteBuffer: ByteBuffer, isKeyFrame: Boolean): ByteBuffer {
-      if (isKeyFrame) {
-        var validBuffer = byteBuffer
-        val vps = this.vps ?: byteArrayOf()
-        val sps = this.sps ?: byteArrayOf()
-        val pps = this.pps ?: byteArrayOf()
-        if (vps.isNotEmpty()) {
-          if (validBuffer.startWith(vps)) {
-            validBuffer.position(vps.size)
-            validBuffer = validBuffer.slice()
-          }
-        }
-        if (sps.isNotEmpty()) {
-          if (validBuffer.startWith(sps)) {
-            validBuffer.position(sps.size)
-            validBuffer = validBuffer.slice()
-          }
-        }
-        if (pps.isNotEmpty()) {
-          if (validBuffer.startWith(pps)) {
-            validBuffer.position(pps.size)
-            validBuffer = validBuffer.slice()
-          }
-        }
-        validBuffer.rewind()
-        return validBuffer
-      } else {
-        byteBuffer.rewind()
-        return byteBuffer
-      }
-  }
-
-  private fun getStartCodeSize(byteBuffer: ByteBuffer): Int {
-    var startCodeSize = 0
-    if (byteBuffer.get(0).toInt() == 0x00 && byteBuffer.get(1).toInt() == 0x00
-      && byteBuffer.get(2).toInt() == 0x00 && byteBuffer.get(3).toInt() == 0x01) {
-      //match 00 00 00 01
-      startCodeSize = 4
-    } else if (byteBuffer.get(0).toInt() == 0x00 && byteBuffer.get(1).toInt() == 0x00
-      && byteBuffer.get(2).toInt() == 0x01) {
-      //match 00 00 01
-      startCodeSize = 3
-    }
-    return startCodeSize
-  }
 }
\ No newline at end of file
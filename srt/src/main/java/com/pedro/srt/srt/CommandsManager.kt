@@ -22,10 +22,14 @@ import com.pedro.srt.mpeg2ts.MpegTsPacket
 import com.pedro.srt.srt.packets.DataPacket
 import com.pedro.srt.srt.packets.SrtPacket
 import com.pedro.srt.srt.packets.control.Ack2
+import com.pedro.srt.srt.packets.control.DropReq
 import com.pedro.srt.srt.packets.control.KeepAlive
+import com.pedro.srt.srt.packets.control.KeyMaterial
 import com.pedro.srt.srt.packets.control.Shutdown
 import com.pedro.srt.srt.packets.control.handshake.EncryptionType
 import com.pedro.srt.srt.packets.control.handshake.Handshake
+import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionType
+import com.pedro.srt.srt.packets.control.handshake.extension.KeyMaterialMessage
 import com.pedro.srt.utils.EncryptInfo
 import com.pedro.srt.srt.packets.data.KeyBasedEncryption
 import com.pedro.srt.utils.Constants
@@ -42,8 +46,10 @@ import kotlin.random.Random
 class CommandsManager {
 
   private val TAG = "CommandsManager"
-  //used for packet lost
-  private val packetHandlingQueue = mutableListOf<DataPacket>()
+  //packets sent waiting for ACK, used for packet lost
+  private val sendBuffer = SendBuffer()
+  val congestionControl = LiveCongestionControl()
+  val stats = SrtStatsCollector()
 
   var sequenceNumber: Int = generateInitialSequence()
   var messageNumber = 1
@@ -53,12 +59,50 @@ class CommandsManager {
   var audioDisabled = false
   var videoDisabled = false
   var host = ""
+  //TSBPD delay negotiated in ms, packets older than it are dropped by the receiver
+  var latency = DEFAULT_LATENCY
+  //receiver drops packets that arrive after TSBPD delay (TLPKTDROP), we can drop them too
+  var tooLatePacketDrop = false
+  @Volatile
+  var droppedPackets = 0L
+    private set
+  @Volatile
+  var droppedBytes = 0L
+    private set
   //Avoid write a packet in middle of other.
   private val writeSync = Mutex(locked = false)
   private var encryptor: EncryptionUtil? = null
+  private var keyRefreshRate = EncryptionUtil.DEFAULT_REFRESH_RATE
+  private var keyPreAnnounce = EncryptionUtil.DEFAULT_PRE_ANNOUNCE
+  //key material refresh sent and waiting for the response of the receiver
+  private var keyMaterial: KeyMaterial? = null
+  private var keyMaterialTime = 0L
+  private var keyMaterialRetries = 0
+
+  companion object {
+    const val DEFAULT_LATENCY = 120
+    //like libsrt, packets are kept at least 1 second plus 2 ACK intervals if the receiver wait for them
+    private const val MIN_DROP_THRESHOLD = 1000
+    private const val ACK_INTERVAL = 10
+    //margin over latency to drop too late packets, clock drift between peers
+    private const val TOO_LATE_MARGIN = 2 * ACK_INTERVAL
+    //key material refresh is sent again until the receiver respond it
+    private const val KEY_MATERIAL_RETRY_INTERVAL = 500
+    private const val KEY_MATERIAL_MAX_RETRIES = 10
+  }
 
   fun setPassphrase(passphrase: String, type: EncryptionType) {
-    encryptor = if (passphrase.isEmpty() || type == EncryptionType.NONE) null else EncryptionUtil(type, passphrase)
+    encryptor = if (passphrase.isEmpty() || type == EncryptionType.NONE) null else EncryptionUtil(type, passphrase).apply {
+      setKeyRefreshRate(keyRefreshRate, keyPreAnnounce)
+    }
+  }
+
+  @Throws(IllegalArgumentException::class)
+  fun setKeyRefreshRate(refreshRate: Int, preAnnounce: Int) {
+    EncryptionUtil.checkKeyRefreshRate(refreshRate, preAnnounce)
+    encryptor?.setKeyRefreshRate(refreshRate, preAnnounce)
+    keyRefreshRate = refreshRate
+    keyPreAnnounce = preAnnounce
   }
 
   fun getEncryptInfo(): EncryptInfo? {
@@ -104,42 +148,123 @@ class CommandsManager {
   suspend fun writeData(packet: MpegTsPacket, socket: SrtSocket?): Int {
     writeSync.withLock {
       if (sequenceNumber.toUInt() > 0x7FFFFFFFu) sequenceNumber = 0
+      val encryptor = encryptor
       val dataPacket = DataPacket(
-        encryption = if (encryptor != null) KeyBasedEncryption.PAIR_KEY else KeyBasedEncryption.NONE,
+        encryption = encryptor?.activeKey ?: KeyBasedEncryption.NONE,
         sequenceNumber = sequenceNumber,
         packetPosition = packet.packetPosition,
         messageNumber = messageNumber++,
-        payload = encryptor?.encrypt(packet.buffer, sequenceNumber) ?: packet.buffer,
+        payload = packet.buffer,
         ts = getTs(),
         socketId = socketId
       )
       sequenceNumber++
-      packetHandlingQueue.add(dataPacket)
-      dataPacket.write()
-      socket?.write(dataPacket)
-      return dataPacket.getSize()
+      val time = TimeUtils.getCurrentTimeMillis()
+      dropTooLatePackets(socket, time)
+      val size = dataPacket.getPacketSize()
+      val buffer = sendBuffer.add(dataPacket.sequenceNumber, size, time, dataPacket.messageNumber)
+      dataPacket.write(buffer)
+      //payload is encrypted in place, retransmissions use the same encrypted packet
+      val keyMaterialChanged = encryptor?.encrypt(buffer, SrtPacket.headerSize, packet.buffer.size, dataPacket.sequenceNumber) ?: false
+      socket?.write(buffer, size)
+      stats.onPacketSent()
+      if (encryptor != null && keyMaterialChanged) {
+        keyMaterial = KeyMaterial(keyMaterial = KeyMaterialMessage(encryptor.getEncryptInfo()).getData())
+        keyMaterialRetries = 0
+        writeKeyMaterial(socket, time)
+      } else if (keyMaterial != null && time - keyMaterialTime >= KEY_MATERIAL_RETRY_INTERVAL) {
+        writeKeyMaterial(socket, time)
+      }
+      return size
     }
   }
 
   @Throws(IOException::class)
   suspend fun reSendPackets(packetsLost: List<Int>, socket: SrtSocket?) {
     writeSync.withLock {
-      val dataPackets = packetHandlingQueue.filter { packetsLost.contains(it.sequenceNumber) }
-      dataPackets.forEach { packet ->
-        packet.messageNumber = messageNumber++
-        packet.retransmitted = true
-        packet.write()
-        socket?.write(packet)
+      dropTooLatePackets(socket, TimeUtils.getCurrentTimeMillis())
+      packetsLost.forEach { sequenceNumber ->
+        val buffer = sendBuffer.getBuffer(sequenceNumber) ?: return@forEach
+        val length = sendBuffer.getLength(sequenceNumber)
+        //retransmissions are limited to the overhead, the receiver will report it again if still lost
+        if (!congestionControl.tryRetransmit(length)) return@forEach
+        //set retransmitted flag, the packet keeps its message number and timestamp
+        buffer[4] = (buffer[4].toInt() or 0x04).toByte()
+        socket?.write(buffer, length)
+        stats.onPacketRetransmitted()
       }
     }
   }
 
   suspend fun updateHandlingQueue(lastPacketSequence: Int) {
     writeSync.withLock {
-      packetHandlingQueue.removeAll { it.sequenceNumber < lastPacketSequence }
+      sendBuffer.ack(lastPacketSequence)
+    }
+  }
+
+  /**
+   * Send the key material refresh. Must be called with writeSync locked.
+   */
+  @Throws(IOException::class)
+  private fun writeKeyMaterial(socket: SrtSocket?, time: Long) {
+    val keyMaterial = keyMaterial ?: return
+    if (keyMaterialRetries >= KEY_MATERIAL_MAX_RETRIES) {
+      Log.e(TAG, "key material refresh not responded")
+      this.keyMaterial = null
+      return
+    }
+    keyMaterial.resetBuffer()
+    keyMaterial.write(getTs(), socketId)
+    socket?.write(keyMaterial)
+    keyMaterialTime = time
+    keyMaterialRetries++
+  }
+
+  suspend fun onKeyMaterialResponse(response: KeyMaterial) {
+    writeSync.withLock {
+      if (response.type != ExtensionType.SRT_CMD_KM_RSP) return
+      if (response.isError()) Log.e(TAG, "key material refresh rejected by receiver")
+      keyMaterial = null
     }
   }
 
+  fun getStats(itemsInCache: Int): SrtStats {
+    return stats.createStats(droppedPackets, droppedBytes, getPacketsInFlight(), itemsInCache, congestionControl.sendingRate)
+  }
+
+  /**
+   * @return packets sent that are waiting for ACK.
+   */
+  fun getPacketsInFlight(): Int = sendBuffer.size
+
+  /**
+   * Drop packets that can't arrive in time to the receiver and tell it to stop waiting for them.
+   * Must be called with writeSync locked.
+   */
+  @Throws(IOException::class)
+  private fun dropTooLatePackets(socket: SrtSocket?, time: Long) {
+    val firstSequence = sendBuffer.firstSequence
+    val messageNumber = sendBuffer.getMessageNumber(firstSequence)
+    val count = sendBuffer.dropOlderThan(time - getDropThreshold())
+    if (count == 0) return
+    droppedPackets += count
+    droppedBytes += sendBuffer.lastDroppedBytes
+    val dropReq = DropReq(messageNumber, firstSequence, (firstSequence + count - 1) and 0x7FFFFFFF)
+    dropReq.write(getTs(), socketId)
+    Log.i(TAG, "too late packets dropped: $dropReq")
+    socket?.write(dropReq)
+  }
+
+  private fun getDropThreshold(): Int {
+    return if (tooLatePacketDrop) latency + TOO_LATE_MARGIN
+    else maxOf(latency, MIN_DROP_THRESHOLD) + 2 * ACK_INTERVAL
+  }
+
+  fun resetDroppedPackets() {
+    droppedPackets = 0
+    droppedBytes = 0
+  }
+
   @Throws(IOException::class)
   suspend fun writeAck2(ackSequence: Int, socket: SrtSocket?) {
     writeSync.withLock {
@@ -174,7 +299,13 @@ class CommandsManager {
     socketId = 0
     startTS = 0L
     host = ""
-    packetHandlingQueue.clear()
+    latency = DEFAULT_LATENCY
+    tooLatePacketDrop = false
+    resetDroppedPackets()
+    keyMaterial = null
+    stats.reset()
+    sendBuffer.clear()
+    congestionControl.reset()
   }
 
   private fun generateInitialSequence(): Int {
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.common.Pacer
+import com.pedro.common.TimeUtils
+import com.pedro.srt.utils.Constants
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Live congestion control (LiveCC) of SRT. Data packets are spaced by the send period calculated
+ * from the max bandwidth. The max bandwidth is selected like libsrt:
+ * - maxBW > 0: fixed max bandwidth.
+ * - inputBW > 0: inputBW + overhead.
+ * - else: input rate measured + overhead. The overhead is limited by the link capacity estimated
+ * by the receiver.
+ *
+ * Retransmissions share the max bandwidth with data packets but are limited to the overhead.
+ * All bandwidth values are in bits per second.
+ */
+class LiveCongestionControl {
+
+  companion object {
+    const val DEFAULT_OVERHEAD = 25
+    //like libsrt, first measure of the input rate is faster
+    private const val FIRST_INPUT_RATE_PERIOD = 500_000_000L
+    private const val INPUT_RATE_PERIOD = 1_000_000_000L
+    //receiver buffer size (packets) until the first ACK, same than libsrt default
+    const val DEFAULT_FLOW_WINDOW = 8192
+  }
+
+  //small burst, packets are spaced by the send period but we can't sleep less than 1ms
+  private val pacer = Pacer(burstMs = 5, minBurstBytes = Constants.MTU)
+  private val retransmissionPacer = Pacer(burstMs = 100, minBurstBytes = Constants.MTU)
+
+  private var maxBW = 0L
+  private var inputBW = 0L
+  private var overhead = DEFAULT_OVERHEAD
+  private var inputBytes = 0L
+  private var inputPackets = 0L
+  private var inputStartTime = 0L
+  private var inputRatePeriod = FIRST_INPUT_RATE_PERIOD
+
+  /**
+   * Input rate measured from the packets produced by the encoders.
+   */
+  @Volatile
+  var inputRate = 0L
+    private set
+  /**
+   * Max bandwidth in use. 0 if pacing is not enabled yet (waiting the first input rate measure).
+   */
+  @Volatile
+  var sendingRate = 0L
+    private set
+  @Volatile
+  var averagePacketSize = Constants.MTU
+    private set
+  /**
+   * Packets that the receiver can store, reported in each ACK. Packets in flight should not exceed it.
+   */
+  @Volatile
+  var flowWindow = DEFAULT_FLOW_WINDOW
+    private set
+  @Volatile
+  var estimatedLinkCapacity = 0L
+    private set
+  @Volatile
+  var receivingRate = 0L
+    private set
+
+  /**
+   * Time in microseconds between 2 data packets. 0 if pacing is not enabled.
+   */
+  val sendPeriod: Long
+    get() {
+      val rate = sendingRate
+      return if (rate <= 0) 0 else averagePacketSize * 8L * 1_000_000L / rate
+    }
+  val lastPacingDelay: Long
+    get() = pacer.lastDelay
+  val maxPacingDelay: Long
+    get() = pacer.maxDelay
+  val averagePacingDelay: Long
+    get() = pacer.averageDelay
+
+  /**
+   * @param bitrate max bandwidth. 0 to calculate it using inputBW and overhead (default).
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setMaxBW(bitrate: Long) {
+    if (bitrate < 0) throw IllegalArgumentException("max bandwidth can't be negative")
+    synchronized(this) {
+      maxBW = bitrate
+      update()
+    }
+  }
+
+  /**
+   * @param bitrate expected input bandwidth. 0 to measure it (default).
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setInputBW(bitrate: Long) {
+    if (bitrate < 0) throw IllegalArgumentException("input bandwidth can't be negative")
+    synchronized(this) {
+      inputBW = bitrate
+      update()
+    }
+  }
+
+  /**
+   * @param percent overhead over input bandwidth used to recover lost packets. Range 5 to 100.
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setOverhead(percent: Int) {
+    if (percent < 5 || percent > 100) throw IllegalArgumentException("the value must be in range 5 to 100")
+    synchronized(this) {
+      overhead = percent
+      update()
+    }
+  }
+
+  /**
+   * Register packets produced to measure the input rate.
+   */
+  @JvmOverloads
+  fun onInput(bytes: Int, packets: Int, now: Long = TimeUtils.getCurrentTimeNano()) {
+    synchronized(this) {
+      if (inputStartTime == 0L) inputStartTime = now
+      inputBytes += bytes
+      inputPackets += packets
+      val elapsed = now - inputStartTime
+      if (elapsed < inputRatePeriod) return
+      inputRate = inputBytes * 8 * 1_000_000_000L / elapsed
+      if (inputPackets > 0) averagePacketSize = (inputBytes / inputPackets).toInt()
+      inputBytes = 0
+      inputPackets = 0
+      inputStartTime = now
+      inputRatePeriod = INPUT_RATE_PERIOD
+      update()
+    }
+  }
+
+  /**
+   * Update using the info reported by the receiver in an ACK.
+   * @param availableBufferSize packets that the receiver can store.
+   * @param linkCapacity estimated link capacity in packets per second.
+   * @param receivingRate bytes per second received.
+   */
+  fun onAck(availableBufferSize: Int, linkCapacity: Int, receivingRate: Int) {
+    synchronized(this) {
+      if (availableBufferSize > 0) flowWindow = availableBufferSize
+      estimatedLinkCapacity = linkCapacity.toLong() * averagePacketSize * 8
+      this.receivingRate = receivingRate.toLong() * 8
+      update()
+    }
+  }
+
+  /**
+   * Consume the bandwidth of a data packet.
+   * @return nanoseconds to wait before send the packet, 0 if it can be sent now.
+   */
+  @JvmOverloads
+  fun reserve(bytes: Int, now: Long = TimeUtils.getCurrentTimeNano()): Long = pacer.reserve(bytes, now)
+
+  /**
+   * Consume the bandwidth of a retransmitted packet.
+   * @return false if the packet exceeds the overhead and shouldn't be sent now.
+   */
+  @JvmOverloads
+  fun tryRetransmit(bytes: Int, now: Long = TimeUtils.getCurrentTimeNano()): Boolean {
+    if (!retransmissionPacer.tryReserve(bytes, now)) return false
+    //data packets yield to the retransmission
+    pacer.reserve(bytes, now)
+    return true
+  }
+
+  /**
+   * Register the time that a frame was delayed by pacing.
+   */
+  fun addFrameDelay(delayMs: Long) {
+    pacer.addFrameDelay(delayMs)
+  }
+
+  fun resetPacingDelay() {
+    pacer.resetDelay()
+  }
+
+  /**
+   * Start a new connection keeping the configuration.
+   */
+  fun reset() {
+    synchronized(this) {
+      inputBytes = 0
+      inputPackets = 0
+      inputStartTime = 0
+      inputRatePeriod = FIRST_INPUT_RATE_PERIOD
+      inputRate = 0
+      averagePacketSize = Constants.MTU
+      flowWindow = DEFAULT_FLOW_WINDOW
+      estimatedLinkCapacity = 0
+      receivingRate = 0
+      update()
+      pacer.reset()
+      retransmissionPacer.reset()
+    }
+  }
+
+  private fun update() {
+    val rate = when {
+      maxBW > 0 -> maxBW
+      inputBW > 0 -> inputBW * (100 + overhead) / 100
+      inputRate > 0 -> {
+        val rate = inputRate * (100 + overhead) / 100
+        //the overhead can't exceed the link capacity but never send slower than the input
+        if (estimatedLinkCapacity > 0) maxOf(inputRate, minOf(rate, estimatedLinkCapacity)) else rate
+      }
+      else -> 0
+    }
+    sendingRate = rate
+    pacer.setBitrate(rate, 1f)
+    retransmissionPacer.setBitrate(rate * overhead / (100 + overhead), 1f)
+  }
+}
\ No newline at end of file
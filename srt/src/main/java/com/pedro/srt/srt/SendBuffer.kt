@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.common.ByteArrayPool
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Data packets sent and waiting for the ACK of the receiver, indexed by sequence number to
+ * retransmit packets lost. Capacity is a power of 2 so the slot of a packet
+ * (sequence number and capacity - 1) is continuous when the sequence number wraps at 2^31.
+ *
+ * Packets must be added with consecutive sequence numbers. They are released when acknowledged or
+ * dropped when they are too old to be useful for the receiver. Packets of the same message are
+ * dropped together. Buffers are taken from a pool.
+ * Not thread safe.
+ */
+class SendBuffer @JvmOverloads constructor(
+  capacity: Int = DEFAULT_CAPACITY,
+  private val pool: ByteArrayPool = ByteArrayPool(maxArraysPerClass = 512)
+) {
+
+  companion object {
+    const val DEFAULT_CAPACITY = 8192
+    private const val MAX_SEQUENCE = 0x7FFFFFFF
+  }
+
+  private val capacity = if (Integer.bitCount(capacity) == 1) capacity else Integer.highestOneBit(capacity) shl 1
+  private val mask = this.capacity - 1
+  private val buffers = arrayOfNulls<ByteArray>(this.capacity)
+  private val lengths = IntArray(this.capacity)
+  private val times = LongArray(this.capacity)
+  private val messageNumbers = IntArray(this.capacity)
+  //sequence number of the oldest packet
+  var firstSequence = 0
+    private set
+  var size = 0
+    private set
+  //bytes of the packets released by the last dropOlderThan
+  var lastDroppedBytes = 0
+    private set
+
+  /**
+   * @return a buffer of at least length size to write the packet. The buffer is owned by SendBuffer.
+   */
+  fun add(sequenceNumber: Int, length: Int, time: Long, messageNumber: Int): ByteArray {
+    if (size == 0) {
+      firstSequence = sequenceNumber
+    } else if (sequenceNumber != (firstSequence + size) and MAX_SEQUENCE) {
+      //sequence number changed, packets sent before are useless
+      clear()
+      firstSequence = sequenceNumber
+    }
+    if (size == capacity) releaseFirst()
+    val index = sequenceNumber and mask
+    val buffer = pool.acquire(length)
+    buffers[index] = buffer
+    lengths[index] = length
+    times[index] = time
+    messageNumbers[index] = messageNumber
+    size++
+    return buffer
+  }
+
+  /**
+   * @return the packet with this sequence number or null if it was released.
+   */
+  fun getBuffer(sequenceNumber: Int): ByteArray? {
+    if (!contains(sequenceNumber)) return null
+    return buffers[sequenceNumber and mask]
+  }
+
+  /**
+   * @return size of the packet with this sequence number or 0 if it was released.
+   */
+  fun getLength(sequenceNumber: Int): Int {
+    if (!contains(sequenceNumber)) return 0
+    return lengths[sequenceNumber and mask]
+  }
+
+  /**
+   * @return time when the packet with this sequence number was sent or 0 if it was released.
+   */
+  fun getTime(sequenceNumber: Int): Long {
+    if (!contains(sequenceNumber)) return 0
+    return times[sequenceNumber and mask]
+  }
+
+  /**
+   * @return message number of the packet with this sequence number or 0 if it was released.
+   */
+  fun getMessageNumber(sequenceNumber: Int): Int {
+    if (!contains(sequenceNumber)) return 0
+    return messageNumbers[sequenceNumber and mask]
+  }
+
+  fun contains(sequenceNumber: Int): Boolean {
+    return size > 0 && getOffset(sequenceNumber) < size
+  }
+
+  /**
+   * Release all packets before the sequence number, the receiver has them.
+   * @return number of packets released.
+   */
+  fun ack(sequenceNumber: Int): Int {
+    if (size == 0) return 0
+    val offset = getOffset(sequenceNumber)
+    //sequence number before the first packet, already acknowledged
+    if (offset > MAX_SEQUENCE / 2) return 0
+    val count = minOf(offset, size)
+    for (i in 0 until count) releaseFirst()
+    return count
+  }
+
+  /**
+   * Release packets sent before time. They can't arrive in time to the receiver.
+   * The rest of the packets of the last message dropped are released too, a message is useless if incomplete.
+   * Dropped packets are always consecutive from the first sequence number.
+   * @return number of packets dropped.
+   */
+  fun dropOlderThan(time: Long): Int {
+    var count = 0
+    var bytes = 0
+    while (size > 0 && times[firstSequence and mask] < time) {
+      val messageNumber = messageNumbers[firstSequence and mask]
+      do {
+        bytes += lengths[firstSequence and mask]
+        releaseFirst()
+        count++
+      } while (size > 0 && messageNumbers[firstSequence and mask] == messageNumber)
+    }
+    lastDroppedBytes = bytes
+    return count
+  }
+
+  fun clear() {
+    while (size > 0) releaseFirst()
+  }
+
+  private fun getOffset(sequenceNumber: Int): Int = (sequenceNumber - firstSequence) and MAX_SEQUENCE
+
+  private fun releaseFirst() {
+    val index = firstSequence and mask
+    buffers[index]?.let { pool.release(it) }
+    buffers[index] = null
+    firstSequence = (firstSequence + 1) and MAX_SEQUENCE
+    size--
+  }
+}
\ No newline at end of file
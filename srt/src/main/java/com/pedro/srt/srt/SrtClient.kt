@@ -30,6 +30,7 @@ import com.pedro.srt.srt.packets.control.Ack2
 import com.pedro.srt.srt.packets.control.CongestionWarning
 import com.pedro.srt.srt.packets.control.DropReq
 import com.pedro.srt.srt.packets.control.KeepAlive
+import com.pedro.srt.srt.packets.control.KeyMaterial
 import com.pedro.srt.srt.packets.control.Nak
 import com.pedro.srt.srt.packets.control.PeerError
 import com.pedro.srt.srt.packets.control.Shutdown
@@ -72,6 +73,10 @@ class SrtClient(private val connectChecker: ConnectChecker) {
 
   private var checkServerAlive = false
   @Volatile
+  private var statsListener: SrtStatsListener? = null
+  @Volatile
+  private var packetLossThreshold = 10f
+  @Volatile
   var isStreaming = false
     private set
   private var url: String? = null
@@ -113,6 +118,20 @@ class SrtClient(private val connectChecker: ConnectChecker) {
     }
   }
 
+  /**
+   * Encryption keys are refreshed after refreshRate packets. The new key is announced to the receiver
+   * preAnnounce packets before the switch. Must be called before connect.
+   *
+   * @param refreshRate 2^24 by default.
+   * @param preAnnounce 2^16 by default. Must be lower than refreshRate / 2.
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setKeyRefreshRate(refreshRate: Int, preAnnounce: Int) {
+    if (!isStreaming) {
+      commandsManager.setKeyRefreshRate(refreshRate, preAnnounce)
+    }
+  }
+
   /**
    * Must be called before connect
    */
@@ -208,6 +227,8 @@ class SrtClient(private val connectChecker: ConnectChecker) {
             commandsManager.socketId = responseConclusion.srtSocketId
             commandsManager.MTU = responseConclusion.MTU
             commandsManager.sequenceNumber = responseConclusion.initialPacketSequence
+            if (responseConclusion.peerLatency >= 0) commandsManager.latency = responseConclusion.peerLatency
+            commandsManager.tooLatePacketDrop = responseConclusion.peerFlags and ExtensionContentFlag.TLPKTDROP.value != 0
             onMainThread {
               connectChecker.onConnectionSuccess()
             }
@@ -325,11 +346,18 @@ class SrtClient(private val connectChecker: ConnectChecker) {
             val ackSequence = srtPacket.typeSpecificInformation
             val lastPacketSequence = srtPacket.lastAcknowledgedPacketSequenceNumber
             commandsManager.updateHandlingQueue(lastPacketSequence)
+            //light ACK only contains the sequence number
+            if (srtPacket.rtt > 0) {
+              commandsManager.congestionControl.onAck(srtPacket.availableBufferSize,
+                srtPacket.estimatedLinkCapacity, srtPacket.receivingRate)
+            }
+            if (commandsManager.stats.onAck(srtPacket)) statsListener?.onStats(getStats())
             commandsManager.writeAck2(ackSequence, socket)
           }
           is Nak -> {
             //packet lost reported, we should resend it
             val packetsLost = srtPacket.getNakPacketsLostList()
+            commandsManager.stats.onNak(packetsLost.size)
             commandsManager.reSendPackets(packetsLost, socket)
           }
           is CongestionWarning -> {
@@ -345,6 +373,9 @@ class SrtClient(private val connectChecker: ConnectChecker) {
           }
           is DropReq -> {
 
+          }
+          is KeyMaterial -> {
+            commandsManager.onKeyMaterialResponse(srtPacket)
           }
           is PeerError -> {
             val reason = srtPacket.errorCode
@@ -383,7 +414,7 @@ class SrtClient(private val connectChecker: ConnectChecker) {
 
   @Throws(IllegalArgumentException::class)
   fun hasCongestion(percentUsed: Float): Boolean {
-    return srtSender.hasCongestion(percentUsed)
+    return srtSender.hasCongestion(percentUsed) || commandsManager.stats.hasPacketLoss(packetLossThreshold)
   }
 
   fun resetSentAudioFrames() {
@@ -415,5 +446,113 @@ class SrtClient(private val connectChecker: ConnectChecker) {
     srtSender.clearCache()
   }
 
+  /**
+   * Called when video frames are discarded by congestion and the stream can't be decoded until
+   * the next keyframe.
+   */
+  fun setOnKeyFrameRequired(callback: (() -> Unit)?) {
+    srtSender.setOnKeyFrameRequired(callback)
+  }
+
   fun getItemsInCache(): Int = srtSender.getItemsInCache()
+
+  /**
+   * Max bandwidth of LiveCC. Packets are never sent faster than it, retransmissions included.
+   * Can be called while streaming.
+   *
+   * @param bitrate in bits per second. 0 to calculate it using input bandwidth and overhead (default).
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setMaxBandwidth(bitrate: Long) {
+    commandsManager.congestionControl.setMaxBW(bitrate)
+  }
+
+  /**
+   * Input bandwidth used to calculate the max bandwidth if it is not configured.
+   * Can be called while streaming.
+   *
+   * @param bitrate in bits per second. 0 to measure it from the encoders output (default).
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setInputBandwidth(bitrate: Long) {
+    commandsManager.congestionControl.setInputBW(bitrate)
+  }
+
+  /**
+   * Bandwidth over the input bandwidth that can be used to recover lost packets.
+   * Can be called while streaming.
+   *
+   * @param percent range 5 to 100, 25 by default.
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setBandwidthOverhead(percent: Int) {
+    commandsManager.congestionControl.setOverhead(percent)
+  }
+
+  /**
+   * @return max bandwidth in use by LiveCC in bits per second, 0 until the input rate is measured.
+   */
+  fun getSendingRate(): Long = commandsManager.congestionControl.sendingRate
+
+  /**
+   * @return bitrate produced by the encoders in bits per second.
+   */
+  fun getInputRate(): Long = commandsManager.congestionControl.inputRate
+
+  /**
+   * @return time in microseconds between 2 data packets.
+   */
+  fun getSendPeriod(): Long = commandsManager.congestionControl.sendPeriod
+
+  /**
+   * @return time in ms that the last frame was delayed by pacing.
+   */
+  fun getPacingDelay(): Long = commandsManager.congestionControl.lastPacingDelay
+
+  fun getMaxPacingDelay(): Long = commandsManager.congestionControl.maxPacingDelay
+
+  fun getAveragePacingDelay(): Long = commandsManager.congestionControl.averagePacingDelay
+
+  fun resetPacingDelay() {
+    commandsManager.congestionControl.resetPacingDelay()
+  }
+
+  /**
+   * Set a listener to receive the stats of the connection each second. Values reported by the
+   * receiver in ACK packets (rtt, buffer and rates) are smoothed. Callbacks are called in a background thread.
+   */
+  fun setSrtStatsListener(listener: SrtStatsListener?) {
+    statsListener = listener
+  }
+
+  /**
+   * @return stats of the connection. Values reported by the receiver are 0 until the first ACK.
+   */
+  fun getStats(): SrtStats = commandsManager.getStats(srtSender.getItemsInCache())
+
+  /**
+   * hasCongestion also returns true if the receiver reported at least this percent of packets lost
+   * in the last second. SRT recovers lost packets so the cache could not fill until the link is saturated.
+   *
+   * @param percentLost range 0 to 100. Default 10.
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setPacketLossThreshold(percentLost: Float) {
+    if (percentLost < 0 || percentLost > 100) throw IllegalArgumentException("the value must be in range 0 to 100")
+    packetLossThreshold = percentLost
+  }
+
+  /**
+   * @return packets dropped because they can't arrive in time to the receiver (TLPKTDROP).
+   */
+  fun getDroppedPackets(): Long = commandsManager.droppedPackets
+
+  /**
+   * @return bytes dropped because they can't arrive in time to the receiver (TLPKTDROP).
+   */
+  fun getDroppedBytes(): Long = commandsManager.droppedBytes
+
+  fun resetDroppedPackets() {
+    commandsManager.resetDroppedPackets()
+  }
 }
\ No newline at end of file
@@ -20,8 +20,10 @@ import android.media.MediaCodec
 import android.util.Log
 import com.pedro.common.BitrateManager
 import com.pedro.common.ConnectChecker
+import com.pedro.common.FrameQueue
+import com.pedro.common.FrameType
+import com.pedro.common.TimeUtils
 import com.pedro.common.onMainThread
-import com.pedro.common.trySend
 import com.pedro.srt.mpeg2ts.Codec
 import com.pedro.srt.mpeg2ts.MpegTsPacket
 import com.pedro.srt.mpeg2ts.MpegTsPacketizer
@@ -45,8 +47,6 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
 import java.nio.ByteBuffer
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 
 /**
@@ -74,8 +74,9 @@ class SrtSender(
 
   private var job: Job? = null
   private val scope = CoroutineScope(Dispatchers.IO)
-  @Volatile
-  private var queue: BlockingQueue<List<MpegTsPacket>> = LinkedBlockingQueue(cacheSize)
+  private val queue = FrameQueue(cacheSize, ::getFrameType).apply {
+    onDiscard = { mpegTsPackets -> onFrameDiscarded(mpegTsPackets) }
+  }
   private var audioFramesSent: Long = 0
   private var videoFramesSent: Long = 0
   var socket: SrtSocket? = null
@@ -121,11 +122,7 @@ class SrtSender(
       h26XPacket.createAndSendPacket(h264Buffer, info) { mpegTsPackets ->
         val isKey = mpegTsPackets[0].isKey
         checkSendInfo(isKey)
-        val result = queue.trySend(mpegTsPackets)
-        if (!result) {
-          Log.i(TAG, "Video frame discarded")
-          droppedVideoFrames++
-        }
+        enqueue(mpegTsPackets)
       }
     }
   }
@@ -134,12 +131,46 @@ class SrtSender(
     if (running) {
       aacPacket.createAndSendPacket(aacBuffer, info) { mpegTsPackets ->
         checkSendInfo()
-        val result = queue.trySend(mpegTsPackets)
-        if (!result) {
-          Log.i(TAG, "Audio frame discarded")
-          droppedAudioFrames++
-        }
+        enqueue(mpegTsPackets)
+      }
+    }
+  }
+
+  private fun enqueue(mpegTsPackets: List<MpegTsPacket>) {
+    //input rate is measured before the queue, discarded frames are produced by the encoder too
+    var bytes = 0
+    for (mpegTsPacket in mpegTsPackets) bytes += mpegTsPacket.buffer.size + SrtPacket.headerSize
+    commandsManager.congestionControl.onInput(bytes, mpegTsPackets.size)
+    queue.offer(mpegTsPackets)
+  }
+
+  /**
+   * Called when video is discarded by congestion. Request a keyframe to the encoder to recover faster.
+   */
+  fun setOnKeyFrameRequired(callback: (() -> Unit)?) {
+    queue.onKeyFrameRequired = callback
+  }
+
+  private fun onFrameDiscarded(mpegTsPackets: List<MpegTsPacket>) {
+    when (mpegTsPackets.firstOrNull()?.type) {
+      MpegType.VIDEO -> {
+        Log.i(TAG, "Video frame discarded")
+        droppedVideoFrames++
       }
+      MpegType.AUDIO -> {
+        Log.i(TAG, "Audio frame discarded")
+        droppedAudioFrames++
+      }
+      else -> {}
+    }
+  }
+
+  private fun getFrameType(mpegTsPackets: List<MpegTsPacket>): FrameType {
+    val packet = mpegTsPackets.firstOrNull() ?: return FrameType.CONFIG
+    return when (packet.type) {
+      MpegType.PSI -> FrameType.CONFIG
+      MpegType.AUDIO -> FrameType.AUDIO
+      MpegType.VIDEO -> if (packet.isKey) FrameType.KEY_FRAME else FrameType.INTER_FRAME
     }
   }
 
@@ -152,7 +183,7 @@ class SrtSender(
       val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat())).map { b ->
         MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE, isKey = false)
       }
-      queue.trySend(psiPackets)
+      queue.offer(psiPackets)
       var bytesSend = 0L
       val bitrateTask = async {
         while (scope.isActive && running) {
@@ -167,13 +198,21 @@ class SrtSender(
           val mpegTsPackets = runInterruptible {
             queue.poll(1, TimeUnit.SECONDS)
           }
-          mpegTsPackets.forEach { mpegTsPacket ->
-            var size = 0
-            size += commandsManager.writeData(mpegTsPacket, socket)
-            if (isEnableLogs) {
-              Log.i(TAG, "wrote ${mpegTsPacket.type.name} packet, size $size")
+          mpegTsPackets?.let { packets ->
+            val startTime = TimeUtils.getCurrentTimeMillis()
+            packets.forEach { mpegTsPacket ->
+              waitToSend(mpegTsPacket.buffer.size + SrtPacket.headerSize)
+              var size = 0
+              size += commandsManager.writeData(mpegTsPacket, socket)
+              if (isEnableLogs) {
+                Log.i(TAG, "wrote ${mpegTsPacket.type.name} packet, size $size")
+              }
+              bytesSend += size
+            }
+            val congestionControl = commandsManager.congestionControl
+            if (congestionControl.sendingRate > 0) {
+              congestionControl.addFrameDelay(TimeUtils.getCurrentTimeMillis() - startTime)
             }
-            bytesSend += size
           }
         }.exceptionOrNull()
         if (error != null) {
@@ -187,26 +226,42 @@ class SrtSender(
     }
   }
 
+  /**
+   * Wait until the packet can be sent by LiveCC. Packets in flight are limited by the receiver
+   * buffer (up to the latency, ACKs could be lost) and spaced by the send period.
+   */
+  private suspend fun waitToSend(bytes: Int) {
+    val congestionControl = commandsManager.congestionControl
+    val flowTimeout = TimeUtils.getCurrentTimeMillis() + commandsManager.latency
+    while (commandsManager.getPacketsInFlight() >= congestionControl.flowWindow
+      && TimeUtils.getCurrentTimeMillis() < flowTimeout) {
+      delay(1)
+    }
+    //delays shorter than 1ms are accumulated by the pacer and paid in the next packets
+    val wait = congestionControl.reserve(bytes) / 1_000_000
+    if (wait > 0) delay(wait)
+  }
+
   private fun checkSendInfo(isKey: Boolean = false) {
     when (psiManager.shouldSend(isKey)) {
       TableToSend.PAT_PMT -> {
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPat(), psiManager.getPmt()), increasePsiContinuity = true).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE, isKey = false)
         }
-        queue.trySend(psiPackets)
+        queue.offer(psiPackets)
       }
       TableToSend.SDT -> {
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getSdt()), increasePsiContinuity = true).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE, isKey = false)
         }
-        queue.trySend(psiPackets)
+        queue.offer(psiPackets)
       }
       TableToSend.NONE -> {}
       TableToSend.ALL -> {
         val psiPackets = mpegTsPacketizer.write(listOf(psiManager.getPmt(), psiManager.getSdt(), psiManager.getPat()), increasePsiContinuity = true).map { b ->
           MpegTsPacket(b, MpegType.PSI, PacketPosition.SINGLE, isKey = false)
         }
-        queue.trySend(psiPackets)
+        queue.offer(psiPackets)
       }
     }
   }
@@ -220,11 +275,12 @@ class SrtSender(
     h26XPacket.reset(clear)
     resetSentAudioFrames()
     resetSentVideoFrames()
-    resetDroppedAudioFrames()
-    resetDroppedVideoFrames()
     job?.cancelAndJoin()
     job = null
     queue.clear()
+    //after clear, frames cleared are counted as discarded
+    resetDroppedAudioFrames()
+    resetDroppedVideoFrames()
   }
 
   @Throws(IllegalArgumentException::class)
@@ -240,9 +296,7 @@ class SrtSender(
     if (newSize < queue.size - queue.remainingCapacity()) {
       throw RuntimeException("Can't fit current cache inside new cache size")
     }
-    val tempQueue: BlockingQueue<List<MpegTsPacket>> = LinkedBlockingQueue(newSize)
-    queue.drainTo(tempQueue)
-    queue = tempQueue
+    queue.resize(newSize)
   }
 
   fun getCacheSize(): Int {
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Stats of a SRT connection. Values reported by the receiver in ACK packets are smoothed.
+ *
+ * @param rtt round trip time in milliseconds.
+ * @param rttVariance round trip time variance in milliseconds.
+ * @param availableBuffer packets that the receiver can store.
+ * @param packetReceivingRate packets per second received by the receiver.
+ * @param estimatedLinkCapacity packets per second that the link can handle, estimated by the receiver.
+ * @param receivingRate bits per second received by the receiver.
+ * @param packetsSent data packets sent, retransmissions not included.
+ * @param naksReceived NAK packets received.
+ * @param packetsLost packets reported as lost in NAK packets.
+ * @param packetsRetransmitted packets sent again after a NAK.
+ * @param packetsDropped packets dropped because they can't arrive in time to the receiver.
+ * @param bytesDropped bytes dropped because they can't arrive in time to the receiver.
+ * @param packetsInFlight packets sent waiting for ACK.
+ * @param itemsInCache frames waiting in the send queue.
+ * @param sendingRate max bandwidth used by LiveCC in bits per second.
+ * @param packetLoss percent of packets reported as lost in the last second.
+ * @param timeStamp time in milliseconds when the stats were updated by an ACK.
+ */
+data class SrtStats(
+  val rtt: Float,
+  val rttVariance: Float,
+  val availableBuffer: Int,
+  val packetReceivingRate: Int,
+  val estimatedLinkCapacity: Int,
+  val receivingRate: Long,
+  val packetsSent: Long,
+  val naksReceived: Long,
+  val packetsLost: Long,
+  val packetsRetransmitted: Long,
+  val packetsDropped: Long,
+  val bytesDropped: Long,
+  val packetsInFlight: Int,
+  val itemsInCache: Int,
+  val sendingRate: Long,
+  val packetLoss: Float,
+  val timeStamp: Long
+)
\ No newline at end of file
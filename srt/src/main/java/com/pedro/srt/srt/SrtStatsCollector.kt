@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.common.TimeUtils
+import com.pedro.srt.srt.packets.control.Ack
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Collect the info of ACK and NAK packets and the packets sent. ACK values are smoothed like
+ * libsrt: rtt with 1/8 of the new value, rtt variance with 1/4 and rates with 1/8.
+ * Light ACKs only contain the sequence number and are ignored.
+ *
+ * Thread safe.
+ */
+class SrtStatsCollector {
+
+  companion object {
+    const val STATS_INTERVAL = 1000L
+  }
+
+  private var rtt = 0.0
+  private var rttVariance = 0.0
+  private var availableBuffer = 0
+  private var packetReceivingRate = 0.0
+  private var estimatedLinkCapacity = 0.0
+  private var receivingRate = 0.0
+  private var packetsSent = 0L
+  private var naksReceived = 0L
+  private var packetsLost = 0L
+  private var packetsRetransmitted = 0L
+  private var acks = 0L
+  private var lastAckTime = 0L
+  //packet loss of the last interval
+  private var intervalStartTime = 0L
+  private var intervalSent = 0L
+  private var intervalLost = 0L
+  @Volatile
+  var packetLoss = 0f
+    private set
+
+  /**
+   * @return true if the stats interval finished and the stats should be notified.
+   */
+  @JvmOverloads
+  fun onAck(ack: Ack, now: Long = TimeUtils.getCurrentTimeMillis()): Boolean {
+    synchronized(this) {
+      //light ACK or a field not reported
+      if (ack.rtt <= 0) return false
+      if (acks == 0L) {
+        rtt = ack.rtt / 1000.0
+        rttVariance = ack.rttVariance / 1000.0
+        packetReceivingRate = ack.packetReceivingRate.toDouble()
+        estimatedLinkCapacity = ack.estimatedLinkCapacity.toDouble()
+        receivingRate = ack.receivingRate * 8.0
+      } else {
+        rtt += (ack.rtt / 1000.0 - rtt) / 8
+        rttVariance += (ack.rttVariance / 1000.0 - rttVariance) / 4
+        packetReceivingRate += (ack.packetReceivingRate - packetReceivingRate) / 8
+        estimatedLinkCapacity += (ack.estimatedLinkCapacity - estimatedLinkCapacity) / 8
+        receivingRate += (ack.receivingRate * 8.0 - receivingRate) / 8
+      }
+      availableBuffer = ack.availableBufferSize
+      acks++
+      lastAckTime = now
+      if (intervalStartTime == 0L) intervalStartTime = now
+      if (now - intervalStartTime < STATS_INTERVAL) return false
+      packetLoss = if (intervalSent == 0L) 0f else minOf(100f, intervalLost * 100f / intervalSent)
+      intervalSent = 0
+      intervalLost = 0
+      intervalStartTime = now
+      return true
+    }
+  }
+
+  fun onNak(lost: Int) {
+    synchronized(this) {
+      naksReceived++
+      packetsLost += lost
+      intervalLost += lost
+    }
+  }
+
+  fun onPacketSent() {
+    synchronized(this) {
+      packetsSent++
+      intervalSent++
+    }
+  }
+
+  fun onPacketRetransmitted() {
+    synchronized(this) {
+      packetsRetransmitted++
+    }
+  }
+
+  /**
+   * @return true if an ACK was received recently and packet loss of the last interval is at least percentLost.
+   */
+  @JvmOverloads
+  fun hasPacketLoss(percentLost: Float, now: Long = TimeUtils.getCurrentTimeMillis()): Boolean {
+    synchronized(this) {
+      return acks > 0 && now - lastAckTime <= 2 * STATS_INTERVAL && packetLoss >= percentLost
+    }
+  }
+
+  fun createStats(
+    packetsDropped: Long, bytesDropped: Long, packetsInFlight: Int, itemsInCache: Int, sendingRate: Long
+  ): SrtStats {
+    synchronized(this) {
+      return SrtStats(
+        rtt = rtt.toFloat(),
+        rttVariance = rttVariance.toFloat(),
+        availableBuffer = availableBuffer,
+        packetReceivingRate = packetReceivingRate.toInt(),
+        estimatedLinkCapacity = estimatedLinkCapacity.toInt(),
+        receivingRate = receivingRate.toLong(),
+        packetsSent = packetsSent,
+        naksReceived = naksReceived,
+        packetsLost = packetsLost,
+        packetsRetransmitted = packetsRetransmitted,
+        packetsDropped = packetsDropped,
+        bytesDropped = bytesDropped,
+        packetsInFlight = packetsInFlight,
+        itemsInCache = itemsInCache,
+        sendingRate = sendingRate,
+        packetLoss = packetLoss,
+        timeStamp = lastAckTime
+      )
+    }
+  }
+
+  fun reset() {
+    synchronized(this) {
+      rtt = 0.0
+      rttVariance = 0.0
+      availableBuffer = 0
+      packetReceivingRate = 0.0
+      estimatedLinkCapacity = 0.0
+      receivingRate = 0.0
+      packetsSent = 0
+      naksReceived = 0
+      packetsLost = 0
+      packetsRetransmitted = 0
+      acks = 0
+      lastAckTime = 0
+      intervalStartTime = 0
+      intervalSent = 0
+      intervalLost = 0
+      packetLoss = 0f
+    }
+  }
+}
\ No newline at end of file
@@ -49,8 +49,12 @@ abstract class ControlPacket(
   var socketId: Int = 0
 ): SrtPacket() {
 
+  //subtype of USER_DEFINED packets (SRT_CMD_KM_REQ, SRT_CMD_KM_RSP)
+  var userSubtype = 0
+
   protected fun writeHeader(ts: Int, socketId: Int) {
-    val headerData = PacketType.CONTROL.value and 0xff shl 31 or (controlType.value and 0xff shl 16) or subtype.value
+    val subtypeValue = if (controlType == ControlType.USER_DEFINED) userSubtype else subtype.value
+    val headerData = PacketType.CONTROL.value and 0xff shl 31 or (controlType.value and 0x7FFF shl 16) or subtypeValue
     buffer.writeUInt32(headerData)
     buffer.writeUInt32(typeSpecificInformation)
     buffer.writeUInt32(ts)
@@ -63,9 +67,10 @@ abstract class ControlPacket(
     if (packetType != PacketType.CONTROL) {
       throw IOException("error, parsing data packet as control packet")
     }
-    controlType = ControlType.from((headerData ushr 16) and 0xFF)
+    controlType = ControlType.from((headerData ushr 16) and 0x7FFF)
     val subtypeValue = headerData and 0xFFFF
-    if (subtypeValue == 0) subtype = ControlType.SUB_TYPE
+    if (controlType == ControlType.USER_DEFINED) userSubtype = subtypeValue
+    else if (subtypeValue == 0) subtype = ControlType.SUB_TYPE
     else throw IOException("unknown subtype: $subtypeValue")
 
     typeSpecificInformation = input.readUInt32()
@@ -80,7 +85,7 @@ abstract class ControlPacket(
   companion object {
     fun getType(input: InputStream): ControlType {
       val headerData = input.readUInt32()
-      return ControlType.from((headerData ushr 16) and 0xFF)
+      return ControlType.from((headerData ushr 16) and 0x7FFF)
     }
   }
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ import com.pedro.srt.srt.packets.data.KeyBasedEncryption
 import com.pedro.srt.srt.packets.data.PacketPosition
 import com.pedro.srt.utils.readUInt32
 import com.pedro.srt.utils.readUntil
+import com.pedro.srt.utils.setUInt32
 import com.pedro.srt.utils.toBoolean
 import com.pedro.srt.utils.toInt
 import com.pedro.srt.utils.writeUInt32
@@ -43,16 +44,35 @@ class DataPacket(
 
   fun write() {
     resetBuffer()
-    val headerData = (PacketType.DATA.value shl 31) or (sequenceNumber and 0x7FFFFFFF)
-    val info = (packetPosition.value shl 30) or (order.toInt() shl 29) or
-        (encryption.value shl 27) or (retransmitted.toInt() shl 26) or messageNumber
-    buffer.writeUInt32(headerData)
-    buffer.writeUInt32(info)
+    buffer.writeUInt32(getHeaderData())
+    buffer.writeUInt32(getInfo())
     buffer.writeUInt32(ts)
     buffer.writeUInt32(socketId)
     buffer.write(payload)
   }
 
+  /**
+   * Write the packet in output without use the internal buffer.
+   * @return size of the packet. Output must have at least getPacketSize() length.
+   */
+  fun write(output: ByteArray): Int {
+    output.setUInt32(0, getHeaderData())
+    output.setUInt32(4, getInfo())
+    output.setUInt32(8, ts)
+    output.setUInt32(12, socketId)
+    System.arraycopy(payload, 0, output, headerSize, payload.size)
+    return getPacketSize()
+  }
+
+  fun getPacketSize(): Int = headerSize + payload.size
+
+  private fun getHeaderData(): Int = (PacketType.DATA.value shl 31) or (sequenceNumber and 0x7FFFFFFF)
+
+  private fun getInfo(): Int {
+    return (packetPosition.value shl 30) or (order.toInt() shl 29) or
+        (encryption.value shl 27) or (retransmitted.toInt() shl 26) or messageNumber
+  }
+
   fun read(input: InputStream) {
     sequenceNumber = input.readUInt32()
     val packetType = PacketType.from((sequenceNumber ushr 31) and 0x01)
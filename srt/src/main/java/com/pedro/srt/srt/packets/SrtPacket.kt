@@ -22,6 +22,7 @@ import com.pedro.srt.srt.packets.control.CongestionWarning
 import com.pedro.srt.srt.packets.control.ControlType
 import com.pedro.srt.srt.packets.control.DropReq
 import com.pedro.srt.srt.packets.control.KeepAlive
+import com.pedro.srt.srt.packets.control.KeyMaterial
 import com.pedro.srt.srt.packets.control.Nak
 import com.pedro.srt.srt.packets.control.PeerError
 import com.pedro.srt.srt.packets.control.Shutdown
@@ -98,7 +99,11 @@ abstract class SrtPacket {
               peerError.read(input)
               return peerError
             }
-            ControlType.USER_DEFINED -> throw IOException("user defined type is not allowed")
+            ControlType.USER_DEFINED -> {
+              val keyMaterial = KeyMaterial()
+              keyMaterial.read(input)
+              return keyMaterial
+            }
             else -> throw IOException("unknown control type: ${type.name}")
           }
         }
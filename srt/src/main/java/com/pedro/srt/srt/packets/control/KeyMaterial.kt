@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.packets.control
+
+import com.pedro.srt.srt.packets.ControlPacket
+import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionType
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Created by pedro on 18/10/26.
+ *
+ * Key material sent after the handshake to refresh the encryption keys (SRT_CMD_KM_REQ) and
+ * the response of the receiver (SRT_CMD_KM_RSP). The body is a key material message or
+ * an error code of 4 bytes in the response.
+ */
+class KeyMaterial(
+  var type: ExtensionType = ExtensionType.SRT_CMD_KM_REQ,
+  var keyMaterial: ByteArray = byteArrayOf()
+): ControlPacket(ControlType.USER_DEFINED) {
+
+  fun write(ts: Int, socketId: Int) {
+    userSubtype = type.value
+    super.writeHeader(ts, socketId)
+    buffer.write(keyMaterial)
+  }
+
+  @Throws(IOException::class)
+  fun read(input: InputStream) {
+    super.readHeader(input)
+    type = when (userSubtype) {
+      ExtensionType.SRT_CMD_KM_REQ.value -> ExtensionType.SRT_CMD_KM_REQ
+      ExtensionType.SRT_CMD_KM_RSP.value -> ExtensionType.SRT_CMD_KM_RSP
+      else -> throw IOException("unknown user defined subtype: $userSubtype")
+    }
+    keyMaterial = input.readBytes()
+  }
+
+  fun isError(): Boolean = keyMaterial.size == 4
+
+  override fun toString(): String {
+    return "KeyMaterial(type=$type, size=${keyMaterial.size})"
+  }
+}
\ No newline at end of file
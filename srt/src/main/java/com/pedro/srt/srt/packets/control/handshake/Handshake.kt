@@ -18,6 +18,7 @@ package com.pedro.srt.srt.packets.control.handshake
 
 import com.pedro.srt.srt.packets.ControlPacket
 import com.pedro.srt.srt.packets.control.ControlType
+import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionType
 import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
 import com.pedro.srt.utils.Constants
 import com.pedro.srt.utils.readUInt16
@@ -79,6 +80,13 @@ data class Handshake(
   var handshakeExtension: HandshakeExtension? = null
 ): ControlPacket(ControlType.HANDSHAKE) {
 
+  //TSBPD delay in ms of the peer receiver, read from the handshake response extension. -1 if not received
+  var peerLatency = -1
+    private set
+  //SRT flags of the peer (ExtensionContentFlag), read from the handshake response extension. 0 if not received
+  var peerFlags = 0
+    private set
+
   fun write(ts: Int, socketId: Int) {
     //control packet header (16 bytes)
     super.writeHeader(ts, socketId)
@@ -132,6 +140,24 @@ data class Handshake(
     srtSocketId = input.readUInt32()
     synCookie = input.readUInt32()
     readAddress(input)
+    readExtensions(input)
+  }
+
+  private fun readExtensions(input: InputStream) {
+    while (input.available() >= 4) {
+      val type = input.readUInt16()
+      //length in blocks of 4 bytes
+      val length = input.readUInt16() * 4
+      if (type == ExtensionType.SRT_CMD_HS_RSP.value && length >= 12) {
+        input.readUInt32() //version
+        peerFlags = input.readUInt32()
+        peerLatency = input.readUInt16()
+        input.readUInt16() //sender delay
+        input.skip(length - 12L)
+      } else {
+        input.skip(length.toLong())
+      }
+    }
   }
 
   private fun readAddress(input: InputStream): String {
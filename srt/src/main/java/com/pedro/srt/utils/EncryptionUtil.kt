@@ -19,11 +19,9 @@ package com.pedro.srt.utils
 import com.pedro.srt.srt.packets.control.handshake.EncryptionType
 import com.pedro.srt.srt.packets.control.handshake.extension.CipherType
 import com.pedro.srt.srt.packets.data.KeyBasedEncryption
-import java.nio.ByteBuffer
 import java.security.SecureRandom
 import javax.crypto.Cipher
 import javax.crypto.SecretKeyFactory
-import javax.crypto.spec.IvParameterSpec
 import javax.crypto.spec.PBEKeySpec
 import javax.crypto.spec.SecretKeySpec
 import kotlin.experimental.xor
@@ -32,11 +30,28 @@ import kotlin.experimental.xor
  * Created by pedro on 12/11/23.
  * Need API 26+
  *
+ * AES-CTR encryption of data packets. The keystream is generated encrypting the counter blocks with
+ * an AES-ECB cipher initialized only when a key is created, and payloads are XORed in place.
+ *
+ * Keys are refreshed like libsrt. The new key (even/odd) is announced preAnnounce packets before the
+ * switch and the old key is decommissioned preAnnounce packets after the switch.
  */
 class EncryptionUtil(val type: EncryptionType, passphrase: String) {
 
-  //only pair is developed, odd is not supported for now
-  private val keyBasedEncryption = KeyBasedEncryption.PAIR_KEY
+  companion object {
+    //packets encrypted with a key before switch to the next key, same than libsrt
+    const val DEFAULT_REFRESH_RATE = 1 shl 24
+    const val DEFAULT_PRE_ANNOUNCE = 1 shl 16
+    private const val BLOCK_SIZE = 16
+
+    @Throws(IllegalArgumentException::class)
+    fun checkKeyRefreshRate(refreshRate: Int, preAnnounce: Int) {
+      if (preAnnounce <= 0 || preAnnounce > (refreshRate - 1) / 2) {
+        throw IllegalArgumentException("preAnnounce must be in range 1 to (refreshRate - 1) / 2")
+      }
+    }
+  }
+
   private val cipherType = CipherType.CTR
   private val salt: ByteArray
   private val keyLength: Int = when (type) {
@@ -45,30 +60,122 @@ class EncryptionUtil(val type: EncryptionType, passphrase: String) {
     EncryptionType.AES192 -> 24
     EncryptionType.AES256 -> 32
   }
+  private val kek: ByteArray
   private var keyData = byteArrayOf()
-  private val block: SecretKeySpec
-  private val cipher = Cipher.getInstance("AES/CTR/NoPadding")
+  //even key in index 0 and odd key in index 1
+  private val keys = arrayOfNulls<ByteArray>(2)
+  private val ciphers = arrayOfNulls<Cipher>(2)
+  private var activeIndex = 0
+  private var packetsEncrypted = 0
+  private var refreshRate = DEFAULT_REFRESH_RATE
+  private var preAnnounce = DEFAULT_PRE_ANNOUNCE
+  //reused for all packets, resized if a payload is bigger
+  private val iv = ByteArray(BLOCK_SIZE)
+  private var counters = ByteArray(BLOCK_SIZE * 94)
+  private var keyStream = ByteArray(BLOCK_SIZE * 94)
+
+  /**
+   * Key used to encrypt the next packet.
+   */
+  val activeKey: KeyBasedEncryption
+    get() = if (activeIndex == 0) KeyBasedEncryption.PAIR_KEY else KeyBasedEncryption.ODD_KEY
 
   init {
     salt = generateSecureRandomBytes(16)
-    val sek = generateSecureRandomBytes(keyLength)
-    val kek = calculateKEK(passphrase, salt, keyLength)
-    keyData = wrapKey(kek, sek)
-    block = SecretKeySpec(sek, "AES")
+    kek = calculateKEK(passphrase, salt, keyLength)
+    createKey(0)
+    updateKeyData()
+  }
+
+  /**
+   * @param refreshRate packets encrypted with a key before switch to a new key.
+   * @param preAnnounce packets before and after the switch that both keys are available.
+   */
+  @Throws(IllegalArgumentException::class)
+  fun setKeyRefreshRate(refreshRate: Int, preAnnounce: Int) {
+    checkKeyRefreshRate(refreshRate, preAnnounce)
+    this.refreshRate = refreshRate
+    this.preAnnounce = preAnnounce
+  }
+
+  /**
+   * Encrypt in place with the active key.
+   * @return true if the key material changed after this packet and it must be sent to the receiver.
+   */
+  fun encrypt(buffer: ByteArray, offset: Int, length: Int, sequence: Int): Boolean {
+    val blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE
+    val size = blocks * BLOCK_SIZE
+    if (counters.size < size) {
+      counters = ByteArray(size)
+      keyStream = ByteArray(size)
+    }
+    //IV is the salt XOR packet index (sequence number), last 2 bytes are the block counter
+    System.arraycopy(salt, 0, iv, 0, BLOCK_SIZE - 2)
+    iv[10] = iv[10] xor (sequence ushr 24).toByte()
+    iv[11] = iv[11] xor (sequence ushr 16).toByte()
+    iv[12] = iv[12] xor (sequence ushr 8).toByte()
+    iv[13] = iv[13] xor sequence.toByte()
+    for (i in 0 until blocks) {
+      val blockOffset = i * BLOCK_SIZE
+      System.arraycopy(iv, 0, counters, blockOffset, BLOCK_SIZE - 2)
+      counters[blockOffset + 14] = (i ushr 8).toByte()
+      counters[blockOffset + 15] = i.toByte()
+    }
+    ciphers[activeIndex]?.doFinal(counters, 0, size, keyStream, 0)
+    for (i in 0 until length) {
+      buffer[offset + i] = buffer[offset + i] xor keyStream[i]
+    }
+    return updateKeys()
+  }
+
+  private fun updateKeys(): Boolean {
+    packetsEncrypted++
+    val nextIndex = 1 - activeIndex
+    return when {
+      packetsEncrypted == preAnnounce && keys[nextIndex] != null -> {
+        //decommission the old key
+        keys[nextIndex] = null
+        ciphers[nextIndex] = null
+        updateKeyData()
+        true
+      }
+      packetsEncrypted == refreshRate - preAnnounce -> {
+        //pre announce the next key
+        createKey(nextIndex)
+        updateKeyData()
+        true
+      }
+      packetsEncrypted >= refreshRate -> {
+        activeIndex = nextIndex
+        packetsEncrypted = 0
+        false
+      }
+      else -> false
+    }
   }
 
-  fun encrypt(bytes: ByteArray, sequence: Int): ByteArray {
-    val ctr = ByteArray(16)
-    ByteBuffer.wrap(ctr, 10, 4).putInt(sequence)
-    for (i in 0 until 14) ctr[i] = (ctr[i] xor salt[i])
+  private fun createKey(index: Int) {
+    val sek = generateSecureRandomBytes(keyLength)
+    keys[index] = sek
+    ciphers[index] = Cipher.getInstance("AES/ECB/NoPadding").apply {
+      init(Cipher.ENCRYPT_MODE, SecretKeySpec(sek, "AES"))
+    }
+  }
 
-    cipher.init(Cipher.ENCRYPT_MODE, block, IvParameterSpec(ctr))
-    return cipher.doFinal(bytes)
+  private fun updateKeyData() {
+    val even = keys[0]
+    val odd = keys[1]
+    //with both keys, even key is wrapped first
+    keyData = if (even != null && odd != null) wrapKey(kek, even + odd) else wrapKey(kek, even ?: odd ?: byteArrayOf())
   }
 
   fun getEncryptInfo(): EncryptInfo {
     return EncryptInfo(
-      keyBasedEncryption = keyBasedEncryption,
+      keyBasedEncryption = when {
+        keys[0] != null && keys[1] != null -> KeyBasedEncryption.BOTH_KEYS
+        keys[0] != null -> KeyBasedEncryption.PAIR_KEY
+        else -> KeyBasedEncryption.ODD_KEY
+      },
       cipher = cipherType,
       salt = salt,
       key = keyData,
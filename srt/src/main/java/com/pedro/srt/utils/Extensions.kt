@@ -62,6 +62,13 @@ fun OutputStream.writeUInt32(value: Int) {
   write(value)
 }
 
+fun ByteArray.setUInt32(offset: Int, value: Int) {
+  this[offset] = (value ushr 24).toByte()
+  this[offset + 1] = (value ushr 16).toByte()
+  this[offset + 2] = (value ushr 8).toByte()
+  this[offset + 3] = value.toByte()
+}
+
 fun OutputStream.writeUInt16(value: Int) {
   write(value ushr 8)
   write(value)
@@ -64,6 +64,11 @@ class SrtSocket(private val host: String, private val port: Int) {
     socket?.send(udpPacket)
   }
 
+  fun write(buffer: ByteArray, length: Int) {
+    val udpPacket = DatagramPacket(buffer, length)
+    socket?.send(udpPacket)
+  }
+
   fun readBuffer(): ByteArray {
     val buffer = ByteArray(packetSize)
     val udpPacket = DatagramPacket(buffer, buffer.size)
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class LiveCongestionControlTest {
+
+  private val second = 1_000_000_000L
+
+  @Test
+  fun `GIVEN input packets WHEN measure period ends THEN send rate is input rate plus overhead`() {
+    val congestionControl = LiveCongestionControl()
+    assertEquals(0, congestionControl.sendingRate)
+    //1000 packets of 1000 bytes in 500ms, 16 Mbps
+    for (i in 0 until 1000) congestionControl.onInput(1000, 1, second + i * 500_000L)
+    congestionControl.onInput(0, 0, second + second / 2)
+    assertEquals(16_000_000, congestionControl.inputRate)
+    assertEquals(20_000_000, congestionControl.sendingRate)
+    assertEquals(1000, congestionControl.averagePacketSize)
+    //8000 bits each 20 Mbps
+    assertEquals(400, congestionControl.sendPeriod)
+  }
+
+  @Test
+  fun `GIVEN max bandwidth or input bandwidth WHEN configured THEN use it instead of input rate`() {
+    val congestionControl = LiveCongestionControl()
+    congestionControl.setInputBW(1_000_000)
+    assertEquals(1_250_000, congestionControl.sendingRate)
+    congestionControl.setOverhead(50)
+    assertEquals(1_500_000, congestionControl.sendingRate)
+    congestionControl.setMaxBW(4_000_000)
+    assertEquals(4_000_000, congestionControl.sendingRate)
+    congestionControl.setMaxBW(0)
+    congestionControl.setInputBW(0)
+    assertEquals(0, congestionControl.sendingRate)
+  }
+
+  @Test
+  fun `GIVEN a send rate WHEN reserve packets THEN packets are spaced by send period`() {
+    val congestionControl = LiveCongestionControl()
+    //1000 bytes each 1ms
+    congestionControl.setMaxBW(8_000_000)
+    var now = second
+    var burst = 0
+    while (congestionControl.reserve(1000, now) == 0L) burst++
+    //burst of 5ms
+    assertEquals(5, burst)
+    now += 1_000_000
+    assertEquals(1_000_000, congestionControl.reserve(1000, now))
+  }
+
+  @Test
+  fun `GIVEN an overhead WHEN retransmit packets THEN retransmissions are limited by overhead`() {
+    val congestionControl = LiveCongestionControl()
+    //retransmissions limited to 2 Mbps, 25 KB of burst
+    congestionControl.setMaxBW(10_000_000)
+    var retransmitted = 0
+    while (congestionControl.tryRetransmit(1000, second)) retransmitted++
+    assertEquals(25, retransmitted)
+    assertFalse(congestionControl.tryRetransmit(1000, second))
+    assertTrue(congestionControl.tryRetransmit(1000, second + 4_000_000))
+  }
+
+  @Test
+  fun `GIVEN ack with link capacity WHEN overhead exceeds it THEN limit overhead but not input rate`() {
+    val congestionControl = LiveCongestionControl()
+    for (i in 0 until 1000) congestionControl.onInput(1000, 1, second + i * 500_000L)
+    congestionControl.onInput(0, 0, second + second / 2)
+    assertEquals(20_000_000, congestionControl.sendingRate)
+    //2250 packets of 1000 bytes per second, 18 Mbps
+    congestionControl.onAck(100, 2250, 1_000_000)
+    assertEquals(100, congestionControl.flowWindow)
+    assertEquals(8_000_000, congestionControl.receivingRate)
+    assertEquals(18_000_000, congestionControl.sendingRate)
+    congestionControl.onAck(100, 1000, 1_000_000)
+    assertEquals(16_000_000, congestionControl.sendingRate)
+  }
+}
\ No newline at end of file
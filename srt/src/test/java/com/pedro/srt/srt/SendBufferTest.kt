@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class SendBufferTest {
+
+  private fun SendBuffer.addPacket(sequenceNumber: Int, time: Long = 0) {
+    //a message per packet
+    val buffer = add(sequenceNumber, 4, time, sequenceNumber)
+    buffer[0] = sequenceNumber.toByte()
+  }
+
+  @Test
+  fun `GIVEN packets added WHEN get by sequence number THEN get the packet`() {
+    val sendBuffer = SendBuffer(16)
+    for (i in 100 until 110) sendBuffer.addPacket(i)
+    assertEquals(10, sendBuffer.size)
+    assertEquals(105.toByte(), sendBuffer.getBuffer(105)?.get(0))
+    assertEquals(4, sendBuffer.getLength(105))
+    assertNull(sendBuffer.getBuffer(99))
+    assertNull(sendBuffer.getBuffer(110))
+  }
+
+  @Test
+  fun `GIVEN sequence numbers that wrap WHEN ack THEN release packets before the sequence number`() {
+    val sendBuffer = SendBuffer(16)
+    val first = 0x7FFFFFFF - 4
+    for (i in 0 until 10) sendBuffer.addPacket((first + i) and 0x7FFFFFFF)
+    assertTrue(sendBuffer.contains(0x7FFFFFFF))
+    assertTrue(sendBuffer.contains(4))
+    //ack of a packet before the first is ignored
+    assertEquals(0, sendBuffer.ack(first - 1))
+    assertEquals(7, sendBuffer.ack(2))
+    assertEquals(3, sendBuffer.size)
+    assertFalse(sendBuffer.contains(1))
+    assertEquals(2.toByte(), sendBuffer.getBuffer(2)?.get(0))
+    assertEquals(3, sendBuffer.ack(100))
+    assertEquals(0, sendBuffer.size)
+  }
+
+  @Test
+  fun `GIVEN a full buffer WHEN add a packet THEN release the oldest packet`() {
+    val sendBuffer = SendBuffer(4)
+    for (i in 0 until 5) sendBuffer.addPacket(i)
+    assertEquals(4, sendBuffer.size)
+    assertFalse(sendBuffer.contains(0))
+    assertEquals(4.toByte(), sendBuffer.getBuffer(4)?.get(0))
+    assertEquals(1.toByte(), sendBuffer.getBuffer(1)?.get(0))
+  }
+
+  @Test
+  fun `GIVEN old packets WHEN drop older than time THEN release only old packets`() {
+    val sendBuffer = SendBuffer(16)
+    for (i in 0 until 6) sendBuffer.addPacket(i, time = i * 100L)
+    assertEquals(3, sendBuffer.dropOlderThan(250))
+    assertEquals(3, sendBuffer.firstSequence)
+    assertEquals(3, sendBuffer.size)
+  }
+
+  @Test
+  fun `GIVEN a message split in packets WHEN drop older than time THEN drop the whole message`() {
+    val sendBuffer = SendBuffer(16)
+    //message 1 has packets 0 to 2 and message 2 has packets 3 to 4
+    for (i in 0 until 5) sendBuffer.add(i, 10 + i, time = i * 100L, messageNumber = if (i < 3) 1 else 2)
+    assertEquals(1, sendBuffer.getMessageNumber(0))
+    assertEquals(3, sendBuffer.dropOlderThan(50))
+    assertEquals(10 + 11 + 12, sendBuffer.lastDroppedBytes)
+    assertEquals(3, sendBuffer.firstSequence)
+    assertEquals(300, sendBuffer.getTime(3))
+    assertEquals(0, sendBuffer.dropOlderThan(50))
+    assertEquals(0, sendBuffer.lastDroppedBytes)
+  }
+
+  @Test
+  fun `GIVEN a sequence number not consecutive WHEN add THEN clear previous packets`() {
+    val sendBuffer = SendBuffer(16)
+    for (i in 0 until 4) sendBuffer.addPacket(i)
+    sendBuffer.addPacket(50)
+    assertEquals(1, sendBuffer.size)
+    assertEquals(50, sendBuffer.firstSequence)
+  }
+}
\ No newline at end of file
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt
+
+import com.pedro.srt.srt.packets.control.Ack
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class SrtStatsCollectorTest {
+
+  private fun createAck(rtt: Int, receivingRate: Int = 1000) = Ack(
+    rtt = rtt, rttVariance = rtt / 2, availableBufferSize = 8000, packetReceivingRate = 100,
+    estimatedLinkCapacity = 5000, receivingRate = receivingRate
+  )
+
+  @Test
+  fun `GIVEN acks WHEN collect stats THEN smooth values reported by receiver`() {
+    val collector = SrtStatsCollector()
+    collector.onAck(createAck(rtt = 80_000), 1000)
+    var stats = collector.createStats(0, 0, 0, 0, 0)
+    assertEquals(80f, stats.rtt, 0.01f)
+    assertEquals(40f, stats.rttVariance, 0.01f)
+    assertEquals(8000, stats.receivingRate)
+    collector.onAck(createAck(rtt = 160_000, receivingRate = 9000), 1010)
+    stats = collector.createStats(0, 0, 0, 0, 0)
+    assertEquals(90f, stats.rtt, 0.01f)
+    assertEquals(50f, stats.rttVariance, 0.01f)
+    assertEquals(8000 + 8000, stats.receivingRate)
+    assertEquals(8000, stats.availableBuffer)
+    assertEquals(5000, stats.estimatedLinkCapacity)
+    assertEquals(1010, stats.timeStamp)
+  }
+
+  @Test
+  fun `GIVEN a light ack WHEN collect stats THEN ignore it`() {
+    val collector = SrtStatsCollector()
+    collector.onAck(createAck(rtt = 80_000), 1000)
+    assertFalse(collector.onAck(Ack(rtt = -1, availableBufferSize = -1), 3000))
+    assertEquals(80f, collector.createStats(0, 0, 0, 0, 0).rtt, 0.01f)
+  }
+
+  @Test
+  fun `GIVEN packets lost WHEN stats interval ends THEN calculate packet loss and notify`() {
+    val collector = SrtStatsCollector()
+    assertFalse(collector.onAck(createAck(rtt = 80_000), 1000))
+    for (i in 0 until 100) collector.onPacketSent()
+    collector.onNak(10)
+    collector.onNak(5)
+    collector.onPacketRetransmitted()
+    assertFalse(collector.onAck(createAck(rtt = 80_000), 1500))
+    assertTrue(collector.onAck(createAck(rtt = 80_000), 2000))
+    val stats = collector.createStats(3, 1000, 20, 2, 5_000_000)
+    assertEquals(15f, stats.packetLoss, 0.01f)
+    assertEquals(100, stats.packetsSent)
+    assertEquals(2, stats.naksReceived)
+    assertEquals(15, stats.packetsLost)
+    assertEquals(1, stats.packetsRetransmitted)
+    assertEquals(20, stats.packetsInFlight)
+    assertEquals(2, stats.itemsInCache)
+    assertTrue(collector.hasPacketLoss(10f, 2000))
+    assertFalse(collector.hasPacketLoss(20f, 2000))
+    //no ACK received recently
+    assertFalse(collector.hasPacketLoss(10f, 5000))
+  }
+}
\ No newline at end of file
@@ -23,6 +23,7 @@ import com.pedro.srt.srt.packets.control.handshake.HandshakeType
 import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionContentFlag
 import com.pedro.srt.srt.packets.control.handshake.extension.HandshakeExtension
 import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
 import org.junit.Test
 import java.io.ByteArrayInputStream
 
@@ -58,4 +59,15 @@ class HandshakeTest {
 
     Utils.assertObjectEquals(expectedPacket, packet)
   }
+
+  @Test
+  fun `GIVEN a buffer with handshake response extension WHEN read buffer as handshake packet THEN get peer latency`() {
+    val buffer = byteArrayOf(-128, 0, 0, 0, 0, 0, 0, 0, 0, 0, 9, -60, 0, 0, 0, 64, 0, 0, 0, 5, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 5, -36, 0, 0, 32, 0, -1, -1, -1, -1, 45, 116, -9, 30, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+      0, 2, 0, 3, 0, 1, 5, 3, 0, 0, 0, 63, 0, -56, 0, 0)
+    val packet = Handshake()
+    packet.read(ByteArrayInputStream(buffer))
+
+    assertEquals(200, packet.peerLatency)
+    assertEquals(63, packet.peerFlags)
+  }
 }
\ No newline at end of file
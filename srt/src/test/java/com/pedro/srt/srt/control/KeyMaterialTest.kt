@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.srt.control
+
+import com.pedro.srt.srt.packets.SrtPacket
+import com.pedro.srt.srt.packets.control.KeyMaterial
+import com.pedro.srt.srt.packets.control.handshake.extension.ExtensionType
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class KeyMaterialTest {
+
+  @Test
+  fun `GIVEN a key material request WHEN write packet in a buffer THEN get user defined packet with subtype`() {
+    val expectedData = byteArrayOf(-1, -1, 0, 3, 0, 0, 0, 0, 0, 0, 9, -60, 0, 0, 0, 64, 1, 2, 3, 4)
+    val keyMaterial = KeyMaterial(keyMaterial = byteArrayOf(1, 2, 3, 4))
+    keyMaterial.write(2500, 0x40)
+
+    assertArrayEquals(expectedData, keyMaterial.getData())
+  }
+
+  @Test
+  fun `GIVEN a key material response buffer WHEN read buffer THEN get key material response`() {
+    val buffer = byteArrayOf(-1, -1, 0, 4, 0, 0, 0, 0, 0, 0, 9, -60, 0, 0, 0, 64, 0, 0, 0, 4)
+    val packet = SrtPacket.getSrtPacket(buffer)
+
+    assertTrue(packet is KeyMaterial)
+    val keyMaterial = packet as KeyMaterial
+    assertEquals(ExtensionType.SRT_CMD_KM_RSP, keyMaterial.type)
+    assertTrue(keyMaterial.isError())
+  }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 pedroSG94.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pedro.srt.utils
+
+import com.pedro.srt.srt.packets.control.handshake.EncryptionType
+import com.pedro.srt.srt.packets.data.KeyBasedEncryption
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+import javax.crypto.Cipher
+import javax.crypto.SecretKeyFactory
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.PBEKeySpec
+import javax.crypto.spec.SecretKeySpec
+import kotlin.experimental.xor
+
+/**
+ * Created by pedro on 18/10/26.
+ */
+class EncryptionUtilTest {
+
+  private val passphrase = "passphrase1234"
+
+  private fun unwrapKeys(encryptInfo: EncryptInfo): ByteArray {
+    val kek = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1").generateSecret(
+      PBEKeySpec(passphrase.toCharArray(), encryptInfo.salt.sliceArray(8 until 16), 2048, encryptInfo.keyLength * 8)
+    ).encoded
+    val cipher = Cipher.getInstance("AESWrap")
+    cipher.init(Cipher.UNWRAP_MODE, SecretKeySpec(kek, "AES"))
+    return cipher.unwrap(encryptInfo.key, "AES", Cipher.SECRET_KEY).encoded
+  }
+
+  private fun decrypt(sek: ByteArray, salt: ByteArray, payload: ByteArray, sequence: Int): ByteArray {
+    val ctr = ByteArray(16)
+    ByteBuffer.wrap(ctr, 10, 4).putInt(sequence)
+    for (i in 0 until 14) ctr[i] = ctr[i] xor salt[i]
+    val cipher = Cipher.getInstance("AES/CTR/NoPadding")
+    cipher.init(Cipher.DECRYPT_MODE, SecretKeySpec(sek, "AES"), IvParameterSpec(ctr))
+    return cipher.doFinal(payload)
+  }
+
+  @Test
+  fun `GIVEN a payload WHEN encrypt in place THEN get same result than AES CTR`() {
+    val encryptionUtil = EncryptionUtil(EncryptionType.AES128, passphrase)
+    val encryptInfo = encryptionUtil.getEncryptInfo()
+    val sek = unwrapKeys(encryptInfo)
+    val payload = ByteArray(1316) { it.toByte() }
+    val sequence = 0x12345678
+    //CTR is symmetric, encrypt and decrypt are the same operation
+    val expected = decrypt(sek, encryptInfo.salt, payload, sequence)
+
+    val buffer = ByteArray(16 + payload.size)
+    System.arraycopy(payload, 0, buffer, 16, payload.size)
+    encryptionUtil.encrypt(buffer, 16, payload.size, sequence)
+    assertArrayEquals(expected, buffer.sliceArray(16 until buffer.size))
+    assertEquals(0.toByte(), buffer[0])
+  }
+
+  @Test
+  fun `GIVEN a key refresh rate WHEN encrypt packets THEN announce, switch and decommission keys`() {
+    val encryptionUtil = EncryptionUtil(EncryptionType.AES128, passphrase)
+    encryptionUtil.setKeyRefreshRate(10, 2)
+    val buffer = ByteArray(16)
+    val events = mutableListOf<Int>()
+    for (i in 1..14) {
+      if (encryptionUtil.encrypt(buffer, 0, buffer.size, i)) events.add(i)
+      if (i == 8) {
+        val encryptInfo = encryptionUtil.getEncryptInfo()
+        assertEquals(KeyBasedEncryption.BOTH_KEYS, encryptInfo.keyBasedEncryption)
+        assertEquals(32, unwrapKeys(encryptInfo).size)
+      }
+    }
+    //announced 2 packets before switch at 10 and decommissioned 2 packets after
+    assertEquals(listOf(8, 12), events)
+    assertEquals(KeyBasedEncryption.ODD_KEY, encryptionUtil.activeKey)
+    assertEquals(KeyBasedEncryption.ODD_KEY, encryptionUtil.getEncryptInfo().keyBasedEncryption)
+  }
+
+  @Test
+  fun `GIVEN both keys WHEN switch key THEN encrypt with the announced key`() {
+    val encryptionUtil = EncryptionUtil(EncryptionType.AES128, passphrase)
+    encryptionUtil.setKeyRefreshRate(10, 2)
+    val buffer = ByteArray(16)
+    for (i in 1..8) encryptionUtil.encrypt(buffer, 0, buffer.size, i)
+    val oddKey = unwrapKeys(encryptionUtil.getEncryptInfo()).sliceArray(16 until 32)
+    for (i in 9..10) encryptionUtil.encrypt(buffer, 0, buffer.size, i)
+    assertEquals(KeyBasedEncryption.ODD_KEY, encryptionUtil.activeKey)
+
+    val payload = ByteArray(16)
+    encryptionUtil.encrypt(payload, 0, payload.size, 11)
+    val decrypted = decrypt(oddKey, encryptionUtil.getEncryptInfo().salt, payload, 11)
+    assertArrayEquals(ByteArray(16), decrypted)
+  }
+
+  @Test(expected = IllegalArgumentException::class)
+  fun `GIVEN a pre announce bigger than half refresh rate WHEN set key refresh rate THEN throw exception`() {
+    val encryptionUtil = EncryptionUtil(EncryptionType.AES128, passphrase)
+    encryptionUtil.setKeyRefreshRate(10, 5)
+  }
+}
\ No newline at end of file